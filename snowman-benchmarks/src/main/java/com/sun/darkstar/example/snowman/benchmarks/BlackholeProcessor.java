@@ -0,0 +1,184 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.benchmarks;
+
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.darkstar.example.snowman.common.protocol.messages.Snapshot;
+import com.sun.darkstar.example.snowman.common.protocol.processor.IClientProcessor;
+import com.sun.darkstar.example.snowman.common.protocol.processor.IServerProcessor;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A processor for both sides of the protocol that hands every decoded
+ * field to a {@code Blackhole}, so that decoding cannot be optimized away.
+ */
+class BlackholeProcessor implements IClientProcessor, IServerProcessor {
+
+    private final Blackhole hole;
+
+    BlackholeProcessor(Blackhole hole) {
+        this.hole = hole;
+    }
+
+    /** {@inheritDoc} */
+    public void ready() {
+        hole.consume(true);
+    }
+
+    /** {@inheritDoc} */
+    public void newGame(int myID, String mapname) {
+        hole.consume(myID);
+        hole.consume(mapname);
+    }
+
+    /** {@inheritDoc} */
+    public void startGame() {
+        hole.consume(true);
+    }
+
+    /** {@inheritDoc} */
+    public void endGame(EEndState endState) {
+        hole.consume(endState);
+    }
+
+    /** {@inheritDoc} */
+    public void addMOB(int objectID, float x, float y, EMOBType objType,
+                       ETeamColor team, String mobName) {
+        hole.consume(objectID);
+        hole.consume(x);
+        hole.consume(y);
+        hole.consume(objType);
+        hole.consume(team);
+        hole.consume(mobName);
+    }
+
+    /** {@inheritDoc} */
+    public void moveMOB(int objectID, float startx, float starty,
+                        float endx, float endy) {
+        hole.consume(objectID);
+        hole.consume(startx);
+        hole.consume(starty);
+        hole.consume(endx);
+        hole.consume(endy);
+    }
+
+    /** {@inheritDoc} */
+    public void removeMOB(int objectID) {
+        hole.consume(objectID);
+    }
+
+    /** {@inheritDoc} */
+    public void stopMOB(int objectID, float x, float y) {
+        hole.consume(objectID);
+        hole.consume(x);
+        hole.consume(y);
+    }
+
+    /** {@inheritDoc} */
+    public void attachObject(int sourceID, int targetID) {
+        hole.consume(sourceID);
+        hole.consume(targetID);
+    }
+
+    /** {@inheritDoc} */
+    public void attacked(int sourceID, int targetID, int hp) {
+        hole.consume(sourceID);
+        hole.consume(targetID);
+        hole.consume(hp);
+    }
+
+    /** {@inheritDoc} */
+    public void respawn(int objectID, float x, float y) {
+        hole.consume(objectID);
+        hole.consume(x);
+        hole.consume(y);
+    }
+
+    /** {@inheritDoc} */
+    public void chatMessage(int sourceID, String message) {
+        hole.consume(sourceID);
+        hole.consume(message);
+    }
+
+    /** {@inheritDoc} */
+    public void snapshot(Snapshot delta) {
+        hole.consume(delta);
+    }
+
+    /** {@inheritDoc} */
+    public void moveMe(float x, float y, float endx, float endy) {
+        hole.consume(x);
+        hole.consume(y);
+        hole.consume(endx);
+        hole.consume(endy);
+    }
+
+    /** {@inheritDoc} */
+    public void attack(int targetID, float x, float y) {
+        hole.consume(targetID);
+        hole.consume(x);
+        hole.consume(y);
+    }
+
+    /** {@inheritDoc} */
+    public void getFlag(int flagID, float x, float y) {
+        hole.consume(flagID);
+        hole.consume(x);
+        hole.consume(y);
+    }
+
+    /** {@inheritDoc} */
+    public void score(float x, float y) {
+        hole.consume(x);
+        hole.consume(y);
+    }
+
+    /** {@inheritDoc} */
+    public void chatMessage(String message) {
+        hole.consume(message);
+    }
+
+    /** {@inheritDoc} */
+    public void protocolVersion(int version) {
+        hole.consume(version);
+    }
+
+    /** {@inheritDoc} */
+    public void snapshotAck(int sequence) {
+        hole.consume(sequence);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.benchmarks;
+
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EOPCODE;
+import com.sun.darkstar.example.snowman.common.protocol.handlers.MessageHandler;
+import com.sun.darkstar.example.snowman.common.protocol.messages.ClientMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks encoding every packet sent by a client and decoding it on
+ * the server with each {@code MessageHandler}, including the
+ * {@link BaselineMessageHandler} that predates the lookup tables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClientProtocolBenchmark {
+
+    @Param({"MOVEME", "ATTACK", "GETFLAG", "SCORE", "READY", "CHAT",
+            "VERSION"})
+    public String opcode;
+
+    @Param({"default", "flyweight", "baseline"})
+    public String handler;
+
+    private EOPCODE code;
+    private MessageHandler messageHandler;
+    private ByteBuffer packet;
+    private BlackholeProcessor processor;
+
+    @Setup
+    public void setUp(Blackhole hole) {
+        code = EOPCODE.valueOf(opcode);
+        messageHandler = ServerProtocolBenchmark.createHandler(handler);
+        processor = new BlackholeProcessor(hole);
+        packet = create();
+    }
+
+    @Benchmark
+    public ByteBuffer create() {
+        switch (code) {
+            case MOVEME:
+                return ClientMessages.createMoveMePkt(10.0f, 20.0f, 30.0f, 40.0f);
+            case ATTACK:
+                return ClientMessages.createAttackPkt(1, 10.0f, 20.0f);
+            case GETFLAG:
+                return ClientMessages.createGetFlagPkt(1, 10.0f, 20.0f);
+            case SCORE:
+                return ClientMessages.createScorePkt(10.0f, 20.0f);
+            case READY:
+                return ClientMessages.createReadyPkt();
+            case CHAT:
+                return ClientMessages.createChatPkt("hello");
+            case VERSION:
+                return ClientMessages.createVersionPkt(WireFormat.COMPACT_VERSION);
+            default:
+                throw new IllegalStateException("Not a client opcode " + code);
+        }
+    }
+
+    @Benchmark
+    public void decode() {
+        packet.rewind();
+        messageHandler.parseServerPacket(packet, processor);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.benchmarks;
+
+import com.jme.scene.Spatial;
+import com.jme.system.DisplaySystem;
+import com.jme.system.dummy.DummySystemProvider;
+import com.sun.darkstar.example.snowman.common.util.CollisionManager;
+import com.sun.darkstar.example.snowman.common.util.CollisionMesh;
+import com.sun.darkstar.example.snowman.common.util.OccupancyGrid;
+import com.sun.darkstar.example.snowman.common.util.SingletonRegistry;
+import com.sun.darkstar.example.snowman.common.util.enumn.EStats;
+import com.sun.darkstar.example.snowman.common.util.enumn.EWorld;
+import com.sun.darkstar.example.snowman.server.service.GameWorldServiceImpl;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the collision queries made by the server for every move and
+ * every attack against the real Battle world, using the jME scene graph,
+ * the baked triangle mesh and the baked occupancy grid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CollisionBenchmark {
+
+    /** Number of precomputed segments cycled through by the queries */
+    private static final int SEGMENTS = 1024;
+
+    @Param({"spatial", "mesh", "grid"})
+    public String geometry;
+
+    private CollisionManager collisionManager;
+    private Spatial world;
+    private CollisionMesh mesh;
+    private OccupancyGrid grid;
+    private final float[] segments = new float[SEGMENTS * 4];
+    private final float[] destination = new float[2];
+    private int next;
+
+    /** The world, loaded once since the display system can only be set once */
+    private static Spatial battle;
+
+    private static synchronized Spatial getBattle() {
+        if (battle == null) {
+            //create dummy display system so that the JME importer doesn't complain
+            DisplaySystem.setSystemProvider(new DummySystemProvider());
+            battle = SingletonRegistry.getDataImporter().getWorld(EWorld.Battle);
+            battle.updateGeometricState(0, false);
+        }
+        return battle;
+    }
+
+    @Setup
+    public void setUp() {
+        world = getBattle();
+        collisionManager = SingletonRegistry.getCollisionManager();
+        mesh = new CollisionMesh(world);
+        grid = new OccupancyGrid(mesh,
+                                 new float[]{EStats.SnowmanHeight.getValue() / 2.0f,
+                                             EStats.SnowballHeight.getValue()},
+                                 GameWorldServiceImpl.DEFAULT_GRID_RESOLUTION);
+
+        //random segments within the map, the same ones on every run
+        float width = world.getWorldBound().getCenter().getX() * 2.0f;
+        float depth = world.getWorldBound().getCenter().getZ() * 2.0f;
+        Random random = new Random(42);
+        for (int i = 0; i < segments.length; i += 2) {
+            segments[i] = random.nextFloat() * width;
+            segments[i + 1] = random.nextFloat() * depth;
+        }
+    }
+
+    @Benchmark
+    public float getDestination() {
+        int i = nextSegment();
+        if ("spatial".equals(geometry)) {
+            return collisionManager.getDestination(segments[i], segments[i + 1],
+                                                   segments[i + 2], segments[i + 3],
+                                                   world).getX();
+        }
+        collisionManager.getDestination(segments[i], segments[i + 1],
+                                        segments[i + 2], segments[i + 3],
+                                        "mesh".equals(geometry) ? mesh : grid,
+                                        destination);
+        return destination[0];
+    }
+
+    @Benchmark
+    public boolean validate() {
+        int i = nextSegment();
+        if ("spatial".equals(geometry)) {
+            return collisionManager.validate(segments[i], segments[i + 1],
+                                             segments[i + 2], segments[i + 3],
+                                             world);
+        }
+        return collisionManager.validate(segments[i], segments[i + 1],
+                                         segments[i + 2], segments[i + 3],
+                                         "mesh".equals(geometry) ? mesh : grid);
+    }
+
+    private int nextSegment() {
+        int i = next;
+        next = (next + 4) % segments.length;
+        return i;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.benchmarks;
+
+import com.sun.darkstar.example.snowman.clientsimulator.HeadlessSimulator;
+import com.sun.darkstar.example.snowman.clientsimulator.LoadProfile;
+import com.sun.darkstar.example.snowman.server.SnowmanServer;
+import com.sun.darkstar.example.snowman.server.service.GameWorldManagerImpl;
+import com.sun.darkstar.example.snowman.server.service.GameWorldServiceImpl;
+import com.sun.sgs.impl.kernel.Kernel;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs an end to end load test in a single virtual machine: boots a
+ * single node snowman server, with its {@link GameWorldServiceImpl}, on a
+ * loopback port, runs a {@link HeadlessSimulator} population following a
+ * {@link LoadProfile} against it, logs the client side metrics of the
+ * simulator along with the server side task metrics of a
+ * {@link ServerTaskListener}, and exits, shutting the server down.  The
+ * server uses the Berkeley DB Java edition, so that no native libraries,
+ * installed server or separately launched node are needed.  Besides the
+ * properties of the simulator, it supports the following properties: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	serverRoot
+ *	</b></code><br>
+ *	<i>Default:</i> {@code snowman-load-test} in the temporary directory
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies the directory holding the data store of the server,
+ *      which is emptied before every run.  An existing directory is only
+ *      emptied if the harness created it, which it marks with a
+ *      {@code .snowman-load-test} file, so that a mistyped directory is
+ *      left alone.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	serverPort
+ *	</b></code><br>
+ *	<i>Default:</i> a free port
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies the port the server listens on.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	serverStartTimeout
+ *	</b></code><br>
+ *	<i>Default:</i> 60
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies the number of seconds to wait for the server to accept
+ *      connections.<p>
+ * </dl> <p>
+ *
+ * Since the server and the players share the virtual machine, the
+ * processor and garbage collection figures logged at the end are those of
+ * both.
+ */
+public class LoadTestHarness {
+
+    static private final Logger logger = Logger.getLogger(
+            LoadTestHarness.class.getName());
+
+    /** Milliseconds between attempts to connect to the booting server */
+    private static final long POLL_PERIOD = 250L;
+    /** The file marking a server root as created by the harness */
+    private static final String MARKER = ".snowman-load-test";
+
+    private final LoadProfile profile;
+    private final File root;
+    private final int port;
+    private final long startTimeout;
+
+    /**
+     * Creates a harness running the given profile, configured from the
+     * system properties.
+     *
+     * @param profile the profile to run
+     * @throws IOException if no free port can be found
+     */
+    LoadTestHarness(LoadProfile profile) throws IOException {
+        this.profile = profile;
+        root = new File(System.getProperty("serverRoot",
+                new File(System.getProperty("java.io.tmpdir"),
+                         "snowman-load-test").getPath()));
+        int p = Integer.getInteger("serverPort", 0);
+        port = p > 0 ? p : getFreePort();
+        startTimeout = Integer.getInteger("serverStartTimeout", 60) * 1000L;
+    }
+
+    /**
+     * Boots the server, runs the profile against it and logs the metrics
+     * collected.
+     *
+     * @throws Exception if the server does not start, or an error occurs
+     * running the profile
+     */
+    void run() throws Exception {
+        File config = configure();
+        logger.log(Level.INFO, "Booting server on port {0} in {1}",
+                   new Object[]{port, root});
+        boot(config);
+
+        System.setProperty("host", "localhost");
+        System.setProperty("port", Integer.toString(port));
+        new HeadlessSimulator(profile).run();
+
+        ServerTaskListener listener = ServerTaskListener.getInstance();
+        if (listener != null) {
+            listener.summarize();
+        }
+        logVirtualMachine();
+    }
+
+    // Empty the data directory and write the server properties into it
+    private File configure() throws IOException {
+        String[] existing = root.list();
+        if (existing != null && existing.length > 0) {
+            if (!new File(root, MARKER).isFile()) {
+                throw new IOException("Not emptying " + root + 
+                                      ", which was not created by the " +
+                                      "harness");
+            }
+            delete(root);
+        }
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Unable to create " + root);
+        }
+        if (!new File(root, MARKER).createNewFile()) {
+            throw new IOException("Unable to mark " + root);
+        }
+        File dsdb = new File(root, "dsdb");
+        if (!dsdb.mkdirs()) {
+            throw new IOException("Unable to create " + dsdb);
+        }
+
+        Properties props = new Properties();
+        InputStream in = SnowmanServer.class.getResourceAsStream(
+                "/META-INF/app.properties");
+        if (in != null) {
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        props.setProperty("com.sun.sgs.app.name", "ProjectSnowman");
+        props.setProperty("com.sun.sgs.app.listener",
+                          SnowmanServer.class.getName());
+        props.setProperty("com.sun.sgs.app.root", root.getPath());
+        props.setProperty("com.sun.sgs.node.type", "singleNode");
+        props.setProperty("com.sun.sgs.impl.transport.tcp.listen.port",
+                          Integer.toString(port));
+        props.setProperty("com.sun.sgs.services",
+                          GameWorldServiceImpl.class.getName());
+        props.setProperty("com.sun.sgs.managers",
+                          GameWorldManagerImpl.class.getName());
+        props.setProperty(
+                "com.sun.sgs.impl.service.data.store.db.environment.class",
+                "com.sun.sgs.impl.service.data.store.db.je.JeEnvironment");
+        props.setProperty("com.sun.sgs.impl.kernel.profile.listeners",
+                          ServerTaskListener.class.getName());
+
+        File config = new File(root, "app.properties");
+        OutputStream out = new FileOutputStream(config);
+        try {
+            props.store(out, "Generated by " + getClass().getName());
+        } finally {
+            out.close();
+        }
+        return config;
+    }
+
+    // Start the kernel, and wait for it to accept connections
+    private void boot(final File config) throws Exception {
+        final Exception[] failure = new Exception[1];
+        Thread boot = new Thread("ServerBoot") {
+            @Override
+            public void run() {
+                try {
+                    Kernel.main(new String[]{config.getPath()});
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        boot.setDaemon(true);
+        boot.start();
+
+        long deadline = System.currentTimeMillis() + startTimeout;
+        while (true) {
+            if (failure[0] != null) {
+                throw new Exception("Server failed to start", failure[0]);
+            }
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress("localhost", port),
+                               (int) POLL_PERIOD);
+                logger.log(Level.INFO, "Server accepting connections");
+                return;
+            } catch (IOException notYet) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new Exception("Server did not start within " +
+                                        startTimeout + "ms");
+                }
+                Thread.sleep(POLL_PERIOD);
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    // Log the use of the processors and memory over the whole run
+    private void logVirtualMachine() {
+        long collections = 0;
+        long collectionTime = 0;
+        for (GarbageCollectorMXBean gc :
+                 ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            collections += Math.max(gc.getCollectionCount(), 0L);
+            collectionTime += Math.max(gc.getCollectionTime(), 0L);
+        }
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        logger.log(Level.INFO, "Virtual machine uptime={0}ms gc={1} " +
+                   "gcTime={2}ms peakHeap={3}MB peakThreads={4}",
+                   new Object[]{uptime, collections, collectionTime,
+                                peakHeap >> 20, threads.getPeakThreadCount()});
+    }
+
+    private static int getFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete " + file);
+        }
+    }
+
+    /**
+     * Main.
+     * @param args the name of a {@link LoadProfile} file. See class
+     * description for the list of properties supported.
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: LoadTestHarness <load profile>");
+            System.exit(1);
+        }
+        int status = 0;
+        try {
+            new LoadTestHarness(LoadProfile.load(args[0])).run();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Load test failed", e);
+            status = 1;
+        }
+        // the kernel has no public shutdown, so take it down with the VM
+        System.exit(status);
+    }
+}
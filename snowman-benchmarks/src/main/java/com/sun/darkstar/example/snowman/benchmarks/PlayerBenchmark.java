@@ -0,0 +1,103 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.benchmarks;
+
+import com.sun.darkstar.example.snowman.common.util.Coordinate;
+import com.sun.darkstar.example.snowman.server.impl.SnowmanPlayerImpl;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the position extrapolation the server runs for every packet
+ * received from a player, both while the player is on its way and once
+ * it has arrived, with and without creating a {@code Coordinate}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlayerBenchmark {
+
+    @Param({"moving", "arrived", "stopped"})
+    public String movement;
+
+    private SnowmanPlayerImpl player;
+    private long time;
+    private final float[] position = new float[2];
+
+    @Setup
+    public void setUp() throws Exception {
+        //a robot player needs no session, so no AppContext either
+        player = new SnowmanPlayerImpl("benchmark", null);
+        player.setLocation(10.0f, 10.0f);
+        if (!"stopped".equals(movement)) {
+            set("destX", 40.0f);
+            set("destY", 50.0f);
+            set("timestamp", 0L);
+            Field state = SnowmanPlayerImpl.class.getDeclaredField("state");
+            state.setAccessible(true);
+            for (Object value : state.getType().getEnumConstants()) {
+                if ("MOVING".equals(value.toString())) {
+                    state.set(player, value);
+                }
+            }
+        }
+        time = "arrived".equals(movement) ? Long.MAX_VALUE / 2 : 1;
+    }
+
+    @Benchmark
+    public Coordinate getExpectedPositionAtTime() {
+        return player.getExpectedPositionAtTime(time);
+    }
+
+    @Benchmark
+    public float[] getExpectedPositionIntoArray() {
+        player.getExpectedPositionAtTime(time, position);
+        return position;
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = SnowmanPlayerImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(player, value);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.benchmarks;
+
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EOPCODE;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.darkstar.example.snowman.common.protocol.handlers.MessageHandler;
+import com.sun.darkstar.example.snowman.common.protocol.handlers.MessageHandlerImpl;
+import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks encoding every packet sent by the server, in each
+ * {@code WireFormat}, and decoding it on the client with each
+ * {@code MessageHandler}, including the {@link BaselineMessageHandler}
+ * that predates the lookup tables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ServerProtocolBenchmark {
+
+    @Param({"NEWGAME", "STARTGAME", "ENDGAME", "ADDMOB", "REMOVEMOB",
+            "MOVEMOB", "STOPMOB", "ATTACHOBJ", "ATTACKED", "RESPAWN",
+            "READY", "CHAT", "BATCH"})
+    public String opcode;
+
+    @Param({"standard", "compact"})
+    public String format;
+
+    @Param({"default", "flyweight", "baseline"})
+    public String handler;
+
+    private EOPCODE code;
+    private WireFormat wireFormat;
+    private MessageHandler messageHandler;
+    private List<byte[]> records;
+    private ByteBuffer packet;
+    private BlackholeProcessor processor;
+
+    @Setup
+    public void setUp(Blackhole hole) {
+        code = EOPCODE.valueOf(opcode);
+        wireFormat = "compact".equals(format) 
+                ? WireFormat.compact(128.0f, 128.0f) : WireFormat.STANDARD;
+        messageHandler = createHandler(handler);
+        processor = new BlackholeProcessor(hole);
+
+        //a tick worth of movement, as batched by a game
+        records = new ArrayList<byte[]>();
+        for (int i = 0; i < 8; i++) {
+            records.add(ServerMessages.createMoveMOBPkt(
+                    wireFormat, i, 10.0f, 20.0f, 30.0f, 40.0f).array());
+        }
+
+        ByteBuffer encoded = encode(ServerMessages.getScratchBuffer());
+        packet = ByteBuffer.allocate(encoded.remaining());
+        packet.put(encoded);
+        packet.flip();
+
+        //the handler needs a compact NEWGAME before other compact packets
+        messageHandler.parseClientPacket(
+                ServerMessages.createNewGamePkt(wireFormat, 1, "default_map"),
+                processor);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        return encode(ServerMessages.getScratchBuffer());
+    }
+
+    @Benchmark
+    public ByteBuffer create() {
+        switch (code) {
+            case NEWGAME:
+                return ServerMessages.createNewGamePkt(wireFormat, 1, "default_map");
+            case STARTGAME:
+                return ServerMessages.createStartGamePkt(wireFormat);
+            case ENDGAME:
+                return ServerMessages.createEndGamePkt(wireFormat, EEndState.RedWin);
+            case ADDMOB:
+                return ServerMessages.createAddMOBPkt(wireFormat, 1, 10.0f, 20.0f, 
+                        EMOBType.SNOWMAN, ETeamColor.Red, "player");
+            case REMOVEMOB:
+                return ServerMessages.createRemoveMOBPkt(wireFormat, 1);
+            case MOVEMOB:
+                return ServerMessages.createMoveMOBPkt(wireFormat, 1, 10.0f, 20.0f, 30.0f, 40.0f);
+            case STOPMOB:
+                return ServerMessages.createStopMOBPkt(wireFormat, 1, 10.0f, 20.0f);
+            case ATTACHOBJ:
+                return ServerMessages.createAttachObjPkt(wireFormat, 1, 2);
+            case ATTACKED:
+                return ServerMessages.createAttackedPkt(wireFormat, 1, 2, 10);
+            case RESPAWN:
+                return ServerMessages.createRespawnPkt(wireFormat, 1, 10.0f, 20.0f);
+            case READY:
+                return ServerMessages.createReadyPkt();
+            case CHAT:
+                return ServerMessages.createChatPkt(wireFormat, 1, "hello");
+            case BATCH:
+                return ServerMessages.createBatchPkt(records);
+            default:
+                throw new IllegalStateException("Not a server opcode " + code);
+        }
+    }
+
+    @Benchmark
+    public void decode() {
+        packet.rewind();
+        messageHandler.parseClientPacket(packet, processor);
+    }
+
+    /**
+     * Create the {@code MessageHandler} named by the {@code handler}
+     * parameter of a protocol benchmark.
+     * 
+     * @param handler the name of the handler
+     * @return the handler
+     */
+    static MessageHandler createHandler(String handler) {
+        if ("flyweight".equals(handler)) {
+            return MessageHandlerImpl.getFlyweightInstance();
+        } else if ("baseline".equals(handler)) {
+            return new BaselineMessageHandler();
+        }
+        return MessageHandlerImpl.getInstance();
+    }
+
+    private ByteBuffer encode(ByteBuffer buffer) {
+        switch (code) {
+            case NEWGAME:
+                return ServerMessages.encodeNewGamePkt(wireFormat, buffer, 1, "default_map");
+            case STARTGAME:
+                return ServerMessages.encodeStartGamePkt(wireFormat, buffer);
+            case ENDGAME:
+                return ServerMessages.encodeEndGamePkt(wireFormat, buffer, EEndState.RedWin);
+            case ADDMOB:
+                return ServerMessages.encodeAddMOBPkt(wireFormat, buffer, 1, 10.0f, 20.0f, 
+                        EMOBType.SNOWMAN, ETeamColor.Red, "player");
+            case REMOVEMOB:
+                return ServerMessages.encodeRemoveMOBPkt(wireFormat, buffer, 1);
+            case MOVEMOB:
+                return ServerMessages.encodeMoveMOBPkt(wireFormat, buffer, 1, 10.0f, 20.0f, 30.0f, 40.0f);
+            case STOPMOB:
+                return ServerMessages.encodeStopMOBPkt(wireFormat, buffer, 1, 10.0f, 20.0f);
+            case ATTACHOBJ:
+                return ServerMessages.encodeAttachObjPkt(wireFormat, buffer, 1, 2);
+            case ATTACKED:
+                return ServerMessages.encodeAttackedPkt(wireFormat, buffer, 1, 2, 10);
+            case RESPAWN:
+                return ServerMessages.encodeRespawnPkt(wireFormat, buffer, 1, 10.0f, 20.0f);
+            case READY:
+                //READY has no payload and no encoder of its own
+                buffer.put((byte) EOPCODE.READY.ordinal());
+                buffer.flip();
+                return buffer;
+            case CHAT:
+                return ServerMessages.encodeChatPkt(wireFormat, buffer, 1, "hello");
+            case BATCH:
+                return ServerMessages.encodeBatchPkt(buffer, records);
+            default:
+                throw new IllegalStateException("Not a server opcode " + code);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.benchmarks;
+
+import com.sun.darkstar.example.snowman.clientsimulator.LatencyHistogram;
+import com.sun.sgs.auth.Identity;
+import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.profile.ProfileListener;
+import com.sun.sgs.profile.ProfileReport;
+import java.beans.PropertyChangeEvent;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A profile listener which collects the throughput and latencies of the
+ * tasks run by an in-process server for the {@link LoadTestHarness}.  It is
+ * installed through the {@code com.sun.sgs.impl.kernel.profile.listeners}
+ * property, and reports every {@code metricsInterval} seconds how many
+ * tasks were run, failed and retried, and the percentiles of their queue
+ * delay and running time, in milliseconds.
+ */
+public class ServerTaskListener implements ProfileListener {
+
+    static private final Logger logger = Logger.getLogger(
+            ServerTaskListener.class.getName());
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    private static volatile ServerTaskListener instance = null;
+
+    private final LatencyHistogram running = new LatencyHistogram();
+    private final LatencyHistogram delay = new LatencyHistogram();
+    private final LatencyHistogram.Snapshot totalRunning = 
+            new LatencyHistogram.Snapshot();
+    private final LatencyHistogram.Snapshot totalDelay = 
+            new LatencyHistogram.Snapshot();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final ConcurrentHashMap<String, AtomicLong> types =
+            new ConcurrentHashMap<String, AtomicLong>();
+    private final long interval;
+    private final Thread reporter;
+    private long lastReport = System.currentTimeMillis();
+    private long lastFailed = 0;
+    private long lastRetries = 0;
+
+    /**
+     * Creates the listener.  Called by the kernel.
+     *
+     * @param properties the properties of the server
+     * @param owner the identity of the kernel
+     * @param registry the components of the kernel
+     */
+    public ServerTaskListener(Properties properties, Identity owner,
+                              ComponentRegistry registry) {
+        interval = Math.max(Integer.getInteger("metricsInterval", 10), 1) *
+                   1000L;
+        reporter = new Thread("ServerTaskListener") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        sleep(interval);
+                    } catch (InterruptedException ignore) {
+                        return;
+                    }
+                    report();
+                }
+            }
+        };
+        reporter.setDaemon(true);
+        reporter.start();
+        instance = this;
+    }
+
+    /**
+     * @return the listener installed in this virtual machine, or
+     * {@code null} if the server has not installed it
+     */
+    static ServerTaskListener getInstance() {
+        return instance;
+    }
+
+    /** {@inheritDoc} */
+    public void propertyChange(PropertyChangeEvent event) {
+        // the operations and counters registered are not used
+    }
+
+    /** {@inheritDoc} */
+    public void report(ProfileReport report) {
+        running.record(report.getRunningTime());
+        delay.record(Math.max(report.getActualStartTime() - 
+                              report.getScheduledStartTime(), 0L));
+        if (!report.wasTaskSuccessful()) {
+            failed.incrementAndGet();
+        }
+        if (report.getRetryCount() > 0) {
+            retries.addAndGet(report.getRetryCount());
+        }
+        String type = report.getTask().getBaseTaskType();
+        AtomicLong count = types.get(type);
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong previous = types.putIfAbsent(type, count);
+            if (previous != null) {
+                count = previous;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /** {@inheritDoc} */
+    public void shutdown() {
+        reporter.interrupt();
+    }
+
+    /**
+     * Logs the tasks run since the last report.
+     */
+    synchronized void report() {
+        long now = System.currentTimeMillis();
+        long period = Math.max(now - lastReport, 1L);
+        lastReport = now;
+        LatencyHistogram.Snapshot runningNow = running.drain();
+        LatencyHistogram.Snapshot delayNow = delay.drain();
+        totalRunning.add(runningNow);
+        totalDelay.add(delayNow);
+        long failedNow = failed.get();
+        long retriesNow = retries.get();
+        logger.log(Level.INFO, "Server {0} failed={1} retries={2} {3} {4}",
+                   new Object[]{
+                       String.format(Locale.US, "tasks=%.1f/s",
+                                     runningNow.getCount() * 1000.0 / period),
+                       failedNow - lastFailed, retriesNow - lastRetries,
+                       format("delay", delayNow),
+                       format("running", runningNow)});
+        lastFailed = failedNow;
+        lastRetries = retriesNow;
+    }
+
+    /**
+     * Stops reporting periodically, and logs the tasks run over the whole
+     * run, by task type.
+     */
+    synchronized void summarize() {
+        reporter.interrupt();
+        report();
+        logger.log(Level.INFO, "Server total tasks={0} failed={1} " +
+                   "retries={2} {3} {4}",
+                   new Object[]{totalRunning.getCount(), failed.get(),
+                                retries.get(), format("delay", totalDelay),
+                                format("running", totalRunning)});
+        for (Map.Entry<String, AtomicLong> entry : types.entrySet()) {
+            logger.log(Level.INFO, "Server total {0}={1}",
+                       new Object[]{entry.getKey(), entry.getValue().get()});
+        }
+    }
+
+    private static String format(String name,
+                                 LatencyHistogram.Snapshot snapshot) {
+        StringBuilder s = new StringBuilder(name);
+        s.append('[');
+        for (double p : PERCENTILES) {
+            s.append('p').append(p == Math.floor(p) ? 
+                     Integer.toString((int) p) : Double.toString(p));
+            s.append('=').append(snapshot.getValueAtPercentile(p));
+            s.append("ms ");
+        }
+        s.append("max=").append(snapshot.getMax()).append("ms]");
+        return s.toString();
+    }
+}
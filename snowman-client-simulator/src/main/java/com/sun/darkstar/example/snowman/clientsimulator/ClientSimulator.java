@@ -35,6 +35,8 @@
 package com.sun.darkstar.example.snowman.clientsimulator;
 
 import com.sun.darkstar.example.snowman.clientsimulator.SimulatedPlayer.PLAYERSTATE;
+import com.sun.darkstar.example.snowman.common.protocol.handlers.MessageHandlerImpl;
+import com.sun.darkstar.example.snowman.common.util.SingletonRegistry;
 import java.awt.Container;
 import java.awt.GridLayout;
 import java.awt.BorderLayout;
@@ -66,6 +68,10 @@ import javax.swing.SwingWorker;
 
 /**
  * Program which will start and stop multiple simulated snowman game players.
+ * When given the name of a {@link LoadProfile} file, the players are run by
+ * a {@link HeadlessSimulator} following the profile, without any window.
+ * Either way, response latencies and message rates are reported as
+ * described in {@link SimulatorMetrics}.
  * It supports the following properties: <p>
  *
  * <dl style="margin-left: 1em">
@@ -194,6 +200,10 @@ public class ClientSimulator extends JFrame implements ChangeListener {
         logger.log(Level.CONFIG, "Players to use server at {0}:{1} with timeout of {2}",
                    new Object[] {serverHost, serverPort, connectTimeout});
                 
+        // every simulated player decodes the same names, so share them
+        SingletonRegistry.setMessageHandler(
+                MessageHandlerImpl.getFlyweightInstance());
+                
         moveDelay = Integer.getInteger("moveDelay", 2000);
         logger.log(Level.CONFIG, "Move delay set to {0} milliseconds", moveDelay);
         
@@ -260,6 +270,7 @@ public class ClientSimulator extends JFrame implements ChangeListener {
         changeThread.execute();
         new MoveThread().start();
         new ProfileThread(profilePanel).start();
+        SimulatorMetrics.getInstance().start();
         setVisible(true);
     }
 
@@ -440,10 +451,21 @@ public class ClientSimulator extends JFrame implements ChangeListener {
 
     /**
      * Main.
-     * @param args no arguments supported. See class description for
-     * the list of properties supported.
+     * @param args either no arguments, to control the players from a
+     * window, or the name of a {@link LoadProfile} file to run it without
+     * any user interface. See class description for the list of properties
+     * supported.
      */
     public static void main(String[] args) throws Exception {
-        new ClientSimulator();
+        if (args.length == 0) {
+            new ClientSimulator();
+        } else if (args.length == 1) {
+            new HeadlessSimulator(LoadProfile.load(args[0])).run();
+            // the client library leaves threads running after logout
+            System.exit(0);
+        } else {
+            System.err.println("usage: ClientSimulator [profile]");
+            System.exit(1);
+        }
     }
 }
@@ -0,0 +1,267 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.clientsimulator;
+
+import com.sun.darkstar.example.snowman.clientsimulator.SimulatedPlayer.PLAYERSTATE;
+import com.sun.darkstar.example.snowman.common.protocol.handlers.MessageHandlerImpl;
+import com.sun.darkstar.example.snowman.common.util.SingletonRegistry;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs simulated players without a user interface, following a
+ * {@link LoadProfile}, for load tests run from scripts.  It is started by
+ * giving the name of a profile file to {@link ClientSimulator#main}, and
+ * exits once the profile has been run.  The benchmarks module also runs it
+ * against a server booted in the same virtual machine.
+ * <p>
+ * Players are driven by a fixed size pool of scheduler threads, each
+ * player being given a chance to move every quarter of the move delay,
+ * so the rate at which every player moves does not depend on the number
+ * of players.  Besides the properties of the {@link ClientSimulator}
+ * relating to the server and the players, it supports the following
+ * property: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	simulatorThreads
+ *	</b></code><br>
+ *	<i>Default:</i> the number of processors
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies the number of threads driving the players.<p>
+ * </dl> <p>
+ */
+public class HeadlessSimulator {
+
+    static private final Logger logger = Logger.getLogger(
+            HeadlessSimulator.class.getName());
+
+    /** Milliseconds between adjustments of the number of players */
+    private static final long ADJUST_PERIOD = 100L;
+    /** Milliseconds between status reports */
+    private static final long STATUS_PERIOD = 10 * 1000L;
+
+    private static final Random random = new Random();
+
+    private final LoadProfile profile;
+    private final String namePrefix;
+    private final String serverHost;
+    private final String serverPort;
+    private final String connectTimeout;
+    private final int moveDelay;
+    private final long moveTick;
+
+    private final ScheduledExecutorService executor;
+
+    /** The players, oldest first, which are the first to be removed */
+    private final Queue<SimulatedPlayer> players =
+            new ConcurrentLinkedQueue<SimulatedPlayer>();
+    private final Map<SimulatedPlayer, ScheduledFuture<?>> movers =
+            new ConcurrentHashMap<SimulatedPlayer, ScheduledFuture<?>>();
+
+    private long start;
+    private int userId = 0;
+
+    /**
+     * Creates a simulator that runs the given profile, configured from the
+     * system properties.
+     *
+     * @param profile the profile to run
+     */
+    public HeadlessSimulator(LoadProfile profile) {
+        this.profile = profile;
+
+        String hostname;
+        try {
+            hostname = InetAddress.getLocalHost().getHostName();
+        } catch(Exception e) {
+            hostname = "localhost";
+        }
+        namePrefix = hostname + "_" + Integer.getInteger("buildNumber", 0) + 
+                     "_Sim";
+
+        serverHost = System.getProperty("host", "localhost");
+        serverPort = System.getProperty("port", "3000");
+        int timeout = Integer.getInteger("connectTimeout", 5000);
+        if (timeout < 0) {
+            throw new IllegalArgumentException(
+                    "connectTimeout can not be negative");
+        }
+        connectTimeout = Integer.toString(timeout);
+        logger.log(Level.CONFIG, "Players to use server at {0}:{1} with timeout of {2}",
+                   new Object[] {serverHost, serverPort, connectTimeout});
+
+        moveDelay = Integer.getInteger("moveDelay", 2000);
+        moveTick = Math.max(moveDelay / 4, 10);
+        logger.log(Level.CONFIG, "Move delay set to {0} milliseconds", moveDelay);
+
+        int threads = Integer.getInteger("simulatorThreads",
+                Runtime.getRuntime().availableProcessors());
+        if (threads <= 0) {
+            throw new IllegalArgumentException(
+                    "simulatorThreads must be > 0");
+        }
+        executor = Executors.newScheduledThreadPool(threads);
+        logger.log(Level.CONFIG, "Players driven by {0} threads", threads);
+
+        // every simulated player decodes the same names, so share them
+        SingletonRegistry.setMessageHandler(
+                MessageHandlerImpl.getFlyweightInstance());
+    }
+
+    /**
+     * Runs the profile, returning once it is complete and every player
+     * has quit.
+     *
+     * @throws InterruptedException if interrupted while running
+     */
+    public void run() throws InterruptedException {
+        logger.log(Level.INFO, "Running load profile: {0}", profile);
+        start = System.currentTimeMillis();
+        SimulatorMetrics.getInstance().start();
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    adjust();
+                } catch (Throwable t) {
+                    logger.log(Level.SEVERE, "Exception adjusting players", t);
+                }
+            }
+        }, 0L, ADJUST_PERIOD, TimeUnit.MILLISECONDS);
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                report();
+            }
+        }, STATUS_PERIOD, STATUS_PERIOD, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(profile.getDuration());
+
+        executor.shutdownNow();
+        executor.awaitTermination(STATUS_PERIOD, TimeUnit.MILLISECONDS);
+        SimulatedPlayer player;
+        while ((player = players.poll()) != null) {
+            player.quit();
+        }
+        report();
+        SimulatorMetrics.getInstance().summarize();
+    }
+
+    // Add or remove players to follow the profile
+    private void adjust() {
+        int target = profile.getPlayers(System.currentTimeMillis() - start);
+        while (players.size() < target) {
+            addPlayer();
+        }
+        while (players.size() > target) {
+            SimulatedPlayer player = players.poll();
+            if (player == null) {
+                break;
+            }
+            removePlayer(player);
+            player.quit();
+        }
+    }
+
+    private void addPlayer() {
+        Properties properties = new Properties();
+        properties.setProperty("host", serverHost);
+        properties.setProperty("port", serverPort);
+        properties.setProperty("connectTimeout", connectTimeout);
+        properties.setProperty("name", namePrefix + userId++);
+        try {
+            final SimulatedPlayer player =
+                    new SimulatedPlayer(properties, moveDelay);
+            players.add(player);
+            //spread the players over the tick so they don't move together
+            movers.put(player, executor.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    move(player);
+                }
+            }, random.nextInt((int) moveTick), moveTick, TimeUnit.MILLISECONDS));
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE,
+                       "Exception creating simulated player",
+                       ex);
+        }
+    }
+
+    private void move(SimulatedPlayer player) {
+        try {
+            if (player.move() == PLAYERSTATE.Quit) {
+                players.remove(player);
+                removePlayer(player);
+            }
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Exception from player", ex);
+            player.quit();
+            players.remove(player);
+            removePlayer(player);
+        }
+    }
+
+    private void removePlayer(SimulatedPlayer player) {
+        ScheduledFuture<?> mover = movers.remove(player);
+        if (mover != null) {
+            mover.cancel(false);
+        }
+    }
+
+    private void report() {
+        int waiting = 0;
+        for (SimulatedPlayer player : players) {
+            if (player.isWaiting()) {
+                waiting++;
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        logger.log(Level.INFO,
+                   "{0}s: {1} players connected, {2} waiting, target {3}",
+                   new Object[]{elapsed / 1000, players.size(), waiting,
+                                profile.getPlayers(elapsed)});
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.clientsimulator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies that can be recorded to concurrently without
+ * locking, in the manner of HdrHistogram.  Values are counted exactly up to
+ * 127 and in log-linear buckets above that, each bucket being at most
+ * 1/64 of its value wide, so percentiles are reported to within about
+ * 1.5% at any magnitude with a fixed amount of memory.
+ */
+public final class LatencyHistogram {
+
+    /** Number of buckets sharing each power of two */
+    private static final int HALF = 64;
+    /** Largest shift of a value, beyond which values are clamped */
+    private static final int MAX_SHIFT = 40;
+    private static final int BUCKETS = HALF * (MAX_SHIFT + 2);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a value.
+     *
+     * @param value the non negative value to record
+     */
+    public void record(long value) {
+        counts.incrementAndGet(index(value));
+    }
+
+    /**
+     * Returns the values recorded since the last call, and starts
+     * counting from zero again.
+     *
+     * @return the recorded values
+     */
+    public Snapshot drain() {
+        long[] drained = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                drained[i] = counts.getAndSet(i, 0);
+            }
+        }
+        return new Snapshot(drained);
+    }
+
+    private static int index(long value) {
+        if (value < 2 * HALF) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        if (shift > MAX_SHIFT) {
+            return BUCKETS - 1;
+        }
+        return HALF * shift + (int) (value >>> shift);
+    }
+
+    // the highest value counted in the given bucket
+    private static long valueOf(int index) {
+        if (index < 2 * HALF) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        return ((long) (index - HALF * shift + 1) << shift) - 1;
+    }
+
+    /**
+     * The values recorded by a histogram over some period.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private long total;
+
+        public Snapshot() {
+            this(new long[BUCKETS]);
+        }
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            for (long count : counts) {
+                total += count;
+            }
+        }
+
+        /**
+         * Adds the values of the given snapshot to this one.
+         *
+         * @param other the snapshot to add
+         */
+        public void add(Snapshot other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+        }
+
+        /**
+         * @return the number of values
+         */
+        public long getCount() {
+            return total;
+        }
+
+        /**
+         * Returns the value below which the given percentage of the
+         * values fall, or zero if there are no values.
+         *
+         * @param percentile the percentage, from 0 to 100
+         * @return the value at the percentile
+         */
+        public long getValueAtPercentile(double percentile) {
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return valueOf(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return the largest value, or zero if there are no values
+         */
+        public long getMax() {
+            for (int i = BUCKETS - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return valueOf(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.clientsimulator;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * A load profile for the {@link HeadlessSimulator}, which gives the number
+ * of simulated players that should be connected at any time of a run.
+ * A run ramps the number of players up to the target along a curve, holds
+ * it there, and ramps it back down to zero.  A profile is read from a
+ * properties file supporting the following properties: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	targetPlayers
+ *	</b></code><br>
+ *	<i>Default:</i> required
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies the number of players connected once ramped up.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	rampUpTime
+ *	</b></code><br>
+ *	<i>Default:</i> 60
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies the number of seconds taken to reach the target.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	rampUpCurve
+ *	</b></code><br>
+ *	<i>Default:</i> {@code linear}
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies how players are added during the ramp up, one of
+ *      {@code linear}, {@code exponential}, which starts slowly and adds
+ *      most players at the end, or {@code step}, which adds all of them
+ *      at once.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	holdTime
+ *	</b></code><br>
+ *	<i>Default:</i> 300
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies the number of seconds the target is held for.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	rampDownTime
+ *	</b></code><br>
+ *	<i>Default:</i> 0
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies the number of seconds taken to linearly remove all of the
+ *      players at the end of the run.<p>
+ * </dl> <p>
+ */
+public class LoadProfile {
+
+    /**
+     * The shapes of the ramp up.
+     */
+    static enum Curve {
+        linear, exponential, step
+    }
+
+    /** Steepness of the exponential ramp up */
+    private static final double EXPONENT = 4.0;
+
+    private final int targetPlayers;
+    private final long rampUp;
+    private final Curve curve;
+    private final long hold;
+    private final long rampDown;
+
+    /**
+     * Creates a profile from the given properties.
+     *
+     * @param props the profile properties
+     * @throws IllegalArgumentException if a property is missing or invalid
+     */
+    public LoadProfile(Properties props) {
+        targetPlayers = getInteger(props, "targetPlayers", -1);
+        if (targetPlayers <= 0) {
+            throw new IllegalArgumentException("targetPlayers must be > 0");
+        }
+        rampUp = getInteger(props, "rampUpTime", 60) * 1000L;
+        hold = getInteger(props, "holdTime", 300) * 1000L;
+        rampDown = getInteger(props, "rampDownTime", 0) * 1000L;
+        if (rampUp < 0 || hold < 0 || rampDown < 0) {
+            throw new IllegalArgumentException("times must be >= 0");
+        }
+        curve = Curve.valueOf(props.getProperty("rampUpCurve", 
+                                                Curve.linear.name()));
+    }
+
+    /**
+     * Reads a profile from the given properties file.
+     *
+     * @param fileName name of the profile file
+     * @return the profile
+     * @throws IOException if the file cannot be read
+     */
+    public static LoadProfile load(String fileName) throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(fileName);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        return new LoadProfile(props);
+    }
+
+    /**
+     * Returns the number of players that should be connected at the
+     * given time into the run.
+     *
+     * @param elapsed milliseconds since the start of the run
+     * @return the number of players
+     */
+    public int getPlayers(long elapsed) {
+        if (elapsed < 0 || elapsed >= getDuration()) {
+            return 0;
+        }
+        if (elapsed < rampUp) {
+            double x = (double) elapsed / rampUp;
+            switch (curve) {
+                case exponential:
+                    x = (Math.exp(EXPONENT * x) - 1.0) / 
+                        (Math.exp(EXPONENT) - 1.0);
+                    break;
+                case step:
+                    x = 1.0;
+                    break;
+                default:
+                    break;
+            }
+            return (int) Math.ceil(targetPlayers * x);
+        }
+        long down = elapsed - rampUp - hold;
+        if (down < 0) {
+            return targetPlayers;
+        }
+        return (int) Math.ceil(targetPlayers * (1.0 - (double) down / rampDown));
+    }
+
+    /**
+     * @return the number of players held after ramping up
+     */
+    public int getTargetPlayers() {
+        return targetPlayers;
+    }
+
+    /**
+     * @return the total length of the run in milliseconds
+     */
+    public long getDuration() {
+        return rampUp + hold + rampDown;
+    }
+
+    @Override
+    public String toString() {
+        return targetPlayers + " players, " + curve + " ramp up over " +
+               rampUp / 1000 + "s, held for " + hold / 1000 + 
+               "s, ramp down over " + rampDown / 1000 + "s";
+    }
+
+    private static int getInteger(Properties props, String key, int def) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(key + " must be a number");
+        }
+    }
+}
@@ -39,6 +39,9 @@ import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
 import com.sun.darkstar.example.snowman.common.protocol.messages.ClientMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.Snapshot;
+import com.sun.darkstar.example.snowman.common.protocol.messages.SnapshotHistory;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import com.sun.darkstar.example.snowman.common.protocol.processor.IClientProcessor;
 import com.sun.darkstar.example.snowman.common.util.HPConverter;
 import com.sun.darkstar.example.snowman.common.util.SingletonRegistry;
@@ -82,6 +85,7 @@ class SimulatedPlayer implements SimpleClientListener {
     private final int moveDelay;
     private final SimpleClient simpleClient;
     private final IClientProcessor pktHandler;
+    private final SimulatorMetrics metrics = SimulatorMetrics.getInstance();
     
     // this players ID and team, provided by the server
     private int id;
@@ -102,6 +106,12 @@ class SimulatedPlayer implements SimpleClientListener {
 
     // (approximate) timestamp of the last move sent
     private long lastTimestamp;
+
+    // System.nanoTime of the requests whose responses are measured, or 0
+    private volatile long loginNanos;
+    private volatile long readyNanos;
+    private volatile long moveNanos;
+    private volatile long attackNanos;
     
     private static class Target {
         final int id;
@@ -117,6 +127,9 @@ class SimulatedPlayer implements SimpleClientListener {
     
     private Target target = null;
     
+    // snapshots received from the server, used as baselines for the next
+    private final SnapshotHistory snapshots = new SnapshotHistory();
+    
     // map player IDs to team
     private final Map<Integer, ETeamColor> players = new HashMap<Integer, ETeamColor>();
     
@@ -177,6 +190,7 @@ class SimulatedPlayer implements SimpleClientListener {
         state = PLAYERSTATE.LoggingIn;
         resetHitPoints();
         simpleClient = new SimpleClient(this);
+        loginNanos = System.nanoTime();
         simpleClient.login(props);
     }
     
@@ -188,6 +202,7 @@ class SimulatedPlayer implements SimpleClientListener {
                 logger.log(Level.FINE, "Ready message for {0}", name);
                 try{
                     Thread.sleep(2000); //TEMPORARY until real client sends READY message properly
+                    readyNanos = System.nanoTime();
                     send(ClientMessages.createReadyPkt());
                 } catch (Exception ioe) {
                     logger.log(Level.SEVERE, "" + name, ioe);
@@ -204,6 +219,11 @@ class SimulatedPlayer implements SimpleClientListener {
                 logger.log(Level.FINE, "New game for {0}, id is {1}",
                            new Object[] {name, myID});
                 id = myID;
+                long since = loginNanos;
+                if (since != 0) {
+                    loginNanos = 0;
+                    metrics.record(SimulatorMetrics.Latency.newgame, since);
+                }
             } else
                 logger.log(Level.WARNING, "Received newGame, but {0} is not paused",
                            name);
@@ -214,6 +234,11 @@ class SimulatedPlayer implements SimpleClientListener {
             if (setState(PLAYERSTATE.Playing)) {
                 logger.log(Level.FINE, "Start game for {0}", name);
                 lastTimestamp = System.currentTimeMillis();
+                long since = readyNanos;
+                if (since != 0) {
+                    readyNanos = 0;
+                    metrics.record(SimulatorMetrics.Latency.start, since);
+                }
             } else
                 logger.log(Level.WARNING, "Received start, but {0} has quit",
                            name);
@@ -254,6 +279,11 @@ class SimulatedPlayer implements SimpleClientListener {
                     logger.log(Level.FINEST,
                                "Updating {0} our position to {1},{2}",
                                new Object[] {name, endx, endy});
+                long since = moveNanos;
+                if (since != 0) {
+                    moveNanos = 0;
+                    metrics.record(SimulatorMetrics.Latency.move, since);
+                }
                 //reset destination position since we don't do collision detection
                 setDestination(endx, endy);
             } else {
@@ -305,6 +335,13 @@ class SimulatedPlayer implements SimpleClientListener {
         public void attacked(int sourceID, int targetID, int hp) {
             logger.log(Level.FINER, "Message to {0}: {1} attacked {2}, hp= {3}",
                        new Object[] {name, sourceID, targetID, hp});
+            if (sourceID == id) {
+                long since = attackNanos;
+                if (since != 0) {
+                    attackNanos = 0;
+                    metrics.record(SimulatorMetrics.Latency.attack, since);
+                }
+            }
             if ((targetID == id) && (hp >= 0))
                 setHitPoints(hp);
         }
@@ -332,6 +369,55 @@ class SimulatedPlayer implements SimpleClientListener {
                     logger.log(Level.FINEST, "received chat from {0}: {1}",
                                new Object[] {sourceID, message});
         }
+
+        @Override
+        public void snapshot(Snapshot delta) {
+            Snapshot state;
+            synchronized (snapshots) {
+                if (delta.getBaseline() == 0) {
+                    state = new Snapshot(0).apply(delta);
+                } else {
+                    Snapshot baseline = snapshots.get(delta.getBaseline());
+                    if (baseline == null) {
+                        logger.log(Level.FINER,
+                                   "Message to {0}: Snapshot {1} without baseline {2}",
+                                   new Object[] {name, delta.getSequence(),
+                                                 delta.getBaseline()});
+                        return;
+                    }
+                    state = baseline.apply(delta);
+                }
+                snapshots.add(state);
+            }
+            
+            // movements are the only changes not also sent as events
+            for (int d = 0; d < delta.size(); d++) {
+                if ((delta.getChanges(d) & 
+                        (Snapshot.POSITION | Snapshot.DESTINATION)) == 0) {
+                    continue;
+                }
+                int i = state.find(delta.getId(d));
+                if (i < 0 || state.getHitPoints(i) <= 0) {
+                    continue;
+                }
+                float x = state.getX(i);
+                float y = state.getY(i);
+                float endx = state.getDestX(i);
+                float endy = state.getDestY(i);
+                if (x == endx && y == endy) {
+                    stopMOB(state.getId(i), x, y);
+                } else {
+                    moveMOB(state.getId(i), x, y, endx, endy);
+                }
+            }
+            
+            try {
+                send(ClientMessages.createSnapshotAckPkt(state.getSequence()));
+            } catch (IOException ioe) {
+                logger.log(Level.SEVERE, "" + name, ioe);
+                quit();
+            }
+        }
     }
     
     // set a target player for the next move
@@ -421,6 +507,7 @@ class SimulatedPlayer implements SimpleClientListener {
             if (((dx * dx) + (dy * dy)) < (range * range)) {
                 logger.log(Level.FINER, "{0} attacking {1}",
                            new Object[] {name, target.id});
+                attackNanos = System.nanoTime();
                 send(ClientMessages.createAttackPkt(target.id, startX, startY));
             }
             destX = target.x + 10 * (random.nextFloat() - 0.5f);
@@ -447,6 +534,7 @@ class SimulatedPlayer implements SimpleClientListener {
 
         // No collision detection here. We count on the returning moveMOB
         // to reset out end point if necessary.
+        moveNanos = System.nanoTime();
         send(ClientMessages.createMoveMePkt(startX, startY, destX, destY));
         
         return state;
@@ -487,6 +575,7 @@ class SimulatedPlayer implements SimpleClientListener {
     }
     
     private void send(ByteBuffer buff) throws IOException {
+        metrics.sent(buff);
         simpleClient.send(buff);
     }
     
@@ -499,9 +588,16 @@ class SimulatedPlayer implements SimpleClientListener {
 
     @Override
     public void loggedIn() {
-        if (setState(PLAYERSTATE.Paused))
+        if (setState(PLAYERSTATE.Paused)) {
             logger.log(Level.FINE, "Player {0} logged in", name);
-        else
+            try {
+                send(ClientMessages.createVersionPkt(
+                        WireFormat.SNAPSHOT_VERSION));
+            } catch (IOException ioe) {
+                logger.log(Level.SEVERE, "" + name, ioe);
+                quit();
+            }
+        } else
             logger.log(Level.WARNING, "Player {0} received login after quit",
                        name);
     }
@@ -518,6 +614,7 @@ class SimulatedPlayer implements SimpleClientListener {
 
             @Override
             public void receivedMessage(ClientChannel channel, ByteBuffer buff) {
+                metrics.received(buff);
                 SingletonRegistry.getMessageHandler().parseClientPacket(buff, pktHandler);
             }
 
@@ -531,6 +628,7 @@ class SimulatedPlayer implements SimpleClientListener {
     
     @Override
     public void receivedMessage(ByteBuffer buff) {
+        metrics.received(buff);
         SingletonRegistry.getMessageHandler().parseClientPacket(buff, pktHandler);
     }
 
@@ -0,0 +1,346 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.clientsimulator;
+
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EOPCODE;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Latencies and message counts shared by all of the simulated players of
+ * a simulator.  Players record into it from any thread, and a single
+ * thread calls {@link #report} periodically to log the latency
+ * percentiles and message rates of the last period, and optionally
+ * append them to a file.  It supports the following properties: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	metricsInterval
+ *	</b></code><br>
+ *	<i>Default:</i> 10<br>
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies the period, in seconds, between reports.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	metricsFile
+ *	</b></code><br>
+ *	<i>Default:</i> none
+ *
+ * <dd style="padding-top: .5em">
+ *      Specifies a file that each report is appended to, as CSV rows, or
+ *      as one JSON object per line if the name ends with {@code .json}.<p>
+ * </dl> <p>
+ */
+final class SimulatorMetrics {
+
+    static private final Logger logger = Logger.getLogger(
+            SimulatorMetrics.class.getName());
+
+    /**
+     * The latencies recorded by the players, in microseconds.
+     */
+    static enum Latency {
+        /** From sending MOVEME to receiving the MOVEMOB of the player */
+        move,
+        /** From sending ATTACK to receiving the ATTACKED by the player */
+        attack,
+        /** From logging in to receiving NEWGAME */
+        newgame,
+        /** From sending READY to receiving STARTGAME */
+        start
+    }
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    private static final SimulatorMetrics instance = new SimulatorMetrics();
+
+    private final LatencyHistogram[] latencies =
+            new LatencyHistogram[Latency.values().length];
+    private final LatencyHistogram.Snapshot[] totals =
+            new LatencyHistogram.Snapshot[Latency.values().length];
+    private final AtomicLongArray sent = 
+            new AtomicLongArray(EOPCODE.values().length);
+    private final AtomicLongArray received = 
+            new AtomicLongArray(EOPCODE.values().length);
+    private final long[] lastSent = new long[EOPCODE.values().length];
+    private final long[] lastReceived = new long[EOPCODE.values().length];
+
+    private final long start = System.currentTimeMillis();
+    private long lastReport = start;
+    private final String fileName;
+    private final boolean json;
+    private final long interval;
+    private Thread reporter = null;
+
+    private SimulatorMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            totals[i] = new LatencyHistogram.Snapshot();
+        }
+        String file = System.getProperty("metricsFile", "");
+        fileName = file.length() == 0 ? null : file;
+        json = fileName != null && fileName.endsWith(".json");
+        interval = Math.max(Integer.getInteger("metricsInterval", 10), 1) *
+                   1000L;
+        if (fileName != null) {
+            logger.log(Level.CONFIG, "Metrics written to {0}", fileName);
+        }
+    }
+
+    /**
+     * @return the metrics of this simulator
+     */
+    static SimulatorMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts reporting periodically, if not already started.
+     */
+    synchronized void start() {
+        if (reporter != null) {
+            return;
+        }
+        reporter = new Thread("SimulatorMetrics") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        sleep(interval);
+                    } catch (InterruptedException ignore) {
+                        return;
+                    }
+                    report();
+                }
+            }
+        };
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param latency the latency measured
+     * @param sinceNanos the {@code System.nanoTime} the measure started at
+     */
+    void record(Latency latency, long sinceNanos) {
+        latencies[latency.ordinal()].record(
+                (System.nanoTime() - sinceNanos) / 1000L);
+    }
+
+    /**
+     * Counts a message sent by a player.
+     *
+     * @param packet the message, positioned at its opcode
+     */
+    void sent(ByteBuffer packet) {
+        count(sent, packet);
+    }
+
+    /**
+     * Counts a message received by a player.  A batch is counted once.
+     *
+     * @param packet the message, positioned at its opcode
+     */
+    void received(ByteBuffer packet) {
+        count(received, packet);
+    }
+
+    private static void count(AtomicLongArray counts, ByteBuffer packet) {
+        if (packet.hasRemaining()) {
+            int opcode = WireFormat.getOpcode(packet.get(packet.position()));
+            if (opcode < counts.length()) {
+                counts.incrementAndGet(opcode);
+            }
+        }
+    }
+
+    /**
+     * Logs and writes the metrics of the period since the last report.
+     */
+    synchronized void report() {
+        long now = System.currentTimeMillis();
+        long period = Math.max(now - lastReport, 1L);
+        lastReport = now;
+        long elapsed = (now - start) / 1000L;
+
+        PrintWriter out = openFile();
+        StringBuilder line = new StringBuilder();
+        for (Latency latency : Latency.values()) {
+            LatencyHistogram.Snapshot snapshot = 
+                    latencies[latency.ordinal()].drain();
+            totals[latency.ordinal()].add(snapshot);
+            if (snapshot.getCount() != 0) {
+                line.append(' ').append(format(latency, snapshot));
+                write(out, elapsed, latency.name(), snapshot, period);
+            }
+        }
+        for (EOPCODE code : EOPCODE.values()) {
+            int i = code.ordinal();
+            long sentNow = sent.get(i);
+            long receivedNow = received.get(i);
+            long sentCount = sentNow - lastSent[i];
+            long receivedCount = receivedNow - lastReceived[i];
+            lastSent[i] = sentNow;
+            lastReceived[i] = receivedNow;
+            if (sentCount != 0) {
+                line.append(String.format(Locale.US, " sent.%s=%.1f/s", 
+                                          code, sentCount * 1000.0 / period));
+                write(out, elapsed, "sent." + code, sentCount, period);
+            }
+            if (receivedCount != 0) {
+                line.append(String.format(Locale.US, " received.%s=%.1f/s",
+                                          code, receivedCount * 1000.0 / period));
+                write(out, elapsed, "received." + code, receivedCount, period);
+            }
+        }
+        closeFile(out);
+        if (line.length() != 0) {
+            logger.log(Level.INFO, "{0}s:{1}", new Object[]{elapsed, line});
+        }
+    }
+
+    /**
+     * Stops reporting periodically, and logs the latency percentiles over
+     * the whole run.
+     */
+    synchronized void summarize() {
+        if (reporter != null) {
+            reporter.interrupt();
+            reporter = null;
+        }
+        report();
+        for (Latency latency : Latency.values()) {
+            LatencyHistogram.Snapshot total = totals[latency.ordinal()];
+            if (total.getCount() != 0) {
+                logger.log(Level.INFO, "Total {0}", format(latency, total));
+            }
+        }
+    }
+
+    private static String format(Latency latency, 
+                                 LatencyHistogram.Snapshot snapshot) {
+        StringBuilder s = new StringBuilder(latency.name());
+        s.append("[n=").append(snapshot.getCount());
+        for (double p : PERCENTILES) {
+            s.append(String.format(Locale.US, " p%s=%.1fms", 
+                                   p == Math.floor(p) ? 
+                                   Integer.toString((int) p) : 
+                                   Double.toString(p), 
+                                   snapshot.getValueAtPercentile(p) / 1000.0));
+        }
+        s.append(String.format(Locale.US, " max=%.1fms]", 
+                               snapshot.getMax() / 1000.0));
+        return s.toString();
+    }
+
+    private PrintWriter openFile() {
+        if (fileName == null) {
+            return null;
+        }
+        try {
+            boolean header = !json && !new File(fileName).exists();
+            PrintWriter out = new PrintWriter(new FileWriter(fileName, true));
+            if (header) {
+                out.println("elapsed,name,count,rate,p50,p90,p99,p99.9,max");
+            }
+            return out;
+        } catch (IOException ioe) {
+            logger.log(Level.WARNING, "Unable to write metrics to " + 
+                       fileName, ioe);
+            return null;
+        }
+    }
+
+    private void closeFile(PrintWriter out) {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    private void write(PrintWriter out, long elapsed, String name,
+                       LatencyHistogram.Snapshot snapshot, long period) {
+        if (out == null) {
+            return;
+        }
+        double rate = snapshot.getCount() * 1000.0 / period;
+        double[] values = new double[PERCENTILES.length + 1];
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            values[i] = snapshot.getValueAtPercentile(PERCENTILES[i]) / 1000.0;
+        }
+        values[PERCENTILES.length] = snapshot.getMax() / 1000.0;
+        if (json) {
+            out.println(String.format(Locale.US,
+                    "{\"elapsed\":%d,\"name\":\"%s\",\"count\":%d," +
+                    "\"rate\":%.2f,\"p50\":%.3f,\"p90\":%.3f,\"p99\":%.3f," +
+                    "\"p99.9\":%.3f,\"max\":%.3f}",
+                    elapsed, name, snapshot.getCount(), rate,
+                    values[0], values[1], values[2], values[3], values[4]));
+        } else {
+            out.println(String.format(Locale.US,
+                    "%d,%s,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                    elapsed, name, snapshot.getCount(), rate,
+                    values[0], values[1], values[2], values[3], values[4]));
+        }
+    }
+
+    private void write(PrintWriter out, long elapsed, String name,
+                       long count, long period) {
+        if (out == null) {
+            return;
+        }
+        double rate = count * 1000.0 / period;
+        if (json) {
+            out.println(String.format(Locale.US,
+                    "{\"elapsed\":%d,\"name\":\"%s\",\"count\":%d," +
+                    "\"rate\":%.2f}",
+                    elapsed, name, count, rate));
+        } else {
+            out.println(String.format(Locale.US, "%d,%s,%d,%.2f,,,,,",
+                                      elapsed, name, count, rate));
+        }
+    }
+}
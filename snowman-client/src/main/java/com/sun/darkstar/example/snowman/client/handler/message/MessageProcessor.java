@@ -37,6 +37,9 @@ import com.sun.darkstar.example.snowman.client.handler.ClientHandler;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.darkstar.example.snowman.common.protocol.messages.ClientMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.Snapshot;
+import com.sun.darkstar.example.snowman.common.protocol.messages.SnapshotHistory;
 import com.sun.darkstar.example.snowman.common.protocol.processor.IClientProcessor;
 import com.sun.darkstar.example.snowman.game.state.enumn.EGameState;
 import com.sun.darkstar.example.snowman.game.state.scene.BattleState;
@@ -67,6 +70,10 @@ public class MessageProcessor implements IClientProcessor {
 	 * The ID number of the local controlled player.
 	 */
 	private int myID;
+	/**
+	 * The received <code>Snapshot</code> used as baselines of the next ones.
+	 */
+	private SnapshotHistory snapshots;
 
 	/**
 	 * Constructor of <code>MessageProcessor</code>.
@@ -84,6 +91,7 @@ public class MessageProcessor implements IClientProcessor {
 	@Override
 	public void newGame(int myID, String mapname) {
 		this.myID = myID;
+		this.snapshots = new SnapshotHistory();
 		TaskManager.getInstance().createTask(ETask.GameState, EGameState.BattleState);
 	}
 
@@ -141,6 +149,36 @@ public class MessageProcessor implements IClientProcessor {
             }
 	}
 
+	/**
+	 * Apply the movements in the snapshot, which are not sent as separate
+	 * messages, and acknowledge the snapshot so the next one is sent as
+	 * changes from it.
+	 */
+	@Override
+	public void snapshot(Snapshot delta) {
+		if(this.snapshots == null) return;
+		Snapshot state;
+		if(delta.getBaseline() == 0) {
+			state = new Snapshot(0).apply(delta);
+		} else {
+			Snapshot baseline = this.snapshots.get(delta.getBaseline());
+			if(baseline == null) return;
+			state = baseline.apply(delta);
+		}
+		this.snapshots.add(state);
+		for(int d = 0; d < delta.size(); d++) {
+			if((delta.getChanges(d) & (Snapshot.POSITION | Snapshot.DESTINATION)) == 0) continue;
+			int i = state.find(delta.getId(d));
+			if(i < 0 || state.getHitPoints(i) <= 0) continue;
+			if(state.getX(i) == state.getDestX(i) && state.getY(i) == state.getDestY(i)) {
+				this.stopMOB(state.getId(i), state.getX(i), state.getY(i));
+			} else {
+				this.moveMOB(state.getId(i), state.getX(i), state.getY(i), state.getDestX(i), state.getDestY(i));
+			}
+		}
+		this.handler.getGame().getClient().send(ClientMessages.createSnapshotAckPkt(state.getSequence()));
+	}
+
 	/**
 	 * Retrieve the ID number of this client. 
 	 * @return The <code>Integer</code> ID number.
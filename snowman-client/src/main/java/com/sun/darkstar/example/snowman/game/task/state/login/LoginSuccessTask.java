@@ -34,6 +34,8 @@
 package com.sun.darkstar.example.snowman.game.task.state.login;
 
 import com.jmex.game.state.GameStateManager;
+import com.sun.darkstar.example.snowman.common.protocol.messages.ClientMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import com.sun.darkstar.example.snowman.game.Game;
 import com.sun.darkstar.example.snowman.game.gui.scene.LoginGUI;
 import com.sun.darkstar.example.snowman.game.state.enumn.EGameState;
@@ -47,6 +49,7 @@ import com.sun.darkstar.example.snowman.game.task.enumn.ETask;
  * <p>
  * <code>LoginSuccessTaskk</code> execution logic:
  * 1. Update LoginGUI with waiting status message
+ * 2. Announce the supported wire format version to the server
  * <p>
  * @author Owen Kellett
  */
@@ -60,6 +63,7 @@ public class LoginSuccessTask extends RealTimeTask {
     public void execute() {
         final LoginGUI gui = ((LoginState) GameStateManager.getInstance().getChild(EGameState.LoginState.toString())).getGUI();
         gui.setStatus(gui.getWaitingStatus());
+        this.game.getClient().send(ClientMessages.createVersionPkt(WireFormat.SNAPSHOT_VERSION));
     }
 }
 
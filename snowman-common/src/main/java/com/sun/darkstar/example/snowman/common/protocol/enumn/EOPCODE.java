@@ -55,5 +55,23 @@ public enum EOPCODE {
     /**
      * Common opcodes.
      */
-    READY, CHAT
+    READY, CHAT,
+    /**
+     * Server to client packet carrying several server to client packets.
+     */
+    BATCH,
+    /**
+     * Client to server packet announcing the highest supported
+     * <code>WireFormat</code> version.
+     */
+    VERSION,
+    /**
+     * Server to client packet carrying the changes to the game state since
+     * a snapshot acknowledged by the client.
+     */
+    SNAPSHOT,
+    /**
+     * Client to server packet acknowledging a snapshot.
+     */
+    SNAPSHOTACK
 }
@@ -35,18 +35,30 @@
 package com.sun.darkstar.example.snowman.common.protocol.handlers;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EOPCODE;
+import com.sun.darkstar.example.snowman.common.protocol.messages.Snapshot;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import com.sun.darkstar.example.snowman.common.protocol.processor.IProtocolProcessor;
 import com.sun.darkstar.example.snowman.common.protocol.processor.IClientProcessor;
 import com.sun.darkstar.example.snowman.common.protocol.processor.IServerProcessor;
 
 /**
  * Default implementation of the <code>MessageHandler</code> interface.
+ * <p>
+ * Opcodes and enumerated fields are looked up in tables built once, and
+ * nothing is logged or allocated for logging unless FINEST is enabled,
+ * so decoding a packet with no string fields creates no garbage.
+ * The flyweight instance additionally reads the string fields of server
+ * packets through a per-thread <code>StringTable</code>, so the names
+ * repeated across a game are only allocated once per thread.
  * 
  * @author Yi Wang (Neakor)
  * @author Jeffrey Kesselman
@@ -55,28 +67,101 @@ import com.sun.darkstar.example.snowman.common.protocol.processor.IServerProcess
 public class MessageHandlerImpl implements MessageHandler
 {
     private static MessageHandler instance;
-    protected MessageHandlerImpl() {}
+    private static MessageHandler flyweightInstance;
+    protected MessageHandlerImpl() {
+        this(false);
+    }
+    protected MessageHandlerImpl(boolean flyweight) {
+        this.flyweight = flyweight;
+    }
     public static MessageHandler getInstance() {
         if(instance == null) {
             MessageHandlerImpl.instance = new MessageHandlerImpl();
         }
         return instance;
     }
+    public static MessageHandler getFlyweightInstance() {
+        if(flyweightInstance == null) {
+            MessageHandlerImpl.flyweightInstance = new MessageHandlerImpl(true);
+        }
+        return flyweightInstance;
+    }
+    
+    /**
+     * Dispatch tables of the enumerations indexed by ordinal, since
+     * <code>values()</code> copies the array on each call.
+     */
+    private static final EOPCODE[] OPCODES = EOPCODE.values();
+    private static final EEndState[] END_STATES = EEndState.values();
+    private static final EMOBType[] MOB_TYPES = EMOBType.values();
+    private static final ETeamColor[] TEAM_COLORS = ETeamColor.values();
     
     /**
      * The <code>Logger</code> instance.
      */
     protected final Logger logger = Logger.getLogger(MessageHandlerImpl.class.toString());
     
+    /**
+     * Whether string fields are read through the string tables.
+     */
+    private final boolean flyweight;
+    
+    /**
+     * The string tables of the threads using this handler.
+     */
+    private final ThreadLocal<StringTable> strings = new ThreadLocal<StringTable>() {
+        @Override
+        protected StringTable initialValue() {
+            return new StringTable();
+        }
+    };
+    
+    /**
+     * The compact <code>WireFormat</code> announced by the last compact
+     * NEWGAME packet of each processor, used to decode the compact packets
+     * it receives after it.  A processor stands for one connection, so
+     * connections sharing this handler may be in games of different maps.
+     */
+    private final Map<IClientProcessor, WireFormat> compactFormats =
+            Collections.synchronizedMap(
+            new WeakHashMap<IClientProcessor, WireFormat>());
+    
     /* {@inheritDoc} */
     public void parseClientPacket(ByteBuffer packet, IClientProcessor processor) {
+        boolean compact = WireFormat.isCompact(packet.get(packet.position()));
         EOPCODE code = this.getOpCode(packet);
-        this.parseClientPacket(code, packet, processor);
+        if (code == null) {
+            return;
+        }
+        WireFormat format = WireFormat.STANDARD;
+        if (compact) {
+            if (code == EOPCODE.NEWGAME) {
+                //a compact NEWGAME starts with the map dimensions
+                float width = packet.getFloat();
+                float depth = packet.getFloat();
+                this.compactFormats.put(processor, 
+                                        WireFormat.compact(width, depth));
+            }
+            format = this.compactFormats.get(processor);
+            if (format == null) {
+                this.logger.severe("Compact " + code + " packet received before NEWGAME");
+                return;
+            }
+        }
+        this.parseClientPacket(code, format, packet, processor);
     }
     
     /* {@inheritDoc} */
     public void parseServerPacket(ByteBuffer packet, IServerProcessor processor) {
+        //clients only send the standard format
+        if (WireFormat.isCompact(packet.get(packet.position()))) {
+            this.logger.severe("Compact packet received from client");
+            return;
+        }
         EOPCODE code = this.getOpCode(packet);
+        if (code == null) {
+            return;
+        }
         this.parseServerPacket(code, packet, processor);
     }
     
@@ -86,39 +171,45 @@ public class MessageHandlerImpl implements MessageHandler
      * sent in as parameters.
      * 
      * @param code opcode of the packet
+     * @param format format of the fields of the packet
      * @param packet data packet with the read head at the start of the payload
      * @param unit processing unit to receive and process the data
      */
-    protected void parseClientPacket(EOPCODE code, ByteBuffer packet, IClientProcessor unit) {
+    protected void parseClientPacket(EOPCODE code, WireFormat format, ByteBuffer packet, IClientProcessor unit) {
+        boolean finest = logger.isLoggable(Level.FINEST);
         switch (code) {
             case NEWGAME:
-                int myID = packet.getInt();
-                byte[] mapname = new byte[packet.getInt()];
-                packet.get(mapname);
-                String mapString = new String(mapname);
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}", new Object[]{code, myID, mapString});
+                int myID = format.getId(packet);
+                String mapString = this.getString(format, packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}", new Object[]{code, myID, mapString});
+                }
                 unit.newGame(myID, mapString);
                 break;
             case STARTGAME:
                 unit.startGame();
-                logger.log(Level.FINEST, "Processing {0} packet ", code);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet ", code);
+                }
                 break;
             case ENDGAME:
-                EEndState endState = EEndState.values()[packet.getInt()];
-                logger.log(Level.FINEST, "Processing {0} packet : {1}", new Object[]{code, endState});
+                EEndState endState = END_STATES[format.getEnum(packet)];
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}", new Object[]{code, endState});
+                }
                 unit.endGame(endState);
                 break;
             case ADDMOB:
-                int addId = packet.getInt();
-                float addX = packet.getFloat();
-                float addY = packet.getFloat();
-                EMOBType addType = EMOBType.values()[packet.getInt()];
-                ETeamColor addColor = ETeamColor.values()[packet.getInt()];
-                byte[] mobNameBytes = new byte[packet.getInt()];
-                packet.get(mobNameBytes);
-                String mobName = new String(mobNameBytes);
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}, {4}, {5}, {6}", 
-                           new Object[]{code, addId, addX, addY, addType, addColor, mobNameBytes});
+                int addId = format.getId(packet);
+                float addX = format.getX(packet);
+                float addY = format.getY(packet);
+                EMOBType addType = MOB_TYPES[format.getEnum(packet)];
+                ETeamColor addColor = TEAM_COLORS[format.getEnum(packet)];
+                String mobName = this.getString(format, packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}, {4}, {5}, {6}", 
+                               new Object[]{code, addId, addX, addY, addType, addColor, mobName});
+                }
                 unit.addMOB(addId,
                             addX,
                             addY,
@@ -127,18 +218,22 @@ public class MessageHandlerImpl implements MessageHandler
                             mobName);
                 break;
             case REMOVEMOB:
-                int removeId = packet.getInt();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}", new Object[]{code, removeId});
+                int removeId = format.getId(packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}", new Object[]{code, removeId});
+                }
                 unit.removeMOB(removeId);
                 break;
             case MOVEMOB:
-                int moveId = packet.getInt();
-                float moveStartX = packet.getFloat();
-                float moveStartY = packet.getFloat();
-                float moveEndX = packet.getFloat();
-                float moveEndY = packet.getFloat();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}, {4}, {5}",
-                           new Object[]{code, moveId, moveStartX, moveStartY, moveEndX, moveEndY});
+                int moveId = format.getId(packet);
+                float moveStartX = format.getX(packet);
+                float moveStartY = format.getY(packet);
+                float moveEndX = format.getX(packet);
+                float moveEndY = format.getY(packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}, {4}, {5}",
+                               new Object[]{code, moveId, moveStartX, moveStartY, moveEndX, moveEndY});
+                }
                 unit.moveMOB(moveId,
                              moveStartX,
                              moveStartY,
@@ -146,53 +241,84 @@ public class MessageHandlerImpl implements MessageHandler
                              moveEndY);
                 break;
             case STOPMOB:
-                int stopId = packet.getInt();
-                float stopX = packet.getFloat();
-                float stopY = packet.getFloat();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
-                           new Object[]{code, stopId, stopX, stopY});
+                int stopId = format.getId(packet);
+                float stopX = format.getX(packet);
+                float stopY = format.getY(packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
+                               new Object[]{code, stopId, stopX, stopY});
+                }
                 unit.stopMOB(stopId,
                              stopX,
                              stopY);
                 break;
             case ATTACHOBJ:
-                int attachId1 = packet.getInt();
-                int attachId2 = packet.getInt();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}",
-                           new Object[]{code, attachId1, attachId2});
+                int attachId1 = format.getId(packet);
+                int attachId2 = format.getId(packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}",
+                               new Object[]{code, attachId1, attachId2});
+                }
                 unit.attachObject(attachId1,
                                   attachId2);
                 break;
             case ATTACKED:
-                int attackId = packet.getInt();
-                int attackTarget = packet.getInt();
-                int attackHp = packet.getInt();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
-                           new Object[]{code, attackId, attackTarget, attackHp});
+                int attackId = format.getId(packet);
+                int attackTarget = format.getId(packet);
+                int attackHp = format.getInt(packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
+                               new Object[]{code, attackId, attackTarget, attackHp});
+                }
                 unit.attacked(attackId,
                               attackTarget,
                               attackHp);
                 break;
             case RESPAWN:
-                int respawnId = packet.getInt();
-                float respawnX = packet.getFloat();
-                float respawnY = packet.getFloat();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
-                           new Object[]{code, respawnId, respawnX, respawnY});
+                int respawnId = format.getId(packet);
+                float respawnX = format.getX(packet);
+                float respawnY = format.getY(packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
+                               new Object[]{code, respawnId, respawnX, respawnY});
+                }
                 unit.respawn(respawnId,
                              respawnX,
                              respawnY);
                 break;
             case CHAT:
-                int sourceID = packet.getInt();
-                byte[] messageBytes = new byte[packet.getInt()];
-                packet.get(messageBytes);
-                String message = new String(messageBytes);
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}",
-                           new Object[]{code, sourceID, message});
+                int sourceID = format.getId(packet);
+                String message = this.getString(format, packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}",
+                               new Object[]{code, sourceID, message});
+                }
                 unit.chatMessage(sourceID,
                                  message);
             	break;
+            case SNAPSHOT:
+                Snapshot delta = Snapshot.read(format, packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
+                               new Object[]{code, delta.getSequence(), delta.getBaseline(), delta.size()});
+                }
+                unit.snapshot(delta);
+                break;
+            case BATCH:
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet", code);
+                }
+                //narrow the limit to each record in turn rather than slicing
+                int batchLimit = packet.limit();
+                while (packet.position() < batchLimit) {
+                    int length = WireFormat.getVarint(packet);
+                    int end = packet.position() + length;
+                    packet.limit(end);
+                    this.parseClientPacket(packet, unit);
+                    packet.limit(batchLimit);
+                    packet.position(end);
+                }
+                break;
             default:
                 //divert to common parser
                 this.parseCommonPacket(code, packet, unit);
@@ -209,14 +335,17 @@ public class MessageHandlerImpl implements MessageHandler
      * @param unit processing unit to receive and process the data
      */
     protected void parseServerPacket(EOPCODE code, ByteBuffer packet, IServerProcessor unit) {
+        boolean finest = logger.isLoggable(Level.FINEST);
         switch (code) {
             case MOVEME:
                 float moveStartX = packet.getFloat();
                 float moveStartY = packet.getFloat();
                 float moveEndX = packet.getFloat();
                 float moveEndY = packet.getFloat();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}, {4}",
-                           new Object[]{code, moveStartX, moveStartY, moveEndX, moveEndY});
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}, {4}",
+                               new Object[]{code, moveStartX, moveStartY, moveEndX, moveEndY});
+                }
                 unit.moveMe(moveStartX,
                             moveStartY,
                             moveEndX,
@@ -226,8 +355,10 @@ public class MessageHandlerImpl implements MessageHandler
                 int attackId = packet.getInt();
                 float attackX = packet.getFloat();
                 float attackY = packet.getFloat();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
-                           new Object[]{code, attackId, attackX, attackY});
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
+                               new Object[]{code, attackId, attackX, attackY});
+                }
                 unit.attack(attackId,
                             attackX,
                             attackY);
@@ -236,8 +367,10 @@ public class MessageHandlerImpl implements MessageHandler
                 int getflagId = packet.getInt();
                 float getflagX = packet.getFloat();
                 float getflagY = packet.getFloat();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
-                           new Object[]{code, getflagId, getflagX, getflagY});
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}, {3}",
+                               new Object[]{code, getflagId, getflagX, getflagY});
+                }
                 unit.getFlag(getflagId,
                              getflagX,
                              getflagY);
@@ -245,19 +378,38 @@ public class MessageHandlerImpl implements MessageHandler
             case SCORE:
                 float scoreX = packet.getFloat();
                 float scoreY = packet.getFloat();
-                logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}",
-                           new Object[]{code, scoreX, scoreY});
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}, {2}",
+                               new Object[]{code, scoreX, scoreY});
+                }
                 unit.score(scoreX,
                            scoreY);
                 break;
             case CHAT:
-                byte[] messageBytes = new byte[packet.getInt()];
-                packet.get(messageBytes);
-                String message = new String(messageBytes);
-                logger.log(Level.FINEST, "Processing {0} packet : {1}",
-                           new Object[]{code, message});
+                //chat text is rarely repeated, so it is never cached
+                String message = WireFormat.STANDARD.getString(packet);
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}",
+                               new Object[]{code, message});
+                }
                 unit.chatMessage(message);
             	break;
+            case VERSION:
+                int version = packet.getInt();
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}",
+                               new Object[]{code, version});
+                }
+                unit.protocolVersion(version);
+                break;
+            case SNAPSHOTACK:
+                int sequence = packet.getInt();
+                if (finest) {
+                    logger.log(Level.FINEST, "Processing {0} packet : {1}",
+                               new Object[]{code, sequence});
+                }
+                unit.snapshotAck(sequence);
+                break;
             default:
                 //divert to common parser
                 this.parseCommonPacket(code, packet, unit);
@@ -275,7 +427,9 @@ public class MessageHandlerImpl implements MessageHandler
         // Parse common code.
         switch (code) {
             case READY:
-                logger.log(Level.FINEST, "Processing {0} packet", code);
+                if (logger.isLoggable(Level.FINEST)) {
+                    logger.log(Level.FINEST, "Processing {0} packet", code);
+                }
                 processor.ready();
                 break;
             default:
@@ -283,20 +437,33 @@ public class MessageHandlerImpl implements MessageHandler
         }
     }
     
+    /**
+     * Read a string field, through the string table of the calling thread
+     * if this is the flyweight instance.
+     * @param format format of the field
+     * @param packet data packet with the read head at the start of the field
+     * @return the string
+     */
+    private String getString(WireFormat format, ByteBuffer packet) {
+        if (flyweight) {
+            return strings.get().get(format, packet);
+        }
+        return format.getString(packet);
+    }
+    
     /**
      * Get the OPCODE from the packet
      * @param packet
-     * @return
+     * @return the OPCODE, or null if the packet has an unknown opcode
      */
     private EOPCODE getOpCode(ByteBuffer packet) 
     {
-        byte opbyte = packet.get();
-        if ((opbyte < 0) || (opbyte > EOPCODE.values().length - 1)) {
+        int opbyte = WireFormat.getOpcode(packet.get());
+        if (opbyte >= OPCODES.length) {
             this.logger.severe("Unknown op value: " + opbyte);
             return null;
         }
-        EOPCODE code = EOPCODE.values()[opbyte];
         
-        return code;
+        return OPCODES[opbyte];
     }
 }
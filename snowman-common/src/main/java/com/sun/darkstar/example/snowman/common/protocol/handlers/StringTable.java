@@ -0,0 +1,112 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.common.protocol.handlers;
+
+import java.nio.ByteBuffer;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
+
+/**
+ * <code>StringTable</code> is a small direct mapped cache of the strings
+ * decoded from packets.  Names of map objects and maps are received over
+ * and over again, so a string read through the table is only allocated
+ * the first time it is seen and the same instance is returned after that.
+ * <p>
+ * A <code>StringTable</code> is not thread safe.
+ */
+final class StringTable 
+{
+    /**
+     * The number of slots, which must be a power of two.
+     */
+    static final int SLOTS = 256;
+    /**
+     * The longest encoded string that is cached.
+     */
+    static final int MAX_LENGTH = 64;
+    
+    private final byte[] scratch = new byte[MAX_LENGTH];
+    private final byte[][] keys = new byte[SLOTS][];
+    private final boolean[] compact = new boolean[SLOTS];
+    private final String[] values = new String[SLOTS];
+    
+    /**
+     * Read a string in the given format, returning the cached instance
+     * when the same string has been read before.
+     * @param format The <code>WireFormat</code> the string is written in.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     * @return The <code>String</code>.
+     */
+    String get(WireFormat format, ByteBuffer buffer) {
+        int length = format.getId(buffer);
+        if (length > MAX_LENGTH) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return format.decode(bytes, 0, length);
+        }
+        
+        buffer.get(scratch, 0, length);
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + scratch[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+        
+        byte[] key = keys[slot];
+        if (key != null && compact[slot] == format.isCompact() && 
+                matches(key, length)) {
+            return values[slot];
+        }
+        
+        key = new byte[length];
+        System.arraycopy(scratch, 0, key, 0, length);
+        String value = format.decode(key, 0, length);
+        keys[slot] = key;
+        compact[slot] = format.isCompact();
+        values[slot] = value;
+        return value;
+    }
+    
+    private boolean matches(byte[] key, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -135,13 +135,48 @@ public class ClientMessages extends Messages
      * @return The <code>ByteBUffer</code> 'chat message' packet.
      */
     public static ByteBuffer createChatPkt(String message) {
-    	byte[] bytes = new byte[1 + 4 + message.length()];
+        byte[] text = WireFormat.STANDARD.encode(message);
+    	byte[] bytes = new byte[1 + 4 + text.length];
     	ByteBuffer buffer = ByteBuffer.wrap(bytes);
     	buffer.put((byte) EOPCODE.CHAT.ordinal());
-    	buffer.putInt(message.length());
-    	buffer.put(message.getBytes());
+    	buffer.putInt(text.length);
+    	buffer.put(text);
         
         buffer.flip();
     	return buffer;
     }
+    
+    /**
+     * Create a "version" packet which notifies the server of the highest
+     * <code>WireFormat</code> version this client is able to decode.
+     * Clients that never send it are only sent the standard format.
+     * @param version The highest supported <code>WireFormat</code> version.
+     * @return The <code>ByteBuffer</code> "version" packet.
+     */
+    public static ByteBuffer createVersionPkt(int version) {
+        byte[] bytes = new byte[1 + 4];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.put((byte) EOPCODE.VERSION.ordinal());
+        buffer.putInt(version);
+        
+        buffer.flip();
+        return buffer;
+    }
+    
+    /**
+     * Create a "snapshot ack" packet which notifies the server that this
+     * client has applied the snapshot with the given sequence number, so
+     * that the next snapshots can be sent as changes from it.
+     * @param sequence The sequence number of the applied snapshot.
+     * @return The <code>ByteBuffer</code> "snapshot ack" packet.
+     */
+    public static ByteBuffer createSnapshotAckPkt(int sequence) {
+        byte[] bytes = new byte[1 + 4];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.put((byte) EOPCODE.SNAPSHOTACK.ordinal());
+        buffer.putInt(sequence);
+        
+        buffer.flip();
+        return buffer;
+    }
 }
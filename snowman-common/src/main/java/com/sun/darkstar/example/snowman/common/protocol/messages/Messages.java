@@ -47,6 +47,48 @@ import com.sun.darkstar.example.snowman.common.protocol.enumn.EOPCODE;
  */
 public abstract class Messages 
 {
+    /**
+     * The capacity of each scratch buffer, enough for the largest packet.
+     */
+    public static final int SCRATCH_CAPACITY = 64 * 1024;
+    
+    private static final ThreadLocal<ByteBuffer> scratch = 
+            new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(SCRATCH_CAPACITY);
+        }
+    };
+    
+    /**
+     * Returns a cleared, direct <code>ByteBuffer</code> owned by the calling
+     * thread, to encode packets into without allocating.
+     * The same buffer is returned on every call from the same thread, so
+     * its contents are only valid until the next call, and must be copied
+     * by anything that holds on to them.  Sending it through a
+     * <code>ClientSession</code> or a <code>Channel</code> is safe since
+     * those copy the packet before returning.
+     * @return The calling thread's cleared scratch <code>ByteBuffer</code>.
+     */
+    public static ByteBuffer getScratchBuffer() {
+        ByteBuffer buffer = scratch.get();
+        buffer.clear();
+        return buffer;
+    }
+    
+    /**
+     * Sets the position and limit of the given buffer around the packet
+     * written to it since the given start position.
+     * @param buffer The <code>ByteBuffer</code> a packet was written to.
+     * @param start The position the packet starts at.
+     * @return The given <code>ByteBuffer</code>.
+     */
+    static ByteBuffer bracket(ByteBuffer buffer, int start) {
+        buffer.limit(buffer.position());
+        buffer.position(start);
+        return buffer;
+    }
+    
     /**
      * Create a READY message packet.  There is no payload associated with
      * a READY message.
@@ -35,6 +35,7 @@
 package com.sun.darkstar.example.snowman.common.protocol.messages;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
@@ -44,6 +45,17 @@ import com.sun.darkstar.example.snowman.common.protocol.enumn.EOPCODE;
 /**
  * <code>ServerMessages</code> provides static packet generation methods
  * that are sent by just the server
+ * <p>
+ * Each packet can be generated in the standard <code>WireFormat</code>,
+ * which every client understands, or in a given <code>WireFormat</code>
+ * negotiated with the receiving clients.
+ * <p>
+ * The <code>createXxxPkt</code> methods allocate a new buffer for each
+ * packet.  The <code>encodeXxxPkt</code> methods write the packet into a
+ * given buffer instead, such as the one returned by
+ * <code>Messages.getScratchBuffer</code>, starting at the buffer's position.
+ * When they return, the position and limit of the buffer bracket the
+ * encoded packet.
  * 
  * @author Yi Wang (Neakor)
  * @author Jeffrey Kesselman
@@ -60,15 +72,50 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "new game" packet.
      */
     public static ByteBuffer createNewGamePkt(int myID, String mapname) {
-        byte[] bytes = new byte[1 + 4 + 4 + mapname.length()];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.NEWGAME.ordinal());
-        buffer.putInt(myID);
-        buffer.putInt(mapname.length());
-        buffer.put(mapname.getBytes());
+        return createNewGamePkt(WireFormat.STANDARD, myID, mapname);
+    }
+
+    /**
+     * Create a "new game" packet in the given format.  A packet in the
+     * compact format starts with the map dimensions of the format, which
+     * the client needs to decode the rest of the game.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param myID The ID number assigned to the client.
+     * @param mapname The name of the map to play on.
+     * @return The <code>ByteBuffer</code> "new game" packet.
+     */
+    public static ByteBuffer createNewGamePkt(WireFormat format, int myID, String mapname) {
+        byte[] name = format.encode(mapname);
+        int size = 1 + format.sizeOfId(myID) + format.sizeOfString(name);
+        if (format.isCompact()) {
+            size += 8;
+        }
+        return encodeNewGamePkt(format, ByteBuffer.allocate(size), myID, name);
+    }
+
+    /**
+     * Encode a "new game" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param myID The ID number assigned to the client.
+     * @param mapname The name of the map to play on.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeNewGamePkt(WireFormat format, ByteBuffer buffer, int myID, String mapname) {
+        return encodeNewGamePkt(format, buffer, myID, format.encode(mapname));
+    }
+
+    private static ByteBuffer encodeNewGamePkt(WireFormat format, ByteBuffer buffer, int myID, byte[] name) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.NEWGAME);
+        if (format.isCompact()) {
+            buffer.putFloat(format.getWidth());
+            buffer.putFloat(format.getDepth());
+        }
+        format.putId(buffer, myID);
+        format.putString(buffer, name);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
 
     /**
@@ -76,12 +123,29 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "start game" packet.
      */
     public static ByteBuffer createStartGamePkt() {
-        byte[] bytes = new byte[1];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.STARTGAME.ordinal());
+        return createStartGamePkt(WireFormat.STANDARD);
+    }
+
+    /**
+     * Create a "start game" packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @return The <code>ByteBuffer</code> "start game" packet.
+     */
+    public static ByteBuffer createStartGamePkt(WireFormat format) {
+        return encodeStartGamePkt(format, ByteBuffer.allocate(1));
+    }
+
+    /**
+     * Encode a "start game" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeStartGamePkt(WireFormat format, ByteBuffer buffer) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.STARTGAME);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
 
     /**
@@ -91,13 +155,34 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "end game" packet.
      */
     public static ByteBuffer createEndGamePkt(EEndState state) {
-        byte[] bytes = new byte[1 + 4];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.ENDGAME.ordinal());
-        buffer.putInt(state.ordinal());
+        return createEndGamePkt(WireFormat.STANDARD, state);
+    }
+
+    /**
+     * Create a "end game" packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param state The <code>EndState</code> of the battle.
+     * @return The <code>ByteBuffer</code> "end game" packet.
+     */
+    public static ByteBuffer createEndGamePkt(WireFormat format, EEndState state) {
+        return encodeEndGamePkt(format, 
+                                ByteBuffer.allocate(1 + format.sizeOfEnum()),
+                                state);
+    }
+
+    /**
+     * Encode a "end game" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param state The <code>EndState</code> of the battle.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeEndGamePkt(WireFormat format, ByteBuffer buffer, EEndState state) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.ENDGAME);
+        format.putEnum(buffer, state);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
 
 
@@ -112,19 +197,56 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "add MOB" packet.
      */
     public static ByteBuffer createAddMOBPkt(int targetID, float x, float y, EMOBType mobType, ETeamColor team, String mobName) {
-        byte[] bytes = new byte[1 + 20 + 4 + mobName.length()];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.ADDMOB.ordinal());
-        buffer.putInt(targetID);
-        buffer.putFloat(x);
-        buffer.putFloat(y);
-        buffer.putInt(mobType.ordinal());
-        buffer.putInt(team.ordinal());
-        buffer.putInt(mobName.length());
-        buffer.put(mobName.getBytes());
+        return createAddMOBPkt(WireFormat.STANDARD, targetID, x, y, mobType, team, mobName);
+    }
+
+    /**
+     * Create an "add MOB" packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param targetID The ID number of the new map object.
+     * @param x The X coordinate of the object.
+     * @param y The Y coordinate of the object.
+     * @param mobType The <code>MOBType</code> of object.
+     * @param team The <code>TeamColor</code> of object.
+     * @return The <code>ByteBuffer</code> "add MOB" packet.
+     */
+    public static ByteBuffer createAddMOBPkt(WireFormat format, int targetID, float x, float y, EMOBType mobType, ETeamColor team, String mobName) {
+        byte[] name = format.encode(mobName);
+        int size = 1 + format.sizeOfId(targetID) + 
+                   2 * format.sizeOfCoordinate() + 
+                   2 * format.sizeOfEnum() + 
+                   format.sizeOfString(name);
+        return encodeAddMOBPkt(format, ByteBuffer.allocate(size), 
+                               targetID, x, y, mobType, team, name);
+    }
+
+    /**
+     * Encode an "add MOB" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param targetID The ID number of the new map object.
+     * @param x The X coordinate of the object.
+     * @param y The Y coordinate of the object.
+     * @param mobType The <code>MOBType</code> of object.
+     * @param team The <code>TeamColor</code> of object.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeAddMOBPkt(WireFormat format, ByteBuffer buffer, int targetID, float x, float y, EMOBType mobType, ETeamColor team, String mobName) {
+        return encodeAddMOBPkt(format, buffer, targetID, x, y, mobType, team, 
+                               format.encode(mobName));
+    }
+
+    private static ByteBuffer encodeAddMOBPkt(WireFormat format, ByteBuffer buffer, int targetID, float x, float y, EMOBType mobType, ETeamColor team, byte[] name) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.ADDMOB);
+        format.putId(buffer, targetID);
+        format.putX(buffer, x);
+        format.putY(buffer, y);
+        format.putEnum(buffer, mobType);
+        format.putEnum(buffer, team);
+        format.putString(buffer, name);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
     
     /**
@@ -134,13 +256,34 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "remove MOB" packet.
      */
     public static ByteBuffer createRemoveMOBPkt(int targetID) {
-        byte[] bytes = new byte[1 + 4];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.REMOVEMOB.ordinal());
-        buffer.putInt(targetID);
+        return createRemoveMOBPkt(WireFormat.STANDARD, targetID);
+    }
+    
+    /**
+     * Create a "remove MOB" packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param targetID The ID number of the MOB to be removed.
+     * @return The <code>ByteBuffer</code> "remove MOB" packet.
+     */
+    public static ByteBuffer createRemoveMOBPkt(WireFormat format, int targetID) {
+        return encodeRemoveMOBPkt(format,
+                                  ByteBuffer.allocate(1 + format.sizeOfId(targetID)),
+                                  targetID);
+    }
+    
+    /**
+     * Encode a "remove MOB" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param targetID The ID number of the MOB to be removed.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeRemoveMOBPkt(WireFormat format, ByteBuffer buffer, int targetID) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.REMOVEMOB);
+        format.putId(buffer, targetID);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
 
     /**
@@ -154,17 +297,47 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "move MOB" packet.
      */
     public static ByteBuffer createMoveMOBPkt(int targetID, float startx, float starty, float endx, float endy) {
-        byte[] bytes = new byte[1 + 20];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.MOVEMOB.ordinal());
-        buffer.putInt(targetID);
-        buffer.putFloat(startx);
-        buffer.putFloat(starty);
-        buffer.putFloat(endx);
-        buffer.putFloat(endy);
+        return createMoveMOBPkt(WireFormat.STANDARD, targetID, startx, starty, endx, endy);
+    }
+
+    /**
+     * Create a "move MOB" packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param targetID The ID number of the MOB to be moved.
+     * @param startx The x coordinate of the starting position.
+     * @param starty The y coordinate of the starting position.
+     * @param endx The x coordinate of the ending position.
+     * @param endy The y coordinate of the ending position.
+     * @return The <code>ByteBuffer</code> "move MOB" packet.
+     */
+    public static ByteBuffer createMoveMOBPkt(WireFormat format, int targetID, float startx, float starty, float endx, float endy) {
+        int size = 1 + format.sizeOfId(targetID) + 
+                   4 * format.sizeOfCoordinate();
+        return encodeMoveMOBPkt(format, ByteBuffer.allocate(size), 
+                                targetID, startx, starty, endx, endy);
+    }
+
+    /**
+     * Encode a "move MOB" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param targetID The ID number of the MOB to be moved.
+     * @param startx The x coordinate of the starting position.
+     * @param starty The y coordinate of the starting position.
+     * @param endx The x coordinate of the ending position.
+     * @param endy The y coordinate of the ending position.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeMoveMOBPkt(WireFormat format, ByteBuffer buffer, int targetID, float startx, float starty, float endx, float endy) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.MOVEMOB);
+        format.putId(buffer, targetID);
+        format.putX(buffer, startx);
+        format.putY(buffer, starty);
+        format.putX(buffer, endx);
+        format.putY(buffer, endy);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
     
     /**
@@ -176,15 +349,41 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "move MOB" packet.
      */
     public static ByteBuffer createStopMOBPkt(int targetID, float x, float y) {
-        byte[] bytes = new byte[1 + 12];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.STOPMOB.ordinal());
-        buffer.putInt(targetID);
-        buffer.putFloat(x);
-        buffer.putFloat(y);
+        return createStopMOBPkt(WireFormat.STANDARD, targetID, x, y);
+    }
+    
+    /**
+     * Create a "stop MOB" packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param targetID The ID number of the MOB to be stopped.
+     * @param x The x coordinate of the stop position.
+     * @param y The y coordinate of the stop position.
+     * @return The <code>ByteBuffer</code> "move MOB" packet.
+     */
+    public static ByteBuffer createStopMOBPkt(WireFormat format, int targetID, float x, float y) {
+        int size = 1 + format.sizeOfId(targetID) + 
+                   2 * format.sizeOfCoordinate();
+        return encodeStopMOBPkt(format, ByteBuffer.allocate(size), 
+                                targetID, x, y);
+    }
+    
+    /**
+     * Encode a "stop MOB" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param targetID The ID number of the MOB to be stopped.
+     * @param x The x coordinate of the stop position.
+     * @param y The y coordinate of the stop position.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeStopMOBPkt(WireFormat format, ByteBuffer buffer, int targetID, float x, float y) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.STOPMOB);
+        format.putId(buffer, targetID);
+        format.putX(buffer, x);
+        format.putY(buffer, y);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
 
     /**
@@ -195,14 +394,38 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "attach object" packet.
      */
     public static ByteBuffer createAttachObjPkt(int sourceID, int targetID) {
-        byte[] bytes = new byte[1 + 8];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.ATTACHOBJ.ordinal());
-        buffer.putInt(sourceID);
-        buffer.putInt(targetID);
+        return createAttachObjPkt(WireFormat.STANDARD, sourceID, targetID);
+    }
+
+    /**
+     * Create an "attach object" packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param sourceID The ID number of the object to be re-attached.
+     * @param targetID the ID number of the object to attach it to.
+     * @return The <code>ByteBuffer</code> "attach object" packet.
+     */
+    public static ByteBuffer createAttachObjPkt(WireFormat format, int sourceID, int targetID) {
+        int size = 1 + format.sizeOfId(sourceID) + format.sizeOfId(targetID);
+        return encodeAttachObjPkt(format, ByteBuffer.allocate(size), 
+                                  sourceID, targetID);
+    }
+
+    /**
+     * Encode an "attach object" packet in the given format into the given
+     * buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param sourceID The ID number of the object to be re-attached.
+     * @param targetID the ID number of the object to attach it to.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeAttachObjPkt(WireFormat format, ByteBuffer buffer, int sourceID, int targetID) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.ATTACHOBJ);
+        format.putId(buffer, sourceID);
+        format.putId(buffer, targetID);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
 
     /**
@@ -214,15 +437,41 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "attacked" packet.
      */
     public static ByteBuffer createAttackedPkt(int sourceID, int targetID, int hp) {
-        byte[] bytes = new byte[1 + 12];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.ATTACKED.ordinal());
-        buffer.putInt(sourceID);
-        buffer.putInt(targetID);
-        buffer.putInt(hp);
+        return createAttackedPkt(WireFormat.STANDARD, sourceID, targetID, hp);
+    }
+
+    /**
+     * Create an "attacked" packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param sourceID The ID number of the attacker.
+     * @param targetID The ID number of the target.
+     * @param hp The hit point of the target (-1 if a miss)
+     * @return The <code>ByteBuffer</code> "attacked" packet.
+     */
+    public static ByteBuffer createAttackedPkt(WireFormat format, int sourceID, int targetID, int hp) {
+        int size = 1 + format.sizeOfId(sourceID) + format.sizeOfId(targetID) + 
+                   format.sizeOfInt(hp);
+        return encodeAttackedPkt(format, ByteBuffer.allocate(size), 
+                                 sourceID, targetID, hp);
+    }
+
+    /**
+     * Encode an "attacked" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param sourceID The ID number of the attacker.
+     * @param targetID The ID number of the target.
+     * @param hp The hit point of the target (-1 if a miss)
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeAttackedPkt(WireFormat format, ByteBuffer buffer, int sourceID, int targetID, int hp) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.ATTACKED);
+        format.putId(buffer, sourceID);
+        format.putId(buffer, targetID);
+        format.putInt(buffer, hp);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
 
     /**
@@ -234,15 +483,41 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> "respawn" packet.
      */
     public static ByteBuffer createRespawnPkt(int objectID, float x, float y) {
-        byte[] bytes = new byte[1 + 12];
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        buffer.put((byte) EOPCODE.RESPAWN.ordinal());
-        buffer.putInt(objectID);
-        buffer.putFloat(x);
-        buffer.putFloat(y);
+        return createRespawnPkt(WireFormat.STANDARD, objectID, x, y);
+    }
+
+    /**
+     * Create a "respawn" packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param objectID The ID number of the object to be respawn.
+     * @param x The x coordinate of the respawn position.
+     * @param y The y coordinate of the respawn position.
+     * @return The <code>ByteBuffer</code> "respawn" packet.
+     */
+    public static ByteBuffer createRespawnPkt(WireFormat format, int objectID, float x, float y) {
+        int size = 1 + format.sizeOfId(objectID) + 
+                   2 * format.sizeOfCoordinate();
+        return encodeRespawnPkt(format, ByteBuffer.allocate(size), 
+                                objectID, x, y);
+    }
+
+    /**
+     * Encode a "respawn" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param objectID The ID number of the object to be respawn.
+     * @param x The x coordinate of the respawn position.
+     * @param y The y coordinate of the respawn position.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeRespawnPkt(WireFormat format, ByteBuffer buffer, int objectID, float x, float y) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.RESPAWN);
+        format.putId(buffer, objectID);
+        format.putX(buffer, x);
+        format.putY(buffer, y);
         
-        buffer.flip();
-        return buffer;
+        return bracket(buffer, start);
     }
     
     /**
@@ -252,14 +527,109 @@ public class ServerMessages extends Messages
      * @return The <code>ByteBuffer</code> 'chat message' packet.
      */
     public static ByteBuffer createChatPkt(int sourceID, String message) {
-    	byte[] bytes = new byte[1 + 4 + 4 + message.length()];
-    	ByteBuffer buffer = ByteBuffer.wrap(bytes);
-    	buffer.put((byte) EOPCODE.CHAT.ordinal());
-        buffer.putInt(sourceID);
-    	buffer.putInt(message.length());
-    	buffer.put(message.getBytes());
+        return createChatPkt(WireFormat.STANDARD, sourceID, message);
+    }
+    
+    /**
+     * Create a chat message packet in the given format.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param sourceID The <code>Integer</code> source ID.
+     * @param message The <code>String</code> message to be displayed.
+     * @return The <code>ByteBuffer</code> 'chat message' packet.
+     */
+    public static ByteBuffer createChatPkt(WireFormat format, int sourceID, String message) {
+        byte[] text = format.encode(message);
+        int size = 1 + format.sizeOfId(sourceID) + format.sizeOfString(text);
+        return encodeChatPkt(format, ByteBuffer.allocate(size), sourceID, text);
+    }
+    
+    /**
+     * Encode a chat message packet in the given format into the given
+     * buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param sourceID The <code>Integer</code> source ID.
+     * @param message The <code>String</code> message to be displayed.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeChatPkt(WireFormat format, ByteBuffer buffer, int sourceID, String message) {
+        return encodeChatPkt(format, buffer, sourceID, format.encode(message));
+    }
+    
+    private static ByteBuffer encodeChatPkt(WireFormat format, ByteBuffer buffer, int sourceID, byte[] text) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.CHAT);
+        format.putId(buffer, sourceID);
+        format.putString(buffer, text);
+        
+        return bracket(buffer, start);
+    }
+
+    /**
+     * Create a "snapshot" packet in the given format which carries the
+     * changes to the state of the game since the given baseline.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param snapshot The current <code>Snapshot</code> of the game.
+     * @param baseline The <code>Snapshot</code> last acknowledged by the
+     * client, or null to send the complete state.
+     * @return The <code>ByteBuffer</code> "snapshot" packet.
+     */
+    public static ByteBuffer createSnapshotPkt(WireFormat format, Snapshot snapshot, Snapshot baseline) {
+        ByteBuffer buffer = encodeSnapshotPkt(format, getScratchBuffer(), snapshot, baseline);
+        ByteBuffer packet = ByteBuffer.allocate(buffer.remaining());
+        packet.put(buffer);
+        packet.flip();
+        return packet;
+    }
+
+    /**
+     * Encode a "snapshot" packet in the given format into the given buffer.
+     * @param format The <code>WireFormat</code> of the game.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param snapshot The current <code>Snapshot</code> of the game.
+     * @param baseline The <code>Snapshot</code> last acknowledged by the
+     * client, or null to send the complete state.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeSnapshotPkt(WireFormat format, ByteBuffer buffer, Snapshot snapshot, Snapshot baseline) {
+        int start = buffer.position();
+        format.putOpcode(buffer, EOPCODE.SNAPSHOT);
+        snapshot.write(format, buffer, baseline);
         
-        buffer.flip();
-    	return buffer;
+        return bracket(buffer, start);
+    }
+
+    /**
+     * Create a "batch" packet which carries the given packets as a sequence
+     * of records, each one prefixed with its length as a varint.
+     * The records are decoded in order as if they had been received one by
+     * one, each in its own format.
+     * @param packets The encoded packets to be carried.
+     * @return The <code>ByteBuffer</code> "batch" packet.
+     */
+    public static ByteBuffer createBatchPkt(List<byte[]> packets) {
+        int size = 1;
+        for (byte[] packet : packets) {
+            size += WireFormat.sizeOfVarint(packet.length) + packet.length;
+        }
+        return encodeBatchPkt(ByteBuffer.allocate(size), packets);
+    }
+
+    /**
+     * Encode a "batch" packet carrying the given packets into the given
+     * buffer.
+     * @param buffer The <code>ByteBuffer</code> to write the packet to.
+     * @param packets The encoded packets to be carried.
+     * @return The given <code>ByteBuffer</code> holding the packet.
+     */
+    public static ByteBuffer encodeBatchPkt(ByteBuffer buffer, List<byte[]> packets) {
+        int start = buffer.position();
+        buffer.put((byte) EOPCODE.BATCH.ordinal());
+        for (byte[] packet : packets) {
+            WireFormat.putVarint(buffer, packet.length);
+            buffer.put(packet);
+        }
+
+        return bracket(buffer, start);
     }
 }
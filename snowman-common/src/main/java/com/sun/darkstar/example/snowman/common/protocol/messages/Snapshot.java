@@ -0,0 +1,440 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.common.protocol.messages;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * <code>Snapshot</code> holds the state of the entities of a game at one
+ * point in time: the position, destination, hit points and holder of each
+ * of them, by ID.  Flags have no hit points and a stopped entity has its
+ * position as its destination.
+ * <p>
+ * A snapshot is sent in a SNAPSHOT packet as its changes from a baseline
+ * snapshot that the receiving client has acknowledged, so only the
+ * changed fields of the changed entities are sent.  Each record starts
+ * with a bit mask of the fields present in it.  A snapshot read from a
+ * packet only holds the changed entities, with the mask of each, and
+ * is turned back into the complete state by applying it to its baseline.
+ * <p>
+ * Games only hold a handful of entities, so they are kept in arrays in
+ * the order they are added and looked up by a linear search.
+ */
+public final class Snapshot implements Serializable
+{
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    /**
+     * Bit set in the mask of an entity whose position changed.
+     */
+    public static final int POSITION = 0x01;
+    /**
+     * Bit set in the mask of an entity whose destination changed.
+     */
+    public static final int DESTINATION = 0x02;
+    /**
+     * Bit set in the mask of an entity whose hit points changed.
+     */
+    public static final int HIT_POINTS = 0x04;
+    /**
+     * Bit set in the mask of an entity whose holder changed.
+     */
+    public static final int HOLDER = 0x08;
+    /**
+     * Bit set in the mask of an entity that was removed, alone.
+     */
+    public static final int REMOVED = 0x10;
+    /**
+     * Mask of an entity that is not in the baseline.
+     */
+    public static final int ALL = POSITION | DESTINATION | HIT_POINTS | HOLDER;
+    
+    private static final int INITIAL_CAPACITY = 8;
+    
+    private final int sequence;
+    private final int baseline;
+    private int size = 0;
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] changes = new int[INITIAL_CAPACITY];
+    private float[] xs = new float[INITIAL_CAPACITY];
+    private float[] ys = new float[INITIAL_CAPACITY];
+    private float[] destXs = new float[INITIAL_CAPACITY];
+    private float[] destYs = new float[INITIAL_CAPACITY];
+    private int[] hitPoints = new int[INITIAL_CAPACITY];
+    private int[] holders = new int[INITIAL_CAPACITY];
+    
+    /**
+     * Create an empty complete snapshot.
+     * @param sequence The sequence number of the snapshot, from 1.
+     */
+    public Snapshot(int sequence) {
+        this(sequence, 0);
+    }
+    
+    private Snapshot(int sequence, int baseline) {
+        this.sequence = sequence;
+        this.baseline = baseline;
+    }
+    
+    /**
+     * @return The sequence number of this snapshot.
+     */
+    public int getSequence() {
+        return sequence;
+    }
+    
+    /**
+     * @return The sequence number of the baseline this snapshot was read
+     * as changes from, or 0 if it holds the complete state.
+     */
+    public int getBaseline() {
+        return baseline;
+    }
+    
+    /**
+     * @return The number of entities in this snapshot.
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Add the state of an entity to this snapshot.
+     * @param id The ID number of the entity.
+     * @param x The x coordinate of the position.
+     * @param y The y coordinate of the position.
+     * @param destX The x coordinate of the destination.
+     * @param destY The y coordinate of the destination.
+     * @param hp The hit points of the entity.
+     * @param holder The ID number of the entity holding it, or 0.
+     */
+    public void put(int id, float x, float y, float destX, float destY, int hp, int holder) {
+        put(id, ALL, x, y, destX, destY, hp, holder);
+    }
+    
+    private void put(int id, int mask, float x, float y, float destX, float destY, int hp, int holder) {
+        if (size == ids.length) {
+            grow();
+        }
+        ids[size] = id;
+        changes[size] = mask;
+        xs[size] = x;
+        ys[size] = y;
+        destXs[size] = destX;
+        destYs[size] = destY;
+        hitPoints[size] = hp;
+        holders[size] = holder;
+        size++;
+    }
+    
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = copy(ids, capacity);
+        changes = copy(changes, capacity);
+        xs = copy(xs, capacity);
+        ys = copy(ys, capacity);
+        destXs = copy(destXs, capacity);
+        destYs = copy(destYs, capacity);
+        hitPoints = copy(hitPoints, capacity);
+        holders = copy(holders, capacity);
+    }
+    
+    private static int[] copy(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+    
+    private static float[] copy(float[] array, int capacity) {
+        float[] grown = new float[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+    
+    /**
+     * Find the index of an entity.
+     * @param id The ID number of the entity.
+     * @return The index of the entity, or -1 if it is not in this snapshot.
+     */
+    public int find(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @param index The index of an entity.
+     * @return The ID number of the entity.
+     */
+    public int getId(int index) {
+        return ids[index];
+    }
+    
+    /**
+     * @param index The index of an entity.
+     * @return The mask of the fields of the entity that were read, which
+     * is <code>ALL</code> for entities that were added.
+     */
+    public int getChanges(int index) {
+        return changes[index];
+    }
+    
+    /**
+     * @param index The index of an entity.
+     * @return The x coordinate of the position of the entity.
+     */
+    public float getX(int index) {
+        return xs[index];
+    }
+    
+    /**
+     * @param index The index of an entity.
+     * @return The y coordinate of the position of the entity.
+     */
+    public float getY(int index) {
+        return ys[index];
+    }
+    
+    /**
+     * @param index The index of an entity.
+     * @return The x coordinate of the destination of the entity.
+     */
+    public float getDestX(int index) {
+        return destXs[index];
+    }
+    
+    /**
+     * @param index The index of an entity.
+     * @return The y coordinate of the destination of the entity.
+     */
+    public float getDestY(int index) {
+        return destYs[index];
+    }
+    
+    /**
+     * @param index The index of an entity.
+     * @return The hit points of the entity.
+     */
+    public int getHitPoints(int index) {
+        return hitPoints[index];
+    }
+    
+    /**
+     * @param index The index of an entity.
+     * @return The ID number of the entity holding the entity, or 0.
+     */
+    public int getHolder(int index) {
+        return holders[index];
+    }
+    
+    /**
+     * Compute the fields of an entity that changed since a baseline.
+     * @param index The index of the entity in this snapshot.
+     * @param base The baseline <code>Snapshot</code>, or null.
+     * @return The mask of the changed fields.
+     */
+    public int changesFrom(int index, Snapshot base) {
+        int b = base == null ? -1 : base.find(ids[index]);
+        if (b < 0) {
+            return ALL;
+        }
+        int mask = 0;
+        if (xs[index] != base.xs[b] || ys[index] != base.ys[b]) {
+            mask |= POSITION;
+        }
+        if (destXs[index] != base.destXs[b] || destYs[index] != base.destYs[b]) {
+            mask |= DESTINATION;
+        }
+        if (hitPoints[index] != base.hitPoints[b]) {
+            mask |= HIT_POINTS;
+        }
+        if (holders[index] != base.holders[b]) {
+            mask |= HOLDER;
+        }
+        return mask;
+    }
+    
+    /**
+     * Check whether nothing changed since the given snapshot.
+     * @param other The <code>Snapshot</code> to compare with.
+     * @return True if both hold the same entities in the same state.
+     */
+    public boolean sameState(Snapshot other) {
+        if (other == null || other.size != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (changesFrom(i, other) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Apply a snapshot read as changes from this one.
+     * @param delta The <code>Snapshot</code> read from a packet, whose
+     * baseline is this snapshot.
+     * @return The complete <code>Snapshot</code> with the sequence number
+     * of the given one.
+     */
+    public Snapshot apply(Snapshot delta) {
+        Snapshot state = new Snapshot(delta.sequence);
+        for (int i = 0; i < size; i++) {
+            int d = delta.find(ids[i]);
+            if (d < 0) {
+                state.put(ids[i], 0, xs[i], ys[i], destXs[i], destYs[i], hitPoints[i], holders[i]);
+                continue;
+            }
+            int mask = delta.changes[d];
+            if ((mask & REMOVED) != 0) {
+                continue;
+            }
+            state.put(ids[i], 0,
+                      (mask & POSITION) != 0 ? delta.xs[d] : xs[i],
+                      (mask & POSITION) != 0 ? delta.ys[d] : ys[i],
+                      (mask & DESTINATION) != 0 ? delta.destXs[d] : destXs[i],
+                      (mask & DESTINATION) != 0 ? delta.destYs[d] : destYs[i],
+                      (mask & HIT_POINTS) != 0 ? delta.hitPoints[d] : hitPoints[i],
+                      (mask & HOLDER) != 0 ? delta.holders[d] : holders[i]);
+        }
+        for (int d = 0; d < delta.size; d++) {
+            if ((delta.changes[d] & REMOVED) == 0 && find(delta.ids[d]) < 0) {
+                state.put(delta.ids[d], 0, delta.xs[d], delta.ys[d], 
+                          delta.destXs[d], delta.destYs[d], 
+                          delta.hitPoints[d], delta.holders[d]);
+            }
+        }
+        return state;
+    }
+    
+    /**
+     * Write the changes of this snapshot from a baseline, as the payload of
+     * a SNAPSHOT packet.
+     * @param format The <code>WireFormat</code> of the fields.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     * @param base The baseline <code>Snapshot</code>, or null to write
+     * the complete state.
+     */
+    void write(WireFormat format, ByteBuffer buffer, Snapshot base) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (changesFrom(i, base) != 0) {
+                count++;
+            }
+        }
+        if (base != null) {
+            for (int b = 0; b < base.size; b++) {
+                if (find(base.ids[b]) < 0) {
+                    count++;
+                }
+            }
+        }
+        
+        format.putId(buffer, sequence);
+        format.putId(buffer, base == null ? 0 : base.sequence);
+        format.putId(buffer, count);
+        for (int i = 0; i < size; i++) {
+            int mask = changesFrom(i, base);
+            if (mask == 0) {
+                continue;
+            }
+            format.putId(buffer, ids[i]);
+            buffer.put((byte) mask);
+            if ((mask & POSITION) != 0) {
+                format.putX(buffer, xs[i]);
+                format.putY(buffer, ys[i]);
+            }
+            if ((mask & DESTINATION) != 0) {
+                format.putX(buffer, destXs[i]);
+                format.putY(buffer, destYs[i]);
+            }
+            if ((mask & HIT_POINTS) != 0) {
+                format.putInt(buffer, hitPoints[i]);
+            }
+            if ((mask & HOLDER) != 0) {
+                format.putId(buffer, holders[i]);
+            }
+        }
+        if (base != null) {
+            for (int b = 0; b < base.size; b++) {
+                if (find(base.ids[b]) < 0) {
+                    format.putId(buffer, base.ids[b]);
+                    buffer.put((byte) REMOVED);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Read the payload of a SNAPSHOT packet.
+     * @param format The <code>WireFormat</code> of the fields.
+     * @param buffer The <code>ByteBuffer</code> to read from, positioned
+     * after the opcode.
+     * @return The <code>Snapshot</code> of the changed entities.
+     */
+    public static Snapshot read(WireFormat format, ByteBuffer buffer) {
+        int sequence = format.getId(buffer);
+        int baseline = format.getId(buffer);
+        int count = format.getId(buffer);
+        Snapshot delta = new Snapshot(sequence, baseline);
+        for (int i = 0; i < count; i++) {
+            int id = format.getId(buffer);
+            int mask = buffer.get() & 0xff;
+            float x = 0, y = 0, destX = 0, destY = 0;
+            int hp = 0, holder = 0;
+            if ((mask & POSITION) != 0) {
+                x = format.getX(buffer);
+                y = format.getY(buffer);
+            }
+            if ((mask & DESTINATION) != 0) {
+                destX = format.getX(buffer);
+                destY = format.getY(buffer);
+            }
+            if ((mask & HIT_POINTS) != 0) {
+                hp = format.getInt(buffer);
+            }
+            if ((mask & HOLDER) != 0) {
+                holder = format.getId(buffer);
+            }
+            delta.put(id, mask, x, y, destX, destY, hp, holder);
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.common.protocol.messages;
+
+import java.io.Serializable;
+
+/**
+ * <code>SnapshotHistory</code> keeps the most recent snapshots of a game
+ * by sequence number, so that new snapshots can be sent as changes from
+ * the last one each client acknowledged, and received ones applied to
+ * their baseline.  Older snapshots are overwritten as new ones are added.
+ */
+public final class SnapshotHistory implements Serializable
+{
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    /**
+     * The number of snapshots kept by default.
+     */
+    public static final int DEFAULT_CAPACITY = 32;
+    
+    private final Snapshot[] snapshots;
+    private Snapshot latest = null;
+    
+    /**
+     * Create a history of the default capacity.
+     */
+    public SnapshotHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Create a history of the given capacity.
+     * @param capacity The number of snapshots to keep.
+     */
+    public SnapshotHistory(int capacity) {
+        this.snapshots = new Snapshot[capacity];
+    }
+    
+    /**
+     * Add a snapshot, which becomes the latest one.
+     * @param snapshot The complete <code>Snapshot</code> to add.
+     */
+    public void add(Snapshot snapshot) {
+        snapshots[snapshot.getSequence() % snapshots.length] = snapshot;
+        latest = snapshot;
+    }
+    
+    /**
+     * Retrieve a snapshot by sequence number.
+     * @param sequence The sequence number of the snapshot.
+     * @return The <code>Snapshot</code>, or null if it was never added or
+     * has been overwritten.
+     */
+    public Snapshot get(int sequence) {
+        if (sequence <= 0) {
+            return null;
+        }
+        Snapshot snapshot = snapshots[sequence % snapshots.length];
+        return snapshot != null && snapshot.getSequence() == sequence ?
+               snapshot : null;
+    }
+    
+    /**
+     * @return The latest <code>Snapshot</code> added, or null.
+     */
+    public Snapshot getLatest() {
+        return latest;
+    }
+}
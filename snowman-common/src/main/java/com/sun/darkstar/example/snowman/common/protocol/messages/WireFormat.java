@@ -0,0 +1,427 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.common.protocol.messages;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EOPCODE;
+
+/**
+ * <code>WireFormat</code> defines how the fields of a packet are laid out
+ * on the wire.
+ * <p>
+ * The standard format (version 1) writes every id, enum and length as a
+ * 4-byte int and every coordinate as a 4-byte float.  It is understood by
+ * every client.  Both formats write strings as UTF-8, which the standard
+ * format shares with older clients for ASCII text.
+ * <p>
+ * The compact format (version 2) writes ids and lengths as variable length
+ * ints, enums as a single byte, and map coordinates as
+ * 16-bit fixed point values spanning the dimensions of the map.  Packets in
+ * the compact format have the high bit of their opcode byte set, so that
+ * they can be told apart from standard packets without any other state.
+ * It is only used towards clients that have announced support for it with
+ * a VERSION packet.
+ */
+public final class WireFormat implements Serializable
+{
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    /**
+     * Version number of the standard format.
+     */
+    public static final int STANDARD_VERSION = 1;
+    /**
+     * Version number of the compact format.
+     */
+    public static final int COMPACT_VERSION = 2;
+    /**
+     * Version number of clients that also apply and acknowledge SNAPSHOT
+     * packets, which are sent in the compact format.
+     */
+    public static final int SNAPSHOT_VERSION = 3;
+    /**
+     * The standard format.
+     */
+    public static final WireFormat STANDARD = new WireFormat(0, 0);
+    
+    /**
+     * Bit set in the opcode byte of packets in the compact format.
+     */
+    private static final int COMPACT_FLAG = 0x80;
+    /**
+     * Largest fixed point coordinate value.
+     */
+    private static final int FIXED_MAX = 0xffff;
+    
+    private final float width;
+    private final float depth;
+    
+    private WireFormat(float width, float depth) {
+        this.width = width;
+        this.depth = depth;
+    }
+    
+    /**
+     * Create a compact format for a map of the given dimensions.
+     * @param width The x dimension of the map.
+     * @param depth The y dimension of the map.
+     * @return The compact <code>WireFormat</code> for the map.
+     */
+    public static WireFormat compact(float width, float depth) {
+        if (!(width > 0) || !(depth > 0)) {
+            throw new IllegalArgumentException("Invalid map dimensions: " +
+                                               width + " x " + depth);
+        }
+        return new WireFormat(width, depth);
+    }
+    
+    /**
+     * Check if the given opcode byte starts a packet in the compact format.
+     * @param opbyte The first byte of a packet.
+     * @return True if the packet is in the compact format.
+     */
+    public static boolean isCompact(byte opbyte) {
+        return (opbyte & COMPACT_FLAG) != 0;
+    }
+    
+    /**
+     * Retrieve the opcode number from the given opcode byte.
+     * @param opbyte The first byte of a packet.
+     * @return The ordinal of the <code>EOPCODE</code> of the packet.
+     */
+    public static int getOpcode(byte opbyte) {
+        return opbyte & (COMPACT_FLAG - 1);
+    }
+    
+    /**
+     * @return True if this is the compact format.
+     */
+    public boolean isCompact() {
+        return width > 0;
+    }
+    
+    /**
+     * @return The version number of this format.
+     */
+    public int getVersion() {
+        return isCompact() ? COMPACT_VERSION : STANDARD_VERSION;
+    }
+    
+    /**
+     * @return The x dimension of the map in the compact format.
+     */
+    public float getWidth() {
+        return width;
+    }
+    
+    /**
+     * @return The y dimension of the map in the compact format.
+     */
+    public float getDepth() {
+        return depth;
+    }
+    
+    /**
+     * Write the opcode byte of a packet.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     * @param code The <code>EOPCODE</code> of the packet.
+     */
+    public void putOpcode(ByteBuffer buffer, EOPCODE code) {
+        if (isCompact()) {
+            buffer.put((byte) (code.ordinal() | COMPACT_FLAG));
+        } else {
+            buffer.put((byte) code.ordinal());
+        }
+    }
+    
+    /**
+     * @param id An id or length to be written.
+     * @return The number of bytes taken by the given id.
+     */
+    public int sizeOfId(int id) {
+        return isCompact() ? sizeOfVarint(id) : 4;
+    }
+    
+    /**
+     * Write an id or a length, which is expected to be non negative.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     * @param id The id to be written.
+     */
+    public void putId(ByteBuffer buffer, int id) {
+        if (isCompact()) {
+            putVarint(buffer, id);
+        } else {
+            buffer.putInt(id);
+        }
+    }
+    
+    /**
+     * Read an id or a length.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     * @return The id.
+     */
+    public int getId(ByteBuffer buffer) {
+        return isCompact() ? getVarint(buffer) : buffer.getInt();
+    }
+    
+    /**
+     * @param value A signed value to be written.
+     * @return The number of bytes taken by the given value.
+     */
+    public int sizeOfInt(int value) {
+        return isCompact() ? sizeOfVarint(zigzag(value)) : 4;
+    }
+    
+    /**
+     * Write a signed value.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     * @param value The value to be written.
+     */
+    public void putInt(ByteBuffer buffer, int value) {
+        if (isCompact()) {
+            putVarint(buffer, zigzag(value));
+        } else {
+            buffer.putInt(value);
+        }
+    }
+    
+    /**
+     * Read a signed value.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     * @return The value.
+     */
+    public int getInt(ByteBuffer buffer) {
+        if (isCompact()) {
+            int zigzag = getVarint(buffer);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        return buffer.getInt();
+    }
+    
+    /**
+     * @return The number of bytes taken by an enum.
+     */
+    public int sizeOfEnum() {
+        return isCompact() ? 1 : 4;
+    }
+    
+    /**
+     * Write the ordinal of an enum.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     * @param value The enum to be written.
+     */
+    public void putEnum(ByteBuffer buffer, Enum<?> value) {
+        if (isCompact()) {
+            buffer.put((byte) value.ordinal());
+        } else {
+            buffer.putInt(value.ordinal());
+        }
+    }
+    
+    /**
+     * Read the ordinal of an enum.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     * @return The ordinal.
+     */
+    public int getEnum(ByteBuffer buffer) {
+        return isCompact() ? buffer.get() & 0xff : buffer.getInt();
+    }
+    
+    /**
+     * @return The number of bytes taken by a map coordinate.
+     */
+    public int sizeOfCoordinate() {
+        return isCompact() ? 2 : 4;
+    }
+    
+    /**
+     * Write an x map coordinate.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     * @param x The coordinate to be written.
+     */
+    public void putX(ByteBuffer buffer, float x) {
+        putCoordinate(buffer, x, width);
+    }
+    
+    /**
+     * Write a y map coordinate.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     * @param y The coordinate to be written.
+     */
+    public void putY(ByteBuffer buffer, float y) {
+        putCoordinate(buffer, y, depth);
+    }
+    
+    /**
+     * Read an x map coordinate.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     * @return The coordinate.
+     */
+    public float getX(ByteBuffer buffer) {
+        return getCoordinate(buffer, width);
+    }
+    
+    /**
+     * Read a y map coordinate.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     * @return The coordinate.
+     */
+    public float getY(ByteBuffer buffer) {
+        return getCoordinate(buffer, depth);
+    }
+    
+    /**
+     * Encode a string to the bytes that are written for it.
+     * @param value The <code>String</code> to be encoded.
+     * @return The encoded bytes.
+     */
+    public byte[] encode(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * @param bytes Encoded string bytes to be written.
+     * @return The number of bytes taken by the given string.
+     */
+    public int sizeOfString(byte[] bytes) {
+        return sizeOfId(bytes.length) + bytes.length;
+    }
+    
+    /**
+     * Write encoded string bytes prefixed by their length.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     * @param bytes The bytes returned by <code>encode</code>.
+     */
+    public void putString(ByteBuffer buffer, byte[] bytes) {
+        putId(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+    
+    /**
+     * Read a string.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     * @return The <code>String</code>.
+     */
+    public String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[getId(buffer)];
+        buffer.get(bytes);
+        return decode(bytes, 0, bytes.length);
+    }
+    
+    /**
+     * Decode a string from the bytes written for it.
+     * @param bytes The array holding the encoded string.
+     * @param offset The index of the first byte of the string.
+     * @param length The number of bytes of the string.
+     * @return The <code>String</code>.
+     */
+    public String decode(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * @param value A non negative value.
+     * @return The number of bytes taken by the value as a varint.
+     */
+    public static int sizeOfVarint(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+    
+    /**
+     * Write a value as a varint, seven bits per byte with the least
+     * significant group first and the high bit set on all but the last byte.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     * @param value The value to be written.
+     */
+    public static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+    
+    /**
+     * Read a varint.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     * @return The value.
+     */
+    public static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+    
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+    
+    private void putCoordinate(ByteBuffer buffer, float value, float extent) {
+        if (!isCompact()) {
+            buffer.putFloat(value);
+            return;
+        }
+        int fixed = Math.round(value / extent * FIXED_MAX);
+        buffer.putShort((short) Math.max(0, Math.min(FIXED_MAX, fixed)));
+    }
+    
+    private float getCoordinate(ByteBuffer buffer, float extent) {
+        if (!isCompact()) {
+            return buffer.getFloat();
+        }
+        return (buffer.getShort() & FIXED_MAX) * extent / FIXED_MAX;
+    }
+}
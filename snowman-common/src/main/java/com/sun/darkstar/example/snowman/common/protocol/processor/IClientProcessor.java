@@ -37,6 +37,7 @@ package com.sun.darkstar.example.snowman.common.protocol.processor;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.darkstar.example.snowman.common.protocol.messages.Snapshot;
 
 /**
  * <code>IClientProcessor</code> defines the interface which handles processing
@@ -137,4 +138,12 @@ public interface IClientProcessor extends IProtocolProcessor {
      * @param message The <code>String</code> actual message.
      */
     public void chatMessage(int sourceID, String message);
+    
+    /**
+     * Apply a snapshot of the game state sent as the changes from a
+     * baseline, and acknowledge it to the server.
+     * @param delta The changes <code>Snapshot</code>, to be applied to the
+     * snapshot with its baseline sequence number, if any.
+     */
+    public void snapshot(Snapshot delta);
 }
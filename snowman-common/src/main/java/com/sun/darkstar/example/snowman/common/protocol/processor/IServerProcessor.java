@@ -159,4 +159,20 @@ public interface IServerProcessor extends IProtocolProcessor {
      * @param message The <code>String</code> actual chat message.
      */
     public void chatMessage(String message);
+    
+    /**
+     * Record the highest <code>WireFormat</code> version the sending client
+     * is able to decode.  Clients which have not sent a version are only
+     * sent packets in the standard format.
+     * @param version The highest supported <code>WireFormat</code> version.
+     */
+    public void protocolVersion(int version);
+    
+    /**
+     * Record that the sending client has applied the snapshot with the
+     * given sequence number, so that the next snapshots sent to it can be
+     * the changes from that one.
+     * @param sequence The sequence number of the applied snapshot.
+     */
+    public void snapshotAck(int sequence);
 }
@@ -0,0 +1,511 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.common.util;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * <code>BoundingVolumeHierarchy</code> is a static binary tree of axis
+ * aligned bounding boxes built over a set of triangles.  It is used to find
+ * the closest triangle hit by a ray while only testing the handful of
+ * triangles whose boxes the ray actually passes through.
+ * <p>
+ * The tree is flattened into primitive buffers and the triangles are stored
+ * in tree order, so a query never allocates.  A tree built in memory wraps
+ * arrays, while a tree read back with {@link #read(ByteBuffer)} is a view
+ * over the given buffer, which may be a mapped file.  Once constructed, the
+ * tree is never modified and may be queried concurrently from any number
+ * of threads.
+ */
+public final class BoundingVolumeHierarchy {
+    /**
+     * The maximum number of triangles stored in a leaf node.
+     */
+    private static final int LEAFSIZE = 4;
+    /**
+     * Tolerance used to reject rays that are parallel to a triangle.
+     */
+    private static final float EPSILON = 1e-7f;
+
+    /**
+     * The triangle vertices in tree order, nine floats per triangle.
+     */
+    private final FloatBuffer vertices;
+    /**
+     * The node bounds, six floats (min x,y,z then max x,y,z) per node.
+     */
+    private final FloatBuffer bounds;
+    /**
+     * The index of the first triangle of a leaf node, or the index of the
+     * left child of an interior node.  The right child always follows the
+     * left child.
+     */
+    private final IntBuffer offsets;
+    /**
+     * The number of triangles of a leaf node, or zero for interior nodes.
+     */
+    private final IntBuffer counts;
+
+    /**
+     * Constructor of <code>BoundingVolumeHierarchy</code>.
+     * @param triangles The triangle vertices, nine floats per triangle.
+     */
+    public BoundingVolumeHierarchy(float[] triangles) {
+        Builder builder = new Builder(triangles);
+        int count = triangles.length / 9;
+        if (count > 0) {
+            builder.build(0, 0, count);
+        }
+        
+        float[] sorted = new float[count * 9];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(triangles, builder.order[i] * 9, sorted, i * 9, 9);
+        }
+        this.vertices = FloatBuffer.wrap(sorted);
+        this.bounds = FloatBuffer.wrap(Arrays.copyOf(builder.bounds, builder.nodeCount * 6));
+        this.offsets = IntBuffer.wrap(Arrays.copyOf(builder.offsets, builder.nodeCount));
+        this.counts = IntBuffer.wrap(Arrays.copyOf(builder.counts, builder.nodeCount));
+    }
+    
+    /**
+     * Constructor of <code>BoundingVolumeHierarchy</code> over already
+     * flattened buffers, which are used as they are.
+     */
+    private BoundingVolumeHierarchy(FloatBuffer vertices, FloatBuffer bounds, IntBuffer offsets, IntBuffer counts) {
+        this.vertices = vertices;
+        this.bounds = bounds;
+        this.offsets = offsets;
+        this.counts = counts;
+    }
+    
+    /**
+     * Retrieve the number of triangles in this hierarchy.
+     * @return The number of triangles.
+     */
+    public int getTriangleCount() {
+        return this.vertices.capacity() / 9;
+    }
+    
+    /**
+     * Retrieve the number of nodes in this hierarchy.
+     * @return The number of nodes.
+     */
+    public int getNodeCount() {
+        return this.counts.capacity();
+    }
+    
+    /**
+     * Retrieve the number of bytes that {@link #write(ByteBuffer)} puts.
+     * @return The size of the flattened hierarchy in bytes.
+     */
+    int getSize() {
+        return 4 * 2 + 4 * (this.vertices.capacity() + this.bounds.capacity() +
+                            this.offsets.capacity() + this.counts.capacity());
+    }
+    
+    /**
+     * Write the flattened hierarchy to the given buffer: the <code>int</code>
+     * number of triangles and of nodes, followed by the vertices, the node
+     * bounds, the offsets and the counts.
+     * @param buffer The <code>ByteBuffer</code> to write to.
+     */
+    void write(ByteBuffer buffer) {
+        buffer.putInt(this.getTriangleCount());
+        buffer.putInt(this.getNodeCount());
+        this.put(buffer, this.vertices);
+        this.put(buffer, this.bounds);
+        for (int i = 0; i < this.offsets.capacity(); i++) {
+            buffer.putInt(this.offsets.get(i));
+        }
+        for (int i = 0; i < this.counts.capacity(); i++) {
+            buffer.putInt(this.counts.get(i));
+        }
+    }
+    
+    /**
+     * Put all of the given floats into the given buffer.
+     */
+    private void put(ByteBuffer buffer, FloatBuffer values) {
+        for (int i = 0; i < values.capacity(); i++) {
+            buffer.putFloat(values.get(i));
+        }
+    }
+    
+    /**
+     * Read a hierarchy written by {@link #write(ByteBuffer)} from the given
+     * buffer, advancing its position past it.  The hierarchy is a view over
+     * the buffer rather than a copy, so the buffer must not be modified
+     * afterwards.  The structure of the tree is checked, so that a damaged
+     * buffer cannot send a query out of bounds.
+     * @param buffer The <code>ByteBuffer</code> to read from.
+     * @return The <code>BoundingVolumeHierarchy</code> or <code>null</code> if the buffer does
+     * not hold a valid hierarchy.
+     */
+    static BoundingVolumeHierarchy read(ByteBuffer buffer) {
+        if (buffer.remaining() < 8) {
+            return null;
+        }
+        int triangleCount = buffer.getInt();
+        int nodeCount = buffer.getInt();
+        if (triangleCount < 0 || nodeCount < 1 || 
+                nodeCount > Math.max(1, 2 * triangleCount - 1) ||
+                buffer.remaining() < 4L * (triangleCount * 9L + nodeCount * 8L)) {
+            return null;
+        }
+        FloatBuffer vertices = BoundingVolumeHierarchy.slice(buffer, triangleCount * 9 * 4).asFloatBuffer();
+        FloatBuffer bounds = BoundingVolumeHierarchy.slice(buffer, nodeCount * 6 * 4).asFloatBuffer();
+        IntBuffer offsets = BoundingVolumeHierarchy.slice(buffer, nodeCount * 4).asIntBuffer();
+        IntBuffer counts = BoundingVolumeHierarchy.slice(buffer, nodeCount * 4).asIntBuffer();
+        
+        //every interior node must point at a pair of nodes after it, and
+        //every leaf at triangles that exist
+        for (int node = 0; node < nodeCount; node++) {
+            int offset = offsets.get(node);
+            int count = counts.get(node);
+            if (count < 0 || offset < 0) {
+                return null;
+            }
+            if (count == 0 ? (offset <= node || offset > nodeCount - 2) && triangleCount > 0
+                           : offset > triangleCount - count) {
+                return null;
+            }
+        }
+        return new BoundingVolumeHierarchy(vertices, bounds, offsets, counts);
+    }
+    
+    /**
+     * Slice the given number of bytes off the given buffer, keeping its
+     * byte order, and advance the buffer past them.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        slice.order(buffer.order());
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * Retrieve the distance along the given ray to the closest triangle
+     * that it intersects.  The direction is expected to be normalized so
+     * that the result is a true distance.
+     * @param ox The x coordinate of the ray origin.
+     * @param oy The y coordinate of the ray origin.
+     * @param oz The z coordinate of the ray origin.
+     * @param dx The x component of the ray direction.
+     * @param dy The y component of the ray direction.
+     * @param dz The z component of the ray direction.
+     * @return The distance to the closest intersection or <code>Float.POSITIVE_INFINITY</code> if there is none.
+     */
+    public float getIntersection(float ox, float oy, float oz, float dx, float dy, float dz) {
+        return this.getIntersection(ox, oy, oz, dx, dy, dz, Float.POSITIVE_INFINITY);
+    }
+    
+    /**
+     * Retrieve the distance along the given ray to the closest triangle
+     * that it intersects before the given limit.  Parts of the hierarchy
+     * beyond the limit are never visited.
+     * @param ox The x coordinate of the ray origin.
+     * @param oy The y coordinate of the ray origin.
+     * @param oz The z coordinate of the ray origin.
+     * @param dx The x component of the ray direction.
+     * @param dy The y component of the ray direction.
+     * @param dz The z component of the ray direction.
+     * @param limit The distance beyond which intersections are ignored.
+     * @return The distance to the closest intersection or <code>Float.POSITIVE_INFINITY</code> if there is none before the limit.
+     */
+    public float getIntersection(float ox, float oy, float oz, float dx, float dy, float dz, float limit) {
+        if (this.vertices.capacity() == 0 ||
+                this.getEntryDistance(0, ox, oy, oz, dx, dy, dz, limit) == Float.POSITIVE_INFINITY) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float closest = this.traverse(0, ox, oy, oz, dx, dy, dz, limit);
+        return closest < limit ? closest : Float.POSITIVE_INFINITY;
+    }
+    
+    /**
+     * Retrieve the triangle vertices in tree order.  The returned array
+     * is shared and must not be modified when the hierarchy was built in
+     * memory, and is a copy when it was read from a buffer.
+     * @return The triangle vertices, nine floats per triangle.
+     */
+    float[] getTriangles() {
+        if (this.vertices.hasArray()) {
+            return this.vertices.array();
+        }
+        float[] triangles = new float[this.vertices.capacity()];
+        this.vertices.duplicate().get(triangles);
+        return triangles;
+    }
+    
+    /**
+     * Find the closest intersection under the given node, visiting the
+     * nearer child first so that the farther one can usually be skipped.
+     * @return The closer of the given distance and any intersection found.
+     */
+    private float traverse(int node,
+                           float ox, float oy, float oz,
+                           float dx, float dy, float dz,
+                           float closest) {
+        int count = this.counts.get(node);
+        if (count > 0) {
+            int first = this.offsets.get(node);
+            for (int t = first; t < first + count; t++) {
+                float distance = this.intersectTriangle(t * 9, ox, oy, oz, dx, dy, dz);
+                if (distance < closest) {
+                    closest = distance;
+                }
+            }
+            return closest;
+        }
+        
+        int left = this.offsets.get(node);
+        int right = left + 1;
+        float nearLeft = this.getEntryDistance(left, ox, oy, oz, dx, dy, dz, closest);
+        float nearRight = this.getEntryDistance(right, ox, oy, oz, dx, dy, dz, closest);
+        if (nearRight < nearLeft) {
+            int swap = left;
+            left = right;
+            right = swap;
+            float swapNear = nearLeft;
+            nearLeft = nearRight;
+            nearRight = swapNear;
+        }
+        if (nearLeft < closest) {
+            closest = this.traverse(left, ox, oy, oz, dx, dy, dz, closest);
+        }
+        if (nearRight < closest) {
+            closest = this.traverse(right, ox, oy, oz, dx, dy, dz, closest);
+        }
+        return closest;
+    }
+    
+    /**
+     * Retrieve the distance at which the given ray enters the bounds of the
+     * given node if it does so before the given limit.
+     * @return The entry distance or <code>Float.POSITIVE_INFINITY</code> if the box is missed.
+     */
+    private float getEntryDistance(int node,
+                                   float ox, float oy, float oz,
+                                   float dx, float dy, float dz,
+                                   float limit) {
+        int offset = node * 6;
+        float near = 0;
+        float far = limit;
+        FloatBuffer b = this.bounds;
+        
+        //x slab
+        if (dx == 0) {
+            if (ox < b.get(offset) || ox > b.get(offset + 3)) return Float.POSITIVE_INFINITY;
+        } else {
+            float t1 = (b.get(offset) - ox) / dx;
+            float t2 = (b.get(offset + 3) - ox) / dx;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+        }
+        //y slab
+        if (dy == 0) {
+            if (oy < b.get(offset + 1) || oy > b.get(offset + 4)) return Float.POSITIVE_INFINITY;
+        } else {
+            float t1 = (b.get(offset + 1) - oy) / dy;
+            float t2 = (b.get(offset + 4) - oy) / dy;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+        }
+        //z slab
+        if (dz == 0) {
+            if (oz < b.get(offset + 2) || oz > b.get(offset + 5)) return Float.POSITIVE_INFINITY;
+        } else {
+            float t1 = (b.get(offset + 2) - oz) / dz;
+            float t2 = (b.get(offset + 5) - oz) / dz;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+        }
+        return near <= far ? near : Float.POSITIVE_INFINITY;
+    }
+    
+    /**
+     * Intersect the given ray with the triangle at the given offset.  Both
+     * sides of the triangle are considered.
+     * @return The distance to the intersection or <code>Float.POSITIVE_INFINITY</code> if there is none.
+     */
+    private float intersectTriangle(int offset,
+                                    float ox, float oy, float oz,
+                                    float dx, float dy, float dz) {
+        FloatBuffer v = this.vertices;
+        float e1x = v.get(offset + 3) - v.get(offset);
+        float e1y = v.get(offset + 4) - v.get(offset + 1);
+        float e1z = v.get(offset + 5) - v.get(offset + 2);
+        float e2x = v.get(offset + 6) - v.get(offset);
+        float e2y = v.get(offset + 7) - v.get(offset + 1);
+        float e2z = v.get(offset + 8) - v.get(offset + 2);
+        
+        //p = d x e2
+        float px = dy * e2z - dz * e2y;
+        float py = dz * e2x - dx * e2z;
+        float pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det > -EPSILON && det < EPSILON) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float inv = 1.0f / det;
+        
+        float sx = ox - v.get(offset);
+        float sy = oy - v.get(offset + 1);
+        float sz = oz - v.get(offset + 2);
+        float u = (sx * px + sy * py + sz * pz) * inv;
+        if (u < 0 || u > 1) {
+            return Float.POSITIVE_INFINITY;
+        }
+        
+        //q = s x e1
+        float qx = sy * e1z - sz * e1y;
+        float qy = sz * e1x - sx * e1z;
+        float qz = sx * e1y - sy * e1x;
+        float w = (dx * qx + dy * qy + dz * qz) * inv;
+        if (w < 0 || u + w > 1) {
+            return Float.POSITIVE_INFINITY;
+        }
+        
+        float distance = (e2x * qx + e2y * qy + e2z * qz) * inv;
+        return distance < 0 ? Float.POSITIVE_INFINITY : distance;
+    }
+    
+    /**
+     * <code>Builder</code> holds the state that is only needed while the
+     * hierarchy is being constructed.
+     */
+    private static final class Builder {
+        private final float[] source;
+        private final float[] centroids;
+        private final int[] order;
+        private final long[] keys;
+        private final float[] bounds;
+        private final int[] offsets;
+        private final int[] counts;
+        private int nodeCount;
+        
+        private Builder(float[] triangles) {
+            int count = triangles.length / 9;
+            int maxNodes = Math.max(1, 2 * count - 1);
+            this.source = triangles;
+            this.centroids = new float[count * 3];
+            this.order = new int[count];
+            this.keys = new long[count];
+            this.bounds = new float[maxNodes * 6];
+            this.offsets = new int[maxNodes];
+            this.counts = new int[maxNodes];
+            this.nodeCount = 1;
+            for (int i = 0; i < count; i++) {
+                this.order[i] = i;
+                for (int k = 0; k < 3; k++) {
+                    this.centroids[i * 3 + k] = (triangles[i * 9 + k] + 
+                                                 triangles[i * 9 + 3 + k] + 
+                                                 triangles[i * 9 + 6 + k]) / 3.0f;
+                }
+            }
+        }
+        
+        /**
+         * Build the given node over the given range of the triangle order.
+         * The triangles are split at the median of their centroids along the
+         * longest axis of the centroid bounds.
+         * @param node The index of the node to build.
+         * @param first The first position in the triangle order.
+         * @param end The position after the last triangle.
+         */
+        private void build(int node, int first, int end) {
+            //compute the bounds of the triangles and of their centroids
+            float[] centroidBounds = new float[6];
+            for (int k = 0; k < 3; k++) {
+                this.bounds[node * 6 + k] = Float.POSITIVE_INFINITY;
+                this.bounds[node * 6 + 3 + k] = Float.NEGATIVE_INFINITY;
+                centroidBounds[k] = Float.POSITIVE_INFINITY;
+                centroidBounds[3 + k] = Float.NEGATIVE_INFINITY;
+            }
+            for (int i = first; i < end; i++) {
+                int t = this.order[i];
+                for (int k = 0; k < 3; k++) {
+                    for (int v = 0; v < 3; v++) {
+                        float value = this.source[t * 9 + v * 3 + k];
+                        this.bounds[node * 6 + k] = Math.min(this.bounds[node * 6 + k], value);
+                        this.bounds[node * 6 + 3 + k] = Math.max(this.bounds[node * 6 + 3 + k], value);
+                    }
+                    float c = this.centroids[t * 3 + k];
+                    centroidBounds[k] = Math.min(centroidBounds[k], c);
+                    centroidBounds[3 + k] = Math.max(centroidBounds[3 + k], c);
+                }
+            }
+        
+            int axis = 0;
+            for (int k = 1; k < 3; k++) {
+                if (centroidBounds[3 + k] - centroidBounds[k] > 
+                        centroidBounds[3 + axis] - centroidBounds[axis]) {
+                    axis = k;
+                }
+            }
+        
+            //make a leaf if the triangles are few enough or cannot be separated
+            if (end - first <= LEAFSIZE || centroidBounds[3 + axis] <= centroidBounds[axis]) {
+                this.offsets[node] = first;
+                this.counts[node] = end - first;
+                return;
+            }
+        
+            //sort the range along the split axis
+            for (int i = first; i < end; i++) {
+                int t = this.order[i];
+                int bits = Float.floatToIntBits(this.centroids[t * 3 + axis]);
+                bits ^= (bits >> 31) & 0x7fffffff;
+                this.keys[i] = ((long) bits << 32) | t;
+            }
+            Arrays.sort(this.keys, first, end);
+            for (int i = first; i < end; i++) {
+                this.order[i] = (int) this.keys[i];
+            }
+        
+            int left = this.nodeCount;
+            this.nodeCount += 2;
+            this.offsets[node] = left;
+            this.counts[node] = 0;
+            int middle = (first + end) >>> 1;
+            this.build(left, first, middle);
+            this.build(left + 1, middle, end);
+        }
+    }
+}
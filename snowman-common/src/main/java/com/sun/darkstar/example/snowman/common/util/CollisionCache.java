@@ -0,0 +1,264 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.common.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * <code>CollisionCache</code> holds the collision data baked from a world
+ * file along with the dimensions of the world, and stores it in a compact
+ * binary file so that it can be loaded without going through the JME
+ * scene graph again.  The file holds the flattened bounding volume
+ * hierarchy of the mesh, and a loaded cache queries it directly in the
+ * memory mapped file, so neither the triangles nor the tree are copied
+ * onto the heap or rebuilt.
+ * <p>
+ * Each cache file records the format version and a digest of the contents
+ * of the world file that it was baked from.  A cache file that was written
+ * by a different version or from a different world file is ignored, so the
+ * data is simply baked again whenever the world changes.  The file format
+ * is, in big endian order up to the hierarchy and in the native order of
+ * the machine that wrote it from there on, so that the hierarchy can be
+ * queried in place without swapping bytes:
+ * <ul>
+ * <li>the <code>int</code> magic number and format version</li>
+ * <li>the <code>int</code> length of the digest followed by its bytes</li>
+ * <li>the <code>float</code> width and depth of the world</li>
+ * <li>the <code>int</code> one, which a machine of the other byte order
+ * reads as a different number and so bakes the data again</li>
+ * <li>the <code>int</code> number of triangles and of nodes of the
+ * hierarchy</li>
+ * <li>nine <code>float</code> vertex coordinates per triangle, in tree
+ * order</li>
+ * <li>six <code>float</code> bounds per node</li>
+ * <li>the <code>int</code> offset and then the <code>int</code> count of
+ * each node</li>
+ * </ul>
+ */
+public final class CollisionCache {
+    /**
+     * The magic number that every cache file starts with.
+     */
+    private static final int MAGIC = 0x534e4343;
+    /**
+     * The version of the cache file format.
+     */
+    private static final int VERSION = 3;
+    /**
+     * The algorithm used to digest world files.
+     */
+    private static final String DIGEST = "SHA-1";
+    
+    /**
+     * The width of the world along the x axis.
+     */
+    private final float width;
+    /**
+     * The depth of the world along the z axis.
+     */
+    private final float depth;
+    /**
+     * The collision mesh of the world.
+     */
+    private final CollisionMesh mesh;
+
+    /**
+     * Constructor of <code>CollisionCache</code>.
+     * @param width The width of the world along the x axis.
+     * @param depth The depth of the world along the z axis.
+     * @param mesh The <code>CollisionMesh</code> of the world.
+     */
+    public CollisionCache(float width, float depth, CollisionMesh mesh) {
+        this.width = width;
+        this.depth = depth;
+        this.mesh = mesh;
+    }
+    
+    /**
+     * Retrieve the width of the world along the x axis.
+     * @return The width of the world.
+     */
+    public float getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Retrieve the depth of the world along the z axis.
+     * @return The depth of the world.
+     */
+    public float getDepth() {
+        return this.depth;
+    }
+    
+    /**
+     * Retrieve the collision mesh of the world.
+     * @return The <code>CollisionMesh</code> of the world.
+     */
+    public CollisionMesh getMesh() {
+        return this.mesh;
+    }
+    
+    /**
+     * Compute the digest of the contents at the given location that cache
+     * files are keyed by.
+     * @param source The <code>URL</code> of the world file.
+     * @return The digest of the world file.
+     * @throws IOException If the world file cannot be read.
+     */
+    public static byte[] digest(URL source) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST + " is not available", e);
+        }
+        InputStream in = source.openStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+    
+    /**
+     * Load the cache stored in the given file by memory mapping it.  The
+     * mesh of the loaded cache reads the mapping, which stays valid after
+     * the file is closed, so the file must not be modified while the
+     * cache is in use.
+     * @param file The cache <code>File</code>.
+     * @param key The digest of the world file that the cache must have been baked from.
+     * @return The loaded <code>CollisionCache</code> or <code>null</code> if the file does
+     * not exist or was not written by this version from the same world file.
+     * @throws IOException If the file cannot be read.
+     */
+    public static CollisionCache load(File file, byte[] key) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int keyLength = buffer.getInt();
+            if (keyLength != key.length || buffer.remaining() < keyLength + 12) {
+                return null;
+            }
+            byte[] stored = new byte[keyLength];
+            buffer.get(stored);
+            if (!Arrays.equals(stored, key)) {
+                return null;
+            }
+            float width = buffer.getFloat();
+            float depth = buffer.getFloat();
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getInt() != 1) {
+                return null;
+            }
+            BoundingVolumeHierarchy hierarchy = BoundingVolumeHierarchy.read(buffer);
+            if (hierarchy == null || buffer.hasRemaining()) {
+                return null;
+            }
+            return new CollisionCache(width, depth, new CollisionMesh(hierarchy));
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Store this cache in the given file.  The data is written to a temporary
+     * file in the same directory first, so that a partially written cache is
+     * never picked up.
+     * @param file The cache <code>File</code>.
+     * @param key The digest of the world file that the cache was baked from.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(File file, byte[] key) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        BoundingVolumeHierarchy hierarchy = this.mesh.getHierarchy();
+        ByteBuffer buffer = ByteBuffer.allocate(4 * 3 + key.length + 4 * 3 + hierarchy.getSize());
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(key.length);
+        buffer.put(key);
+        buffer.putFloat(this.width);
+        buffer.putFloat(this.depth);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(1);
+        hierarchy.write(buffer);
+        buffer.flip();
+        
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            } finally {
+                raf.close();
+            }
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp + " to " + file);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.common.util;
+
+/**
+ * <code>CollisionGeometry</code> defines the interface for an immutable
+ * representation of the static world that ray queries can be run against.
+ * Implementations never modify their state after construction and may be
+ * queried concurrently from any number of threads.
+ */
+public interface CollisionGeometry {
+
+    /**
+     * Retrieve the distance along the given ray to the closest obstacle
+     * that it intersects before the given limit.  The direction is expected
+     * to be normalized so that the result is a true distance.
+     * @param ox The x coordinate of the ray origin.
+     * @param oy The y coordinate of the ray origin.
+     * @param oz The z coordinate of the ray origin.
+     * @param dx The x component of the ray direction.
+     * @param dy The y component of the ray direction.
+     * @param dz The z component of the ray direction.
+     * @param limit The distance beyond which intersections are ignored.
+     * @return The distance to the closest intersection or <code>Float.POSITIVE_INFINITY</code> if there is none before the limit.
+     */
+    public float getIntersection(float ox, float oy, float oz, float dx, float dy, float dz, float limit);
+}
@@ -95,4 +95,44 @@ public interface CollisionManager {
      * @return True if there is no occlusion objects. False otherwise.
      */
     public boolean validate(float x1, float z1, float x2, float z2, Spatial spatial);
+    
+    /**
+     * Retrieve the valid destination point based on the given coordinate values.
+     * Unlike the <code>Spatial</code> based version, this method does not modify
+     * any shared state and may be invoked concurrently.
+     * @param x1 The x coordinate of the starting position in the geometry's coordinate system.
+     * @param z1 The z coordinate of the starting position in the geometry's coordinate system.
+     * @param x2 The x coordinate of the clicking position in the geometry's coordinate system.
+     * @param z2 The z coordinate of the clicking position in the geometry's coordinate system.
+     * @param geometry The <code>CollisionGeometry</code> instance to check against.
+     * @return The valid <code>Vector3f</code> destination.
+     */
+    public Vector3f getDestination(float x1, float z1, float x2, float z2, CollisionGeometry geometry);
+    
+    /**
+     * Retrieve the valid destination point based on the given coordinate values.
+     * The x and z coordinates of the destination are written into the first two
+     * elements of the given store, so that no objects are created by the query.
+     * This method does not modify any shared state and may be invoked concurrently.
+     * @param x1 The x coordinate of the starting position in the geometry's coordinate system.
+     * @param z1 The z coordinate of the starting position in the geometry's coordinate system.
+     * @param x2 The x coordinate of the clicking position in the geometry's coordinate system.
+     * @param z2 The z coordinate of the clicking position in the geometry's coordinate system.
+     * @param geometry The <code>CollisionGeometry</code> instance to check against.
+     * @param store The <code>float</code> array of at least two elements to store the destination in.
+     */
+    public void getDestination(float x1, float z1, float x2, float z2, CollisionGeometry geometry, float[] store);
+    
+    /**
+     * Validate if there is any static objects between the given points.
+     * Unlike the <code>Spatial</code> based version, this method does not modify
+     * any shared state and may be invoked concurrently.
+     * @param x1 The x coordinate of the starting position in the geometry's coordinate system.
+     * @param z1 The z coordinate of the starting position in the geometry's coordinate system.
+     * @param x2 The x coordinate of the clicking position in the geometry's coordinate system.
+     * @param z2 The z coordinate of the clicking position in the geometry's coordinate system.
+     * @param geometry The <code>CollisionGeometry</code> instance to check against.
+     * @return True if there is no occlusion objects. False otherwise.
+     */
+    public boolean validate(float x1, float z1, float x2, float z2, CollisionGeometry geometry);
 }
@@ -219,4 +219,63 @@ public class CollisionManagerImpl implements CollisionManager
         if(distance1 <= distance2) return true;
         else return false;
     }
+
+    /** {@inheritDoc} */
+    public Vector3f getDestination(float x1, float z1, float x2, float z2, CollisionGeometry geometry) {
+        float[] destination = new float[2];
+        this.getDestination(x1, z1, x2, z2, geometry, destination);
+        return new Vector3f(destination[0], EStats.SnowmanHeight.getValue()/2.0f, destination[1]);
+    }
+
+    /** {@inheritDoc} */
+    public void getDestination(float x1, float z1, float x2, float z2, CollisionGeometry geometry, float[] store) {
+        float height = EStats.SnowmanHeight.getValue()/2.0f;
+        
+        //generate the horizontal direction of the move
+        float dx = x2 - x1;
+        float dz = z2 - z1;
+        float originalDistance = (float) Math.sqrt(dx * dx + dz * dz);
+        if(originalDistance == 0) {
+            store[0] = x2;
+            store[1] = z2;
+            return;
+        }
+        dx /= originalDistance;
+        dz /= originalDistance;
+        
+        //calculate the distance to the first obstacle along the move,
+        //obstacles beyond the backoff distance of the destination don't matter
+        float newDistance = geometry.getIntersection(x1, height, z1, dx, 0, dz,
+                originalDistance + EStats.BackoffDistance.getValue());
+        
+        if(originalDistance > newDistance - EStats.BackoffDistance.getValue()) {
+            //we are either trying to go through a hit point
+            //or got too close to one
+            float trimmed = newDistance - EStats.BackoffDistance.getValue();
+            store[0] = x1 + dx * trimmed;
+            store[1] = z1 + dz * trimmed;
+        } else {
+            //there are no obstacles or the destination is not close to
+            //any hit points so we can just return it directly
+            store[0] = x2;
+            store[1] = z2;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean validate(float x1, float z1, float x2, float z2, CollisionGeometry geometry) {
+        float height = EStats.SnowballHeight.getValue();
+        
+        //generate the horizontal direction of the throw
+        float dx = x2 - x1;
+        float dz = z2 - z1;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        if(distance == 0) return true;
+        
+        //a throw is valid if the first obstacle is beyond the target
+        float hitDistance = geometry.getIntersection(x1, height, z1, 
+                                                     dx / distance, 0, dz / distance,
+                                                     distance);
+        return distance <= hitDistance;
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jme.math.Vector3f;
+import com.jme.scene.Node;
+import com.jme.scene.Spatial;
+import com.jme.scene.TriMesh;
+
+/**
+ * <code>CollisionMesh</code> is an immutable copy of all of the triangles
+ * of a static <code>Spatial</code> world.  The triangles are stored in the
+ * local coordinate system of the root <code>Spatial</code> so that rays
+ * built from map coordinates can be tested against them directly.
+ * <p>
+ * The triangles are organized in a <code>BoundingVolumeHierarchy</code> so
+ * that a ray query only tests the few triangles near the ray.  Once
+ * constructed, a <code>CollisionMesh</code> is never modified and may be
+ * queried concurrently from any number of threads.
+ */
+public final class CollisionMesh implements CollisionGeometry {
+    /**
+     * The hierarchy holding the triangles of the world.
+     */
+    private final BoundingVolumeHierarchy hierarchy;
+
+    /**
+     * Constructor of <code>CollisionMesh</code>.  The given <code>Spatial</code>
+     * must have had its geometric state updated.
+     * @param root The root <code>Spatial</code> of the static world.
+     */
+    public CollisionMesh(Spatial root) {
+        this(CollisionMesh.extractTriangles(root));
+    }
+    
+    /**
+     * Constructor of <code>CollisionMesh</code>.
+     * @param triangles The triangle vertices, nine floats per triangle.
+     */
+    public CollisionMesh(float[] triangles) {
+        this(new BoundingVolumeHierarchy(triangles));
+    }
+    
+    /**
+     * Constructor of <code>CollisionMesh</code>.
+     * @param hierarchy The <code>BoundingVolumeHierarchy</code> holding the triangles.
+     */
+    CollisionMesh(BoundingVolumeHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+    
+    /**
+     * Copy the triangles of all of the meshes under the given root into
+     * the local coordinate system of the root.
+     * @param root The root <code>Spatial</code> of the static world.
+     * @return The triangle vertices, nine floats per triangle.
+     */
+    private static float[] extractTriangles(Spatial root) {
+        List<TriMesh> meshes = new ArrayList<TriMesh>();
+        CollisionMesh.collectMeshes(root, meshes);
+        
+        int count = 0;
+        for (TriMesh mesh : meshes) {
+            count += mesh.getTriangleCount();
+        }
+        float[] verts = new float[count * 9];
+        
+        Vector3f[] triangle = new Vector3f[3];
+        int t = 0;
+        for (TriMesh mesh : meshes) {
+            for (int i = 0; i < mesh.getTriangleCount(); i++, t++) {
+                mesh.getTriangle(i, triangle);
+                for (int j = 0; j < triangle.length; j++) {
+                    mesh.localToWorld(triangle[j], triangle[j]);
+                    root.worldToLocal(triangle[j], triangle[j]);
+                    verts[t * 9 + j * 3] = triangle[j].getX();
+                    verts[t * 9 + j * 3 + 1] = triangle[j].getY();
+                    verts[t * 9 + j * 3 + 2] = triangle[j].getZ();
+                }
+            }
+        }
+        return verts;
+    }
+
+    /**
+     * Collect all of the triangle meshes under the given spatial.
+     * @param spatial The <code>Spatial</code> to search.
+     * @param store The <code>List</code> to store the meshes in.
+     */
+    private static void collectMeshes(Spatial spatial, List<TriMesh> store) {
+        if (spatial instanceof TriMesh) {
+            store.add((TriMesh) spatial);
+        } else if (spatial instanceof Node) {
+            List<Spatial> children = ((Node) spatial).getChildren();
+            if (children != null) {
+                for (Spatial child : children) {
+                    CollisionMesh.collectMeshes(child, store);
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieve the number of triangles in this mesh.
+     * @return The number of triangles.
+     */
+    public int getTriangleCount() {
+        return this.hierarchy.getTriangleCount();
+    }
+    
+    /**
+     * Retrieve the distance along the given ray to the closest triangle
+     * that it intersects.  The direction is expected to be normalized so
+     * that the result is a true distance.
+     * @param ox The x coordinate of the ray origin.
+     * @param oy The y coordinate of the ray origin.
+     * @param oz The z coordinate of the ray origin.
+     * @param dx The x component of the ray direction.
+     * @param dy The y component of the ray direction.
+     * @param dz The z component of the ray direction.
+     * @return The distance to the closest intersection or <code>Float.POSITIVE_INFINITY</code> if there is none.
+     */
+    public float getIntersection(float ox, float oy, float oz, float dx, float dy, float dz) {
+        return this.hierarchy.getIntersection(ox, oy, oz, dx, dy, dz);
+    }
+    
+    /** {@inheritDoc} */
+    public float getIntersection(float ox, float oy, float oz, float dx, float dy, float dz, float limit) {
+        return this.hierarchy.getIntersection(ox, oy, oz, dx, dy, dz, limit);
+    }
+    
+    /**
+     * Retrieve the triangle vertices of this mesh.  The returned array
+     * may be shared and must not be modified.
+     * @return The triangle vertices, nine floats per triangle.
+     */
+    float[] getTriangles() {
+        return this.hierarchy.getTriangles();
+    }
+    
+    /**
+     * Retrieve the hierarchy holding the triangles of this mesh.
+     * @return The <code>BoundingVolumeHierarchy</code> of this mesh.
+     */
+    BoundingVolumeHierarchy getHierarchy() {
+        return this.hierarchy;
+    }
+}
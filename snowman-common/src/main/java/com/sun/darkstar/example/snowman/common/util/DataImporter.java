@@ -34,6 +34,8 @@
 
 package com.sun.darkstar.example.snowman.common.util;
 
+import java.net.URL;
+
 import com.jme.scene.Spatial;
 import com.sun.darkstar.example.snowman.common.util.enumn.EWorld;
 
@@ -54,5 +56,12 @@ public interface DataImporter {
      * @return The loaded <code>Spatial</code> world data.
      */
     public Spatial getWorld(EWorld enumn);
+    
+    /**
+     * Retrieve the location of the binary world data file.
+     * @param enumn The <code>EWorld</code> enumeration.
+     * @return The <code>URL</code> of the world data file.
+     */
+    public URL getWorldLocation(EWorld enumn);
 
 }
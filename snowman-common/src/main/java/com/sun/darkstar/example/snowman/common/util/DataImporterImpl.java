@@ -88,11 +88,20 @@ public class DataImporterImpl implements DataImporter{
      * @return The loaded <code>Spatial</code> world data.
      */
     public Spatial getWorld(EWorld enumn) {
-        URL url = this.getClass().getClassLoader().getResource(this.dir + enumn.toString() + this.extWorld);
+        URL url = this.getWorldLocation(enumn);
         try {
             return (Spatial) BinaryImporter.getInstance().load(url.openStream());
         } catch (IOException e) {
             throw new NullPointerException("Cannot find world data: " + enumn.toString());
         }
     }
+
+    /**
+     * Retrieve the location of the binary world data file.
+     * @param enumn The <code>EWorld</code> enumeration.
+     * @return The <code>URL</code> of the world data file.
+     */
+    public URL getWorldLocation(EWorld enumn) {
+        return this.getClass().getClassLoader().getResource(this.dir + enumn.toString() + this.extWorld);
+    }
 }
@@ -0,0 +1,344 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.common.util;
+
+import com.sun.darkstar.example.snowman.common.util.enumn.EStats;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <code>NavigationGraph</code> is a graph of waypoints laid out on a regular
+ * grid over the static world, used to find a way around obstacles rather
+ * than walking straight into them.  Each waypoint is linked to its eight
+ * neighbours when a snowman can walk from one to the other without its move
+ * being trimmed by the world, which is checked once when the graph is built.
+ * <p>
+ * Paths are found by searching the graph backwards from the waypoint
+ * nearest to the destination, which gives the next hop towards it from
+ * every waypoint at once.  These hop tables are cached per destination
+ * waypoint, so that any number of snowmen heading to the same place share
+ * a single search.  A waypoint query then follows the hops from the start
+ * and returns the farthest one that can be walked to in a straight line.
+ * Once constructed, the graph itself is never modified and it may be
+ * queried concurrently from any number of threads.
+ */
+public final class NavigationGraph {
+    /**
+     * The maximum number of hop tables kept in the cache.
+     */
+    private static final int MAX_CACHED_ROUTES = 256;
+    /**
+     * The maximum number of hops followed looking for a waypoint.
+     */
+    private static final int LOOKAHEAD = 8;
+    /**
+     * The column offset of the neighbour in each direction.
+     */
+    private static final int[] DX = {1, 1, 0, -1, -1, -1, 0, 1};
+    /**
+     * The row offset of the neighbour in each direction.
+     */
+    private static final int[] DZ = {0, 1, 1, 1, 0, -1, -1, -1};
+    /**
+     * The cost of a diagonal hop relative to a straight one.
+     */
+    private static final float DIAGONAL = (float) Math.sqrt(2);
+    
+    /**
+     * The geometry moves are checked against.
+     */
+    private final CollisionGeometry geometry;
+    /**
+     * The distance between neighbouring waypoints.
+     */
+    private final float spacing;
+    /**
+     * The number of waypoints along the x axis.
+     */
+    private final int columns;
+    /**
+     * The number of waypoints along the z axis.
+     */
+    private final int rows;
+    /**
+     * The links of each waypoint, one bit per direction that can be walked.
+     */
+    private final byte[] links;
+    /**
+     * The hop tables of the destinations searched so far.
+     */
+    private final ConcurrentMap<Integer, int[]> routes =
+            new ConcurrentHashMap<Integer, int[]>();
+
+    /**
+     * Constructor of <code>NavigationGraph</code>.
+     * @param geometry The <code>CollisionGeometry</code> of the world, which must answer queries at the move height.
+     * @param width The extent of the world along the x axis.
+     * @param depth The extent of the world along the z axis.
+     * @param spacing The distance between neighbouring waypoints.
+     */
+    public NavigationGraph(CollisionGeometry geometry, float width, float depth, float spacing) {
+        if (spacing <= 0) {
+            throw new IllegalArgumentException("Spacing must be > 0");
+        }
+        this.geometry = geometry;
+        this.spacing = spacing;
+        this.columns = Math.max(1, (int) (width / spacing));
+        this.rows = Math.max(1, (int) (depth / spacing));
+        this.links = new byte[this.columns * this.rows];
+        
+        for (int node = 0; node < this.links.length; node++) {
+            int column = node % this.columns;
+            int row = node / this.columns;
+            for (int d = 0; d < DX.length; d++) {
+                int next = this.getNeighbour(column, row, d);
+                if (next >= 0 && this.isClear(this.getX(node), this.getZ(node),
+                                              this.getX(next), this.getZ(next))) {
+                    this.links[node] |= 1 << d;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Retrieve the number of waypoints in this graph.
+     * @return The number of waypoints.
+     */
+    public int getNodeCount() {
+        return this.links.length;
+    }
+    
+    /**
+     * Retrieve the number of links between waypoints in this graph, counting
+     * each direction separately.
+     * @return The number of links.
+     */
+    public int getLinkCount() {
+        int count = 0;
+        for (byte link : this.links) {
+            count += Integer.bitCount(link & 0xff);
+        }
+        return count;
+    }
+    
+    /**
+     * Find the point a snowman at the given start position should walk to
+     * next on its way to the given end position.  If nothing is in the way,
+     * this is the end position itself.  Otherwise it is the farthest
+     * waypoint that can be walked to along the path through the graph.
+     * @param startX The x coordinate of the start position.
+     * @param startZ The z coordinate of the start position.
+     * @param endX The x coordinate of the end position.
+     * @param endZ The z coordinate of the end position.
+     * @param store The array of at least two elements that the x and z coordinates of the point are written to.
+     * @return True if a point was found, false if the graph has no way to the end from the start.
+     */
+    public boolean getWaypoint(float startX, float startZ, float endX, float endZ, float[] store) {
+        if (this.isClear(startX, startZ, endX, endZ)) {
+            store[0] = endX;
+            store[1] = endZ;
+            return true;
+        }
+        int goal = this.getNode(endX, endZ);
+        int[] hops = this.getRoute(goal);
+        
+        //join the graph at the nearest waypoint that leads to the goal
+        int column = this.getColumn(startX);
+        int row = this.getRow(startZ);
+        int node = column + row * this.columns;
+        if (hops[node] < 0 || !this.isClear(startX, startZ, this.getX(node), this.getZ(node))) {
+            node = -1;
+            for (int d = 0; d < DX.length && node < 0; d++) {
+                int next = this.getNeighbour(column, row, d);
+                if (next >= 0 && hops[next] >= 0 &&
+                        this.isClear(startX, startZ, this.getX(next), this.getZ(next))) {
+                    node = next;
+                }
+            }
+            if (node < 0) {
+                return false;
+            }
+        }
+        
+        //cut the corners of the path by skipping ahead to the farthest
+        //waypoint that can be walked to directly
+        int waypoint = node;
+        for (int i = 0; i < LOOKAHEAD && node != goal; i++) {
+            node = hops[node];
+            if (!this.isClear(startX, startZ, this.getX(node), this.getZ(node))) {
+                break;
+            }
+            waypoint = node;
+        }
+        float x = this.getX(waypoint);
+        float z = this.getZ(waypoint);
+        if (x == startX && z == startZ) {
+            return false;
+        }
+        store[0] = x;
+        store[1] = z;
+        return true;
+    }
+    
+    /**
+     * Retrieve the hop table towards the given goal, searching the graph if
+     * it is not cached.  The cache is simply emptied when it is full.
+     * @param goal The goal waypoint.
+     * @return The next waypoint towards the goal from each waypoint, or -1 if the goal cannot be reached from it.
+     */
+    private int[] getRoute(int goal) {
+        Integer key = Integer.valueOf(goal);
+        int[] hops = this.routes.get(key);
+        if (hops == null) {
+            hops = this.search(goal);
+            if (this.routes.size() >= MAX_CACHED_ROUTES) {
+                this.routes.clear();
+            }
+            this.routes.put(key, hops);
+        }
+        return hops;
+    }
+    
+    /**
+     * Search the graph backwards from the given goal, following the links
+     * that lead into each waypoint.
+     * @param goal The goal waypoint.
+     * @return The next waypoint towards the goal from each waypoint, or -1 if the goal cannot be reached from it.
+     */
+    private int[] search(int goal) {
+        int[] hops = new int[this.links.length];
+        float[] costs = new float[this.links.length];
+        Arrays.fill(hops, -1);
+        Arrays.fill(costs, Float.POSITIVE_INFINITY);
+        hops[goal] = goal;
+        costs[goal] = 0;
+        
+        //entries hold the cost in the high bits and the waypoint in the low
+        //bits, non negative floats sort in the same order as their bits
+        PriorityQueue<Long> open = new PriorityQueue<Long>();
+        open.add(Long.valueOf(goal));
+        while (!open.isEmpty()) {
+            long entry = open.poll().longValue();
+            int node = (int) entry;
+            float cost = Float.intBitsToFloat((int) (entry >>> 32));
+            if (cost > costs[node]) {
+                continue;
+            }
+            int column = node % this.columns;
+            int row = node / this.columns;
+            for (int d = 0; d < DX.length; d++) {
+                int previous = this.getNeighbour(column, row, d);
+                //the link from the neighbour back to this waypoint
+                if (previous < 0 || (this.links[previous] & (1 << ((d + 4) & 7))) == 0) {
+                    continue;
+                }
+                float next = cost + ((d & 1) == 0 ? 1 : DIAGONAL);
+                if (next < costs[previous]) {
+                    costs[previous] = next;
+                    hops[previous] = node;
+                    open.add(Long.valueOf(((long) Float.floatToIntBits(next) << 32) | previous));
+                }
+            }
+        }
+        return hops;
+    }
+    
+    /**
+     * Check whether a move between the given points is not trimmed by the
+     * world, following the same rule as the <code>CollisionManager</code>.
+     */
+    private boolean isClear(float x1, float z1, float x2, float z2) {
+        float dx = x2 - x1;
+        float dz = z2 - z1;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        if (distance == 0) {
+            return true;
+        }
+        float limit = distance + EStats.BackoffDistance.getValue();
+        float hit = this.geometry.getIntersection(x1, EStats.SnowmanHeight.getValue() / 2.0f, z1,
+                                                  dx / distance, 0, dz / distance,
+                                                  limit);
+        return hit >= limit;
+    }
+    
+    /**
+     * Retrieve the neighbour of the given waypoint in the given direction.
+     * @return The index of the neighbour or -1 if it is off the graph.
+     */
+    private int getNeighbour(int column, int row, int direction) {
+        int c = column + DX[direction];
+        int r = row + DZ[direction];
+        if (c < 0 || c >= this.columns || r < 0 || r >= this.rows) {
+            return -1;
+        }
+        return c + r * this.columns;
+    }
+    
+    /**
+     * Retrieve the waypoint nearest to the given position.
+     */
+    private int getNode(float x, float z) {
+        return this.getColumn(x) + this.getRow(z) * this.columns;
+    }
+    
+    /**
+     * Retrieve the column of waypoints nearest to the given x coordinate, clamped to the graph.
+     */
+    private int getColumn(float x) {
+        return Math.max(0, Math.min(this.columns - 1, (int) Math.floor(x / this.spacing)));
+    }
+    
+    /**
+     * Retrieve the row of waypoints nearest to the given z coordinate, clamped to the graph.
+     */
+    private int getRow(float z) {
+        return Math.max(0, Math.min(this.rows - 1, (int) Math.floor(z / this.spacing)));
+    }
+    
+    /**
+     * Retrieve the x coordinate of the given waypoint.
+     */
+    private float getX(int node) {
+        return ((node % this.columns) + 0.5f) * this.spacing;
+    }
+    
+    /**
+     * Retrieve the z coordinate of the given waypoint.
+     */
+    private float getZ(int node) {
+        return ((node / this.columns) + 0.5f) * this.spacing;
+    }
+}
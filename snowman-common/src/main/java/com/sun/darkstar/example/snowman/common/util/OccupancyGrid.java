@@ -0,0 +1,416 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.common.util;
+
+import java.util.Arrays;
+
+/**
+ * <code>OccupancyGrid</code> is a two dimensional raster of the static world
+ * baked at a fixed set of heights.  For each height, every triangle of the
+ * world is cut by the horizontal plane at that height, which leaves a set of
+ * line segments outlining the obstacles.  Each layer then marks the cells
+ * that those segments pass through in a bitset and keeps the segments of
+ * every occupied cell.
+ * <p>
+ * A horizontal ray query at one of the baked heights walks the cells that
+ * the ray crosses, skipping empty cells with a single bit test and only
+ * testing the segments of occupied cells.  Since a horizontal ray hits a
+ * triangle exactly where it crosses the triangle's segment, the results are
+ * the same as testing against the triangles themselves; the resolution of
+ * the grid only trades memory for speed.  Once constructed, an
+ * <code>OccupancyGrid</code> is never modified and may be queried
+ * concurrently from any number of threads.
+ */
+public final class OccupancyGrid implements CollisionGeometry {
+    /**
+     * Tolerance used to reject rays that are parallel to a segment.
+     */
+    private static final float EPSILON = 1e-7f;
+    
+    /**
+     * The minimum x coordinate covered by the grid.
+     */
+    private final float minX;
+    /**
+     * The minimum z coordinate covered by the grid.
+     */
+    private final float minZ;
+    /**
+     * The length of the side of a cell.
+     */
+    private final float cellSize;
+    /**
+     * The number of cells along the x axis.
+     */
+    private final int columns;
+    /**
+     * The number of cells along the z axis.
+     */
+    private final int rows;
+    /**
+     * The heights that the layers were baked at.
+     */
+    private final float[] heights;
+    /**
+     * The occupancy bits of each layer, one bit per cell in row order.
+     */
+    private final long[][] occupied;
+    /**
+     * The segments of each layer, four floats (x,z of both ends) per segment.
+     */
+    private final float[][] segments;
+    /**
+     * The index of the first entry in the cell segment list of each cell of
+     * each layer, followed by the total number of entries.
+     */
+    private final int[][] cellStarts;
+    /**
+     * The indices of the segments passing through each cell of each layer.
+     */
+    private final int[][] cellSegments;
+
+    /**
+     * Constructor of <code>OccupancyGrid</code>.
+     * @param mesh The <code>CollisionMesh</code> to bake the grid from.
+     * @param heights The heights to bake a layer at.
+     * @param resolution The number of cells per unit of distance.
+     */
+    public OccupancyGrid(CollisionMesh mesh, float[] heights, float resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be > 0");
+        }
+        float[] triangles = mesh.getTriangles();
+        float lowX = Float.POSITIVE_INFINITY;
+        float lowZ = Float.POSITIVE_INFINITY;
+        float highX = Float.NEGATIVE_INFINITY;
+        float highZ = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < triangles.length; i += 3) {
+            lowX = Math.min(lowX, triangles[i]);
+            highX = Math.max(highX, triangles[i]);
+            lowZ = Math.min(lowZ, triangles[i + 2]);
+            highZ = Math.max(highZ, triangles[i + 2]);
+        }
+        
+        this.cellSize = 1.0f / resolution;
+        if (triangles.length == 0) {
+            this.minX = 0;
+            this.minZ = 0;
+            this.columns = 0;
+            this.rows = 0;
+        } else {
+            this.minX = lowX;
+            this.minZ = lowZ;
+            this.columns = (int) ((highX - lowX) / this.cellSize) + 1;
+            this.rows = (int) ((highZ - lowZ) / this.cellSize) + 1;
+        }
+        
+        this.heights = heights.clone();
+        this.occupied = new long[heights.length][];
+        this.segments = new float[heights.length][];
+        this.cellStarts = new int[heights.length][];
+        this.cellSegments = new int[heights.length][];
+        for (int i = 0; i < heights.length; i++) {
+            this.bake(triangles, heights[i], i);
+        }
+    }
+    
+    /**
+     * Bake the layer at the given index from the given triangles.
+     * @param triangles The triangle vertices, nine floats per triangle.
+     * @param height The height of the layer.
+     * @param layer The index of the layer.
+     */
+    private void bake(float[] triangles, float height, int layer) {
+        //cut the triangles by the plane of the layer
+        float[] cut = new float[64];
+        int count = 0;
+        for (int t = 0; t < triangles.length; t += 9) {
+            int points = 0;
+            if (cut.length < (count + 1) * 4) {
+                cut = Arrays.copyOf(cut, cut.length * 2);
+            }
+            for (int i = 0; i < 3; i++) {
+                int a = t + i * 3;
+                int b = t + ((i + 1) % 3) * 3;
+                float da = triangles[a + 1] - height;
+                float db = triangles[b + 1] - height;
+                if ((da < 0) != (db < 0)) {
+                    float s = da / (da - db);
+                    cut[count * 4 + points * 2] = triangles[a] + s * (triangles[b] - triangles[a]);
+                    cut[count * 4 + points * 2 + 1] = triangles[a + 2] + s * (triangles[b + 2] - triangles[a + 2]);
+                    points++;
+                }
+            }
+            if (points == 2) {
+                count++;
+            }
+        }
+        this.segments[layer] = Arrays.copyOf(cut, count * 4);
+        
+        //count the segments of each cell, then fill in the cell lists
+        int cells = this.columns * this.rows;
+        int[] starts = new int[cells + 1];
+        for (int s = 0; s < count; s++) {
+            this.rasterize(cut, s, starts, null);
+        }
+        int total = 0;
+        for (int c = 0; c < cells; c++) {
+            int cellCount = starts[c];
+            starts[c] = total;
+            total += cellCount;
+        }
+        starts[cells] = total;
+        
+        int[] fill = Arrays.copyOf(starts, cells);
+        int[] entries = new int[total];
+        for (int s = 0; s < count; s++) {
+            this.rasterize(cut, s, fill, entries);
+        }
+        
+        long[] bits = new long[(cells + 63) >> 6];
+        for (int c = 0; c < cells; c++) {
+            if (starts[c + 1] > starts[c]) {
+                bits[c >> 6] |= 1L << c;
+            }
+        }
+        this.occupied[layer] = bits;
+        this.cellStarts[layer] = starts;
+        this.cellSegments[layer] = entries;
+    }
+    
+    /**
+     * Visit every cell that the given segment passes through.  If no entries
+     * are given, the count of each visited cell is incremented.  Otherwise
+     * the segment is added to the list of each visited cell at the position
+     * given by the fill array, which is then advanced.
+     * @param cut The segment end points, four floats per segment.
+     * @param segment The index of the segment.
+     * @param fill The per cell counts or fill positions.
+     * @param entries The cell segment lists or null to count.
+     */
+    private void rasterize(float[] cut, int segment, int[] fill, int[] entries) {
+        float ax = cut[segment * 4];
+        float az = cut[segment * 4 + 1];
+        float bx = cut[segment * 4 + 2];
+        float bz = cut[segment * 4 + 3];
+        int cx = this.getColumn(ax);
+        int cz = this.getRow(az);
+        int endX = this.getColumn(bx);
+        int endZ = this.getRow(bz);
+        
+        float dx = bx - ax;
+        float dz = bz - az;
+        int stepX = dx > 0 ? 1 : -1;
+        int stepZ = dz > 0 ? 1 : -1;
+        float nextX = dx == 0 ? Float.POSITIVE_INFINITY :
+                (this.minX + (cx + (dx > 0 ? 1 : 0)) * this.cellSize - ax) / dx;
+        float nextZ = dz == 0 ? Float.POSITIVE_INFINITY :
+                (this.minZ + (cz + (dz > 0 ? 1 : 0)) * this.cellSize - az) / dz;
+        float deltaX = dx == 0 ? Float.POSITIVE_INFINITY : this.cellSize / Math.abs(dx);
+        float deltaZ = dz == 0 ? Float.POSITIVE_INFINITY : this.cellSize / Math.abs(dz);
+        
+        //the walk may round its way past the end cell, so the
+        //end cell is always added and never added twice
+        int steps = Math.abs(endX - cx) + Math.abs(endZ - cz);
+        for (int i = 0; ; i++) {
+            if (cx != endX || cz != endZ) {
+                this.addToCell(cz * this.columns + cx, segment, fill, entries);
+            }
+            if (i >= steps) {
+                break;
+            }
+            if (nextX < nextZ) {
+                cx += stepX;
+                nextX += deltaX;
+            } else {
+                cz += stepZ;
+                nextZ += deltaZ;
+            }
+            if (cx < 0 || cx >= this.columns || cz < 0 || cz >= this.rows) {
+                break;
+            }
+        }
+        this.addToCell(endZ * this.columns + endX, segment, fill, entries);
+    }
+    
+    /**
+     * Count or add the given segment in the given cell.
+     */
+    private void addToCell(int cell, int segment, int[] fill, int[] entries) {
+        if (entries == null) {
+            fill[cell]++;
+        } else {
+            entries[fill[cell]++] = segment;
+        }
+    }
+    
+    /**
+     * Retrieve the column containing the given x coordinate, clamped to the grid.
+     */
+    private int getColumn(float x) {
+        int column = (int) Math.floor((x - this.minX) / this.cellSize);
+        return Math.max(0, Math.min(this.columns - 1, column));
+    }
+    
+    /**
+     * Retrieve the row containing the given z coordinate, clamped to the grid.
+     */
+    private int getRow(float z) {
+        int row = (int) Math.floor((z - this.minZ) / this.cellSize);
+        return Math.max(0, Math.min(this.rows - 1, row));
+    }
+    
+    /**
+     * Retrieve the number of cells in each layer of this grid.
+     * @return The number of cells.
+     */
+    public int getCellCount() {
+        return this.columns * this.rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only horizontal rays starting at one of the baked heights are supported.
+     * @throws IllegalArgumentException If the ray is not horizontal or there is no layer at the given height.
+     */
+    public float getIntersection(float ox, float oy, float oz, float dx, float dy, float dz, float limit) {
+        int layer = -1;
+        for (int i = 0; i < this.heights.length; i++) {
+            if (this.heights[i] == oy) {
+                layer = i;
+            }
+        }
+        if (layer < 0 || dy != 0) {
+            throw new IllegalArgumentException("No horizontal layer at height " + oy);
+        }
+        if (this.columns == 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        
+        //clip the ray against the extents of the grid
+        float near = 0;
+        float far = limit;
+        if (dx == 0) {
+            if (ox < this.minX || ox > this.minX + this.columns * this.cellSize) return Float.POSITIVE_INFINITY;
+        } else {
+            float t1 = (this.minX - ox) / dx;
+            float t2 = (this.minX + this.columns * this.cellSize - ox) / dx;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+        }
+        if (dz == 0) {
+            if (oz < this.minZ || oz > this.minZ + this.rows * this.cellSize) return Float.POSITIVE_INFINITY;
+        } else {
+            float t1 = (this.minZ - oz) / dz;
+            float t2 = (this.minZ + this.rows * this.cellSize - oz) / dz;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+        }
+        if (near > far) {
+            return Float.POSITIVE_INFINITY;
+        }
+        
+        //walk the cells crossed by the ray until a hit is found within the
+        //current cell, segments may span cells so a hit beyond the current
+        //cell can still be beaten by a segment in one of the next cells
+        long[] bits = this.occupied[layer];
+        int[] starts = this.cellStarts[layer];
+        int[] entries = this.cellSegments[layer];
+        int cx = this.getColumn(ox + dx * near);
+        int cz = this.getRow(oz + dz * near);
+        int stepX = dx > 0 ? 1 : -1;
+        int stepZ = dz > 0 ? 1 : -1;
+        float nextX = dx == 0 ? Float.POSITIVE_INFINITY :
+                (this.minX + (cx + (dx > 0 ? 1 : 0)) * this.cellSize - ox) / dx;
+        float nextZ = dz == 0 ? Float.POSITIVE_INFINITY :
+                (this.minZ + (cz + (dz > 0 ? 1 : 0)) * this.cellSize - oz) / dz;
+        float deltaX = dx == 0 ? Float.POSITIVE_INFINITY : this.cellSize / Math.abs(dx);
+        float deltaZ = dz == 0 ? Float.POSITIVE_INFINITY : this.cellSize / Math.abs(dz);
+        float closest = limit;
+        
+        while (true) {
+            int cell = cz * this.columns + cx;
+            if ((bits[cell >> 6] & (1L << cell)) != 0) {
+                for (int i = starts[cell]; i < starts[cell + 1]; i++) {
+                    float distance = this.intersectSegment(layer, entries[i], ox, oz, dx, dz);
+                    if (distance < closest) {
+                        closest = distance;
+                    }
+                }
+            }
+            float exit = Math.min(nextX, nextZ);
+            if (closest <= exit || exit > far) {
+                break;
+            }
+            if (nextX < nextZ) {
+                cx += stepX;
+                nextX += deltaX;
+            } else {
+                cz += stepZ;
+                nextZ += deltaZ;
+            }
+            if (cx < 0 || cx >= this.columns || cz < 0 || cz >= this.rows) {
+                break;
+            }
+        }
+        return closest < limit ? closest : Float.POSITIVE_INFINITY;
+    }
+    
+    /**
+     * Intersect the given horizontal ray with the given segment of a layer.
+     * @return The distance to the intersection or <code>Float.POSITIVE_INFINITY</code> if there is none.
+     */
+    private float intersectSegment(int layer, int segment,
+                                   float ox, float oz,
+                                   float dx, float dz) {
+        float[] s = this.segments[layer];
+        int offset = segment * 4;
+        float ex = s[offset + 2] - s[offset];
+        float ez = s[offset + 3] - s[offset + 1];
+        float denom = dx * ez - dz * ex;
+        if (denom > -EPSILON && denom < EPSILON) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float ax = s[offset] - ox;
+        float az = s[offset + 1] - oz;
+        float u = (ax * dz - az * dx) / denom;
+        if (u < 0 || u > 1) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float distance = (ax * ez - az * ex) / denom;
+        return distance < 0 ? Float.POSITIVE_INFINITY : distance;
+    }
+}
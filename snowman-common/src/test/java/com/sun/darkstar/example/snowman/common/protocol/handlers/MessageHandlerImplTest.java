@@ -42,10 +42,14 @@ import com.sun.darkstar.example.snowman.common.protocol.processor.IClientProcess
 import com.sun.darkstar.example.snowman.common.protocol.messages.Messages;
 import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
 import com.sun.darkstar.example.snowman.common.protocol.messages.ClientMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.Assert;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 
 /**
  * Test the MessageHandlerImpl
@@ -468,6 +472,164 @@ public class MessageHandlerImplTest
         //ensure we are at the end of the buffer
         Assert.assertFalse(packet.hasRemaining());
     }
+    
+    /**
+     * Test that compact packets are decoded with the map dimensions
+     * announced by the compact NEWGAME packet
+     */
+    @Test
+    public void parseCompact() {
+        MessageHandlerImpl parser = new MessageHandlerImpl();
+        IClientProcessor mockProcessor = EasyMock.createStrictMock(IClientProcessor.class);
+        WireFormat format = WireFormat.compact(64.0f, 128.0f);
+
+        // generate packets
+        ByteBuffer newGame = ServerMessages.createNewGamePkt(format, 10, "map");
+        ByteBuffer move = ServerMessages.createMoveMOBPkt(format, 10, 0.0f, 128.0f, 64.0f, 0.0f);
+        ByteBuffer attacked = ServerMessages.createAttackedPkt(format, 10, 11, -1);
+        // record expected processor calls
+        mockProcessor.newGame(10, "map");
+        mockProcessor.moveMOB(10, 0.0f, 128.0f, 64.0f, 0.0f);
+        mockProcessor.attacked(10, 11, -1);
+        EasyMock.replay(mockProcessor);        
+        // send them to the parser
+        parser.parseClientPacket(newGame, mockProcessor);
+        parser.parseClientPacket(move, mockProcessor);
+        parser.parseClientPacket(attacked, mockProcessor);
+        //verify
+        EasyMock.verify(mockProcessor);
+        
+        //ensure we are at the end of the buffers
+        Assert.assertFalse(newGame.hasRemaining());
+        Assert.assertFalse(move.hasRemaining());
+        Assert.assertFalse(attacked.hasRemaining());
+    }
+    
+    /**
+     * Test that compact packets are decoded with the map dimensions
+     * announced to the processor receiving them, when processors in games
+     * of different maps share a parser
+     */
+    @Test
+    public void parseCompactPerProcessor() {
+        MessageHandlerImpl parser = new MessageHandlerImpl();
+        IClientProcessor small = EasyMock.createStrictMock(IClientProcessor.class);
+        IClientProcessor large = EasyMock.createStrictMock(IClientProcessor.class);
+        WireFormat smallFormat = WireFormat.compact(64.0f, 64.0f);
+        WireFormat largeFormat = WireFormat.compact(256.0f, 256.0f);
+
+        // generate packets
+        ByteBuffer smallGame = ServerMessages.createNewGamePkt(smallFormat, 1, "map");
+        ByteBuffer largeGame = ServerMessages.createNewGamePkt(largeFormat, 2, "map");
+        ByteBuffer smallStop = ServerMessages.createStopMOBPkt(smallFormat, 1, 64.0f, 0.0f);
+        // record expected processor calls
+        small.newGame(1, "map");
+        small.stopMOB(1, 64.0f, 0.0f);
+        large.newGame(2, "map");
+        EasyMock.replay(small);
+        EasyMock.replay(large);
+        // send them to the parser
+        parser.parseClientPacket(smallGame, small);
+        parser.parseClientPacket(largeGame, large);
+        parser.parseClientPacket(smallStop, small);
+        //verify
+        EasyMock.verify(small);
+        EasyMock.verify(large);
+    }
+    
+    /**
+     * Test that the proper processor methods are called when
+     * packets are sent to the ServerProtocol
+     */
+    @Test
+    public void parseVersion() {
+        MessageHandlerImpl parser = new MessageHandlerImpl();
+        IServerProcessor mockProcessor = EasyMock.createMock(IServerProcessor.class);
 
+        // generate packet
+        ByteBuffer packet = ClientMessages.createVersionPkt(WireFormat.COMPACT_VERSION);
+        // record expected processor calls
+        mockProcessor.protocolVersion(WireFormat.COMPACT_VERSION);
+        EasyMock.replay(mockProcessor);        
+        // send it to the parser
+        parser.parseServerPacket(packet, mockProcessor);
+        //verify
+        EasyMock.verify(mockProcessor);
+        
+        //ensure we are at the end of the buffer
+        Assert.assertFalse(packet.hasRemaining());
+    }
+    
+    /**
+     * Test that each record of a batch packet is handed to the
+     * processor in order
+     */
+    @Test
+    public void parseBatch() {
+        MessageHandlerImpl parser = new MessageHandlerImpl();
+        IClientProcessor mockProcessor = EasyMock.createStrictMock(IClientProcessor.class);
+
+        // generate packet
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(ServerMessages.createMoveMOBPkt(10, 1.0f, 2.0f, 3.0f, 4.0f).array());
+        records.add(ServerMessages.createChatPkt(10, "message").array());
+        records.add(ServerMessages.createRemoveMOBPkt(11).array());
+        ByteBuffer packet = ServerMessages.createBatchPkt(records);
+        // record expected processor calls
+        mockProcessor.moveMOB(10, 1.0f, 2.0f, 3.0f, 4.0f);
+        mockProcessor.chatMessage(10, "message");
+        mockProcessor.removeMOB(11);
+        EasyMock.replay(mockProcessor);        
+        // send it to the parser
+        parser.parseClientPacket(packet, mockProcessor);
+        //verify
+        EasyMock.verify(mockProcessor);
+        
+        //ensure we are at the end of the buffer
+        Assert.assertFalse(packet.hasRemaining());
+    }
+    
+    /**
+     * Test that a packet with an unknown opcode is dropped without
+     * calling the processor
+     */
+    @Test
+    public void parseUnknownOpcode() {
+        MessageHandlerImpl parser = new MessageHandlerImpl();
+        IClientProcessor mockProcessor = EasyMock.createMock(IClientProcessor.class);
+        EasyMock.replay(mockProcessor);
+        
+        parser.parseClientPacket(ByteBuffer.wrap(new byte[]{0x7f}), mockProcessor);
+        
+        EasyMock.verify(mockProcessor);
+    }
+    
+    /**
+     * Test that the flyweight handler hands out the same instance for
+     * a repeated name
+     */
+    @Test
+    public void parseFlyweightNames() {
+        MessageHandlerImpl parser = new MessageHandlerImpl(true);
+        final List<String> names = new ArrayList<String>();
+        IClientProcessor mockProcessor = EasyMock.createNiceMock(IClientProcessor.class);
+        mockProcessor.addMOB(EasyMock.eq(1), EasyMock.anyFloat(), EasyMock.anyFloat(), 
+                             EasyMock.eq(EMOBType.FLAG), EasyMock.eq(ETeamColor.Red), 
+                             EasyMock.eq("Goal"));
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                names.add((String) EasyMock.getCurrentArguments()[5]);
+                return null;
+            }
+        }).times(2);
+        EasyMock.replay(mockProcessor);
+        
+        parser.parseClientPacket(ServerMessages.createAddMOBPkt(1, 1.0f, 2.0f, EMOBType.FLAG, ETeamColor.Red, "Goal"), mockProcessor);
+        parser.parseClientPacket(ServerMessages.createAddMOBPkt(1, 3.0f, 4.0f, EMOBType.FLAG, ETeamColor.Red, "Goal"), mockProcessor);
+        
+        EasyMock.verify(mockProcessor);
+        Assert.assertEquals(names.size(), 2);
+        Assert.assertSame(names.get(0), names.get(1));
+    }
     
 }
@@ -131,4 +131,32 @@ public class ClientMessagesTest extends AbstractTestMessages
         //ensure we are at the end of the buffer
         Assert.assertFalse(packet.hasRemaining());
     }
+    
+    @Test
+    public void testCreateChatPktUTF8() throws Exception {
+        String message = "caf\u00e9 \u96ea\u4eba";
+        ByteBuffer packet = ClientMessages.createChatPkt(message);
+        checkOpcode(packet, EOPCODE.CHAT);
+        
+        int length = packet.getInt();
+        byte[] messageBytes = new byte[length];
+        packet.get(messageBytes);
+
+        Assert.assertEquals(length, message.getBytes("UTF-8").length);
+        Assert.assertEquals(new String(messageBytes, "UTF-8"), message);
+        
+        //ensure we are at the end of the buffer
+        Assert.assertFalse(packet.hasRemaining());
+    }
+    
+    @Test
+    public void testCreateSnapshotAckPkt() {
+        ByteBuffer packet = ClientMessages.createSnapshotAckPkt(42);
+        checkOpcode(packet, EOPCODE.SNAPSHOTACK);
+        
+        Assert.assertEquals(packet.getInt(), 42);
+        
+        //ensure we are at the end of the buffer
+        Assert.assertFalse(packet.hasRemaining());
+    }
 }
@@ -39,6 +39,8 @@ import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.Assert;
 
@@ -237,4 +239,181 @@ public class ServerMessagesTest extends AbstractTestMessages
         Assert.assertFalse(packet.hasRemaining());
     }
     
+    @Test
+    public void testCreateCompactMoveMOBPkt() {
+        WireFormat format = WireFormat.compact(100.0f, 50.0f);
+        ByteBuffer packet = ServerMessages.createMoveMOBPkt(format, 10, 1.0f, 2.0f, 100.0f, 50.0f);
+        
+        //opcode, one byte id and four 16 bit coordinates
+        Assert.assertEquals(packet.remaining(), 10);
+        byte opbyte = packet.get();
+        Assert.assertTrue(WireFormat.isCompact(opbyte));
+        Assert.assertEquals(WireFormat.getOpcode(opbyte), EOPCODE.MOVEMOB.ordinal());
+        
+        Assert.assertEquals(format.getId(packet), 10);
+        Assert.assertEquals(format.getX(packet), 1.0f, 100.0f / 0xffff);
+        Assert.assertEquals(format.getY(packet), 2.0f, 50.0f / 0xffff);
+        Assert.assertEquals(format.getX(packet), 100.0f, 0);
+        Assert.assertEquals(format.getY(packet), 50.0f, 0);
+        
+        //ensure we are at the end of the buffer
+        Assert.assertFalse(packet.hasRemaining());
+    }
+    
+    @Test
+    public void testCreateCompactAddMOBPkt() {
+        WireFormat format = WireFormat.compact(100.0f, 100.0f);
+        String name = "Schneem\u00e4nnchen";
+        ByteBuffer packet = ServerMessages.createAddMOBPkt(format, 300, 1.0f, 2.0f, EMOBType.SNOWMAN, ETeamColor.Blue, name);
+        byte opbyte = packet.get();
+        Assert.assertEquals(WireFormat.getOpcode(opbyte), EOPCODE.ADDMOB.ordinal());
+        
+        Assert.assertEquals(format.getId(packet), 300);
+        format.getX(packet);
+        format.getY(packet);
+        Assert.assertEquals(format.getEnum(packet), EMOBType.SNOWMAN.ordinal());
+        Assert.assertEquals(format.getEnum(packet), ETeamColor.Blue.ordinal());
+        Assert.assertEquals(format.getString(packet), name);
+        
+        //ensure we are at the end of the buffer
+        Assert.assertFalse(packet.hasRemaining());
+    }
+    
+    @Test
+    public void testCreateBatchPkt() {
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(ServerMessages.createRemoveMOBPkt(10).array());
+        records.add(ServerMessages.createAttachObjPkt(1, 2).array());
+        ByteBuffer packet = ServerMessages.createBatchPkt(records);
+        checkOpcode(packet, EOPCODE.BATCH);
+        
+        Assert.assertEquals(WireFormat.getVarint(packet), 5);
+        checkOpcode(packet, EOPCODE.REMOVEMOB);
+        Assert.assertEquals(packet.getInt(), 10);
+        Assert.assertEquals(WireFormat.getVarint(packet), 9);
+        checkOpcode(packet, EOPCODE.ATTACHOBJ);
+        Assert.assertEquals(packet.getInt(), 1);
+        Assert.assertEquals(packet.getInt(), 2);
+        
+        //ensure we are at the end of the buffer
+        Assert.assertFalse(packet.hasRemaining());
+    }
+    
+    @Test
+    public void testEncodeMoveMOBPkt() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.position(7);
+        ByteBuffer packet = ServerMessages.encodeMoveMOBPkt(WireFormat.STANDARD, buffer, 10, 1.0f, 2.0f, 3.0f, 4.0f);
+        Assert.assertSame(packet, buffer);
+        Assert.assertEquals(packet.position(), 7);
+        Assert.assertEquals(packet.remaining(), 21);
+        Assert.assertEquals(packet, ServerMessages.createMoveMOBPkt(10, 1.0f, 2.0f, 3.0f, 4.0f));
+    }
+    
+    @Test
+    public void testEncodeAppendedPkts() {
+        WireFormat format = WireFormat.compact(100.0f, 100.0f);
+        ByteBuffer buffer = ServerMessages.getScratchBuffer();
+        Assert.assertTrue(buffer.isDirect());
+        
+        ServerMessages.encodeChatPkt(format, buffer, 3, "hi");
+        ByteBuffer chat = buffer.slice();
+        buffer.position(buffer.limit()).limit(buffer.capacity());
+        ServerMessages.encodeRemoveMOBPkt(format, buffer, 10);
+        ByteBuffer remove = buffer.slice();
+        
+        Assert.assertEquals(chat, ServerMessages.createChatPkt(format, 3, "hi"));
+        Assert.assertEquals(remove, ServerMessages.createRemoveMOBPkt(format, 10));
+    }
+    
+    @Test
+    public void testCreateFullSnapshotPkt() {
+        Snapshot snapshot = new Snapshot(1);
+        snapshot.put(10, 1.0f, 2.0f, 3.0f, 4.0f, 100, 0);
+        snapshot.put(20, 5.0f, 6.0f, 5.0f, 6.0f, 0, 10);
+        ByteBuffer packet = ServerMessages.createSnapshotPkt(WireFormat.STANDARD, snapshot, null);
+        checkOpcode(packet, EOPCODE.SNAPSHOT);
+        
+        Snapshot delta = Snapshot.read(WireFormat.STANDARD, packet);
+        Assert.assertEquals(delta.getSequence(), 1);
+        Assert.assertEquals(delta.getBaseline(), 0);
+        Assert.assertEquals(delta.size(), 2);
+        int i = delta.find(20);
+        Assert.assertEquals(delta.getChanges(i), Snapshot.ALL);
+        Assert.assertEquals(delta.getX(i), 5.0f, 0);
+        Assert.assertEquals(delta.getDestY(i), 6.0f, 0);
+        Assert.assertEquals(delta.getHolder(i), 10);
+        Assert.assertTrue(new Snapshot(0).apply(delta).sameState(snapshot));
+        
+        //ensure we are at the end of the buffer
+        Assert.assertFalse(packet.hasRemaining());
+    }
+    
+    @Test
+    public void testCreateDeltaSnapshotPkt() {
+        Snapshot baseline = new Snapshot(1);
+        baseline.put(10, 1.0f, 2.0f, 3.0f, 4.0f, 100, 0);
+        baseline.put(20, 5.0f, 6.0f, 5.0f, 6.0f, 0, 0);
+        baseline.put(30, 7.0f, 8.0f, 7.0f, 8.0f, 100, 0);
+        Snapshot snapshot = new Snapshot(2);
+        snapshot.put(10, 1.0f, 2.0f, 9.0f, 9.0f, 100, 0);
+        snapshot.put(20, 5.0f, 6.0f, 5.0f, 6.0f, 0, 0);
+        ByteBuffer packet = ServerMessages.createSnapshotPkt(WireFormat.STANDARD, snapshot, baseline);
+        checkOpcode(packet, EOPCODE.SNAPSHOT);
+        
+        //only the new destination of 10 and the removal of 30 are sent
+        Snapshot delta = Snapshot.read(WireFormat.STANDARD, packet);
+        Assert.assertFalse(packet.hasRemaining());
+        Assert.assertEquals(delta.getSequence(), 2);
+        Assert.assertEquals(delta.getBaseline(), 1);
+        Assert.assertEquals(delta.size(), 2);
+        Assert.assertEquals(delta.getChanges(delta.find(10)), Snapshot.DESTINATION);
+        Assert.assertEquals(delta.getChanges(delta.find(30)), Snapshot.REMOVED);
+        
+        Snapshot state = baseline.apply(delta);
+        Assert.assertEquals(state.getSequence(), 2);
+        Assert.assertTrue(state.sameState(snapshot));
+    }
+    
+    @Test
+    public void testCreateCompactSnapshotPkt() {
+        WireFormat format = WireFormat.compact(100.0f, 100.0f);
+        Snapshot baseline = new Snapshot(1);
+        baseline.put(10, 0.0f, 0.0f, 0.0f, 0.0f, 100, 0);
+        Snapshot snapshot = new Snapshot(2);
+        snapshot.put(10, 100.0f, 0.0f, 0.0f, 0.0f, 100, 0);
+        ByteBuffer packet = ServerMessages.createSnapshotPkt(format, snapshot, baseline);
+        
+        //opcode, sequence, baseline, count, id, mask and two 16 bit coordinates
+        Assert.assertEquals(packet.remaining(), 10);
+        byte opbyte = packet.get();
+        Assert.assertTrue(WireFormat.isCompact(opbyte));
+        Assert.assertEquals(WireFormat.getOpcode(opbyte), EOPCODE.SNAPSHOT.ordinal());
+        
+        Snapshot delta = Snapshot.read(format, packet);
+        Assert.assertEquals(delta.getChanges(0), Snapshot.POSITION);
+        Assert.assertEquals(delta.getX(0), 100.0f, 0);
+    }
+    
+    @Test
+    public void testSnapshotHistory() {
+        SnapshotHistory history = new SnapshotHistory(2);
+        Assert.assertNull(history.getLatest());
+        for (int i = 1; i <= 3; i++) {
+            history.add(new Snapshot(i));
+        }
+        Assert.assertNull(history.get(0));
+        Assert.assertNull(history.get(1));
+        Assert.assertEquals(history.get(2).getSequence(), 2);
+        Assert.assertEquals(history.getLatest().getSequence(), 3);
+    }
+    
+    @Test
+    public void testScratchBufferCleared() {
+        ServerMessages.encodeStartGamePkt(WireFormat.STANDARD, ServerMessages.getScratchBuffer());
+        ByteBuffer buffer = ServerMessages.getScratchBuffer();
+        Assert.assertEquals(buffer.position(), 0);
+        Assert.assertEquals(buffer.remaining(), Messages.SCRATCH_CAPACITY);
+    }
+    
 }
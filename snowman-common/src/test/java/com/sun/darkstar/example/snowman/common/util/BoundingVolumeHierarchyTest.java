@@ -0,0 +1,232 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.common.util;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.Assert;
+
+/**
+ * Verify behavior of the <code>BoundingVolumeHierarchy</code> against a
+ * brute force scan of the same triangles
+ */
+public class BoundingVolumeHierarchyTest {
+
+    /** Acceptable delta for float comparisons */
+    private static float DELTA = 0.0001f;
+
+    /** Number of triangles in the random soups */
+    private static int TRIANGLES = 2000;
+
+    /** Number of random rays cast at each soup */
+    private static int RAYS = 2000;
+
+    /**
+     * Create a soup of small random triangles within a 100 unit cube
+     */
+    private static float[] createSoup(Random random, int count) {
+        float[] triangles = new float[count * 9];
+        for (int i = 0; i < count; i++) {
+            float cx = random.nextFloat() * 100;
+            float cy = random.nextFloat() * 100;
+            float cz = random.nextFloat() * 100;
+            for (int v = 0; v < 3; v++) {
+                triangles[i * 9 + v * 3] = cx + random.nextFloat() * 10 - 5;
+                triangles[i * 9 + v * 3 + 1] = cy + random.nextFloat() * 10 - 5;
+                triangles[i * 9 + v * 3 + 2] = cz + random.nextFloat() * 10 - 5;
+            }
+        }
+        return triangles;
+    }
+
+    /**
+     * Find the closest intersection before the limit by testing every
+     * triangle, both sides counting
+     */
+    private static float bruteForce(float[] triangles,
+                                    float ox, float oy, float oz,
+                                    float dx, float dy, float dz,
+                                    float limit) {
+        float closest = Float.POSITIVE_INFINITY;
+        for (int t = 0; t < triangles.length / 9; t++) {
+            float[] v = triangles;
+            int o = t * 9;
+            float e1x = v[o + 3] - v[o], e1y = v[o + 4] - v[o + 1], e1z = v[o + 5] - v[o + 2];
+            float e2x = v[o + 6] - v[o], e2y = v[o + 7] - v[o + 1], e2z = v[o + 8] - v[o + 2];
+            float px = dy * e2z - dz * e2y;
+            float py = dz * e2x - dx * e2z;
+            float pz = dx * e2y - dy * e2x;
+            float det = e1x * px + e1y * py + e1z * pz;
+            if (det > -1e-7f && det < 1e-7f) {
+                continue;
+            }
+            float inv = 1.0f / det;
+            float sx = ox - v[o], sy = oy - v[o + 1], sz = oz - v[o + 2];
+            float u = (sx * px + sy * py + sz * pz) * inv;
+            if (u < 0 || u > 1) {
+                continue;
+            }
+            float qx = sy * e1z - sz * e1y;
+            float qy = sz * e1x - sx * e1z;
+            float qz = sx * e1y - sy * e1x;
+            float w = (dx * qx + dy * qy + dz * qz) * inv;
+            if (w < 0 || u + w > 1) {
+                continue;
+            }
+            float distance = (e2x * qx + e2y * qy + e2z * qz) * inv;
+            if (distance >= 0 && distance < closest) {
+                closest = distance;
+            }
+        }
+        return closest < limit ? closest : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Assert that the hierarchy and the brute force scan agree on the
+     * given ray, with and without the given limit
+     */
+    private static void assertMatches(BoundingVolumeHierarchy tree,
+                                      float[] triangles,
+                                      float ox, float oy, float oz,
+                                      float dx, float dy, float dz,
+                                      float limit) {
+        Assert.assertEquals(
+                bruteForce(triangles, ox, oy, oz, dx, dy, dz, Float.POSITIVE_INFINITY),
+                tree.getIntersection(ox, oy, oz, dx, dy, dz), DELTA);
+        Assert.assertEquals(
+                bruteForce(triangles, ox, oy, oz, dx, dy, dz, limit),
+                tree.getIntersection(ox, oy, oz, dx, dy, dz, limit), DELTA);
+    }
+
+    /**
+     * Verify that random rays through a random soup find the same closest
+     * triangle as a brute force scan, with and without a limit
+     */
+    @Test
+    public void testRandomRays() {
+        Random random = new Random(42);
+        float[] triangles = createSoup(random, TRIANGLES);
+        BoundingVolumeHierarchy tree = new BoundingVolumeHierarchy(triangles);
+        Assert.assertEquals(TRIANGLES, tree.getTriangleCount());
+
+        int hits = 0;
+        for (int i = 0; i < RAYS; i++) {
+            float ox = random.nextFloat() * 120 - 10;
+            float oy = random.nextFloat() * 120 - 10;
+            float oz = random.nextFloat() * 120 - 10;
+            float dx = (float) random.nextGaussian();
+            float dy = (float) random.nextGaussian();
+            float dz = (float) random.nextGaussian();
+            float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            dx /= length;
+            dy /= length;
+            dz /= length;
+            float limit = random.nextFloat() * 20;
+
+            assertMatches(tree, triangles, ox, oy, oz, dx, dy, dz, limit);
+            if (tree.getIntersection(ox, oy, oz, dx, dy, dz) != Float.POSITIVE_INFINITY) {
+                hits++;
+            }
+        }
+        //make sure the soup is dense enough for the rays to hit something
+        Assert.assertTrue(hits > RAYS / 4);
+    }
+
+    /**
+     * Verify that rays parallel to an axis, which skip the slab divisions
+     * of the bounding boxes, find the same closest triangle as a brute
+     * force scan
+     */
+    @Test
+    public void testAxisParallelRays() {
+        Random random = new Random(7);
+        float[] triangles = createSoup(random, TRIANGLES);
+        BoundingVolumeHierarchy tree = new BoundingVolumeHierarchy(triangles);
+
+        for (int i = 0; i < RAYS; i++) {
+            float ox = random.nextFloat() * 100;
+            float oy = random.nextFloat() * 100;
+            float oz = random.nextFloat() * 100;
+            float sign = random.nextBoolean() ? 1 : -1;
+            float limit = random.nextFloat() * 20;
+            switch (i % 3) {
+                case 0:
+                    assertMatches(tree, triangles, ox, oy, oz, sign, 0, 0, limit);
+                    break;
+                case 1:
+                    assertMatches(tree, triangles, ox, oy, oz, 0, sign, 0, limit);
+                    break;
+                default:
+                    assertMatches(tree, triangles, ox, oy, oz, 0, 0, sign, limit);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Verify that a ray straight down onto a single triangle finds it at
+     * the expected distance, and only within the limit
+     */
+    @Test
+    public void testAxisParallelSingleTriangle() {
+        BoundingVolumeHierarchy tree = new BoundingVolumeHierarchy(new float[] {
+            0, 0, 0,
+            10, 0, 0,
+            0, 0, 10
+        });
+
+        Assert.assertEquals(5.0f, tree.getIntersection(2, 5, 2, 0, -1, 0), DELTA);
+        Assert.assertEquals(5.0f, tree.getIntersection(2, -5, 2, 0, 1, 0), DELTA);
+        Assert.assertEquals(Float.POSITIVE_INFINITY,
+                            tree.getIntersection(2, 5, 2, 0, -1, 0, 4), 0);
+        Assert.assertEquals(Float.POSITIVE_INFINITY,
+                            tree.getIntersection(8, 5, 8, 0, -1, 0), 0);
+        Assert.assertEquals(Float.POSITIVE_INFINITY,
+                            tree.getIntersection(2, 5, 2, 0, 1, 0), 0);
+    }
+
+    /**
+     * Verify that an empty mesh builds an empty hierarchy that is never hit
+     */
+    @Test
+    public void testEmptyMesh() {
+        BoundingVolumeHierarchy tree = new BoundingVolumeHierarchy(new float[0]);
+
+        Assert.assertEquals(0, tree.getTriangleCount());
+        Assert.assertEquals(Float.POSITIVE_INFINITY,
+                            tree.getIntersection(0, 10, 0, 0, -1, 0), 0);
+        Assert.assertEquals(Float.POSITIVE_INFINITY,
+                            tree.getIntersection(0, 10, 0, 0, -1, 0, 100), 0);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.common.util;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.After;
+
+/**
+ * Verify behavior of the <code>CollisionCache</code>
+ */
+public class CollisionCacheTest {
+    
+    /** Digest of the world file the test cache is keyed by */
+    private static byte[] KEY = new byte[]{1, 2, 3, 4, 5};
+    
+    /** Cache file written by each test */
+    private File file;
+    
+    /** Mesh of random triangles stored in the cache */
+    private CollisionMesh mesh;
+    
+    @Before
+    public void createMesh() throws Exception {
+        file = File.createTempFile("collision", ".cache");
+        Random random = new Random(3);
+        float[] triangles = new float[500 * 9];
+        for (int i = 0; i < triangles.length; i++) {
+            triangles[i] = random.nextFloat() * 100;
+        }
+        mesh = new CollisionMesh(triangles);
+    }
+    
+    /**
+     * Verify that a loaded cache answers the same queries as the mesh it
+     * was saved from, without copying the mesh back into an array
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        new CollisionCache(100, 200, mesh).save(file, KEY);
+        CollisionCache loaded = CollisionCache.load(file, KEY);
+        
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(100, loaded.getWidth(), 0);
+        Assert.assertEquals(200, loaded.getDepth(), 0);
+        Assert.assertEquals(mesh.getTriangleCount(), loaded.getMesh().getTriangleCount());
+        Assert.assertEquals(mesh.getHierarchy().getNodeCount(),
+                            loaded.getMesh().getHierarchy().getNodeCount());
+        
+        Random random = new Random(4);
+        for (int i = 0; i < 500; i++) {
+            float ox = random.nextFloat() * 100;
+            float oz = random.nextFloat() * 100;
+            float dx = random.nextFloat() - 0.5f;
+            float dz = random.nextFloat() - 0.5f;
+            float length = (float) Math.sqrt(dx * dx + dz * dz);
+            Assert.assertEquals(mesh.getIntersection(ox, 50, oz, dx / length, 0, dz / length),
+                                loaded.getMesh().getIntersection(ox, 50, oz, dx / length, 0, dz / length),
+                                0);
+        }
+    }
+    
+    /**
+     * Verify that a cache saved from a different world file is ignored
+     */
+    @Test
+    public void testOtherKey() throws Exception {
+        new CollisionCache(100, 200, mesh).save(file, KEY);
+        
+        Assert.assertNull(CollisionCache.load(file, new byte[]{1, 2, 3, 4, 6}));
+    }
+    
+    /**
+     * Verify that a truncated cache file is ignored
+     */
+    @Test
+    public void testTruncated() throws Exception {
+        new CollisionCache(100, 200, mesh).save(file, KEY);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+        
+        Assert.assertNull(CollisionCache.load(file, KEY));
+    }
+    
+    /**
+     * Verify that a cache whose tree points outside of itself is ignored
+     */
+    @Test
+    public void testDamagedTree() throws Exception {
+        new CollisionCache(100, 200, mesh).save(file, KEY);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 4);
+        raf.writeInt(Integer.MAX_VALUE);
+        raf.close();
+        
+        Assert.assertNull(CollisionCache.load(file, KEY));
+    }
+    
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+}
@@ -35,6 +35,7 @@
 package com.sun.darkstar.example.snowman.common.util;
 
 import com.sun.darkstar.example.snowman.common.util.enumn.EStats;
+import com.sun.darkstar.example.snowman.common.util.enumn.EWorld;
 import com.jme.scene.Spatial;
 import com.jme.scene.Node;
 import com.jme.scene.shape.Box;
@@ -44,6 +45,9 @@ import com.jme.bounding.BoundingBox;
 import com.jme.bounding.BoundingSphere;
 import com.jme.math.Vector3f;
 import com.jme.math.Ray;
+import com.jme.system.DisplaySystem;
+import com.jme.system.dummy.DummySystemProvider;
+import java.util.Random;
 import org.junit.Test;
 import org.junit.Assert;
 import org.junit.Before;
@@ -641,6 +645,220 @@ public class CollisionManagerTest {
         testValidateBehindNoHit(false);
     }
     
+    /**
+     * Verify the CollisionMesh based getDestination returns the same
+     * trimmed destinations as the Spatial based version for a standard
+     * collision, a miss, and a near miss.
+     * 
+     * @param local if the testWorld should be transposed to verify world to local mapping
+     */
+    private void testGetDestinationMesh(boolean local) {
+        //move the box up by the PATHHEIGHT
+        Vector3f c = box.getLocalTranslation();
+        box.setLocalTranslation(c.getX(), EStats.SnowmanHeight.getValue()/2.0f + c.getY(), c.getZ());
+        
+        //transpose the world if necessary
+        if(local)
+            moveWorld(new Vector3f(50f, 50f, 50f));
+        else
+            testWorld.updateGeometricState(0.0f, true);
+        CollisionMesh mesh = new CollisionMesh(testWorld);
+        
+        float backoff = EStats.BackoffDistance.getValue();
+        float[][] moves = new float[][] {
+            {0.0f, 0.0f - backoff, 0.0f, 50.0f},
+            {0.0f, 0.0f, 0.0f, -50.0f},
+            {0.0f, 0.0f - backoff, 0.0f, 15.0f - backoff/2.0f}
+        };
+        float[][] trimmed = new float[][] {
+            {0.0f, 15.0f - backoff},
+            {0.0f, -50.0f},
+            {0.0f, 15.0f - backoff}
+        };
+        
+        for(int i = 0; i < moves.length; i++) {
+            Vector3f result = SingletonRegistry.getCollisionManager().getDestination(
+                    moves[i][0], moves[i][1], moves[i][2], moves[i][3], mesh);
+            Assert.assertNotNull(result);
+            Assert.assertEquals(trimmed[i][0], result.getX(), DELTA);
+            Assert.assertEquals(EStats.SnowmanHeight.getValue()/2.0f, result.getY(), DELTA);
+            Assert.assertEquals(trimmed[i][1], result.getZ(), DELTA);
+        }
+    }
+    
+    @Test public void testGetDestinationMeshLocal() {
+        testGetDestinationMesh(true);
+    }
+    @Test public void testGetDestinationMeshNotLocal() {
+        testGetDestinationMesh(false);
+    }
+    
+    /**
+     * Verify the CollisionMesh based validate agrees with the Spatial
+     * based version for a basic hit, a miss, a complex hit, and a
+     * collision behind the target.
+     * 
+     * @param local if the testWorld should be transposed to verify world to local mapping
+     */
+    private void testValidateMesh(boolean local) {
+        //move the box up by the THROWHEIGHT
+        Vector3f c = box.getLocalTranslation();
+        box.setLocalTranslation(c.getX(), EStats.SnowballHeight.getValue() + c.getY(), c.getZ());
+        
+        //transpose the world if necessary
+        if(local)
+            moveWorld(new Vector3f(50f, 50f, 50f));
+        else
+            testWorld.updateGeometricState(0.0f, true);
+        CollisionMesh mesh = new CollisionMesh(testWorld);
+        
+        CollisionManager manager = SingletonRegistry.getCollisionManager();
+        Assert.assertFalse(manager.validate(0.0f, 0.0f, 0.0f, 100.0f, mesh));
+        Assert.assertTrue(manager.validate(0.0f, 0.0f, 0.0f, -100.0f, mesh));
+        Assert.assertFalse(manager.validate(-5.0f, -5.0f, 0.0f, 25.0f, mesh));
+        Assert.assertTrue(manager.validate(0.0f, 0.0f, 0.0f, 10.0f, mesh));
+    }
+    
+    @Test public void testValidateMeshLocal() {
+        testValidateMesh(true);
+    }
+    @Test public void testValidateMeshNotLocal() {
+        testValidateMesh(false);
+    }
+    
+    /**
+     * Create an OccupancyGrid of the testWorld baked at the PATHHEIGHT
+     * and the THROWHEIGHT.
+     */
+    private OccupancyGrid createGrid() {
+        return new OccupancyGrid(new CollisionMesh(testWorld),
+                                 new float[] {EStats.SnowmanHeight.getValue()/2.0f,
+                                              EStats.SnowballHeight.getValue()},
+                                 4);
+    }
+    
+    /**
+     * Verify the OccupancyGrid based getDestination writes the same
+     * trimmed destinations as the CollisionMesh based version for a
+     * standard collision, a miss, and a near miss.
+     * 
+     * @param local if the testWorld should be transposed to verify world to local mapping
+     */
+    private void testGetDestinationGrid(boolean local) {
+        //move the box up by the PATHHEIGHT
+        Vector3f c = box.getLocalTranslation();
+        box.setLocalTranslation(c.getX(), EStats.SnowmanHeight.getValue()/2.0f + c.getY(), c.getZ());
+        
+        //transpose the world if necessary
+        if(local)
+            moveWorld(new Vector3f(50f, 50f, 50f));
+        else
+            testWorld.updateGeometricState(0.0f, true);
+        OccupancyGrid grid = createGrid();
+        
+        float backoff = EStats.BackoffDistance.getValue();
+        float[][] moves = new float[][] {
+            {0.0f, 0.0f - backoff, 0.0f, 50.0f},
+            {0.0f, 0.0f, 0.0f, -50.0f},
+            {0.0f, 0.0f - backoff, 0.0f, 15.0f - backoff/2.0f}
+        };
+        float[][] trimmed = new float[][] {
+            {0.0f, 15.0f - backoff},
+            {0.0f, -50.0f},
+            {0.0f, 15.0f - backoff}
+        };
+        
+        float[] result = new float[2];
+        for(int i = 0; i < moves.length; i++) {
+            SingletonRegistry.getCollisionManager().getDestination(
+                    moves[i][0], moves[i][1], moves[i][2], moves[i][3], grid, result);
+            Assert.assertEquals(trimmed[i][0], result[0], DELTA);
+            Assert.assertEquals(trimmed[i][1], result[1], DELTA);
+        }
+    }
+    
+    @Test public void testGetDestinationGridLocal() {
+        testGetDestinationGrid(true);
+    }
+    @Test public void testGetDestinationGridNotLocal() {
+        testGetDestinationGrid(false);
+    }
+    
+    /**
+     * Verify the OccupancyGrid based validate agrees with the CollisionMesh
+     * based version for a basic hit, a miss, a complex hit, and a
+     * collision behind the target.
+     * 
+     * @param local if the testWorld should be transposed to verify world to local mapping
+     */
+    private void testValidateGrid(boolean local) {
+        //move the box up by the THROWHEIGHT
+        Vector3f c = box.getLocalTranslation();
+        box.setLocalTranslation(c.getX(), EStats.SnowballHeight.getValue() + c.getY(), c.getZ());
+        
+        //transpose the world if necessary
+        if(local)
+            moveWorld(new Vector3f(50f, 50f, 50f));
+        else
+            testWorld.updateGeometricState(0.0f, true);
+        OccupancyGrid grid = createGrid();
+        
+        CollisionManager manager = SingletonRegistry.getCollisionManager();
+        Assert.assertFalse(manager.validate(0.0f, 0.0f, 0.0f, 100.0f, grid));
+        Assert.assertTrue(manager.validate(0.0f, 0.0f, 0.0f, -100.0f, grid));
+        Assert.assertFalse(manager.validate(-5.0f, -5.0f, 0.0f, 25.0f, grid));
+        Assert.assertTrue(manager.validate(0.0f, 0.0f, 0.0f, 10.0f, grid));
+    }
+    
+    @Test public void testValidateGridLocal() {
+        testValidateGrid(true);
+    }
+    @Test public void testValidateGridNotLocal() {
+        testValidateGrid(false);
+    }
+    
+    /**
+     * Verify that the OccupancyGrid rejects rays that are not at one
+     * of the heights it was baked at.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testGridUnknownHeight() {
+        testWorld.updateGeometricState(0.0f, true);
+        createGrid().getIntersection(0.0f, 2.0f, 0.0f, 0.0f, 0.0f, 1.0f, 100.0f);
+    }
+    
+    /**
+     * Verify that the CollisionMesh of the Battle world answers random
+     * getDestination and validate queries the same way as picking
+     * against its scene graph.
+     */
+    @Test
+    public void testBattleWorldParity() {
+        //create dummy display system so that the JME importer doesn't complain
+        DisplaySystem.setSystemProvider(new DummySystemProvider());
+        Spatial world = SingletonRegistry.getDataImporter().getWorld(EWorld.Battle);
+        world.updateGeometricState(0, true);
+        CollisionMesh mesh = new CollisionMesh(world);
+        float width = world.getWorldBound().getCenter().getX() * 2.0f;
+        float depth = world.getWorldBound().getCenter().getZ() * 2.0f;
+        
+        CollisionManager manager = SingletonRegistry.getCollisionManager();
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            float x1 = random.nextFloat() * width;
+            float z1 = random.nextFloat() * depth;
+            float x2 = random.nextFloat() * width;
+            float z2 = random.nextFloat() * depth;
+            
+            Vector3f expected = manager.getDestination(x1, z1, x2, z2, world);
+            Vector3f actual = manager.getDestination(x1, z1, x2, z2, mesh);
+            Assert.assertEquals(expected.getX(), actual.getX(), DELTA);
+            Assert.assertEquals(expected.getZ(), actual.getZ(), DELTA);
+            Assert.assertEquals(manager.validate(x1, z1, x2, z2, world),
+                                manager.validate(x1, z1, x2, z2, mesh));
+        }
+    }
+    
     @After
     public void cleanupTestWorld() {
         box = null;
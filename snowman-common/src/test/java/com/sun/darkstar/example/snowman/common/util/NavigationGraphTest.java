@@ -0,0 +1,129 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.common.util;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+/**
+ * Verify behavior of the <code>NavigationGraph</code>
+ */
+public class NavigationGraphTest {
+    
+    /** Acceptable delta for float comparisons */
+    private static float DELTA = 0.01f;
+    
+    /**
+     * Create a geometry holding a wall along z = 10 between the given
+     * x coordinates
+     */
+    private static CollisionGeometry createWall(final float fromX,
+                                                final float toX) {
+        return new CollisionGeometry() {
+            public float getIntersection(float ox, float oy, float oz,
+                                         float dx, float dy, float dz,
+                                         float limit) {
+                if (dz == 0) {
+                    return Float.POSITIVE_INFINITY;
+                }
+                float t = (10.0f - oz) / dz;
+                if (t < 0 || t > limit) {
+                    return Float.POSITIVE_INFINITY;
+                }
+                float x = ox + dx * t;
+                return x >= fromX && x <= toX ? t : Float.POSITIVE_INFINITY;
+            }
+        };
+    }
+    
+    /**
+     * Verify that the end position is returned when nothing is in the way
+     */
+    @Test
+    public void testWaypointClear() {
+        NavigationGraph graph = new NavigationGraph(createWall(0, 14),
+                                                    20, 20, 1);
+        float[] store = new float[2];
+        
+        Assert.assertTrue(graph.getWaypoint(5, 5, 5, 8, store));
+        Assert.assertEquals(5.0f, store[0], DELTA);
+        Assert.assertEquals(8.0f, store[1], DELTA);
+    }
+    
+    /**
+     * Verify that following the waypoints leads around the wall to the
+     * end position without any move being trimmed
+     */
+    @Test
+    public void testWaypointAroundWall() {
+        CollisionGeometry wall = createWall(0, 14);
+        NavigationGraph graph = new NavigationGraph(wall, 20, 20, 1);
+        float[] store = new float[2];
+        float[] trimmed = new float[2];
+        
+        float x = 5;
+        float z = 5;
+        for (int i = 0; i < 20 && (x != 5 || z != 15); i++) {
+            Assert.assertTrue(graph.getWaypoint(x, z, 5, 15, store));
+            SingletonRegistry.getCollisionManager().getDestination(
+                    x, z, store[0], store[1], wall, trimmed);
+            Assert.assertEquals(store[0], trimmed[0], DELTA);
+            Assert.assertEquals(store[1], trimmed[1], DELTA);
+            x = store[0];
+            z = store[1];
+        }
+        Assert.assertEquals(5.0f, x, DELTA);
+        Assert.assertEquals(15.0f, z, DELTA);
+    }
+    
+    /**
+     * Verify that no waypoint is found when the wall blocks every way
+     */
+    @Test
+    public void testWaypointBlocked() {
+        NavigationGraph graph = new NavigationGraph(createWall(-1, 21),
+                                                    20, 20, 1);
+        float[] store = new float[2];
+        
+        Assert.assertFalse(graph.getWaypoint(5, 5, 5, 15, store));
+    }
+    
+    /**
+     * Verify that a spacing that is not positive is rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testZeroSpacing() {
+        new NavigationGraph(createWall(0, 14), 20, 20, 0);
+    }
+}
@@ -36,8 +36,11 @@ package com.sun.darkstar.example.snowman.server;
 import com.sun.darkstar.example.snowman.server.interfaces.GameFactory;
 import com.sun.darkstar.example.snowman.server.interfaces.EntityFactory;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanPlayer;
+import com.sun.darkstar.example.snowman.server.interfaces.ShardStrategy;
 import com.sun.darkstar.example.snowman.server.impl.EntityFactoryImpl;
 import com.sun.darkstar.example.snowman.server.impl.GameFactoryImpl;
+import com.sun.darkstar.example.snowman.server.impl.GameOptions;
+import com.sun.darkstar.example.snowman.server.impl.HashShardStrategy;
 import com.sun.darkstar.example.snowman.server.tasks.MatchmakerTask;
 import com.sun.sgs.app.AppContext;
 import com.sun.sgs.app.AppListener;
@@ -45,13 +48,10 @@ import com.sun.sgs.app.ClientSession;
 import com.sun.sgs.app.ClientSessionListener;
 import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedReference;
-import com.sun.sgs.app.util.ScalableDeque;
 import java.io.Serializable;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.Deque;
-import java.math.BigInteger;
 
 /**
  * This class is the app listener for Project Snowman.
@@ -69,9 +69,19 @@ public class SnowmanServer implements ManagedObject, Serializable, AppListener {
             Logger.getLogger(SnowmanServer.class.getName());
     
     /**
-     * Number of queues to use for the matchmaking system
+     * Name of the property used to define the number of shards, each a
+     * queue with its own matchmaker, to use for the matchmaking system
      */
-    private static final int NUMDEQUES = 10;
+    private static final String SHARDS_PROP = "numShards";
+    /**
+     * Default number of shards
+     */
+    private static final int DEFAULT_SHARDS = 10;
+    /**
+     * Name of the property naming the {@link ShardStrategy} class used to
+     * select the shard of a player
+     */
+    private static final String SHARD_STRATEGY_PROP = "shardStrategy";
     /**
      * Name of the property used to define number of players per game
      */
@@ -96,52 +106,103 @@ public class SnowmanServer implements ManagedObject, Serializable, AppListener {
      * Default first move delay for robots
      */
     private static final int DEFAULT_ROBOT_DELAY = 2000;
+    /**
+     * Name of the property used to define the number of milliseconds
+     * between batched broadcasts in a game
+     */
+    private static final String BATCH_INTERVAL_PROP = "batchInterval";
+    /**
+     * Default batch interval, which sends each broadcast on its own
+     */
+    private static final int DEFAULT_BATCH_INTERVAL = 0;
+    /**
+     * Name of the property used to define the number of milliseconds
+     * between ticks of a game
+     */
+    private static final String TICK_INTERVAL_PROP = "tickInterval";
+    /**
+     * Default tick interval, which schedules each timed action on its own
+     */
+    private static final int DEFAULT_TICK_INTERVAL = 0;
+    /**
+     * Name of the property used to define the distance from which players
+     * in a game see each other
+     */
+    private static final String INTEREST_RADIUS_PROP = "interestRadius";
+    /**
+     * Default interest radius, which sends every message to every player
+     */
+    private static final int DEFAULT_INTEREST_RADIUS = 0;
+    /**
+     * Name of the property used to hold the players and flags of a game
+     * in the game object rather than in maps of their own
+     */
+    private static final String COMPACT_GAMES_PROP = "compactGames";
     
     private int numPlayersPerGame;
     private int numRobotsPerGame;
     private int robotDelay;
+    private GameOptions gameOptions;
+    private int numShards;
     
-    private ManagedReference<Deque<ManagedReference<SnowmanPlayer>>>[] 
-            waitingDeques;
+    private ShardStrategy shardStrategy;
+    private ManagedReference<MatchmakerTask>[] matchmakers;
     private GameFactory gameFactory;
     private EntityFactory entityFactory;
 
     /**
      * Initializes a Project Snowman server upon first bootup. This involves:
      * <ol>
-     * <li>Initializing a list of queues that connecting players are placed
-     * into upon connecting to wait to be matched into a game.</li>
-     * <li>Initializing the self-rescheduling {@code link MatchmakerTask} which
-     * is responsible for pulling players off of the waiting queues and
-     * matching them into games.</li>
+     * <li>Initializing a list of {@link MatchmakerTask}s, each with a queue
+     * that connecting players are placed into upon connecting to wait to be
+     * matched into a game, and which is run to match them when they
+     * arrive.</li>
+     * <li>Arranging the {@code MatchmakerTask}s in a binary tree, each one
+     * handing the players it leaves over to its parent, so that the
+     * leftovers of all of them meet at the first one.</li>
+     * <li>Linking the {@code MatchmakerTask}s in a ring, so that each can
+     * hand its backlog to the next one when that one is idle.</li>
      * </ol>
      * Configuration parameters such as number of players in a game, number
-     * of robots in a game, and robot move delay are also parsed and 
-     * established from the given set of properties.
+     * of robots in a game, robot move delay, the intervals at which
+     * games batch their broadcasts and tick, the distance from which their
+     * players see each other, whether they hold their players and flags
+     * compactly, and the number of shards and the
+     * strategy spreading players over them are also parsed and established
+     * from the given set of properties.
      * 
      * @param props a set of {@code Properties} used to configure the 
      *        runtime state of the game
      */
     @SuppressWarnings("unchecked")
     public void initialize(Properties props) {
-        this.gameFactory = new GameFactoryImpl();
+        this.config(props);
+        this.gameFactory = new GameFactoryImpl(gameOptions);
         this.entityFactory = new EntityFactoryImpl();
-        this.waitingDeques = new ManagedReference[NUMDEQUES];
-        for (int i = 0; i < waitingDeques.length; i++) {
-            Deque<ManagedReference<SnowmanPlayer>> deque = 
-                    new ScalableDeque<ManagedReference<SnowmanPlayer>>();
-            waitingDeques[i] = 
-                    AppContext.getDataManager().createReference(deque);
+        this.matchmakers = new ManagedReference[numShards];
+        for (int i = 0; i < matchmakers.length; i++) {
+            MatchmakerTask overflow = 
+                    i == 0 ? null : matchmakers[(i - 1) / 2].get();
+            matchmakers[i] = AppContext.getDataManager().createReference(
+                    createMatchmaker(i, overflow));
         }
-
-        this.config(props);
-        AppContext.getTaskManager().scheduleTask(
-                new MatchmakerTask(numPlayersPerGame,
-                                   numRobotsPerGame,
-                                   robotDelay,
-                                   gameFactory,
-                                   entityFactory,
-                                   waitingDeques));
+        if (matchmakers.length > 1) {
+            for (int i = 0; i < matchmakers.length; i++) {
+                matchmakers[i].get().setPeer(
+                        matchmakers[(i + 1) % matchmakers.length].get());
+            }
+        }
+    }
+    
+    private MatchmakerTask createMatchmaker(int index,
+                                            MatchmakerTask overflow) {
+        return new MatchmakerTask(index,
+                                  numPlayersPerGame,
+                                  numRobotsPerGame,
+                                  robotDelay,
+                                  gameFactory,
+                                  entityFactory,
+                                  overflow);
     }
 
     private void config(Properties props) {
@@ -175,12 +236,85 @@ public class SnowmanServer implements ManagedObject, Serializable, AppListener {
                    "Number of robots per game: {0}, " +
                    "with delay of {1} milliseconds",
                    new Object[]{numRobotsPerGame, robotDelay});
+        
+        int batchInterval = getPropertyAsInteger(props,
+                                                 BATCH_INTERVAL_PROP,
+                                                 DEFAULT_BATCH_INTERVAL);
+        if (batchInterval < 0) {
+            throw new IllegalArgumentException(BATCH_INTERVAL_PROP + 
+                                               " must be >= 0");
+        }
+        logger.log(Level.CONFIG,
+                   "Game broadcast batch interval set to {0} milliseconds",
+                   batchInterval);
+        
+        int tickInterval = getPropertyAsInteger(props,
+                                                TICK_INTERVAL_PROP,
+                                                DEFAULT_TICK_INTERVAL);
+        if (tickInterval < 0) {
+            throw new IllegalArgumentException(TICK_INTERVAL_PROP + 
+                                               " must be >= 0");
+        }
+        logger.log(Level.CONFIG,
+                   "Game tick interval set to {0} milliseconds",
+                   tickInterval);
+        
+        int interestRadius = getPropertyAsInteger(props,
+                                                  INTEREST_RADIUS_PROP,
+                                                  DEFAULT_INTEREST_RADIUS);
+        if (interestRadius < 0) {
+            throw new IllegalArgumentException(INTEREST_RADIUS_PROP + 
+                                               " must be >= 0");
+        }
+        logger.log(Level.CONFIG,
+                   "Game interest radius set to {0}",
+                   interestRadius);
+        
+        boolean compactGames = 
+                Boolean.valueOf(props.getProperty(COMPACT_GAMES_PROP));
+        logger.log(Level.CONFIG,
+                   "Compact game layout set to {0}",
+                   compactGames);
+        
+        gameOptions = GameOptions.DEFAULT.
+                withBatchInterval(batchInterval).
+                withTickInterval(tickInterval).
+                withInterestRadius(interestRadius).
+                withCompact(compactGames);
+        
+        numShards = getPropertyAsInteger(props,
+                                         SHARDS_PROP,
+                                         DEFAULT_SHARDS);
+        if (numShards <= 0) {
+            throw new IllegalArgumentException(SHARDS_PROP + 
+                                               " must be > 0");
+        }
+        
+        String strategy = props.getProperty(SHARD_STRATEGY_PROP,
+                                            HashShardStrategy.class.getName());
+        try {
+            //the strategy is stored with the server, which the subclass
+            //check ensures as every ShardStrategy is Serializable
+            shardStrategy = Class.forName(strategy).
+                    asSubclass(ShardStrategy.class).
+                    getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException(SHARD_STRATEGY_PROP + 
+                                               " must name a " +
+                                               ShardStrategy.class.getName(),
+                                               e);
+        }
+        logger.log(Level.CONFIG,
+                   "Players spread over {0} shards by {1}",
+                   new Object[]{numShards, strategy});
     }
 
     /**
-     * When a player logs in, it is randomly added to one of the waiting
-     * deques.  The {@link MatchmakerTask} is responsible for pulling players
-     * off of these deques and matching them into games.
+     * When a player logs in, it joins the {@link MatchmakerTask} of the
+     * shard selected for it by the {@link ShardStrategy}, which matches the
+     * players waiting in it into games.  The
+     * player joins once its version latency has been measured, so that it
+     * is matched with players of similar latency.
      * 
      * @param session the {@code ClientSession} of the connecting player
      * @return a {@link SnowmanPlayerListener} associated with the connected
@@ -190,13 +324,13 @@ public class SnowmanServer implements ManagedObject, Serializable, AppListener {
         if (logger.isLoggable(Level.FINE)) {
             logger.log(Level.FINE, "Player {0} logged in", session.getName());
         }
-        SnowmanPlayerListener player =
-                new SnowmanPlayerListener(
-                entityFactory.createSnowmanPlayer(session));
-        BigInteger id = player.getSnowmanPlayerRef().getId();
-        BigInteger index = id.mod(BigInteger.valueOf((long) NUMDEQUES));
+        SnowmanPlayer snowmanPlayer = entityFactory.createSnowmanPlayer(session);
+        SnowmanPlayerListener player = 
+                new SnowmanPlayerListener(snowmanPlayer);
+        int index = shardStrategy.getShard(session.getName(),
+                                           matchmakers.length);
 
-        waitingDeques[index.intValue()].get().add(player.getSnowmanPlayerRef());
+        snowmanPlayer.joinMatchmaker(matchmakers[index].get());
         return player;
     }
     
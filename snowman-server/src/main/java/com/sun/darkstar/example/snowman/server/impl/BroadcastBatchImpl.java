@@ -0,0 +1,316 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
+import com.sun.darkstar.example.snowman.server.interfaces.BroadcastBatch;
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.Channel;
+import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedObjectRemoval;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.Task;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Self re-scheduling implementation of {@code BroadcastBatch}.  Every
+ * {@code interval} milliseconds the queued messages are sent on the game
+ * channel as one batch packet.  A batch is also sent early if it would
+ * otherwise grow beyond {@link #MAX_BATCH_SIZE} bytes.
+ * <p>
+ * Messages are queued in one of {@link #OUTBOXES} outboxes, each a managed
+ * object of its own chosen by the sender of the message, so that players
+ * sending at the same time rarely update the same object.  Adding a
+ * message only reads the batch itself.
+ * <p>
+ * Each message is stamped with a sequence number when it is queued, and
+ * the outboxes are merged by it when they are sent, so that messages are
+ * delivered in the order they were queued on this node whichever outbox
+ * they went to.  As with messages sent on the channel directly, messages
+ * queued by transactions running at the same time are delivered in the
+ * order they happened to be queued, not the order the transactions commit.
+ * <p>
+ * Once {@link #sendToSessions} has been called the batch packets are sent
+ * to each session of the channel rather than on the channel itself.
+ */
+public class BroadcastBatchImpl implements BroadcastBatch, Task, 
+        ManagedObjectRemoval, Serializable {
+    
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    /**
+     * The maximum size of a batch packet, in bytes
+     */
+    public static final int MAX_BATCH_SIZE = 4 * 1024;
+    
+    /**
+     * The number of outboxes the messages are spread over
+     */
+    public static final int OUTBOXES = 8;
+    
+    /**
+     * The sequence number of the last message queued on this node.  It
+     * starts from the clock, so that it keeps growing across restarts.
+     */
+    private static final AtomicLong lastQueued = 
+            new AtomicLong(System.currentTimeMillis() << 20);
+    
+    private final ManagedReference<Channel> channelRef;
+    private final int interval;
+    private final List<ManagedReference<Outbox>> outboxRefs =
+            new ArrayList<ManagedReference<Outbox>>(OUTBOXES);
+    private boolean toSessions = false;
+    private boolean closed = false;
+    
+    /**
+     * Creates a new batch that sends on the given channel.  The batch must
+     * be scheduled by the caller to start ticking.
+     * 
+     * @param channelRef reference to the channel of the game
+     * @param interval number of milliseconds between ticks
+     */
+    public BroadcastBatchImpl(ManagedReference<Channel> channelRef,
+                              int interval) {
+        this.channelRef = channelRef;
+        this.interval = interval;
+        for (int i = 0; i < OUTBOXES; i++) {
+            outboxRefs.add(
+                    AppContext.getDataManager().createReference(new Outbox()));
+        }
+    }
+    
+    /** 
+     * {@inheritDoc}
+     * 
+     * The given buffer may be the scratch buffer of {@code ServerMessages},
+     * so it is either copied or sent before anything else is encoded.
+     */
+    public void add(int sender, ByteBuffer buff) {
+        Outbox outbox = outboxRefs.get(
+                (sender & Integer.MAX_VALUE) % OUTBOXES).get();
+        int length = buff.remaining();
+        int recordSize = WireFormat.sizeOfVarint(length) + length;
+        if (1 + recordSize > MAX_BATCH_SIZE) {
+            //too large to be batched, send it on its own keeping the order
+            flush();
+            deliver(buff);
+            return;
+        }
+        
+        if (outbox.size + recordSize > MAX_BATCH_SIZE) {
+            //send everything queued before it, not just this outbox
+            flush();
+        }
+        AppContext.getDataManager().markForUpdate(outbox);
+        byte[] bytes = new byte[length];
+        buff.duplicate().get(bytes);
+        outbox.records.add(new Record(lastQueued.incrementAndGet(), bytes));
+        outbox.size += recordSize;
+    }
+    
+    /** 
+     * {@inheritDoc}
+     * 
+     * The messages of all the outboxes are sent together in the order
+     * they were queued, in as few packets as fit within
+     * {@link #MAX_BATCH_SIZE} bytes.
+     */
+    public void flush() {
+        List<List<Record>> queues = new ArrayList<List<Record>>(OUTBOXES);
+        for (ManagedReference<Outbox> ref : outboxRefs) {
+            List<Record> queue = ref.get().take();
+            if (!queue.isEmpty()) {
+                queues.add(queue);
+            }
+        }
+        
+        //merge the outboxes, each of which is already in order
+        int[] next = new int[queues.size()];
+        List<byte[]> records = new ArrayList<byte[]>();
+        int size = 1;
+        while (true) {
+            int first = -1;
+            for (int i = 0; i < next.length; i++) {
+                if (next[i] < queues.get(i).size() && (first == -1 ||
+                        queues.get(i).get(next[i]).sequence <
+                        queues.get(first).get(next[first]).sequence)) {
+                    first = i;
+                }
+            }
+            if (first == -1) {
+                break;
+            }
+            byte[] record = queues.get(first).get(next[first]++).bytes;
+            int recordSize = WireFormat.sizeOfVarint(record.length) + 
+                    record.length;
+            if (size + recordSize > MAX_BATCH_SIZE) {
+                send(records);
+                records = new ArrayList<byte[]>();
+                size = 1;
+            }
+            records.add(record);
+            size += recordSize;
+        }
+        send(records);
+    }
+    
+    /**
+     * Send the given records, as one batch packet if there are several.
+     * 
+     * @param records the messages to send
+     */
+    private void send(List<byte[]> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        if (records.size() == 1) {
+            deliver(ByteBuffer.wrap(records.get(0)));
+        } else {
+            deliver(ServerMessages.createBatchPkt(records));
+        }
+    }
+    
+    /**
+     * Send a message on the channel, or to each of its sessions if the
+     * batch has been switched to them.
+     * 
+     * @param buff the message
+     */
+    private void deliver(ByteBuffer buff) {
+        if (toSessions) {
+            sendToSessions(channelRef.get(), buff);
+        } else {
+            channelRef.get().send(null, buff);
+        }
+    }
+    
+    /**
+     * Send a message to each session of the given channel individually,
+     * so that it is ordered with the other messages sent to the sessions
+     * rather than with those sent on the channel.  The buffer may be the
+     * scratch buffer of {@code ServerMessages}, which sessions copy.
+     * 
+     * @param channel the channel whose sessions are sent the message
+     * @param buff the message
+     */
+    static void sendToSessions(Channel channel, ByteBuffer buff) {
+        for (Iterator<ClientSession> it = channel.getSessions(); 
+                it.hasNext(); ) {
+            it.next().send(buff.duplicate());
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public void sendToSessions() {
+        if (!toSessions) {
+            AppContext.getDataManager().markForUpdate(this);
+            toSessions = true;
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public void close() {
+        flush();
+        AppContext.getDataManager().markForUpdate(this);
+        closed = true;
+    }
+    
+    /** {@inheritDoc} */
+    public void run() throws Exception {
+        if (closed) {
+            AppContext.getDataManager().removeObject(this);
+            return;
+        }
+        flush();
+        AppContext.getTaskManager().scheduleTask(this, interval);
+    }
+    
+    /** {@inheritDoc} */
+    public void removingObject() {
+        for (ManagedReference<Outbox> ref : outboxRefs) {
+            AppContext.getDataManager().removeObject(ref.get());
+        }
+    }
+    
+    /**
+     * The messages queued by some of the senders, waiting to be sent.
+     */
+    private static class Outbox implements ManagedObject, Serializable {
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+        
+        List<Record> records = new ArrayList<Record>();
+        int size = 1;
+        
+        /**
+         * Take the queued messages out of the outbox, emptying it.
+         * 
+         * @return the queued messages, in the order they were queued
+         */
+        List<Record> take() {
+            if (records.isEmpty()) {
+                return records;
+            }
+            AppContext.getDataManager().markForUpdate(this);
+            List<Record> taken = records;
+            records = new ArrayList<Record>();
+            size = 1;
+            return taken;
+        }
+    }
+    
+    /**
+     * A queued message, with the sequence number it was queued with.
+     */
+    private static class Record implements Serializable {
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+        
+        final long sequence;
+        final byte[] bytes;
+        
+        Record(long sequence, byte[] bytes) {
+            this.sequence = sequence;
+            this.bytes = bytes;
+        }
+    }
+}
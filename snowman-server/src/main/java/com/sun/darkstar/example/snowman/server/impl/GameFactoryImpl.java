@@ -47,12 +47,31 @@ public class GameFactoryImpl implements GameFactory, Serializable {
 
     /** The version of the serialized form. */
     public static final long serialVersionUID = 1L;
+    
+    private final GameOptions options;
+
+    /**
+     * Creates a factory for games with the default options.
+     */
+    public GameFactoryImpl() {
+        this(GameOptions.DEFAULT);
+    }
+
+    /**
+     * Creates a factory for games with the given options.
+     * 
+     * @param options the options of every game created
+     */
+    public GameFactoryImpl(GameOptions options) {
+        this.options = options;
+    }
 
     /** {@inheritDoc} */
     public SnowmanGame createSnowmanGame(String gameName,
                                          int numPlayers,
                                          EntityFactory entityFactory) {
-        return new SnowmanGameImpl(gameName, numPlayers, entityFactory);
+        return new SnowmanGameImpl(gameName, numPlayers, entityFactory,
+                                   options);
     }
 }
 
@@ -0,0 +1,178 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import java.io.Serializable;
+
+/**
+ * The options that games are created with.  Options are immutable: each
+ * {@code with} method returns a copy with one option changed, starting
+ * from {@link #DEFAULT}, so that the options of the server are built once
+ * from its properties and then shared by every game it creates.
+ */
+public final class GameOptions implements Serializable {
+
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    /**
+     * Options of a game that sends each message as it is generated,
+     * schedules each timed action as a task of its own, sends every
+     * message to every player and keeps its players and flags in maps of
+     * their own
+     */
+    public static final GameOptions DEFAULT = 
+            new GameOptions(0, 0, 0, false);
+    
+    private final int batchInterval;
+    private final int tickInterval;
+    private final int interestRadius;
+    private final boolean compact;
+    
+    private GameOptions(int batchInterval, int tickInterval,
+                        int interestRadius, boolean compact) {
+        this.batchInterval = batchInterval;
+        this.tickInterval = tickInterval;
+        this.interestRadius = interestRadius;
+        this.compact = compact;
+    }
+    
+    /**
+     * Return a copy of these options for games which batch their channel
+     * messages.  Messages sent to all players are queued and delivered
+     * together every {@code batchInterval} milliseconds.
+     * 
+     * @param batchInterval number of milliseconds between batches, or 0
+     *        to send each message as soon as it is generated
+     * @return the changed options
+     * @throws IllegalArgumentException if the interval is negative
+     */
+    public GameOptions withBatchInterval(int batchInterval) {
+        if (batchInterval < 0) {
+            throw new IllegalArgumentException("batchInterval must be >= 0");
+        }
+        return new GameOptions(batchInterval, tickInterval,
+                               interestRadius, compact);
+    }
+    
+    /**
+     * Return a copy of these options for games which run at a fixed tick.
+     * Respawns, flag returns and robot moves are then run by the
+     * {@code GameTick} of the game every {@code tickInterval} milliseconds,
+     * and the messages sent to all players are delivered together at each
+     * tick, whatever the batch interval.
+     * 
+     * @param tickInterval number of milliseconds between ticks, or 0
+     *        to schedule each timed action as a task of its own
+     * @return the changed options
+     * @throws IllegalArgumentException if the interval is negative
+     */
+    public GameOptions withTickInterval(int tickInterval) {
+        if (tickInterval < 0) {
+            throw new IllegalArgumentException("tickInterval must be >= 0");
+        }
+        return new GameOptions(batchInterval, tickInterval,
+                               interestRadius, compact);
+    }
+    
+    /**
+     * Return a copy of these options for games which filter their
+     * messages by area of interest.  Movements and attacks are then only
+     * sent to the players within {@code interestRadius} of them, on the
+     * channels of an {@code InterestGrid}, while the other messages are
+     * still sent to every player.  Such a game does not batch its
+     * messages, since a batch can not be split among the cells, and
+     * sending some messages later than others would change their order.
+     * 
+     * @param interestRadius distance from which players see each other, or
+     *        0 to send every message to every player
+     * @return the changed options
+     * @throws IllegalArgumentException if the radius is negative
+     */
+    public GameOptions withInterestRadius(int interestRadius) {
+        if (interestRadius < 0) {
+            throw new IllegalArgumentException("interestRadius must be >= 0");
+        }
+        return new GameOptions(batchInterval, tickInterval,
+                               interestRadius, compact);
+    }
+    
+    /**
+     * Return a copy of these options for games which may keep their
+     * players and flags compactly.  The maps from the ids of the players
+     * and flags of such a game to their references are held in the game
+     * object itself, in arrays indexed by id, rather than in
+     * {@code ScalableHashMap}s of their own.  Looking up the target of an
+     * attack or a flag then only loads the game and the object looked up,
+     * and looking at every player no longer loads a map node for each of
+     * them.  This suits the few players of a game, but every player
+     * joining or leaving rewrites the whole game object.
+     * 
+     * @param compact whether the players and flags are held in the game
+     *        object rather than in maps of their own
+     * @return the changed options
+     */
+    public GameOptions withCompact(boolean compact) {
+        return new GameOptions(batchInterval, tickInterval,
+                               interestRadius, compact);
+    }
+    
+    /**
+     * @return the number of milliseconds between batches, or 0
+     */
+    public int getBatchInterval() {
+        return batchInterval;
+    }
+    
+    /**
+     * @return the number of milliseconds between ticks, or 0
+     */
+    public int getTickInterval() {
+        return tickInterval;
+    }
+    
+    /**
+     * @return the distance from which players see each other, or 0
+     */
+    public int getInterestRadius() {
+        return interestRadius;
+    }
+    
+    /**
+     * @return whether the players and flags are held in the game object
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import com.sun.darkstar.example.snowman.server.interfaces.BroadcastBatch;
+import com.sun.darkstar.example.snowman.server.interfaces.GameTick;
+import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.ExceptionRetryStatus;
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedObjectRemoval;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.Task;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Self re-scheduling implementation of {@code GameTick}.  Every
+ * {@code interval} milliseconds the tasks that have come due are run, the
+ * game's {@code BroadcastBatch}, which is not scheduled on its own, is
+ * flushed, and then the game sends its snapshot, so that players are
+ * sent the events of the tick ahead of the state they lead to.
+ * <p>
+ * A due task that fails with an exception that should not be retried is
+ * logged and dropped, so that it does not abort the tick and with it the
+ * rescheduling of the tick.  Any changes it made before failing are kept
+ * with those of the tick.
+ * <p>
+ * Pending tasks are kept in {@link #TIMER_BUCKETS} buckets, each a
+ * managed object of its own chosen by the tick a task is due on, so that
+ * scheduling a task only reads the tick itself and writes one bucket.
+ * Tasks due on different ticks are scheduled without contention, and a
+ * tick only writes the buckets it takes due tasks from.
+ */
+public class GameTickImpl 
+        implements GameTick, Task, ManagedObjectRemoval, Serializable {
+    
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    private static final Logger logger = 
+            Logger.getLogger(GameTickImpl.class.getName());
+    
+    /**
+     * The number of buckets the pending tasks are spread over
+     */
+    public static final int TIMER_BUCKETS = 8;
+    
+    private final ManagedReference<SnowmanGame> gameRef;
+    private final ManagedReference<BroadcastBatch> batchRef;
+    private final int interval;
+    private final List<ManagedReference<Timers>> timerRefs =
+            new ArrayList<ManagedReference<Timers>>(TIMER_BUCKETS);
+    private boolean closed = false;
+    
+    /**
+     * Creates a new tick for the given game that flushes the given batch.
+     * The tick must be scheduled by the caller to start ticking.
+     * 
+     * @param gameRef reference to the game
+     * @param batchRef reference to the batch of the game, or null if the
+     *        game does not batch its messages
+     * @param interval number of milliseconds between ticks
+     */
+    public GameTickImpl(ManagedReference<SnowmanGame> gameRef,
+                        ManagedReference<BroadcastBatch> batchRef,
+                        int interval) {
+        this.gameRef = gameRef;
+        this.batchRef = batchRef;
+        this.interval = interval;
+        for (int i = 0; i < TIMER_BUCKETS; i++) {
+            timerRefs.add(
+                    AppContext.getDataManager().createReference(new Timers()));
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public void schedule(Task task, long delay) {
+        long time = System.currentTimeMillis() + delay;
+        Timers bucket = timerRefs.get(
+                (int) ((time / interval) % TIMER_BUCKETS)).get();
+        AppContext.getDataManager().markForUpdate(bucket);
+        bucket.timers.add(new Timer(task, time));
+    }
+    
+    /** {@inheritDoc} */
+    public void close() {
+        AppContext.getDataManager().markForUpdate(this);
+        closed = true;
+    }
+    
+    /** {@inheritDoc} */
+    public void run() throws Exception {
+        if (closed) {
+            if (batchRef != null) {
+                AppContext.getDataManager().removeObject(batchRef.get());
+            }
+            AppContext.getDataManager().removeObject(this);
+            return;
+        }
+        
+        //take the due tasks out first, as they may schedule more
+        long now = System.currentTimeMillis();
+        List<Task> due = null;
+        for (ManagedReference<Timers> ref : timerRefs) {
+            Timers bucket = ref.get();
+            boolean updated = false;
+            for (Iterator<Timer> it = bucket.timers.iterator(); 
+                    it.hasNext(); ) {
+                Timer timer = it.next();
+                if (timer.time <= now) {
+                    if (!updated) {
+                        AppContext.getDataManager().markForUpdate(bucket);
+                        updated = true;
+                    }
+                    if (due == null) {
+                        due = new ArrayList<Task>();
+                    }
+                    due.add(timer.task);
+                    it.remove();
+                }
+            }
+        }
+        if (due != null) {
+            for (Task task : due) {
+                runDue(task);
+                if (closed) {
+                    break;
+                }
+            }
+        }
+        
+        if (batchRef != null) {
+            batchRef.get().flush();
+        }
+        gameRef.get().sendSnapshot();
+        AppContext.getTaskManager().scheduleTask(this, interval);
+    }
+    
+    /**
+     * Run a due task, dropping it if it fails with an exception that
+     * should not be retried.  Exceptions that should be retried, such as
+     * conflicts, abort the tick so that it is retried as a whole.
+     * 
+     * @param task the task to run
+     * @throws Exception if the task fails and the tick should be retried
+     */
+    private void runDue(Task task) throws Exception {
+        try {
+            task.run();
+        } catch (Exception e) {
+            if (e instanceof ExceptionRetryStatus &&
+                    ((ExceptionRetryStatus) e).shouldRetry()) {
+                throw e;
+            }
+            logger.log(Level.WARNING, "Dropping failed task " + task, e);
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public void removingObject() {
+        for (ManagedReference<Timers> ref : timerRefs) {
+            AppContext.getDataManager().removeObject(ref.get());
+        }
+    }
+    
+    /**
+     * The pending tasks due on some of the ticks.
+     */
+    private static class Timers implements ManagedObject, Serializable {
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+        
+        final List<Timer> timers = new ArrayList<Timer>();
+    }
+    
+    /**
+     * A task waiting to be run by the tick.
+     */
+    private static class Timer implements Serializable {
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+        
+        final Task task;
+        final long time;
+        
+        Timer(Task task, long time) {
+            this.task = task;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact map from the ids of the entities of a game to values, held in
+ * an array indexed by id.  Since ids are handed out in sequence, the array
+ * stays about as small as the number of entries, and a lookup is a single
+ * index.  Unlike a {@code ScalableHashMap}, the map is not a managed object
+ * itself, and it is stored along with the object that holds it, so it is
+ * only suited to the few entries of a single game.  Null values are not
+ * permitted.
+ * 
+ * @param <V> the type of the values
+ */
+public class IdMap<V> extends AbstractMap<Integer, V> implements Serializable {
+    
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    /** The id stored at the first index of the array */
+    private int base = 0;
+    private Object[] values = new Object[0];
+    private int size = 0;
+    
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (!(key instanceof Integer)) {
+            return null;
+        }
+        int index = ((Integer) key).intValue() - base;
+        if (index < 0 || index >= values.length) {
+            return null;
+        }
+        return (V) values[index];
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public V put(Integer key, V value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not permitted");
+        }
+        int index = ensureIndex(key.intValue());
+        V old = get(key);
+        values[index] = value;
+        if (old == null) {
+            size++;
+        }
+        return old;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public V remove(Object key) {
+        V old = get(key);
+        if (old != null) {
+            values[((Integer) key).intValue() - base] = null;
+            size--;
+        }
+        return old;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public void clear() {
+        values = new Object[0];
+        size = 0;
+    }
+    
+    /**
+     * Grow the array if needed so that it covers the given id.
+     * 
+     * @param id the id
+     * @return the index of the id in the array
+     */
+    private int ensureIndex(int id) {
+        if (size == 0) {
+            base = id;
+            if (values.length == 0) {
+                values = new Object[4];
+            }
+        } else if (id < base) {
+            Object[] grown = new Object[values.length + base - id];
+            System.arraycopy(values, 0, grown, base - id, values.length);
+            values = grown;
+            base = id;
+        }
+        int index = id - base;
+        if (index >= values.length) {
+            Object[] grown = new Object[Math.max(values.length * 2, index + 1)];
+            System.arraycopy(values, 0, grown, 0, values.length);
+            values = grown;
+        }
+        return index;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public Set<Entry<Integer, V>> entrySet() {
+        return new AbstractSet<Entry<Integer, V>>() {
+            public int size() {
+                return size;
+            }
+            
+            public Iterator<Entry<Integer, V>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+    
+    /**
+     * Iterates over the entries in order of id.
+     */
+    private class EntryIterator implements Iterator<Entry<Integer, V>> {
+        private int next = 0;
+        private int last = -1;
+        
+        EntryIterator() {
+            advance();
+        }
+        
+        private void advance() {
+            while (next < values.length && values[next] == null) {
+                next++;
+            }
+        }
+        
+        public boolean hasNext() {
+            return next < values.length;
+        }
+        
+        @SuppressWarnings("unchecked")
+        public Entry<Integer, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            advance();
+            return new SimpleImmutableEntry<Integer, V>(
+                    Integer.valueOf(base + last), (V) values[last]);
+        }
+        
+        public void remove() {
+            if (last < 0 || values[last] == null) {
+                throw new IllegalStateException();
+            }
+            values[last] = null;
+            size--;
+        }
+    }
+}
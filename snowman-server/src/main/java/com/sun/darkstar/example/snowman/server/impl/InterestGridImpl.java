@@ -0,0 +1,172 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.server.impl;
+
+import com.sun.darkstar.example.snowman.server.interfaces.InterestGrid;
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.Channel;
+import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.app.ManagedObjectRemoval;
+import com.sun.sgs.app.ManagedReference;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of {@code InterestGrid} with square cells as wide as the
+ * interest radius, so that a player sees the messages from its own cell
+ * and from the cells around it.  A position is visible from a cell if the
+ * square of the interest radius around it overlaps the cell.
+ * <p>
+ * The grid is never modified once it is created, so the players of a game
+ * can share it without contention.  Its channels are removed with it.
+ */
+public class InterestGridImpl 
+        implements InterestGrid, ManagedObjectRemoval, Serializable {
+    
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    /**
+     * A prefix that is appended to the darkstar bound name for
+     * all cell channels.
+     */
+    public static final String CHANPREFIX = "_CELLCHAN_";
+    
+    private final float radius;
+    private final int columns;
+    private final int rows;
+    private final List<ManagedReference<Channel>> channelRefs;
+    
+    /**
+     * Creates a grid over a map of the given dimensions, with a channel
+     * for each cell.
+     * 
+     * @param gameName the name of the game, which names the channels
+     * @param width the extent of the map along the x axis
+     * @param height the extent of the map along the y axis
+     * @param radius the distance from which players see each other
+     */
+    public InterestGridImpl(String gameName,
+                            float width, float height,
+                            float radius) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("radius must be > 0");
+        }
+        this.radius = radius;
+        this.columns = Math.max((int) Math.ceil(width / radius), 1);
+        this.rows = Math.max((int) Math.ceil(height / radius), 1);
+        this.channelRefs = 
+                new ArrayList<ManagedReference<Channel>>(columns * rows);
+        for (int cell = 0; cell < columns * rows; cell++) {
+            Channel channel = AppContext.getChannelManager().createChannel(
+                    CHANPREFIX + gameName + "_" + cell, null, 
+                    Delivery.RELIABLE);
+            channelRefs.add(AppContext.getDataManager().createReference(
+                    channel));
+        }
+    }
+    
+    // Index of the column or row covering the given coordinate
+    private static int index(float coordinate, float size, int count) {
+        int i = (int) Math.floor(coordinate / size);
+        return Math.min(Math.max(i, 0), count - 1);
+    }
+    
+    /** {@inheritDoc} */
+    public int getCell(float x, float y) {
+        return index(y, radius, rows) * columns + index(x, radius, columns);
+    }
+    
+    /** {@inheritDoc} */
+    public float getCellSize() {
+        return radius;
+    }
+    
+    /** {@inheritDoc} */
+    public void move(ClientSession session, int from, int to) {
+        if (from == to) {
+            return;
+        }
+        if (from >= 0) {
+            channelRefs.get(from).get().leave(session);
+        }
+        if (to >= 0) {
+            channelRefs.get(to).get().join(session);
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public boolean isVisible(int cell, float x, float y) {
+        int column = cell % columns;
+        int row = cell / columns;
+        return column >= index(x - radius, radius, columns) &&
+               column <= index(x + radius, radius, columns) &&
+               row >= index(y - radius, radius, rows) &&
+               row <= index(y + radius, radius, rows);
+    }
+    
+    /** 
+     * {@inheritDoc}
+     * 
+     * The message is sent on the channel of every cell that can see the
+     * rectangle.  As a player only joins the channel of its own cell, it
+     * receives the message once.
+     */
+    public void send(float x1, float y1, float x2, float y2, 
+                     ByteBuffer buff) {
+        int firstColumn = index(Math.min(x1, x2) - radius, radius, columns);
+        int lastColumn = index(Math.max(x1, x2) + radius, radius, columns);
+        int firstRow = index(Math.min(y1, y2) - radius, radius, rows);
+        int lastRow = index(Math.max(y1, y2) + radius, radius, rows);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                channelRefs.get(row * columns + column).get().send(
+                        null, buff.duplicate());
+            }
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public void removingObject() {
+        for (ManagedReference<Channel> ref : channelRefs) {
+            Channel channel = ref.get();
+            channel.leaveAll();
+            AppContext.getDataManager().removeObject(channel);
+        }
+    }
+}
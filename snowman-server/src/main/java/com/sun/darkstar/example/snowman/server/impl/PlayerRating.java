@@ -0,0 +1,134 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.server.impl;
+
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.DataManager;
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.NameNotBoundException;
+import java.io.Serializable;
+
+/**
+ * The Elo rating of a player, bound by name in the data store so that it
+ * is kept across sessions.  Players who have never finished a game have
+ * the {@link #DEFAULT_RATING}.
+ */
+public class PlayerRating implements ManagedObject, Serializable {
+    
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    /** The rating of a new player */
+    public static final int DEFAULT_RATING = 1500;
+    /** The most a rating changes after one game */
+    static final int K_FACTOR = 32;
+    
+    private static final String BINDING_PREFIX = "snowman.rating.";
+    
+    private int rating = DEFAULT_RATING;
+    
+    private PlayerRating() {
+    }
+    
+    /**
+     * Get the rating of the player with the given name.
+     * 
+     * @param name the name of the player
+     * @return the rating of the player
+     */
+    public static int getRating(String name) {
+        try {
+            return ((PlayerRating) AppContext.getDataManager().getBinding(
+                    BINDING_PREFIX + name)).rating;
+        } catch (NameNotBoundException unrated) {
+            return DEFAULT_RATING;
+        }
+    }
+    
+    /**
+     * Update the ratings of the players of a game with its result, each
+     * player gaining or losing according to the result expected from the
+     * average ratings of the two teams.
+     * 
+     * @param names the names of the players
+     * @param teams the teams of the players
+     * @param endState the result of the game
+     */
+    public static void recordResult(String[] names, ETeamColor[] teams,
+                                    EEndState endState) {
+        int[] ratings = new int[names.length];
+        double red = 0.0;
+        double blue = 0.0;
+        int numRed = 0;
+        for (int i = 0; i < names.length; i++) {
+            ratings[i] = getRating(names[i]);
+            if (teams[i] == ETeamColor.Red) {
+                red += ratings[i];
+                numRed++;
+            } else {
+                blue += ratings[i];
+            }
+        }
+        if (numRed == 0 || numRed == names.length) {
+            return;
+        }
+        red /= numRed;
+        blue /= names.length - numRed;
+        
+        double expectedRed = 1.0 / (1.0 + Math.pow(10.0, (blue - red) / 400.0));
+        double scoreRed = endState == EEndState.RedWin ? 1.0 :
+                          endState == EEndState.BlueWin ? 0.0 : 0.5;
+        int change = (int) Math.round(K_FACTOR * (scoreRed - expectedRed));
+        for (int i = 0; i < names.length; i++) {
+            setRating(names[i], ratings[i] + 
+                      (teams[i] == ETeamColor.Red ? change : -change));
+        }
+    }
+    
+    private static void setRating(String name, int rating) {
+        DataManager dataManager = AppContext.getDataManager();
+        PlayerRating record;
+        try {
+            record = (PlayerRating) dataManager.getBindingForUpdate(
+                    BINDING_PREFIX + name);
+        } catch (NameNotBoundException unrated) {
+            record = new PlayerRating();
+            dataManager.setBinding(BINDING_PREFIX + name, record);
+        }
+        record.rating = rating;
+    }
+}
@@ -33,28 +33,27 @@
  */
 package com.sun.darkstar.example.snowman.server.impl;
 
-import com.sun.darkstar.example.snowman.common.util.Coordinate;
 import com.sun.darkstar.example.snowman.common.util.HPConverter;
+import com.sun.darkstar.example.snowman.server.interfaces.Robot;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanFlag;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanPlayer;
+import com.sun.darkstar.example.snowman.server.service.GameWorldManager;
 import com.sun.sgs.app.AppContext;
 import com.sun.sgs.app.ClientSession;
 import com.sun.sgs.app.ManagedReference;
-import com.sun.sgs.app.ObjectNotFoundException;
-import com.sun.sgs.app.Task;
-import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.logging.Logger;
 
 /**
- * Robot player.
+ * Robot player.  Robots do not schedule moves of their own; the
+ * {@code RobotPlanner} of their game asks each of them to act in turn.
  * 
  * @author kbt
  */
-public class RobotImpl extends SnowmanPlayerImpl {
+public class RobotImpl extends SnowmanPlayerImpl implements Robot {
 
     /** The version of the serialized form. */
     public static final long serialVersionUID = 1L;
@@ -65,7 +64,7 @@ public class RobotImpl extends SnowmanPlayerImpl {
     private final Random random;
     
     /**
-     * Player IDs of potential targets
+     * Player IDs of potential targets, which are on the other teams
      */
     private ArrayList<Integer> potentialTargets = null;
     
@@ -76,32 +75,25 @@ public class RobotImpl extends SnowmanPlayerImpl {
     
     /**
      * Creates a new robot player with the given name and move delay.
-     * The robot will start moving after a delay, and then will repeatedly
-     * schedule a new move action every delay milliseconds.
+     * The robot starts moving once its game's planner makes its first
+     * pass.
      * 
      * @param name the name of the robot
-     * @param delay the scheduled delay in between robot actions
+     * @param delay the delay in between robot actions
      */
     public RobotImpl(String name, int delay) {
         super(name, null);
         moveDelay = delay;
         random = new Random(name.hashCode());
-        scheduleMove(10000); // TODO need to find out when the game starts
     }
     
-    /**
-     * Schedule the next move for this robot in about delay milliseconds.
-     * 
-     * @param delay the delay to use to schedule the next move
-     */
-    private void scheduleMove(int delay) {
-        AppContext.getTaskManager().scheduleTask(
-                new MoveTask(
-                AppContext.getDataManager().createReference((RobotImpl) this)),
-                delay + random.nextInt(500));
+    /** {@inheritDoc} */
+    public int getMoveDelay() {
+        return moveDelay;
     }
     
-    private void moveRobot() {
+    /** {@inheritDoc} */
+    public void plan(long now, int[] ids, float[] positions, int count) {
 
         // game over
         if (gameRef == null) {
@@ -110,111 +102,145 @@ public class RobotImpl extends SnowmanPlayerImpl {
         
         // game has not started or robot is respawning
         if (state == PlayerState.NONE || state == PlayerState.DEAD) {
-            scheduleMove(moveDelay * 4);
             return;
         }
         
-        // on first scheduled move, the robot does not know who to attack
+        // on first move, the robot does not know who to attack
         // setup list of potential targets
         if (potentialTargets == null) {
             setupPotentialTargets();
         }
                 
-        long now = System.currentTimeMillis();
-        Coordinate currentPos = getExpectedPositionAtTime(now);
+        float[] position = expectedPosition.get();
+        getExpectedPositionAtTime(now, position);
+        float currentX = position[0];
+        float currentY = position[1];
         
         // If holding the flag, move towards the goal and try to score
         if (holdingFlagRef != null) {
-            if (score(now, currentPos.getX(), currentPos.getY())) {
+            if (score(now, currentX, currentY)) {
                 return; // game over
             }
               
-            // usually move towards the flag goal location
-            // every once in a while, move randomly so that we don't
-            // get stuck behind an object
-            if (random.nextBoolean() || random.nextBoolean()) {
-                moveMe(now,
-                       currentPos.getX(), currentPos.getY(),
-                       theirFlagRef.get().getGoalX() + 
-                       5 * (random.nextFloat() - 0.5f),
-                       theirFlagRef.get().getGoalY() + 
-                       5 * (random.nextFloat() - 0.5f));
-            } else {
-                moveMe(now,
-                       currentPos.getX(), currentPos.getY(),
-                       currentPos.getX() + 10 * (random.nextFloat() - 0.5f),
-                       currentPos.getY() + 10 * (random.nextFloat() - 0.5f));
-            }
+            // follow the path to the flag goal location
+            SnowmanFlag flag = theirFlagRef.get();
+            walkTowards(now, currentX, currentY,
+                        flag.getGoalX(), flag.getGoalY(), 5);
             
         // randomly go after the flag
         } else if (random.nextBoolean() && !theirFlagRef.get().isHeld()) {
             SnowmanFlag flag = theirFlagRef.get();
-            getFlag(now, flag.getID(), currentPos.getX(), currentPos.getY());
+            getFlag(now, flag.getID(), currentX, currentY);
             
             // if we didn't get it, move towards it
             if (holdingFlagRef == null) {
-                moveMe(now,
-                       currentPos.getX(), currentPos.getY(),
-                       flag.getX() + 5 * (random.nextFloat() - 0.5f),
-                       flag.getY() + 5 * (random.nextFloat() - 0.5f));
+                walkTowards(now, currentX, currentY,
+                            flag.getX(), flag.getY(), 5);
             }
         
         // else just move towards a target snowman
         } else {
-            SnowmanGame game = gameRef.get();
-            
-            int targetIndex = random.nextInt(potentialTargets.size());
-            SnowmanPlayer target =
-                    game.getPlayer(potentialTargets.get(targetIndex));
-            
-            // don't attack friendly snowmen or snowmen no longer around
-            if ((target != null) &&
-                    (target.getTeamColor() == this.getTeamColor())) {
-                potentialTargets.remove(targetIndex);
-                target = null;
+            int slot = -1;
+            int targetId = 0;
+            if (!potentialTargets.isEmpty()) {
+                int targetIndex = random.nextInt(potentialTargets.size());
+                targetId = potentialTargets.get(targetIndex);
+                slot = indexOf(targetId, ids, count);
+                
+                // forget snowmen no longer around
+                if (slot < 0) {
+                    AppContext.getDataManager().markForUpdate(this);
+                    potentialTargets.remove(targetIndex);
+                }
             }
             
             // If a target is available, move towards it. Attack if it's
             // within range
-            if (target != null) {
-                Coordinate targetPos = target.getExpectedPositionAtTime(now);
+            if (slot >= 0) {
+                float targetX = positions[2 * slot];
+                float targetY = positions[2 * slot + 1];
 
-                float dx = currentPos.getX() - targetPos.getX();
-                float dy = currentPos.getY() - targetPos.getY();
+                float dx = currentX - targetX;
+                float dy = currentY - targetY;
                 float range = HPConverter.getInstance().convertRange(hitPoints);
                 if (((dx * dx) + (dy * dy)) < (range * range) &&
                         random.nextBoolean()) {
-                    attack(now, target.getID(), 
-                           currentPos.getX(), currentPos.getY());
+                    attack(now, targetId, currentX, currentY);
                 } else {
-                    moveMe(now,
-                           currentPos.getX(), currentPos.getY(),
-                           targetPos.getX() + 10 * (random.nextFloat() - 0.5f),
-                           targetPos.getY() + 10 * (random.nextFloat() - 0.5f));
+                    walkTowards(now, currentX, currentY,
+                                targetX, targetY, 10);
                 }
             } else {
                 moveMe(now,
-                       currentPos.getX(), currentPos.getY(),
-                       currentPos.getX() + 10 * (random.nextFloat() - 0.5f),
-                       currentPos.getY() + 10 * (random.nextFloat() - 0.5f));
+                       currentX, currentY,
+                       currentX + 10 * (random.nextFloat() - 0.5f),
+                       currentY + 10 * (random.nextFloat() - 0.5f));
             }
         }
-        
-        scheduleMove(moveDelay);
+    }
+    
+    /**
+     * Move along the path to the given position.  If the navigation graph
+     * knows of no way there, move towards a random point around it
+     * instead, so that the robot does not stay stuck behind an object.
+     * 
+     * @param now the current time
+     * @param currentX the x coordinate of the robot
+     * @param currentY the y coordinate of the robot
+     * @param x the x coordinate to head for
+     * @param y the y coordinate to head for
+     * @param spread the size of the area around the position that the
+     *        random point is picked from
+     */
+    private void walkTowards(long now, float currentX, float currentY,
+                             float x, float y, float spread) {
+        float[] waypoint = expectedPosition.get();
+        if (AppContext.getManager(GameWorldManager.class).getWaypoint(
+                currentX, currentY, x, y, waypoint)) {
+            moveMe(now, currentX, currentY, waypoint[0], waypoint[1]);
+        } else {
+            moveMe(now,
+                   currentX, currentY,
+                   x + spread * (random.nextFloat() - 0.5f),
+                   y + spread * (random.nextFloat() - 0.5f));
+        }
+    }
+    
+    /**
+     * Return the index of the given id in the snapshot.
+     * 
+     * @param id the id of a player
+     * @param ids the ids of the players in the snapshot
+     * @param count the number of players in the snapshot
+     * @return the index of the player, or -1 if it is not in the snapshot
+     */
+    private static int indexOf(int id, int[] ids, int count) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
     }
     
     /**
      * Initializes the list of potential targets that the robot can attack.
-     * Also locates which flag the robot should be going after.  For now,
-     * this method adds all players from the game into the potential target
-     * list.  Teammates are removed on a case by case basis if they are
-     * randomly selected for attack later.
+     * Also locates which flag the robot should be going after.  The players
+     * of the other teams are looked at once here, so that choosing a
+     * target later only needs the snapshot of positions.  Players that
+     * leave the game are removed when they are next chosen.
      */
     private void setupPotentialTargets() {
         AppContext.getDataManager().markForUpdate(this);
         SnowmanGame game = gameRef.get();
         potentialTargets = new ArrayList<Integer>();
-        potentialTargets.addAll(game.getPlayerIds());
+        for (Integer id : game.getPlayerIds()) {
+            SnowmanPlayer player = game.getPlayer(id);
+            if (player != null &&
+                    player.getTeamColor() != this.getTeamColor()) {
+                potentialTargets.add(id);
+            }
+        }
 
         ArrayList<Integer> potentialFlagTargets = new ArrayList<Integer>();
         potentialFlagTargets.addAll(game.getFlagIds());
@@ -234,27 +260,6 @@ public class RobotImpl extends SnowmanPlayerImpl {
         }
     }
     
-    /**
-     * A task that executes the next scheduled move for this robot
-     */
-    private static class MoveTask implements Task, Serializable {
-        private static final long serialVersionUID = 1L;
-        final ManagedReference<RobotImpl> robotRef;
-        
-        MoveTask(ManagedReference<RobotImpl> robotRef) {
-            this.robotRef = robotRef;
-        }
-
-        /** {@inheritDoc} */
-        public void run() throws Exception {
-            try {
-                robotRef.get().moveRobot();
-            } catch (ObjectNotFoundException gameDone) {
-            
-            }
-        }
-    }
-    
     // There is no session associated with the robot, so related methods
     // are overriden with noops
     
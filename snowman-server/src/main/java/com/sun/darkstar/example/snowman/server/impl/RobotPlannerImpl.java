@@ -0,0 +1,146 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import com.sun.darkstar.example.snowman.server.interfaces.GameTick;
+import com.sun.darkstar.example.snowman.server.interfaces.Robot;
+import com.sun.darkstar.example.snowman.server.interfaces.RobotPlanner;
+import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.ObjectNotFoundException;
+import com.sun.sgs.app.Task;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Self re-scheduling implementation of {@code RobotPlanner}.  Every
+ * {@code interval} milliseconds the expected positions of the players are
+ * read from the game once, and each robot in turn is asked to act on them.
+ * The passes are run on the tick of the game if it has one, or scheduled
+ * as tasks of their own otherwise.  The first pass is made once the game
+ * starts.
+ */
+public class RobotPlannerImpl implements RobotPlanner, Serializable {
+    
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    private final ManagedReference<SnowmanGame> gameRef;
+    private final ManagedReference<GameTick> tickRef;
+    private final int interval;
+    private final List<ManagedReference<Robot>> robotRefs =
+            new ArrayList<ManagedReference<Robot>>();
+    
+    /**
+     * Creates a new planner for the given game.  It does not make any
+     * pass until it is started.
+     * 
+     * @param gameRef reference to the game
+     * @param tickRef reference to the tick of the game, or null if the
+     *        game does not tick
+     * @param interval number of milliseconds between passes
+     */
+    public RobotPlannerImpl(ManagedReference<SnowmanGame> gameRef,
+                            ManagedReference<GameTick> tickRef,
+                            int interval) {
+        this.gameRef = gameRef;
+        this.tickRef = tickRef;
+        this.interval = interval;
+    }
+    
+    /** {@inheritDoc} */
+    public void start() {
+        schedule(interval);
+    }
+    
+    /** {@inheritDoc} */
+    public void addRobot(Robot robot) {
+        AppContext.getDataManager().markForUpdate(this);
+        robotRefs.add(AppContext.getDataManager().createReference(robot));
+    }
+    
+    /**
+     * Take a snapshot of the positions of the players and let every robot
+     * act on it, then schedule the next pass.
+     */
+    void plan() {
+        SnowmanGame game = gameRef.get();
+        int size = game.getPlayerIds().size();
+        int[] ids = new int[size];
+        float[] positions = new float[2 * size];
+        long now = System.currentTimeMillis();
+        int count = game.getExpectedPositions(now, ids, positions);
+        
+        for (ManagedReference<Robot> ref : robotRefs) {
+            try {
+                ref.get().plan(now, ids, positions, count);
+            } catch (ObjectNotFoundException removed) {
+                //the robot has left the game
+            }
+        }
+        schedule(interval);
+    }
+    
+    private void schedule(long delay) {
+        Task task = new PlanTask(
+                AppContext.getDataManager().createReference(this));
+        if (tickRef != null) {
+            tickRef.get().schedule(task, delay);
+        } else {
+            AppContext.getTaskManager().scheduleTask(task, delay);
+        }
+    }
+    
+    /**
+     * A task that runs the next pass of the planner
+     */
+    private static class PlanTask implements Task, Serializable {
+        private static final long serialVersionUID = 1L;
+        final ManagedReference<RobotPlannerImpl> plannerRef;
+        
+        PlanTask(ManagedReference<RobotPlannerImpl> plannerRef) {
+            this.plannerRef = plannerRef;
+        }
+
+        /** {@inheritDoc} */
+        public void run() throws Exception {
+            try {
+                plannerRef.get().plan();
+            } catch (ObjectNotFoundException gameDone) {
+            }
+        }
+    }
+}
@@ -38,8 +38,10 @@ import com.sun.darkstar.example.snowman.server.interfaces.SnowmanFlag;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanPlayer;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
 import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.Snapshot;
 import com.sun.darkstar.example.snowman.common.util.Coordinate;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
+import com.sun.darkstar.example.snowman.server.interfaces.GameTick;
 import com.sun.sgs.app.AppContext;
 import com.sun.sgs.app.ManagedReference;
 import com.sun.sgs.app.ObjectNotFoundException;
@@ -190,10 +192,15 @@ public class SnowmanFlagImpl implements SnowmanFlag, Serializable {
         
         setLocation(x, y);
         heldByRef = null;
-        AppContext.getTaskManager().scheduleTask(
-                        new FlagReturnTask(AppContext.getDataManager().
-                                   createReference((SnowmanFlag) this)),
-                        FLAG_RETURN_DELAY);
+        Task returnTask = new FlagReturnTask(AppContext.getDataManager().
+                                             createReference((SnowmanFlag) this));
+        GameTick tick = gameRef.get().getGameTick();
+        if (tick != null) {
+            tick.schedule(returnTask, FLAG_RETURN_DELAY);
+        } else {
+            AppContext.getTaskManager().scheduleTask(returnTask,
+                                                     FLAG_RETURN_DELAY);
+        }
     }
     
     /**
@@ -223,7 +230,10 @@ public class SnowmanFlagImpl implements SnowmanFlag, Serializable {
     public void returnFlag() {
         if (!isHeld()) {
             setLocation(homeX, homeY);
-            gameRef.get().send(ServerMessages.createRespawnPkt(id, x, y));
+            SnowmanGame game = gameRef.get();
+            game.send(ServerMessages.encodeRespawnPkt(
+                    game.getWireFormat(), ServerMessages.getScratchBuffer(),
+                    id, x, y));
         }
     }
     
@@ -241,6 +251,17 @@ public class SnowmanFlagImpl implements SnowmanFlag, Serializable {
         return id;
     }
 
+    /** 
+     * {@inheritDoc}
+     * 
+     * A flag has no hit points and does not move on its own.  Its position
+     * is where it was last dropped while it is held.
+     */
+    public void putState(Snapshot snapshot) {
+        snapshot.put(id, x, y, x, y, 0, 
+                     heldByRef == null ? 0 : heldByRef.get().getID());
+    }
+
     /** {@inheritDoc} */
     public boolean isHeld() {
         return heldByRef != null;
@@ -37,21 +37,32 @@ import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
 import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.Snapshot;
+import com.sun.darkstar.example.snowman.common.protocol.messages.SnapshotHistory;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import com.sun.darkstar.example.snowman.common.util.Coordinate;
 import com.sun.darkstar.example.snowman.server.exceptions.SnowmanFullException;
+import com.sun.darkstar.example.snowman.server.interfaces.BroadcastBatch;
 import com.sun.darkstar.example.snowman.server.interfaces.EntityFactory;
+import com.sun.darkstar.example.snowman.server.interfaces.GameTick;
+import com.sun.darkstar.example.snowman.server.interfaces.InterestGrid;
+import com.sun.darkstar.example.snowman.server.interfaces.Robot;
+import com.sun.darkstar.example.snowman.server.interfaces.RobotPlanner;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanFlag;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanPlayer;
 import com.sun.sgs.app.AppContext;
 import com.sun.sgs.app.Channel;
 import com.sun.sgs.app.Delivery;
+import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedReference;
 import com.sun.sgs.app.Task;
 import com.sun.sgs.app.ObjectNotFoundException;
 import com.sun.sgs.app.util.ScalableHashMap;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -77,28 +88,74 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
     public static final String CHANPREFIX = "_GAMECHAN_";
     private static final int PLAYERIDSTART = 1;
     private static final int CLEANUPDELAYMS = 5 * 1000;
+    private static final int READYCHECKMS = 100;
     
     /**
      * A reference to a channel that is used to send game packets to
      * all the players in this game session
      */
     private final ManagedReference<Channel> channelRef;
+    /**
+     * A reference to the batch that queues channel messages between ticks,
+     * or null if messages are sent on the channel as they are generated
+     */
+    private final ManagedReference<BroadcastBatch> batchRef;
+    /**
+     * A reference to the tick that runs the timed actions of the game,
+     * or null if they are scheduled as tasks of their own
+     */
+    private final ManagedReference<GameTick> tickRef;
+    /**
+     * A reference to the grid that filters messages by area of interest,
+     * or null if every player is sent every message
+     */
+    private final ManagedReference<InterestGrid> interestRef;
+    /**
+     * A reference to the planner that moves the robots of the game, or
+     * null until the first robot is added
+     */
+    private ManagedReference<RobotPlanner> plannerRef = null;
     private int numPlayers;
-    private int realPlayers = 0;
-    private int readyPlayers = 0;
+    /**
+     * Whether the STARTGAME message has been sent
+     */
+    private boolean started = false;
     private int nextPlayerId = PLAYERIDSTART;
     private String gameName;
     private boolean ending = false;
     /**
-     * List of flags in the game
+     * Format that messages to the players are encoded in
+     */
+    private WireFormat wireFormat = WireFormat.STANDARD;
+    /**
+     * Recent snapshots of the game state, or null if the game does not
+     * send snapshots.  They are kept in an object of their own, so that
+     * adding one every tick does not write the game that almost every
+     * action of the players reads.
+     */
+    private ManagedReference<History> historyRef = null;
+    /**
+     * List of flags in the game, or null if the game keeps them in
+     * {@code flagMap}
      */
     private final ManagedReference
             <Map<Integer, ManagedReference<SnowmanFlag>>> flagRefs;
     /**
-     * Map of player IDs to players that are part of this game
+     * Map of player IDs to players that are part of this game, or null if
+     * the game keeps them in {@code playerMap}
      */
     private final ManagedReference
             <Map<Integer, ManagedReference<SnowmanPlayer>>> playerRefs;
+    /**
+     * List of flags in the game held in the game itself, or null if
+     * they are kept in their own managed map
+     */
+    private final Map<Integer, ManagedReference<SnowmanFlag>> flagMap;
+    /**
+     * Map of player IDs to players held in the game itself, or null if
+     * they are kept in their own managed map
+     */
+    private final Map<Integer, ManagedReference<SnowmanPlayer>> playerMap;
     private final EntityFactory entityFactory;
     /**
      * Keeps track of how many players from each team have joined the game
@@ -120,23 +177,89 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
     public SnowmanGameImpl(String gameName,
                            int numPlayers,
                            EntityFactory entityFactory) {
+        this(gameName, numPlayers, entityFactory, GameOptions.DEFAULT);
+    }
+
+    /**
+     * Creates a new instance of a game with the give name and maximum
+     * number of players, set up with the given options.
+     * 
+     * @param gameName the name of the game
+     * @param numPlayers the maximum number of players that can join the game
+     * @param entityFactory the factory used to create artifacts for the game
+     * @param options how the game sends its messages, runs its timed
+     *        actions and keeps its players and flags
+     */
+    public SnowmanGameImpl(String gameName,
+                           int numPlayers,
+                           EntityFactory entityFactory,
+                           GameOptions options) {
         this.gameName = gameName;
         this.numPlayers = numPlayers;
         initMaxTeamPlayers();
 
-        Map<Integer, ManagedReference<SnowmanFlag>> f =
-                new ScalableHashMap<Integer, ManagedReference<SnowmanFlag>>(
-                ETeamColor.values().length);
-        this.flagRefs = AppContext.getDataManager().createReference(f);
-        Map<Integer, ManagedReference<SnowmanPlayer>> p =
-                new ScalableHashMap<Integer, ManagedReference<SnowmanPlayer>>(
-                numPlayers);
-        this.playerRefs = AppContext.getDataManager().createReference(p);
+        int batchInterval = options.getBatchInterval();
+        int tickInterval = options.getTickInterval();
+        int interestRadius = options.getInterestRadius();
+        if (options.isCompact()) {
+            this.flagMap = new IdMap<ManagedReference<SnowmanFlag>>();
+            this.playerMap = new IdMap<ManagedReference<SnowmanPlayer>>();
+            this.flagRefs = null;
+            this.playerRefs = null;
+        } else {
+            Map<Integer, ManagedReference<SnowmanFlag>> f =
+                    new ScalableHashMap<Integer, ManagedReference<SnowmanFlag>>(
+                    ETeamColor.values().length);
+            this.flagRefs = AppContext.getDataManager().createReference(f);
+            Map<Integer, ManagedReference<SnowmanPlayer>> p =
+                    new ScalableHashMap<Integer, ManagedReference<SnowmanPlayer>>(
+                    numPlayers);
+            this.playerRefs = AppContext.getDataManager().createReference(p);
+            this.flagMap = null;
+            this.playerMap = null;
+        }
 
         this.entityFactory = entityFactory;
         this.channelRef = AppContext.getDataManager().createReference(
                 AppContext.getChannelManager().createChannel(
                 CHANPREFIX + gameName, null, Delivery.RELIABLE));
+        if (interestRadius > 0) {
+            float[] dimensions = SnowmanMapInfo.getDimensions(
+                    SnowmanMapInfo.DEFAULT);
+            InterestGridImpl interest = new InterestGridImpl(
+                    gameName, dimensions[0], dimensions[1], interestRadius);
+            this.interestRef = AppContext.getDataManager().createReference(
+                    (InterestGrid) interest);
+        } else {
+            this.interestRef = null;
+        }
+        if (tickInterval > 0) {
+            if (interestRef == null) {
+                BroadcastBatchImpl batch =
+                        new BroadcastBatchImpl(channelRef, tickInterval);
+                this.batchRef = AppContext.getDataManager().createReference(
+                        (BroadcastBatch) batch);
+            } else {
+                this.batchRef = null;
+            }
+            GameTickImpl tick = new GameTickImpl(
+                    AppContext.getDataManager().createReference(
+                    (SnowmanGame) this),
+                    batchRef, tickInterval);
+            this.tickRef = AppContext.getDataManager().createReference(
+                    (GameTick) tick);
+            AppContext.getTaskManager().scheduleTask(tick, tickInterval);
+        } else if (batchInterval > 0 && interestRef == null) {
+            BroadcastBatchImpl batch =
+                    new BroadcastBatchImpl(channelRef, batchInterval);
+            this.batchRef = AppContext.getDataManager().createReference(
+                    (BroadcastBatch) batch);
+            this.tickRef = null;
+            AppContext.getTaskManager().scheduleTask(batch, batchInterval);
+        } else {
+            this.batchRef = null;
+            this.tickRef = null;
+        }
         initFlags();
     }
 
@@ -187,13 +310,43 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
             flag.setLocation(flagStart.getX(), flagStart.getY());
             ManagedReference<SnowmanFlag> ref =
                     AppContext.getDataManager().createReference(flag);
-            flagRefs.get().put(flag.getID(), ref);
+            flags().put(flag.getID(), ref);
         }
     }
 
-    /** {@inheritDoc} */
+    /**
+     * Return the map of player IDs to the players of the game.
+     * 
+     * @return the players of the game
+     */
+    private Map<Integer, ManagedReference<SnowmanPlayer>> players() {
+        return playerMap != null ? playerMap : playerRefs.get();
+    }
+
+    /**
+     * Return the map of flag IDs to the flags of the game.
+     * 
+     * @return the flags of the game
+     */
+    private Map<Integer, ManagedReference<SnowmanFlag>> flags() {
+        return flagMap != null ? flagMap : flagRefs.get();
+    }
+
+    /** 
+     * {@inheritDoc}
+     * 
+     * A game that sends snapshots sends the message to each session of
+     * the channel instead, so that it keeps its order with the snapshots.
+     */
     public void send(ByteBuffer buff) {
-        channelRef.get().send(null, buff);
+        if (batchRef != null && canBatch()) {
+            //the game sends as an id below those of its players
+            batchRef.get().add(PLAYERIDSTART - 1, buff);
+        } else if (historyRef != null) {
+            BroadcastBatchImpl.sendToSessions(channelRef.get(), buff);
+        } else {
+            channelRef.get().send(null, buff);
+        }
     }
 
     /** {@inheritDoc} */
@@ -211,7 +364,7 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
         ManagedReference<SnowmanPlayer> playerRef =
                 AppContext.getDataManager().createReference(player);
         Integer playerId = Integer.valueOf(nextPlayerId++);
-        playerRefs.get().put(playerId, playerRef);
+        players().put(playerId, playerRef);
 
         //increment the total team players in this game
         teamPlayers[color.ordinal()]++;
@@ -228,21 +381,46 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
         player.setTeamColor(color);
         player.setGame(this);
 
+        //robots are moved together by the planner of the game
+        if (player instanceof Robot) {
+            addRobot((Robot) player);
+        }
+
         //add the real players session to the channels.
         if (player.getSession() != null) {
-            realPlayers++;
             channelRef.get().join(player.getSession());
         }
     }
 
+    /**
+     * Add a robot to the planner of the game, creating the planner for the
+     * first robot with the move delay of that robot.  The planner is
+     * started with the game, or at once if the game has already started.
+     * 
+     * @param robot the robot
+     */
+    private void addRobot(Robot robot) {
+        if (plannerRef == null) {
+            RobotPlannerImpl planner = new RobotPlannerImpl(
+                    AppContext.getDataManager().createReference(
+                    (SnowmanGame) this),
+                    tickRef, robot.getMoveDelay());
+            plannerRef = AppContext.getDataManager().createReference(
+                    (RobotPlanner) planner);
+            if (started) {
+                planner.start();
+            }
+        }
+        plannerRef.get().addRobot(robot);
+    }
+
     /** {@inheritDoc} */
     public void removePlayer(SnowmanPlayer player) {
         AppContext.getDataManager().markForUpdate(this);
         player.dropFlag();
-        playerRefs.get().remove(player.getID());
+        players().remove(player.getID());
         Channel channel = channelRef.get();
         if (player.getSession() != null) {
-            realPlayers--;
             channel.leave(player.getSession());
         }
 
@@ -250,7 +428,9 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
         if (!channel.hasSessions()) {
             endGame(EEndState.Draw);
         } else {
-            send(ServerMessages.createRemoveMOBPkt(player.getID()));
+            send(ServerMessages.encodeRemoveMOBPkt(
+                    wireFormat, ServerMessages.getScratchBuffer(), 
+                    player.getID()));
         }
     }
 
@@ -260,26 +440,46 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
      * Since each player receives an individually customized NEWGAME message
      * as private session messages, the game channel is not used to send
      * the AddMOB packets.  The AddMOB messages are sent as private session
-     * messages instead.  This is done so as to preserve ordering.
+     * messages instead.  This is done so as to preserve ordering.  As every
+     * player is sent every other player, the AddMOB messages are packed
+     * into as few batch packets as possible rather than sent one by one,
+     * if every connected player can decode batch packets.
+     * 
+     * The compact {@code WireFormat} is used for the game if every
+     * connected player has announced that it can decode it.  If the game
+     * ticks and every connected player can also apply snapshots, the
+     * movements of the players are sent in snapshots.  Snapshots are sent
+     * to each session, so from then on so are the other messages to all
+     * players, which would otherwise not be ordered with them.
+     * 
+     * Once the map is sent, the game starts checking whether every player
+     * is ready to play.
      */
     public void sendMapInfo() {
-        for (ManagedReference<SnowmanPlayer> ref : playerRefs.get().values()) {
+        chooseWireFormat();
+        scheduleReadyCheck();
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
             SnowmanPlayer player = ref.get();
             if (player.getSession() != null) {
-                player.send(ServerMessages.createNewGamePkt(player.getID(),
-                                                            "default_map"));
+                player.send(ServerMessages.encodeNewGamePkt(
+                        wireFormat, ServerMessages.getScratchBuffer(),
+                        player.getID(), "default_map"));
             }
         }
-        for (ManagedReference<SnowmanPlayer> ref : playerRefs.get().values()) {
+        List<byte[]> records = new ArrayList<byte[]>();
+        int size = 1;
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
             SnowmanPlayer player = ref.get();
-            multiSend(ServerMessages.createAddMOBPkt(
+            size = addRecord(records, size, ServerMessages.encodeAddMOBPkt(
+                      wireFormat, ServerMessages.getScratchBuffer(),
                       player.getID(), player.getX(), player.getY(),
                       EMOBType.SNOWMAN, player.getTeamColor(), 
                       player.getName()));
         }
-        for (ManagedReference<SnowmanFlag> flagRef : flagRefs.get().values()) {
+        for (ManagedReference<SnowmanFlag> flagRef : flags().values()) {
             SnowmanFlag flag = flagRef.get();
-            multiSend(ServerMessages.createAddMOBPkt(
+            size = addRecord(records, size, ServerMessages.encodeAddMOBPkt(
+                      wireFormat, ServerMessages.getScratchBuffer(),
                       flag.getID(), flag.getX(), flag.getY(), EMOBType.FLAG, 
                       flag.getTeamColor(), 
                       flag.getTeamColor().toString() + "Flag"));
@@ -287,45 +487,231 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
             //TODO - encode goal color in the flag
             //currently the add mob should swap the goal colors so that
             //it is more intuitive for the players
-            multiSend(ServerMessages.createAddMOBPkt(
-                      flag.getID() + flagRefs.get().size(), 
+            size = addRecord(records, size, ServerMessages.encodeAddMOBPkt(
+                      wireFormat, ServerMessages.getScratchBuffer(),
+                      flag.getID() + flags().size(), 
                       flag.getGoalX(), flag.getGoalY(), EMOBType.FLAGGOAL,
                       flag.getTeamColor() == ETeamColor.Red 
                       ? ETeamColor.Blue : ETeamColor.Red, "Goal"));
         }
+        multiSendRecords(records);
         multiSend(ServerMessages.createReadyPkt());
     }
 
+    /**
+     * Add a packet to the records of a batch packet, sending the records
+     * to all players first if the batch would grow beyond
+     * {@link BroadcastBatchImpl#MAX_BATCH_SIZE} bytes.  If the players
+     * cannot all decode batch packets, the packet is sent on its own
+     * instead.
+     * @param records the records of the batch
+     * @param size the size of the batch packet
+     * @param buff the packet to add, which may be in the scratch buffer
+     * @return the size of the batch packet with the packet added
+     */
+    private int addRecord(List<byte[]> records, int size, ByteBuffer buff) {
+        if (!canBatch()) {
+            multiSend(buff);
+            return size;
+        }
+        int length = buff.remaining();
+        int recordSize = WireFormat.sizeOfVarint(length) + length;
+        if (size + recordSize > BroadcastBatchImpl.MAX_BATCH_SIZE) {
+            multiSendRecords(records);
+            size = 1;
+        }
+        byte[] record = new byte[length];
+        buff.get(record);
+        records.add(record);
+        return size + recordSize;
+    }
+
+    /**
+     * Send the given records to all players, as a batch packet if there is
+     * more than one, and clear them.
+     * @param records the records to send
+     */
+    private void multiSendRecords(List<byte[]> records) {
+        if (records.size() == 1) {
+            multiSend(ByteBuffer.wrap(records.get(0)));
+        } else if (!records.isEmpty()) {
+            multiSend(ServerMessages.createBatchPkt(records));
+        }
+        records.clear();
+    }
+
+    /**
+     * Return whether every connected player can decode batch packets,
+     * which is the case once the game has switched to the compact
+     * {@code WireFormat}, as clients announcing it decode them too.
+     * 
+     * @return true if messages to all players may be batched
+     */
+    private boolean canBatch() {
+        return wireFormat.isCompact();
+    }
+
+    /**
+     * Switch the game to the compact {@code WireFormat} if every connected
+     * player supports it, and hand the format to all of the players.
+     * Switch it to snapshots too if every connected player supports them
+     * and the game ticks.
+     */
+    private void chooseWireFormat() {
+        int version = WireFormat.SNAPSHOT_VERSION;
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
+            SnowmanPlayer player = ref.get();
+            if (player.getSession() != null) {
+                version = Math.min(version, player.getProtocolVersion());
+            }
+        }
+        if (version < WireFormat.COMPACT_VERSION) {
+            return;
+        }
+        
+        AppContext.getDataManager().markForUpdate(this);
+        float[] dimensions = SnowmanMapInfo.getDimensions(
+                SnowmanMapInfo.DEFAULT);
+        wireFormat = WireFormat.compact(dimensions[0], dimensions[1]);
+        boolean snapshot = 
+                version >= WireFormat.SNAPSHOT_VERSION && tickRef != null;
+        if (snapshot) {
+            historyRef = AppContext.getDataManager().createReference(
+                    new History());
+            if (batchRef != null) {
+                batchRef.get().sendToSessions();
+            }
+        }
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
+            SnowmanPlayer player = ref.get();
+            player.setWireFormat(wireFormat);
+            if (snapshot) {
+                player.setSnapshots(true);
+            }
+        }
+    }
+
     /**
      * Send a message to all players in the game without using the game
-     * {@code Channel}.
+     * {@code Channel}.  Sessions leave the position of the buffer alone, so
+     * the same read-only frame is handed to every player.
      * @param buff
      */
     private void multiSend(ByteBuffer buff) {
-        for (ManagedReference<SnowmanPlayer> ref : playerRefs.get().values()) {
-            // send a wrapped buffer
-            ref.get().send(buff.asReadOnlyBuffer());
+        ByteBuffer frame = buff.asReadOnlyBuffer();
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
+            ref.get().send(frame);
         }
     }
 
-    /** {@inheritDoc} */
+    /** 
+     * {@inheritDoc}
+     * 
+     * Nothing is sent if nothing changed since the last snapshot.  Each
+     * player is sent the changes from the snapshot it last acknowledged,
+     * or the complete state if that one is no longer kept.
+     */
+    public void sendSnapshot() {
+        if (historyRef == null || ending) {
+            return;
+        }
+        History history = historyRef.get();
+        SnapshotHistory snapshots = history.snapshots;
+        Snapshot latest = snapshots.getLatest();
+        Snapshot snapshot = new Snapshot(
+                latest == null ? 1 : latest.getSequence() + 1);
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
+            ref.get().putState(snapshot);
+        }
+        for (ManagedReference<SnowmanFlag> ref : flags().values()) {
+            ref.get().putState(snapshot);
+        }
+        if (snapshot.sameState(latest)) {
+            return;
+        }
+        
+        AppContext.getDataManager().markForUpdate(history);
+        snapshots.add(snapshot);
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
+            SnowmanPlayer player = ref.get();
+            if (player.getSession() != null) {
+                Snapshot baseline = snapshots.get(player.getSnapshotAck());
+                player.send(ServerMessages.encodeSnapshotPkt(
+                        wireFormat, ServerMessages.getScratchBuffer(),
+                        snapshot, baseline));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The game is only written once it starts, so checking does not
+     * conflict with the players who are still getting ready.  Robots are
+     * always ready.
+     */
     public void startGameIfReady() {
+        if (started || ending) {
+            return;
+        }
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
+            SnowmanPlayer player = ref.get();
+            if (!player.isServerSide() && !player.getReadyToPlay()) {
+                scheduleReadyCheck();
+                return;
+            }
+        }
         AppContext.getDataManager().markForUpdate(this);
-        readyPlayers++;
-        if (readyPlayers >= realPlayers) {
-            send(ServerMessages.createStartGamePkt());
+        started = true;
+        send(ServerMessages.encodeStartGamePkt(
+                wireFormat, ServerMessages.getScratchBuffer()));
+        if (plannerRef != null) {
+            plannerRef.get().start();
+        }
+    }
+
+    /**
+     * Schedule the next check of whether every player is ready, on the
+     * tick of the game if it has one.
+     */
+    private void scheduleReadyCheck() {
+        Task task = new ReadyCheckTask(
+                AppContext.getDataManager().createReference(
+                (SnowmanGame) this));
+        if (tickRef != null) {
+            tickRef.get().schedule(task, READYCHECKMS);
+        } else {
+            AppContext.getTaskManager().scheduleTask(task, READYCHECKMS);
         }
     }
 
     /** {@inheritDoc} */
     public Set<Integer> getPlayerIds() {
-        return playerRefs.get().keySet();
+        return players().keySet();
+    }
+
+    /** {@inheritDoc} */
+    public int getExpectedPositions(long time, int[] ids, float[] positions) {
+        float[] position = new float[2];
+        int count = 0;
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
+            if (count == ids.length) {
+                break;
+            }
+            SnowmanPlayer player = ref.get();
+            player.getExpectedPositionAtTime(time, position);
+            ids[count] = player.getID();
+            positions[2 * count] = position[0];
+            positions[2 * count + 1] = position[1];
+            count++;
+        }
+        return count;
     }
 
     /** {@inheritDoc} */
     public SnowmanPlayer getPlayer(int id) {
         ManagedReference<SnowmanPlayer> playerRef =
-                playerRefs.get().get(Integer.valueOf(id));
+                players().get(Integer.valueOf(id));
         if (playerRef != null) {
             return playerRef.get();
         }
@@ -340,7 +726,18 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
         }
         ending = true;
         
-        send(ServerMessages.createEndGamePkt(endState));
+        //deliver anything still queued ahead of the EndGame message
+        if (batchRef != null) {
+            batchRef.get().flush();
+        }
+        ByteBuffer endGame = ServerMessages.encodeEndGamePkt(
+                wireFormat, ServerMessages.getScratchBuffer(), endState);
+        if (historyRef != null) {
+            BroadcastBatchImpl.sendToSessions(channelRef.get(), endGame);
+        } else {
+            channelRef.get().send(null, endGame);
+        }
+        recordResult(endState);
 
         // Attempt to clean up the game objects, including the channel, later
         // so that the EndGame message is sent ASAP
@@ -350,6 +747,84 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
                 CLEANUPDELAYMS);
     }
 
+    // Update the ratings of the client connected players later, so that
+    // scoring does not wait for them
+    private void recordResult(EEndState endState) {
+        List<String> names = new ArrayList<String>();
+        List<ETeamColor> teams = new ArrayList<ETeamColor>();
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
+            SnowmanPlayer player = ref.get();
+            if (!player.isServerSide()) {
+                names.add(player.getName());
+                teams.add(player.getTeamColor());
+            }
+        }
+        if (!names.isEmpty()) {
+            AppContext.getTaskManager().scheduleTask(
+                    new RatingTask(names.toArray(new String[names.size()]),
+                                   teams.toArray(new ETeamColor[teams.size()]),
+                                   endState));
+        }
+    }
+
+    /**
+     * Checks whether every player of a game is ready to play.
+     */
+    private static class ReadyCheckTask implements Task, Serializable {
+        
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+
+        private final ManagedReference<SnowmanGame> gameRef;
+
+        ReadyCheckTask(ManagedReference<SnowmanGame> gameRef) {
+            this.gameRef = gameRef;
+        }
+
+        /** {@inheritDoc} */
+        public void run() throws Exception {
+            try {
+                gameRef.get().startGameIfReady();
+            } catch (ObjectNotFoundException gameDone) {
+            }
+        }
+    }
+
+    /**
+     * Updates the ratings of the players of a game with its result.
+     */
+    private static class RatingTask implements Task, Serializable {
+        
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+
+        private final String[] names;
+        private final ETeamColor[] teams;
+        private final EEndState endState;
+
+        RatingTask(String[] names, ETeamColor[] teams, EEndState endState) {
+            this.names = names;
+            this.teams = teams;
+            this.endState = endState;
+        }
+
+        /** {@inheritDoc} */
+        public void run() throws Exception {
+            PlayerRating.recordResult(names, teams, endState);
+        }
+    }
+
+    /**
+     * The recent snapshots of a game.
+     */
+    private static class History implements ManagedObject, Serializable {
+        
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+
+        final SnapshotHistory snapshots = new SnapshotHistory();
+    }
+
     /**
      * Asyncronously removes an object from the datastore.
      */
@@ -375,6 +850,21 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
 
     /** {@inheritDoc} */
     public void removingObject() {
+        if (batchRef != null) {
+            batchRef.get().close();
+        }
+        if (tickRef != null) {
+            tickRef.get().close();
+        }
+        if (interestRef != null) {
+            AppContext.getDataManager().removeObject(interestRef.get());
+        }
+        if (plannerRef != null) {
+            AppContext.getDataManager().removeObject(plannerRef.get());
+        }
+        if (historyRef != null) {
+            AppContext.getDataManager().removeObject(historyRef.get());
+        }
         Channel c = getGameChannel();
         c.leaveAll();
         AppContext.getDataManager().removeObject(c);
@@ -382,7 +872,7 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
         //only remove server side robots
         //player listener is responsible for cleaning up client
         //connected players
-        for (ManagedReference<SnowmanPlayer> ref : playerRefs.get().values()) {
+        for (ManagedReference<SnowmanPlayer> ref : players().values()) {
             try {
                 SnowmanPlayer p = ref.get();
                 if (p.isServerSide()) {
@@ -392,19 +882,19 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
             }
         }
 
-        for (ManagedReference<SnowmanFlag> ref : flagRefs.get().values()) {
+        for (ManagedReference<SnowmanFlag> ref : flags().values()) {
             AppContext.getDataManager().removeObject(ref.get());
         }
     }
 
     /** {@inheritDoc} */
     public Set<Integer> getFlagIds() {
-        return flagRefs.get().keySet();
+        return flags().keySet();
     }
 
     /** {@inheritDoc} */
     public SnowmanFlag getFlag(int id) {
-        return flagRefs.get().get(id).get();
+        return flags().get(id).get();
     }
 
     /** {@inheritDoc} */
@@ -416,4 +906,24 @@ public class SnowmanGameImpl implements SnowmanGame, Serializable {
     public Channel getGameChannel() {
         return channelRef.get();
     }
+
+    /** {@inheritDoc} */
+    public BroadcastBatch getBroadcastBatch() {
+        return batchRef == null ? null : batchRef.get();
+    }
+
+    /** {@inheritDoc} */
+    public GameTick getGameTick() {
+        return tickRef == null ? null : tickRef.get();
+    }
+
+    /** {@inheritDoc} */
+    public InterestGrid getInterestGrid() {
+        return interestRef == null ? null : interestRef.get();
+    }
+
+    /** {@inheritDoc} */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
 }
@@ -37,7 +37,13 @@ import com.sun.darkstar.example.snowman.common.physics.enumn.EForce;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanPlayer;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanFlag;
+import com.sun.darkstar.example.snowman.server.interfaces.BroadcastBatch;
+import com.sun.darkstar.example.snowman.server.interfaces.GameTick;
+import com.sun.darkstar.example.snowman.server.interfaces.InterestGrid;
+import com.sun.darkstar.example.snowman.server.interfaces.Matchmaker;
 import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.Snapshot;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import com.sun.darkstar.example.snowman.common.protocol.processor.IServerProcessor;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
@@ -95,6 +101,64 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
      * Hit point value decremented from a player when it is attacked
      */
     static final int ATTACKHP = (int) EStats.SnowballDamage.getValue();    
+    /**
+     * Longest time a player waits for its client to announce its protocol
+     * version, which measures its version latency, before joining a
+     * matchmaker without it
+     */
+    static final long VERSIONWAITMS = 1000;
+    /**
+     * The number of snapshots an acknowledgement must be ahead of the
+     * recorded one to be recorded, so that a player acknowledging every
+     * snapshot is not written on every tick, while the game reads it
+     */
+    static final int SNAPSHOTACKSTEP = 8;
+    /**
+     * Shortest time between checks of the interest cell of a moving player
+     */
+    static final long WATCHMINMS = 100;
+    /**
+     * Per thread scratch space that collision detection results are
+     * written to so that handling a move does not create garbage.
+     */
+    private static final ThreadLocal<float[]> trimmedPath = 
+            new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[2];
+        }
+    };
+    /**
+     * Per thread scratch space that expected positions are written to so
+     * that checking a position does not create garbage.  Callers copy the
+     * position out before calling anything that may reuse it.
+     */
+    protected static final ThreadLocal<float[]> expectedPosition = 
+            new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[2];
+        }
+    };
+    /**
+     * Per thread scratch space that the ids and positions of the players
+     * of a game are written to when a player changes cell, grown as
+     * needed to fit every player of the game.
+     */
+    private static final ThreadLocal<int[]> watchedIds = 
+            new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[0];
+        }
+    };
+    private static final ThreadLocal<float[]> watchedPositions = 
+            new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[0];
+        }
+    };
     
     /**
      * Player information
@@ -112,12 +176,67 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
     private float destX;
     private float destY;
     private long timestamp;
+    /**
+     * Direction, length and speed of the current move, which only change
+     * when a move starts or the hit points change.  They are computed
+     * then, while the player is being updated anyway, and kept with the
+     * player so that every expected position of a move is a multiply and
+     * add, and checking the position of another player does not modify
+     * it.
+     */
+    private float directionX;
+    private float directionY;
+    private float pathLength;
+    private float ratePerMs;
+    private boolean pathCached = false;
     private ETeamColor teamColor;
+    private int protocolVersion = WireFormat.STANDARD_VERSION;
+    /**
+     * Time of the login, and the version latency measured from it: the
+     * time from the login to the arrival of the VERSION packet of the
+     * client.  It includes whatever the client does before announcing its
+     * version, so it is an upper bound of the round trip time rather than
+     * a measurement of it, but it is taken without any extra messages
+     */
+    private final long loginTime = System.currentTimeMillis();
+    private int versionLatency = -1;
+    /**
+     * Matchmaker that the player joins once its version latency is known
+     */
+    private ManagedReference<Matchmaker> matchmakerRef = null;
+    /**
+     * Format of the messages sent to the game
+     */
+    private WireFormat wireFormat = WireFormat.STANDARD;
+    /**
+     * Whether movements are sent in snapshots, and the last recorded
+     * snapshot acknowledged by the client
+     */
+    private boolean snapshots = false;
+    private int snapshotAck = 0;
     
     /**
      * Reference to the game channel used for communications
      */
     private ManagedReference<Channel> channelRef = null;
+    /**
+     * Reference to the game's broadcast batch, if the game batches
+     */
+    private ManagedReference<BroadcastBatch> batchRef = null;
+    /**
+     * Reference to the game's tick, if the game ticks
+     */
+    private ManagedReference<GameTick> tickRef = null;
+    /**
+     * Reference to the game's interest grid, if the game filters messages
+     * by area of interest
+     */
+    private ManagedReference<InterestGrid> interestRef = null;
+    /**
+     * Cell of the interest grid whose channel the player's session joined,
+     * or -1
+     */
+    private int cell = -1;
     /**
      * Reference to the game that the player is playing in.
      */
@@ -130,6 +249,11 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
      * State that the player is in in the game.
      */
     protected PlayerState state = PlayerState.NONE;
+    /**
+     * Whether the player has said it is ready to play, which is checked by
+     * the game before it starts.
+     */
+    private boolean readyToPlay = false;
     /**
      * Current health value of the player.
      */
@@ -179,11 +303,31 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
 
     /** {@inheritDoc} */
     public void setLocation(float x, float y) {
+        AppContext.getDataManager().markForUpdate(this);
         startX = x;
         destX = x;
         startY = y;
         destY = y;
         this.state = PlayerState.STOPPED;
+        pathCached = false;
+        watch(x, y);
+    }
+
+    /**
+     * Stop the player at the given position at the given time.  A player
+     * already stopped there is left as it is, so that it is only written
+     * when its state actually changes.
+     * 
+     * @param now the time the player stops
+     * @param x the x coordinate of the player
+     * @param y the y coordinate of the player
+     */
+    private void stopAt(long now, float x, float y) {
+        if (state == PlayerState.STOPPED && startX == x && startY == y) {
+            return;
+        }
+        this.timestamp = now;
+        setLocation(x, y);
     }
 
     /** {@inheritDoc} */
@@ -199,6 +343,17 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
         gameRef = AppContext.getDataManager().createReference(game);
         channelRef = AppContext.getDataManager().createReference(
                 game.getGameChannel());
+        BroadcastBatch batch = game.getBroadcastBatch();
+        batchRef = batch == null ?
+                null : AppContext.getDataManager().createReference(batch);
+        GameTick tick = game.getGameTick();
+        tickRef = tick == null ?
+                null : AppContext.getDataManager().createReference(tick);
+        InterestGrid interest = game.getInterestGrid();
+        interestRef = interest == null ?
+                null : AppContext.getDataManager().createReference(interest);
+        cell = -1;
+        watch(startX, startY);
     }
 
     /** {@inheritDoc} */
@@ -224,53 +379,75 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
      * @return the position of the player at the given time
      */
     public Coordinate getExpectedPositionAtTime(long time) {
-        float currentX = startX;
-        float currentY = startY;
-        if (state == PlayerState.MOVING) {
-            //total time that player has been moving
-            long dt = time - timestamp;
-
-            //calculate speed from HPconverter
-            float ratePerMs = (EForce.Movement.getMagnitude() / 
-                    HPConverter.getInstance().convertMass(hitPoints)) *
-                    0.00001f;
-            float distanceTraveled = ratePerMs * dt;
-
-            //calculate the actual distance traveled based on the speed
-            float dx = destX - startX;
-            float dy = destY - startY;
-            float targetDistance = (float) Math.sqrt((dx * dx) + (dy * dy));
+        float[] position = expectedPosition.get();
+        getExpectedPositionAtTime(time, position);
+        return new Coordinate(position[0], position[1]);
+    }
 
+    /** 
+     * {@inheritDoc}
+     * 
+     * The player moves along the straight line to its destination at a
+     * speed given by its hit points, so the position is the start plus the
+     * distance traveled along the cached direction of the move.  It only
+     * reads the player, so checking the position of another player never
+     * takes a write lock on it.
+     */
+    public void getExpectedPositionAtTime(long time, float[] position) {
+        if (state == PlayerState.MOVING) {
+            float dirX = directionX;
+            float dirY = directionY;
+            float length = pathLength;
+            float rate = ratePerMs;
+            if (!pathCached) {
+                //compute the path without keeping it
+                float dx = destX - startX;
+                float dy = destY - startY;
+                length = (float) Math.sqrt((dx * dx) + (dy * dy));
+                dirX = length == 0.0f ? 0.0f : dx / length;
+                dirY = length == 0.0f ? 0.0f : dy / length;
+                rate = getRatePerMs();
+            }
+            //distance traveled so far along the path
+            float traveled = rate * Math.max(time - timestamp, 0L);
+            
             //if we've travelled beyond target, target is the position
-            if (targetDistance <= distanceTraveled) {
-                currentX = destX;
-                currentY = destY;
+            if (traveled >= length) {
+                position[0] = destX;
+                position[1] = destY;
             } else {
-                //otherwise, we need to calculate the new position based on
-                //a system of equations 
-                //(looking for realDX and realDY as variables):
-                //  dx/dy = realDX/realDY
-                //  realDX^2 + realDY^2 = distanceTraveled^2
-                float realDX = dx == 0.0f ? 0.0f : (float) Math.sqrt(
-                        (distanceTraveled * distanceTraveled) /
-                        ((dy * dy) / (dx * dx) + 1));
-                float realDY = dy == 0.0f ? 0.0f : (float) Math.sqrt(
-                        (distanceTraveled * distanceTraveled) /
-                        ((dx * dx) / (dy * dy) + 1));
-
-                //ensure that the signs match for the deltas
-                if (dx < 0) {
-                    realDX *= -1;
-                }
-                if (dy < 0) {
-                    realDY *= -1;
-                }
-                currentX = startX + realDX;
-                currentY = startY + realDY;
+                position[0] = startX + dirX * traveled;
+                position[1] = startY + dirY * traveled;
             }
+        } else {
+            position[0] = startX;
+            position[1] = startY;
         }
+    }
+    
+    /**
+     * Compute the direction and length of the path from the start to the
+     * destination, and the speed of the player from its hit points.
+     */
+    private void cachePath() {
+        float dx = destX - startX;
+        float dy = destY - startY;
+        pathLength = (float) Math.sqrt((dx * dx) + (dy * dy));
+        directionX = pathLength == 0.0f ? 0.0f : dx / pathLength;
+        directionY = pathLength == 0.0f ? 0.0f : dy / pathLength;
         
-        return new Coordinate(currentX, currentY);
+        ratePerMs = getRatePerMs();
+        pathCached = true;
+    }
+
+    /**
+     * Calculate the speed of the player, in units per millisecond, from
+     * its hit points.
+     */
+    private float getRatePerMs() {
+        return (EForce.Movement.getMagnitude() / 
+                HPConverter.getInstance().convertMass(hitPoints)) *
+                0.00001f;
     }
 
     /**
@@ -295,6 +472,7 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
     public void setReadyToPlay(boolean readyToPlay) {
         AppContext.getDataManager().markForUpdate(this);
 
+        this.readyToPlay = readyToPlay;
         if (readyToPlay) {
             this.state = PlayerState.STOPPED;
         } else {
@@ -304,7 +482,7 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
 
     /** {@inheritDoc} */
     public boolean getReadyToPlay() {
-        return this.state != PlayerState.NONE;
+        return this.readyToPlay;
     }
 
     /** {@inheritDoc} */
@@ -312,9 +490,144 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
         sessionRef.get().send(buff);
     }
 
-    // Send a message to all the players
+    // Send a message to all the players.  The packet may be in the scratch
+    // buffer, which the channel, the sessions and the batch all copy before
+    // returning.  Only clients that speak the compact protocol understand
+    // batches.  Snapshots are sent to each session, so the messages of a
+    // game that sends them are too, to keep them in order
     private void sendAll(ByteBuffer buff) {
-        channelRef.get().send(null, buff);
+        if (batchRef != null && wireFormat.isCompact()) {
+            batchRef.get().add(id, buff);
+        } else if (snapshots) {
+            BroadcastBatchImpl.sendToSessions(channelRef.get(), buff);
+        } else {
+            channelRef.get().send(null, buff);
+        }
+    }
+
+    // Send a message to the players that can see the rectangle with the
+    // given corners, or to all the players if the game does not filter
+    // by area of interest.  The channels of the interest grid are not
+    // ordered with the snapshots, which already tell every player the
+    // state of every other, so a game that sends snapshots tells all
+    private void sendNear(float x1, float y1, float x2, float y2, 
+                          ByteBuffer buff) {
+        if (interestRef != null && !snapshots) {
+            interestRef.get().send(x1, y1, x2, y2, buff);
+        } else {
+            sendAll(buff);
+        }
+    }
+
+    /**
+     * Move the player's session to the cell of the interest grid covering
+     * the given position, if the game has one and does not send snapshots,
+     * which tell every player everything.  The player is then sent the
+     * movements of the players it could not see from its previous cell.
+     * A moving player watches the cell it is passing through, which is
+     * checked as it moves.
+     * 
+     * @param x x coordinate of the position
+     * @param y y coordinate of the position
+     */
+    private void watch(float x, float y) {
+        ClientSession session;
+        if (interestRef == null || snapshots || 
+                (session = getSession()) == null) {
+            return;
+        }
+        InterestGrid interest = interestRef.get();
+        int from = cell;
+        int to = interest.getCell(x, y);
+        if (from == to) {
+            return;
+        }
+        AppContext.getDataManager().markForUpdate(this);
+        interest.move(session, from, to);
+        cell = to;
+        if (from < 0) {
+            return;
+        }
+        
+        SnowmanGame game = gameRef.get();
+        int players = game.getPlayerIds().size();
+        int[] ids = watchedIds.get();
+        if (ids.length < players) {
+            ids = new int[players];
+            watchedIds.set(ids);
+        }
+        float[] positions = watchedPositions.get();
+        if (positions.length < 2 * players) {
+            positions = new float[2 * players];
+            watchedPositions.set(positions);
+        }
+        int count = game.getExpectedPositions(System.currentTimeMillis(),
+                                              ids, positions);
+        for (int i = 0; i < count; i++) {
+            float px = positions[2 * i];
+            float py = positions[2 * i + 1];
+            if (ids[i] != id && interest.isVisible(to, px, py) &&
+                    !interest.isVisible(from, px, py)) {
+                game.getPlayer(ids[i]).sendMovement(this);
+            }
+        }
+    }
+
+    /**
+     * Schedule a check of the cell of the interest grid the player is
+     * passing through, once it has had time to travel half a cell along
+     * the move started at the given time.  The check is a task of the
+     * player's own rather than an action of the tick, so that it only
+     * writes the player.
+     * 
+     * @param moveTimestamp the time the move started
+     */
+    private void scheduleWatch(long moveTimestamp) {
+        if (interestRef == null || snapshots || getSession() == null) {
+            return;
+        }
+        float halfCell = interestRef.get().getCellSize() / 2.0f;
+        long delay = Math.max((long) (halfCell / ratePerMs), WATCHMINMS);
+        AppContext.getTaskManager().scheduleTask(
+                new WatchTask(AppContext.getDataManager().
+                              createReference(this), moveTimestamp),
+                delay);
+    }
+
+    /**
+     * Watch the cell of the interest grid covering the expected position
+     * of the player, if it is still making the move started at the given
+     * time, and check again later unless it has arrived.
+     * 
+     * @param moveTimestamp the time the move started
+     */
+    void followMove(long moveTimestamp) {
+        if (state != PlayerState.MOVING || timestamp != moveTimestamp) {
+            return;
+        }
+        float[] position = expectedPosition.get();
+        getExpectedPositionAtTime(System.currentTimeMillis(), position);
+        float x = position[0];
+        float y = position[1];
+        watch(x, y);
+        if (x != destX || y != destY) {
+            scheduleWatch(moveTimestamp);
+        }
+    }
+
+    /**
+     * Schedule a timed action of the player, on the tick of its game if
+     * the game ticks, or as a task of its own otherwise.
+     * 
+     * @param task the action to run
+     * @param delay the number of milliseconds to wait before running it
+     */
+    protected void scheduleGameTask(Task task, long delay) {
+        if (tickRef != null) {
+            tickRef.get().schedule(task, delay);
+        } else {
+            AppContext.getTaskManager().scheduleTask(task, delay);
+        }
     }
 
     /** {@inheritDoc} */
@@ -337,7 +650,6 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
     public void ready() {
         if (gameRef != null) {
             setReadyToPlay(true);
-            gameRef.get().startGameIfReady();
         }
     }
 
@@ -367,41 +679,49 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
         if (state == PlayerState.DEAD || state == PlayerState.NONE) {
             return;
         }
-        AppContext.getDataManager().markForUpdate(this);
 
         //verify that the start location is valid
-        Coordinate expectedPosition = this.getExpectedPositionAtTime(now);
+        float[] position = expectedPosition.get();
+        getExpectedPositionAtTime(now, position);
+        float expectedX = position[0];
+        float expectedY = position[1];
 
-        if (checkTolerance(expectedPosition.getX(), expectedPosition.getY(),
+        if (checkTolerance(expectedX, expectedY,
                            startx, starty,
                            POSITIONTOLERANCESQD)) {
             //collision detection
-            Coordinate trimPosition = 
-                    AppContext.getManager(GameWorldManager.class).
-                    trimPath(new Coordinate(startx, starty),
-                             new Coordinate(endx, endy));
+            float[] trimPosition = trimmedPath.get();
+            AppContext.getManager(GameWorldManager.class).
+                    trimPath(startx, starty, endx, endy, trimPosition);
 
+            AppContext.getDataManager().markForUpdate(this);
             this.timestamp = now;
             this.startX = startx;
             this.startY = starty;
-            this.destX = trimPosition.getX();
-            this.destY = trimPosition.getY();
+            this.destX = trimPosition[0];
+            this.destY = trimPosition[1];
             this.state = PlayerState.MOVING;
+            cachePath();
 
-            sendAll(ServerMessages.createMoveMOBPkt(id, 
-                                                    startX, 
-                                                    startY, 
-                                                    destX,
-                                                    destY));
+            if (!snapshots) {
+                sendNear(startX, startY, destX, destY,
+                         ServerMessages.encodeMoveMOBPkt(
+                         wireFormat, ServerMessages.getScratchBuffer(),
+                         id, startX, startY, destX, destY));
+            }
+            watch(startX, startY);
+            scheduleWatch(now);
         } else {
             logger.log(Level.FINE, 
                        "move from {0} failed start position check", name);
 
-            this.timestamp = now;
-            this.setLocation(expectedPosition.getX(), expectedPosition.getY());
-            sendAll(ServerMessages.createStopMOBPkt(id,
-                                                    expectedPosition.getX(),
-                                                    expectedPosition.getY()));
+            stopAt(now, expectedX, expectedY);
+            if (!snapshots) {
+                sendNear(expectedX, expectedY, expectedX, expectedY,
+                         ServerMessages.encodeStopMOBPkt(
+                         wireFormat, ServerMessages.getScratchBuffer(),
+                         id, expectedX, expectedY));
+            }
         }
     }
 
@@ -426,12 +746,15 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
         if (state == PlayerState.DEAD || state == PlayerState.NONE) {
             return;
         }
-        AppContext.getDataManager().markForUpdate(this);
 
-        //verify that the start location is valid
-        Coordinate expectedPosition = this.getExpectedPositionAtTime(now);
+        //verify that the start location is valid, only reading the
+        //attacker and the target until the attack is known to happen
+        float[] position = expectedPosition.get();
+        getExpectedPositionAtTime(now, position);
+        float expectedX = position[0];
+        float expectedY = position[1];
 
-        if (checkTolerance(expectedPosition.getX(), expectedPosition.getY(),
+        if (checkTolerance(expectedX, expectedY,
                            x, y, POSITIONTOLERANCESQD)) {
             //get the target player and determine its location
             SnowmanPlayer target = gameRef.get().getPlayer(targetID);
@@ -439,15 +762,15 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
             if (target == null) {
                 return; // player no longer in game
             }
-            Coordinate targetPosition = target.getExpectedPositionAtTime(now);
+            target.getExpectedPositionAtTime(now, position);
+            float targetX = position[0];
+            float targetY = position[1];
 
             boolean success = true;
             //verify that target is in range
             float range = HPConverter.getInstance().convertRange(hitPoints);
-            if (!checkTolerance(expectedPosition.getX(), 
-                                expectedPosition.getY(),
-                                targetPosition.getX(),
-                                targetPosition.getY(),
+            if (!checkTolerance(expectedX, expectedY,
+                                targetX, targetY,
                                 range * range)) {
                 logger.log(Level.FINE, "attack from {0} out of range", name);
                 success = false;
@@ -455,28 +778,36 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
 
             //collision detection
             if (!AppContext.getManager(GameWorldManager.class).
-                    validThrow(new Coordinate(x, y),
-                               targetPosition)) {
+                    validThrow(x, y, targetX, targetY)) {
                 logger.log(Level.FINE, 
                            "attack from {0} detected a collision", name);
                 success = false;
             }
 
             //perform implicit stop
-            this.timestamp = now;
-            this.setLocation(x, y);
+            stopAt(now, x, y);
 
             if (success) {
-                //stop the target
-                target.setLocation(targetPosition.getX(),
-                                   targetPosition.getY());
-                sendAll(ServerMessages.createAttackedPkt(
-                        id, targetID,
-                        target.hit(ATTACKHP, 
-                                   targetPosition.getX(), 
-                                   targetPosition.getY())));
+                //stop the target, unless it is already dead
+                if (target.getHitPoints() > 0) {
+                    target.setLocation(targetX, targetY);
+                }
+                //hit before encoding, as dropping a flag may send too
+                int hp = target.hit(ATTACKHP, targetX, targetY);
+                ByteBuffer attacked = ServerMessages.encodeAttackedPkt(
+                        wireFormat, ServerMessages.getScratchBuffer(),
+                        id, targetID, hp);
+                //everyone is told of a death, as they are of the respawn
+                if (target.getHitPoints() <= 0) {
+                    sendAll(attacked);
+                } else {
+                    sendNear(x, y, targetX, targetY, attacked);
+                }
             } else {
-                sendAll(ServerMessages.createAttackedPkt(id, targetID, 0));
+                sendNear(x, y, targetX, targetY,
+                         ServerMessages.encodeAttackedPkt(
+                         wireFormat, ServerMessages.getScratchBuffer(),
+                         id, targetID, 0));
             }
         } else {
             //ignore an invalid attack
@@ -515,8 +846,9 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
                 holdingFlagRef != null) {
             return;        //verify that the start location is valid
         }
-        Coordinate expectedPosition = this.getExpectedPositionAtTime(now);
-        if (checkTolerance(expectedPosition.getX(), expectedPosition.getY(),
+        float[] position = expectedPosition.get();
+        getExpectedPositionAtTime(now, position);
+        if (checkTolerance(position[0], position[1],
                            x, y, POSITIONTOLERANCESQD)) {
 
             //verify that the player is in range of the flag
@@ -533,7 +865,9 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
                 flag.setHeldBy(this);
                 holdingFlagRef = 
                         AppContext.getDataManager().createReference(flag);
-                sendAll(ServerMessages.createAttachObjPkt(flagID, id));
+                sendAll(ServerMessages.encodeAttachObjPkt(
+                        wireFormat, ServerMessages.getScratchBuffer(),
+                        flagID, id));
             } else {
                 logger.log(Level.FINER, 
                            "get flag from {0} failed radius check", name);
@@ -573,8 +907,9 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
         }
 
         //verify that the start location is valid
-        Coordinate expectedPosition = this.getExpectedPositionAtTime(now);
-        if (checkTolerance(expectedPosition.getX(), expectedPosition.getY(),
+        float[] position = expectedPosition.get();
+        getExpectedPositionAtTime(now, position);
+        if (checkTolerance(position[0], position[1],
                            x, y, POSITIONTOLERANCESQD)) {
             SnowmanFlag flag = holdingFlagRef.get();
 
@@ -605,9 +940,9 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
             Coordinate position = SnowmanMapInfo.getRespawnPosition(
                     SnowmanMapInfo.DEFAULT, this.getTeamColor());
             setLocation(position.getX(), position.getY());
-            sendAll(ServerMessages.createRespawnPkt(id, 
-                                                    position.getX(),
-                                                    position.getY()));
+            sendAll(ServerMessages.encodeRespawnPkt(
+                    wireFormat, ServerMessages.getScratchBuffer(),
+                    id, position.getX(), position.getY()));
         }
     }
 
@@ -617,6 +952,9 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
             AppContext.getDataManager().markForUpdate(this);
 
             hitPoints -= hp;
+            if (state == PlayerState.MOVING) {
+                cachePath();
+            }
             if (hitPoints <= 0) { // newly dead
                 // drop flag
                 SnowmanFlag flag = holdingFlagRef == null 
@@ -628,7 +966,7 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
                 state = PlayerState.DEAD;
 
                 // schedule respawn
-                AppContext.getTaskManager().scheduleTask(
+                scheduleGameTask(
                         new RespawnTask(
                         AppContext.getDataManager().createReference(
                         (SnowmanPlayer) this)),
@@ -647,9 +985,9 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
     public void dropFlag() {
         SnowmanFlag flag = holdingFlagRef == null ? null : holdingFlagRef.get();
         if (flag != null) {
-            Coordinate expectedPosition = 
-                    this.getExpectedPositionAtTime(System.currentTimeMillis());
-            flag.drop(expectedPosition.getX(), expectedPosition.getY());
+            float[] position = expectedPosition.get();
+            getExpectedPositionAtTime(System.currentTimeMillis(), position);
+            flag.drop(position[0], position[1]);
         }
         holdingFlagRef = null;
     }
@@ -706,6 +1044,154 @@ public class SnowmanPlayerImpl implements SnowmanPlayer,
     /** {@inheritDoc} */
     public void chatMessage(String message) {
         // Create new packet with ID.
-        sendAll(ServerMessages.createChatPkt(id, message));
+        sendAll(ServerMessages.encodeChatPkt(
+                wireFormat, ServerMessages.getScratchBuffer(), id, message));
+    }
+
+    /** {@inheritDoc} */
+    public void protocolVersion(int version) {
+        AppContext.getDataManager().markForUpdate(this);
+        protocolVersion = version;
+        if (versionLatency < 0) {
+            versionLatency = (int) Math.min(System.currentTimeMillis() - 
+                                            loginTime, Integer.MAX_VALUE);
+            join();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /** {@inheritDoc} */
+    public void setSnapshots(boolean snapshots) {
+        AppContext.getDataManager().markForUpdate(this);
+        this.snapshots = snapshots;
+    }
+
+    /** {@inheritDoc} */
+    public void snapshotAck(int sequence) {
+        if (snapshotAck == 0 ? sequence > 0 :
+                sequence >= snapshotAck + SNAPSHOTACKSTEP) {
+            AppContext.getDataManager().markForUpdate(this);
+            snapshotAck = sequence;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void sendMovement(SnowmanPlayer observer) {
+        if (state == PlayerState.MOVING) {
+            float[] position = expectedPosition.get();
+            getExpectedPositionAtTime(System.currentTimeMillis(), position);
+            observer.send(ServerMessages.encodeMoveMOBPkt(
+                    wireFormat, ServerMessages.getScratchBuffer(),
+                    id, position[0], position[1], destX, destY));
+        } else if (state == PlayerState.STOPPED) {
+            observer.send(ServerMessages.encodeStopMOBPkt(
+                    wireFormat, ServerMessages.getScratchBuffer(),
+                    id, startX, startY));
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int getSnapshotAck() {
+        return snapshotAck;
+    }
+
+    /** {@inheritDoc} */
+    public void putState(Snapshot snapshot) {
+        snapshot.put(id, startX, startY, destX, destY, hitPoints, 0);
+    }
+
+    /** {@inheritDoc} */
+    public void setWireFormat(WireFormat format) {
+        AppContext.getDataManager().markForUpdate(this);
+        wireFormat = format;
+    }
+    
+    /** {@inheritDoc} */
+    public void joinMatchmaker(Matchmaker matchmaker) {
+        AppContext.getDataManager().markForUpdate(this);
+        matchmakerRef = AppContext.getDataManager().createReference(matchmaker);
+        if (versionLatency >= 0) {
+            join();
+        } else {
+            AppContext.getTaskManager().scheduleTask(
+                    new JoinTask(AppContext.getDataManager().
+                                 createReference(this)),
+                    VERSIONWAITMS);
+        }
+    }
+    
+    /**
+     * Add the player to its matchmaker, if it has not been added yet.
+     */
+    private void join() {
+        if (matchmakerRef != null) {
+            AppContext.getDataManager().markForUpdate(this);
+            Matchmaker matchmaker = matchmakerRef.get();
+            matchmakerRef = null;
+            matchmaker.add(AppContext.getDataManager().
+                           createReference((SnowmanPlayer) this));
+        }
+    }
+    
+    /** {@inheritDoc} */
+    public int getVersionLatency() {
+        return versionLatency;
+    }
+    
+    /** {@inheritDoc} */
+    public int getRating() {
+        return PlayerRating.getRating(name);
+    }
+    
+    /**
+     * A private task which checks the interest cell of a moving player.
+     */
+    private static class WatchTask implements Task, Serializable {
+        
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+        final ManagedReference<SnowmanPlayerImpl> playerRef;
+        final long moveTimestamp;
+        
+        WatchTask(ManagedReference<SnowmanPlayerImpl> playerRef,
+                  long moveTimestamp) {
+            this.playerRef = playerRef;
+            this.moveTimestamp = moveTimestamp;
+        }
+        
+        /** {@inheritDoc} */
+        public void run() throws Exception {
+            try {
+                playerRef.get().followMove(moveTimestamp);
+            } catch (ObjectNotFoundException disconnected) {
+            }
+        }
+    }
+    
+    /**
+     * A private task which adds a player to its matchmaker if its client
+     * has not announced its protocol version in time.
+     */
+    private static class JoinTask implements Task, Serializable {
+        
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+        final ManagedReference<SnowmanPlayerImpl> playerRef;
+        
+        JoinTask(ManagedReference<SnowmanPlayerImpl> playerRef) {
+            this.playerRef = playerRef;
+        }
+        
+        /** {@inheritDoc} */
+        public void run() throws Exception {
+            try {
+                playerRef.get().join();
+            } catch (ObjectNotFoundException disconnected) {
+            }
+        }
     }
 }
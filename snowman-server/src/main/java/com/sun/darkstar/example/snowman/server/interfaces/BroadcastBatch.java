@@ -0,0 +1,80 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.interfaces;
+
+import com.sun.sgs.app.ManagedObject;
+import java.nio.ByteBuffer;
+
+/**
+ * The {@code BroadcastBatch} interface describes an outbound queue of
+ * messages destined for every player in a game.  Queued messages are
+ * delivered together on the game's channel as a single batch packet
+ * once per tick instead of as one channel message each.  Batch packets
+ * are only understood by clients that speak the compact protocol, so a
+ * game only queues messages on its batch once it has switched to it.
+ * A game that sends snapshots has its batch delivered to each session of
+ * the channel instead, as the snapshots are.
+ */
+public interface BroadcastBatch extends ManagedObject
+{
+    /**
+     * Queue a message to be delivered to all players in the game with the
+     * next batch.  Messages are delivered in the order they were queued,
+     * whatever their sender.
+     * @param sender the id of the player sending the message, or any
+     *        other number identifying the sender
+     * @param buff the message itself
+     */
+    void add(int sender, ByteBuffer buff);
+    
+    /**
+     * Deliver all of the queued messages immediately.
+     */
+    void flush();
+    
+    /**
+     * Deliver the queued messages to each session of the game's channel
+     * individually from now on, rather than on the channel.  Messages
+     * sent on a channel are not ordered with those sent to its sessions
+     * directly, so a game that sends messages to the sessions of its
+     * players switches its batch over to keep them in order.
+     */
+    void sendToSessions();
+    
+    /**
+     * Deliver all of the queued messages and stop ticking.  The batch
+     * removes itself from the data store on its next tick.
+     */
+    void close();
+}
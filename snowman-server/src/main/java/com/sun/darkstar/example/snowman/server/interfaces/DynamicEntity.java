@@ -34,6 +34,7 @@
 
 package com.sun.darkstar.example.snowman.server.interfaces;
 
+import com.sun.darkstar.example.snowman.common.protocol.messages.Snapshot;
 import com.sun.sgs.app.ManagedObject;
 
 /**
@@ -74,5 +75,11 @@ public interface DynamicEntity extends ManagedObject
      * @return the Y coordinate of the entity
      */
     float getY();
+    
+    /**
+     * Add the current state of the entity to a snapshot of its game.
+     * @param snapshot the snapshot to add the state to
+     */
+    void putState(Snapshot snapshot);
 
 }
@@ -0,0 +1,63 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.interfaces;
+
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.Task;
+
+/**
+ * The {@code GameTick} interface describes the fixed rate loop of a game.
+ * Every tick, the timed actions of the game that have come due, such as
+ * respawns, flag returns and robot moves, are run together, and the
+ * messages broadcast meanwhile are delivered together, so that a game
+ * keeps one pending task of its own rather than one for every action.
+ */
+public interface GameTick extends ManagedObject
+{
+    /**
+     * Run the given task on the first tick after the given delay, in the
+     * transaction of the tick.  A task that fails with an exception that
+     * should not be retried is dropped without stopping the tick.
+     * @param task the task to run, which must be {@code Serializable}
+     * @param delay the number of milliseconds to wait before running it
+     */
+    void schedule(Task task, long delay);
+    
+    /**
+     * Stop ticking, dropping any pending tasks.  The tick removes itself
+     * and the game's {@code BroadcastBatch} from the data store on its
+     * next run.
+     */
+    void close();
+}
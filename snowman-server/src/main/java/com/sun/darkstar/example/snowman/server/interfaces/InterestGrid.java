@@ -0,0 +1,96 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.server.interfaces;
+
+import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.ManagedObject;
+import java.nio.ByteBuffer;
+
+/**
+ * The {@code InterestGrid} interface describes the area of interest
+ * filtering of a game.  The map is divided into square cells, each with a
+ * channel joined by the players standing in it, so that a message about
+ * something happening at some place is only delivered to the players near
+ * enough to see it, rather than to every player in the game.
+ */
+public interface InterestGrid extends ManagedObject
+{
+    /**
+     * Return the cell covering the given position.  Positions outside of
+     * the map are clamped to its edge.
+     * @param x x coordinate of the position
+     * @param y y coordinate of the position
+     * @return the index of the cell
+     */
+    int getCell(float x, float y);
+    
+    /**
+     * Return the width of the cells, which is the shortest distance a
+     * player travels through a cell when crossing it along an axis.
+     * @return the width of a cell
+     */
+    float getCellSize();
+    
+    /**
+     * Move a session from one cell to another, leaving the channel of the
+     * first and joining the channel of the second.
+     * @param session the session of the player
+     * @param from the cell the player was in, or -1 if it was in none
+     * @param to the cell the player is now in, or -1 to leave the grid
+     */
+    void move(ClientSession session, int from, int to);
+    
+    /**
+     * Return whether something at the given position can be seen from the
+     * given cell.
+     * @param cell the cell of the player looking
+     * @param x x coordinate of the position
+     * @param y y coordinate of the position
+     * @return true if the position is within the interest radius of
+     *         the cell
+     */
+    boolean isVisible(int cell, float x, float y);
+    
+    /**
+     * Send a message to the players that can see some part of the
+     * rectangle with the given corners, such as the path of a move.
+     * @param x1 x coordinate of one corner
+     * @param y1 y coordinate of one corner
+     * @param x2 x coordinate of the opposite corner
+     * @param y2 y coordinate of the opposite corner
+     * @param buff the message itself
+     */
+    void send(float x1, float y1, float x2, float y2, ByteBuffer buff);
+}
@@ -36,6 +36,7 @@ package com.sun.darkstar.example.snowman.server.interfaces;
 
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import com.sun.sgs.app.Channel;
 import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedObjectRemoval;
@@ -53,6 +54,9 @@ public interface SnowmanGame extends ManagedObject, ManagedObjectRemoval
 {
     /**
      * Send a message to all players in the game on the game's Channel.
+     * If the game batches its broadcasts, the message is queued on the
+     * game's {@code BroadcastBatch} instead, and if it sends snapshots,
+     * the message is sent to each session of the channel.
      * @param buff the message itself
      */
     void send(ByteBuffer buff);
@@ -76,9 +80,20 @@ public interface SnowmanGame extends ManagedObject, ManagedObjectRemoval
      */
     void removePlayer(SnowmanPlayer player);
     
+    /**
+     * Send each connected player the changes to the state of the game
+     * since the last snapshot it acknowledged, if the game sends snapshots.
+     * Called by the {@code GameTick} of the game once per tick.
+     */
+    void sendSnapshot();
+    
     /**
      * Verify that all players are ready to player and start the game
-     * by broadcasting a STARTGAME message if so.
+     * by broadcasting a STARTGAME message if so, or check again a little
+     * later if not.  Players only record that they are ready, and this
+     * check is run by a task of the game once it has sent its map, so
+     * that players getting ready at the same time do not all write the
+     * game.
      */
     void startGameIfReady();
     
@@ -118,6 +133,19 @@ public interface SnowmanGame extends ManagedObject, ManagedObjectRemoval
      */
     Set<Integer> getPlayerIds();
     
+    /**
+     * Write the ids and expected positions of the players in the game at
+     * the given time, for callers that look at every player at once.
+     * 
+     * @param time the time to check the positions of the players
+     * @param ids array receiving the ids of the players
+     * @param positions array receiving the x and y coordinates of each
+     *        player, in pairs at twice the index of its id
+     * @return the number of players written, which is at most the length
+     *         of {@code ids}
+     */
+    int getExpectedPositions(long time, int[] ids, float[] positions);
+    
     /**
      * Return the name of the game.
      * 
@@ -130,4 +158,34 @@ public interface SnowmanGame extends ManagedObject, ManagedObjectRemoval
      * @return the game channel
      */
     Channel getGameChannel();
+    
+    /**
+     * Return the batch that queues broadcasts for this game.
+     * @return the broadcast batch, or null if the game sends each
+     *         broadcast on its own
+     */
+    BroadcastBatch getBroadcastBatch();
+    
+    /**
+     * Return the tick that runs the timed actions of this game.
+     * @return the game tick, or null if the game schedules each timed
+     *         action as a task of its own
+     */
+    GameTick getGameTick();
+    
+    /**
+     * Return the grid that filters the messages of this game by the area
+     * of interest of each player.
+     * @return the interest grid, or null if every player is sent every
+     *         message
+     */
+    InterestGrid getInterestGrid();
+    
+    /**
+     * Return the format that messages sent to the players in this game
+     * are encoded in.  The format is chosen when the map information is
+     * sent, based on the protocol versions of the connected players.
+     * @return the wire format of the game
+     */
+    WireFormat getWireFormat();
 }
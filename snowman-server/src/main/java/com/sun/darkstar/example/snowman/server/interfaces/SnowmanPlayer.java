@@ -36,6 +36,7 @@ package com.sun.darkstar.example.snowman.server.interfaces;
 
 import com.sun.darkstar.example.snowman.common.protocol.processor.IServerProcessor;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import com.sun.darkstar.example.snowman.common.util.Coordinate;
 import com.sun.sgs.app.ClientSession;
 import com.sun.sgs.app.ManagedObject;
@@ -70,6 +71,16 @@ public interface SnowmanPlayer extends DynamicEntity, ManagedObject
      * @return the position of the player at the given time
      */
     Coordinate getExpectedPositionAtTime(long time);
+    
+    /**
+     * Get the expected position of the player at the given time without
+     * creating a {@code Coordinate}.
+     * 
+     * @param time the time to check the player's position
+     * @param position array whose first two elements receive the x and y
+     *        coordinates of the player at the given time
+     */
+    void getExpectedPositionAtTime(long time, float[] position);
 
     /**
      * Set the team of the player.
@@ -171,4 +182,73 @@ public interface SnowmanPlayer extends DynamicEntity, ManagedObject
      * @return the processor used to process incoming messages for the player
      */
     IServerProcessor getProcessor();
+    
+    /**
+     * Returns the highest {@code WireFormat} version that the player's
+     * client has announced it can decode.
+     * 
+     * @return the protocol version of the player's client
+     */
+    int getProtocolVersion();
+    
+    /**
+     * Set the format used to encode the messages that the player sends
+     * to the rest of the game.
+     * 
+     * @param format the wire format of the player's game
+     */
+    void setWireFormat(WireFormat format);
+    
+    /**
+     * Set whether the game of the player sends its movements in snapshots,
+     * rather than broadcasting them as they happen.
+     * 
+     * @param snapshots whether the game sends snapshots
+     */
+    void setSnapshots(boolean snapshots);
+    
+    /**
+     * Returns the sequence number of a snapshot that the player's client
+     * acknowledged recently.  Acknowledgements may only be recorded every
+     * few snapshots, so it need not be the last one.
+     * 
+     * @return a recently acknowledged snapshot, or 0 if there is none
+     */
+    int getSnapshotAck();
+    
+    /**
+     * Send the current movement of this player to another player, which
+     * has just come near enough to see it.
+     * 
+     * @param observer the player to send the movement to
+     */
+    void sendMovement(SnowmanPlayer observer);
+    
+    /**
+     * Add the player to the given matchmaker once its version latency
+     * is known, which is when its client announces its protocol version,
+     * or after a bounded wait for clients that never do.
+     * 
+     * @param matchmaker the matchmaker to wait for a game in
+     */
+    void joinMatchmaker(Matchmaker matchmaker);
+    
+    /**
+     * Get the version latency of the player: the time from its login to
+     * the arrival of the VERSION packet announcing the protocol version of
+     * its client.  It stands in for the round trip time to the client,
+     * which it bounds from above, as the client may do other work between
+     * logging in and announcing its version.
+     * 
+     * @return the version latency in milliseconds, or -1 if unknown
+     */
+    int getVersionLatency();
+    
+    /**
+     * Get the rating of the player, which is kept across sessions and
+     * updated with the results of its games.
+     * 
+     * @return the rating of the player
+     */
+    int getRating();
 }
@@ -63,6 +63,26 @@ public interface GameWorldManager {
     Coordinate trimPath(Coordinate start,
                         Coordinate end);
     
+    /**
+     * <p>
+     * Calculate the actual path of a snowman attempting to walk
+     * from the given start point to the given end point.  This method
+     * is equivalent to {@link #trimPath(Coordinate, Coordinate)} except
+     * that the actual destination is written into the given array
+     * rather than returned as a new {@code Coordinate}.
+     * </p>
+     * 
+     * @param startX x coordinate of the start position
+     * @param startY y coordinate of the start position
+     * @param endX x coordinate of the destination position
+     * @param endY y coordinate of the destination position
+     * @param store array of at least two elements that the x and y
+     *        coordinates of the actual destination are written to
+     */
+    void trimPath(float startX, float startY,
+                  float endX, float endY,
+                  float[] store);
+    
     /**
      * <p>
      * Validate that a snowball can be thrown from the start position 
@@ -78,4 +98,43 @@ public interface GameWorldManager {
     boolean validThrow(Coordinate start,
                        Coordinate end);
     
+    /**
+     * <p>
+     * Validate that a snowball can be thrown from the start position 
+     * to the end position.  This method is equivalent to
+     * {@link #validThrow(Coordinate, Coordinate)}.
+     * </p>
+     * 
+     * @param startX x coordinate of the start position
+     * @param startY y coordinate of the start position
+     * @param endX x coordinate of the target position
+     * @param endY y coordinate of the target position
+     * @return true if there are no collisions with static entities between the two points
+     */
+    boolean validThrow(float startX, float startY,
+                       float endX, float endY);
+    
+    /**
+     * <p>
+     * Find the point a snowman at the given start position should walk to
+     * next on its way to the given end position.  If nothing is in the way,
+     * this is the end position itself.  Otherwise it is the next waypoint of
+     * a path around the obstacles found in the navigation graph of the
+     * game world, so that a move to it is not trimmed by
+     * {@link #trimPath(float, float, float, float, float[])}.
+     * </p>
+     * 
+     * @param startX x coordinate of the start position
+     * @param startY y coordinate of the start position
+     * @param endX x coordinate of the end position
+     * @param endY y coordinate of the end position
+     * @param store array of at least two elements that the x and y
+     *        coordinates of the point are written to
+     * @return true if a point was found, false if there is no known way
+     *         to the end position or navigation is disabled
+     */
+    boolean getWaypoint(float startX, float startY,
+                        float endX, float endY,
+                        float[] store);
+    
 }
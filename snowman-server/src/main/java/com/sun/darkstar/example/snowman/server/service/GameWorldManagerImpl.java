@@ -57,21 +57,36 @@ public class GameWorldManagerImpl implements GameWorldManager {
         this.backingService = backingService;
     }
     
-    // The following methods are synchronized to avoid problems with the
-    // jme code not being thread-safe. This will single-thread all tasks
-    // that do collision detection... so a more perminant solution needs
-    // to be found.
-    
     /** {@inheritDoc} */
-    public synchronized Coordinate trimPath(Coordinate start, 
+    public Coordinate trimPath(Coordinate start, 
                                Coordinate end) {
         return backingService.trimPath(start, end);
     }
+    
+    /** {@inheritDoc} */
+    public void trimPath(float startX, float startY,
+                         float endX, float endY,
+                         float[] store) {
+        backingService.trimPath(startX, startY, endX, endY, store);
+    }
 
     /** {@inheritDoc} */
-    public synchronized boolean validThrow(Coordinate start,
+    public boolean validThrow(Coordinate start,
                               Coordinate end) {
         return backingService.validThrow(start, end);
     }
+    
+    /** {@inheritDoc} */
+    public boolean validThrow(float startX, float startY,
+                              float endX, float endY) {
+        return backingService.validThrow(startX, startY, endX, endY);
+    }
+    
+    /** {@inheritDoc} */
+    public boolean getWaypoint(float startX, float startY,
+                               float endX, float endY,
+                               float[] store) {
+        return backingService.getWaypoint(startX, startY, endX, endY, store);
+    }
 
 }
@@ -34,15 +34,23 @@
 
 package com.sun.darkstar.example.snowman.server.service;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Properties;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.jme.math.Vector3f;
 import com.jme.scene.Spatial;
 import com.jme.system.DisplaySystem;
 import com.jme.system.dummy.DummySystemProvider;
+import com.sun.darkstar.example.snowman.common.util.CollisionCache;
+import com.sun.darkstar.example.snowman.common.util.CollisionGeometry;
+import com.sun.darkstar.example.snowman.common.util.CollisionMesh;
 import com.sun.darkstar.example.snowman.common.util.Coordinate;
+import com.sun.darkstar.example.snowman.common.util.NavigationGraph;
+import com.sun.darkstar.example.snowman.common.util.OccupancyGrid;
 import com.sun.darkstar.example.snowman.common.util.SingletonRegistry;
+import com.sun.darkstar.example.snowman.common.util.enumn.EStats;
 import com.sun.darkstar.example.snowman.common.util.enumn.EWorld;
 import com.sun.darkstar.example.snowman.server.impl.SnowmanMapInfo;
 import com.sun.sgs.kernel.ComponentRegistry;
@@ -54,6 +62,30 @@ import com.sun.sgs.service.TransactionProxy;
  * Darkstar service that provides utility methods to calculate
  * collision detection and spatial information against the static
  * game world geometry.
+ * <p>
+ * The game world is only loaded through the JME scene graph once, when the
+ * service is constructed.  The triangles and dimensions extracted from it
+ * are cached in the directory given by the {@value #CACHE_DIR_PROP}
+ * property, or in the {@code collision} directory of the application root
+ * by default, so that later restarts read them straight from the cache
+ * instead.  All collision queries are then answered from an
+ * immutable {@link CollisionGeometry} so that they can safely be run from any
+ * number of transaction threads at the same time without locking.
+ * <p>
+ * Since snowmen only ever move and throw horizontally, the world is baked
+ * into an {@link OccupancyGrid} at the move and throw heights with a
+ * resolution of {@value #DEFAULT_GRID_RESOLUTION} cells per unit, which can
+ * be changed with the {@value #GRID_RESOLUTION_PROP} property.  A resolution
+ * of zero disables the grid and answers queries from the
+ * {@link CollisionMesh} instead.  Setting the {@value #GRID_PARITY_PROP}
+ * property to {@code true} runs every query against both and logs a warning
+ * whenever their results disagree.
+ * <p>
+ * Robots find their way around obstacles with a {@link NavigationGraph}
+ * of waypoints {@value #DEFAULT_NAV_SPACING} units apart, which is built
+ * from the same collision geometry when the service is constructed.  The
+ * spacing can be changed with the {@value #NAV_SPACING_PROP} property, and
+ * a spacing of zero disables the graph.
  * 
  * @author Owen Kellett
  */
@@ -63,8 +95,59 @@ public class GameWorldServiceImpl implements GameWorldService {
     private static final Logger logger = 
             Logger.getLogger(GameWorldServiceImpl.class.getName());
     
-    /** Current game world **/
-    private Spatial gameWorld;
+    /**
+     * Name of the property used to define the number of collision grid
+     * cells per unit of distance
+     */
+    public static final String GRID_RESOLUTION_PROP = "collisionGridResolution";
+    /**
+     * Default number of collision grid cells per unit of distance
+     */
+    public static final int DEFAULT_GRID_RESOLUTION = 4;
+    /**
+     * Name of the property used to enable checking grid results against
+     * the exact collision mesh
+     */
+    public static final String GRID_PARITY_PROP = "collisionGridParity";
+    /**
+     * Distance within which grid results are considered to match the
+     * exact collision mesh
+     */
+    private static final float PARITY_TOLERANCE = 0.01f;
+    /**
+     * Name of the property used to define the distance between the
+     * waypoints of the navigation graph
+     */
+    public static final String NAV_SPACING_PROP = "navigationSpacing";
+    /**
+     * Default distance between the waypoints of the navigation graph
+     */
+    public static final int DEFAULT_NAV_SPACING = 2;
+    /**
+     * Name of the property used to define the directory that baked
+     * collision data is cached in
+     */
+    public static final String CACHE_DIR_PROP = "collisionCacheDir";
+    /**
+     * Name of the property holding the root directory of the application
+     */
+    private static final String APP_ROOT_PROP = "com.sun.sgs.app.root";
+    /**
+     * Default directory, relative to the application root, that baked
+     * collision data is cached in
+     */
+    private static final String DEFAULT_CACHE_DIR = "collision";
+    /**
+     * Extension of collision cache files
+     */
+    private static final String CACHE_EXTENSION = ".col";
+    
+    /** Collision geometry of the current game world **/
+    private final CollisionGeometry gameWorld;
+    /** Exact geometry to check results against, or null if disabled **/
+    private final CollisionMesh parityWorld;
+    /** Waypoints of the current game world, or null if disabled **/
+    private final NavigationGraph navigation;
 
     /**
      * Constructs a {@code GameWorldService} that is initialized to
@@ -77,16 +160,124 @@ public class GameWorldServiceImpl implements GameWorldService {
     public GameWorldServiceImpl(Properties properties,
                                 ComponentRegistry registry,
                                 TransactionProxy txnProxy) {
+        CollisionCache world = this.loadWorld(properties);
+        SnowmanMapInfo.setDimensions(world.getWidth(), world.getDepth());
+        CollisionMesh mesh = world.getMesh();
+        logger.log(Level.CONFIG, "Loaded {0} collision triangles",
+                   mesh.getTriangleCount());
+        
+        int resolution = getPropertyAsInteger(properties,
+                                              GRID_RESOLUTION_PROP,
+                                              DEFAULT_GRID_RESOLUTION);
+        if (resolution < 0) {
+            throw new IllegalArgumentException(GRID_RESOLUTION_PROP + 
+                                               " must be >= 0");
+        }
+        if (resolution == 0) {
+            this.gameWorld = mesh;
+            this.parityWorld = null;
+        } else {
+            OccupancyGrid grid = new OccupancyGrid(
+                    mesh,
+                    new float[]{EStats.SnowmanHeight.getValue() / 2.0f,
+                                EStats.SnowballHeight.getValue()},
+                    resolution);
+            logger.log(Level.CONFIG,
+                       "Baked collision grid of {0} cells at {1} cells per unit",
+                       new Object[]{grid.getCellCount(), resolution});
+            this.gameWorld = grid;
+            if (Boolean.valueOf(properties.getProperty(GRID_PARITY_PROP))) {
+                logger.log(Level.CONFIG,
+                           "Collision grid parity checking enabled");
+                this.parityWorld = mesh;
+            } else {
+                this.parityWorld = null;
+            }
+        }
+        
+        int spacing = getPropertyAsInteger(properties,
+                                           NAV_SPACING_PROP,
+                                           DEFAULT_NAV_SPACING);
+        if (spacing < 0) {
+            throw new IllegalArgumentException(NAV_SPACING_PROP + 
+                                               " must be >= 0");
+        }
+        if (spacing == 0) {
+            this.navigation = null;
+        } else {
+            this.navigation = new NavigationGraph(gameWorld,
+                                                  world.getWidth(),
+                                                  world.getDepth(),
+                                                  spacing);
+            logger.log(Level.CONFIG,
+                       "Built navigation graph of {0} waypoints with " +
+                       "{1} links", new Object[]{navigation.getNodeCount(),
+                                                 navigation.getLinkCount()});
+        }
+    }
+
+    /**
+     * Loads the collision data and dimensions of the game world.  If a
+     * cache directory is configured and it holds data baked from the
+     * current world file, the data is read from there.  Otherwise the world
+     * is loaded through the JME scene graph and the baked data is written
+     * to the cache directory for the next time.
+     * 
+     * @param properties application properties
+     * @return the collision data of the game world
+     */
+    private CollisionCache loadWorld(Properties properties) {
+        String dir = properties.getProperty(CACHE_DIR_PROP);
+        if (dir == null && properties.getProperty(APP_ROOT_PROP) != null) {
+            dir = properties.getProperty(APP_ROOT_PROP) + 
+                    File.separator + DEFAULT_CACHE_DIR;
+        }
+        
+        File cacheFile = null;
+        byte[] key = null;
+        if (dir != null) {
+            cacheFile = new File(dir, EWorld.Battle + CACHE_EXTENSION);
+            try {
+                key = CollisionCache.digest(SingletonRegistry.getDataImporter().
+                        getWorldLocation(EWorld.Battle));
+                CollisionCache cache = CollisionCache.load(cacheFile, key);
+                if (cache != null) {
+                    logger.log(Level.CONFIG, "Loaded collision cache {0}",
+                               cacheFile);
+                    return cache;
+                }
+            } catch (IOException ioe) {
+                logger.log(Level.WARNING, "Unable to read collision cache " +
+                           cacheFile, ioe);
+            }
+        }
+        
         //create dummy display system so that the JME importer doesn't complain
         DummySystemProvider provider = new DummySystemProvider();
 	DisplaySystem.setSystemProvider(provider);
         
-        this.gameWorld = 
+        Spatial world = 
                 SingletonRegistry.getDataImporter().getWorld(EWorld.Battle);
-        this.gameWorld.updateGeometricState(0, false);
-        SnowmanMapInfo.setDimensions(
-                gameWorld.getWorldBound().getCenter().getX() * 2.0f,
-                gameWorld.getWorldBound().getCenter().getZ() * 2.0f);
+        world.updateGeometricState(0, false);
+        
+        //the scene graph is not thread-safe, so it is only used to
+        //extract the static triangles that all queries are run against
+        CollisionCache cache = new CollisionCache(
+                world.getWorldBound().getCenter().getX() * 2.0f,
+                world.getWorldBound().getCenter().getZ() * 2.0f,
+                new CollisionMesh(world));
+        
+        if (key != null) {
+            try {
+                cache.save(cacheFile, key);
+                logger.log(Level.CONFIG, "Saved collision cache {0}",
+                           cacheFile);
+            } catch (IOException ioe) {
+                logger.log(Level.WARNING, "Unable to write collision cache " +
+                           cacheFile, ioe);
+            }
+        }
+        return cache;
     }
 
     /** {@inheritDoc} **/
@@ -107,23 +298,100 @@ public class GameWorldServiceImpl implements GameWorldService {
     /** {@inheritDoc} */
     public Coordinate trimPath(Coordinate start,
                                Coordinate end) {
-        Vector3f destination = SingletonRegistry.getCollisionManager().
-                getDestination(start.getX(), 
-                               start.getY(),
-                               end.getX(),
-                               end.getY(),
-                               gameWorld);
-        return new Coordinate(destination.getX(), destination.getZ());
-
+        float[] destination = new float[2];
+        this.trimPath(start.getX(), start.getY(),
+                      end.getX(), end.getY(),
+                      destination);
+        return new Coordinate(destination[0], destination[1]);
+    }
+    
+    /** {@inheritDoc} */
+    public void trimPath(float startX, float startY,
+                         float endX, float endY,
+                         float[] store) {
+        SingletonRegistry.getCollisionManager().getDestination(startX, 
+                                                               startY,
+                                                               endX,
+                                                               endY,
+                                                               gameWorld,
+                                                               store);
+        if (parityWorld != null) {
+            float[] exact = new float[2];
+            SingletonRegistry.getCollisionManager().getDestination(startX,
+                                                                   startY,
+                                                                   endX,
+                                                                   endY,
+                                                                   parityWorld,
+                                                                   exact);
+            float dx = exact[0] - store[0];
+            float dy = exact[1] - store[1];
+            if (dx * dx + dy * dy > PARITY_TOLERANCE * PARITY_TOLERANCE) {
+                logger.log(Level.WARNING,
+                           "Collision grid trimmed path from ({0}, {1}) " +
+                           "to ({2}, {3}) at ({4}, {5}) instead of ({6}, {7})",
+                           new Object[]{startX, startY, endX, endY,
+                                        store[0], store[1],
+                                        exact[0], exact[1]});
+            }
+        }
     }
     
     /** {@inheritDoc} */
     public boolean validThrow(Coordinate start,
                               Coordinate end) {
-        return SingletonRegistry.getCollisionManager().validate(start.getX(),
-                                                                start.getY(), 
-                                                                end.getX(), 
-                                                                end.getY(), 
-                                                                gameWorld);
+        return this.validThrow(start.getX(), start.getY(),
+                               end.getX(), end.getY());
+    }
+    
+    /** {@inheritDoc} */
+    public boolean validThrow(float startX, float startY,
+                              float endX, float endY) {
+        boolean valid = SingletonRegistry.getCollisionManager().
+                validate(startX, startY, endX, endY, gameWorld);
+        if (parityWorld != null) {
+            boolean exact = SingletonRegistry.getCollisionManager().
+                    validate(startX, startY, endX, endY, parityWorld);
+            if (valid != exact) {
+                logger.log(Level.WARNING,
+                           "Collision grid validated throw from ({0}, {1}) " +
+                           "to ({2}, {3}) as {4} instead of {5}",
+                           new Object[]{startX, startY, endX, endY,
+                                        valid, exact});
+            }
+        }
+        return valid;
+    }
+    
+    /** {@inheritDoc} */
+    public boolean getWaypoint(float startX, float startY,
+                               float endX, float endY,
+                               float[] store) {
+        if (navigation == null) {
+            return false;
+        }
+        return navigation.getWaypoint(startX, startY, endX, endY, store);
+    }
+    
+    /**
+     * Retrieves a property with the given key from the {@link Properties}
+     * object as an Integer value.  If the property does not exist, or it is
+     * an invalid number format, the {@code defaultValue} is returned instead.
+     * 
+     * @param props the {@code Properties} object
+     * @param key the key to get the property of
+     * @param defaultValue the default value if the property does not exist
+     * 
+     * @return the value of the property with the given key as an
+     *         {@code Integer} if it exists and is a valid number format,
+     *         otherwise, returns defaultValue
+     */
+    private static Integer getPropertyAsInteger(Properties props,
+                                                String key,
+                                                Integer defaultValue) {
+        try {
+            return Integer.valueOf(props.getProperty(key));
+        } catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
     }
 }
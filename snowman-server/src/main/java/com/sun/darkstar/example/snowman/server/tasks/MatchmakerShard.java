@@ -0,0 +1,363 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.server.tasks;
+
+import com.sun.darkstar.example.snowman.server.interfaces.SnowmanPlayer;
+import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
+import com.sun.darkstar.example.snowman.server.interfaces.GameFactory;
+import com.sun.darkstar.example.snowman.server.interfaces.EntityFactory;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.ObjectNotFoundException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The matchmaking state of one {@link MatchmakerTask}: the players it has
+ * taken off of its deque and not yet matched into a game.  It is kept
+ * apart from the task so that logins, which only read the task, do not
+ * conflict with matching.
+ * <p>
+ * Waiting players are kept in buckets by band of version latency, the
+ * time from their login to the arrival of their VERSION packet, and by
+ * band of rating, indexed directly from the bands.  Games are formed
+ * from players of the same bucket first.  As a player keeps waiting, it
+ * is matched with players of buckets further away, one band more every
+ * {@link #WIDENINTERVALMS}, until it matches anyone, so that the wait
+ * is bounded.  Players still waiting {@link #HANDOFFMS} after arriving in
+ * a matchmaker, once it has widened their search twice, are handed to its
+ * overflow matchmaker, if any, to meet the players waiting in the other
+ * matchmakers.  The overflow matchmakers form a binary tree, each taking
+ * the leftovers of at most two others, so that leftovers from every shard
+ * still meet at the root without all of them going through a single
+ * matchmaker.  The teams of a game are balanced by rating.
+ * <p>
+ * When the deque still holds players after a full batch has been taken
+ * off of it, and the peer matchmaker is idle, a further batch is handed
+ * to the peer to rebalance the shards.
+ * 
+ * @author Owen Kellett
+ */
+class MatchmakerShard implements ManagedObject, Serializable {
+    
+    /** The version of the serialized form. */
+    public static final long serialVersionUID = 1L;
+    
+    /** Maximum number of games started by each run */
+    static final int GAMES_PER_RUN = 4;
+    /** Time after which waiting players are matched one band further */
+    static final long WIDENINTERVALMS = 1000;
+    /** Time after arriving after which players go to the overflow */
+    static final long HANDOFFMS = 2 * WIDENINTERVALMS;
+    /** Upper version latencies, in milliseconds, of the latency bands */
+    static final int[] LATENCY_LIMITS = {50, 100, 200, 400};
+    /** Number of latency bands, the last one for unknown latencies too */
+    static final int LATENCY_BANDS = LATENCY_LIMITS.length + 1;
+    /** Rating at the bottom of the second rating band */
+    static final int RATING_BASE = 1100;
+    /** Width of a rating band */
+    static final int RATING_WIDTH = 100;
+    /** Number of rating bands */
+    static final int RATING_BANDS = 8;
+    private static final int MAX_RADIUS = 
+            Math.max(LATENCY_BANDS, RATING_BANDS) - 1;
+    private static final String NAME_PREFIX = "Game";
+    
+    private final int shard;
+    private int gameCount = 0;
+    private final int numPlayersPerGame;
+    private final int numRobotsPerGame;
+    private final int robotDelay;
+    
+    private final GameFactory gameFactory;
+    private final EntityFactory entityFactory;
+    private final ManagedReference<MatchmakerTask> overflow;
+    private ManagedReference<MatchmakerTask> peer = null;
+    
+    private final List<WaitingPlayer>[] buckets;
+    private int numWaiting = 0;
+    
+    @SuppressWarnings("unchecked")
+    MatchmakerShard(int shard,
+                    int numPlayersPerGame,
+                    int numRobotsPerGame,
+                    int robotDelay,
+                    GameFactory gameFactory,
+                    EntityFactory entityFactory,
+                    ManagedReference<MatchmakerTask> overflow) {
+        this.shard = shard;
+        this.numPlayersPerGame = numPlayersPerGame;
+        this.numRobotsPerGame = numRobotsPerGame;
+        this.robotDelay = robotDelay;
+        this.gameFactory = gameFactory;
+        this.entityFactory = entityFactory;
+        this.overflow = overflow;
+        this.buckets = new List[LATENCY_BANDS * RATING_BANDS];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayList<WaitingPlayer>();
+        }
+    }
+    
+    /**
+     * Sets the peer matchmaker to rebalance the backlog with.
+     * 
+     * @param peer the peer matchmaker
+     */
+    void setPeer(ManagedReference<MatchmakerTask> peer) {
+        this.peer = peer;
+    }
+    
+    /**
+     * Takes up to {@link #GAMES_PER_RUN} games worth of players off of
+     * the given deque and starts as many games as possible with the
+     * waiting players.
+     * 
+     * @param deque the deque to take players from
+     * @return 0 if more players may be waiting in the deque, the delay
+     *         until the waiting players should be matched again, or -1 if
+     *         no players are waiting
+     */
+    long match(Deque<WaitingPlayer> deque) {
+        int batch = GAMES_PER_RUN * numPlayersPerGame;
+        int polled = 0;
+        WaitingPlayer next;
+        while (polled < batch && (next = deque.poll()) != null) {
+            polled++;
+            if (locate(next)) {
+                buckets[bucket(next.latencyBand, next.ratingBand)].add(next);
+                numWaiting++;
+            }
+        }
+        
+        long now = System.currentTimeMillis();
+        boolean changed = true;
+        while (changed && numWaiting >= numPlayersPerGame) {
+            changed = false;
+            for (int i = 0; i < buckets.length && !changed; i++) {
+                if (!buckets[i].isEmpty()) {
+                    List<WaitingPlayer> players = gather(buckets[i].get(0), now);
+                    if (players != null) {
+                        startGame(players);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        
+        if (overflow != null && numWaiting > 0) {
+            handOff(now);
+        }
+        
+        if (polled == batch) {
+            if (peer != null) {
+                rebalance(deque, batch);
+            }
+            return 0;
+        }
+        return numWaiting > 0 ? WIDENINTERVALMS : -1;
+    }
+    
+    // Hand a batch of the backlog in the deque to the peer if it is idle
+    private void rebalance(Deque<WaitingPlayer> deque, int batch) {
+        MatchmakerTask idle = peer.get();
+        if (!idle.isIdle()) {
+            return;
+        }
+        WaitingPlayer next;
+        for (int i = 0; i < batch && (next = deque.poll()) != null; i++) {
+            idle.add(next);
+        }
+    }
+    
+    // Find the bands of a player, returning false if it has disconnected
+    private static boolean locate(WaitingPlayer waiting) {
+        if (waiting.latencyBand >= 0) {
+            return true;
+        }
+        SnowmanPlayer player;
+        try {
+            player = waiting.player.get();
+        } catch (ObjectNotFoundException disconnected) {
+            return false;
+        }
+        int latency = player.getVersionLatency();
+        int band = LATENCY_LIMITS.length;
+        if (latency >= 0) {
+            for (int i = 0; i < LATENCY_LIMITS.length; i++) {
+                if (latency < LATENCY_LIMITS[i]) {
+                    band = i;
+                    break;
+                }
+            }
+        }
+        waiting.latencyBand = band;
+        int rating = player.getRating();
+        waiting.ratingBand = rating < RATING_BASE ? 0 :
+                Math.min((rating - RATING_BASE) / RATING_WIDTH + 1,
+                         RATING_BANDS - 1);
+        return true;
+    }
+    
+    private static int bucket(int latencyBand, int ratingBand) {
+        return latencyBand * RATING_BANDS + ratingBand;
+    }
+    
+    // Gather the players of a game around the given one, as far as it may
+    // be matched, nearest buckets and longest waiting players first
+    private List<WaitingPlayer> gather(WaitingPlayer first, long now) {
+        int radius = Math.min((int) ((now - first.since) / WIDENINTERVALMS),
+                              MAX_RADIUS);
+        List<WaitingPlayer> players = 
+                new ArrayList<WaitingPlayer>(numPlayersPerGame);
+        for (int r = 0; r <= radius; r++) {
+            for (int l = first.latencyBand - r; l <= first.latencyBand + r; l++) {
+                for (int g = first.ratingBand - r; g <= first.ratingBand + r; g++) {
+                    if (l < 0 || l >= LATENCY_BANDS || 
+                        g < 0 || g >= RATING_BANDS ||
+                        Math.max(Math.abs(l - first.latencyBand),
+                                 Math.abs(g - first.ratingBand)) != r) {
+                        continue;
+                    }
+                    for (WaitingPlayer waiting : buckets[bucket(l, g)]) {
+                        players.add(waiting);
+                        if (players.size() == numPlayersPerGame) {
+                            return players;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+    
+    private void remove(WaitingPlayer waiting) {
+        buckets[bucket(waiting.latencyBand, waiting.ratingBand)].
+                remove(waiting);
+        numWaiting--;
+    }
+    
+    // Hand the players waiting here for longer than two widenings to the
+    // overflow
+    private void handOff(long now) {
+        MatchmakerTask collector = null;
+        for (List<WaitingPlayer> bucket : buckets) {
+            for (Iterator<WaitingPlayer> iw = bucket.iterator(); 
+                 iw.hasNext(); ) {
+                WaitingPlayer waiting = iw.next();
+                if (now - waiting.arrived >= HANDOFFMS) {
+                    if (collector == null) {
+                        collector = overflow.get();
+                    }
+                    iw.remove();
+                    numWaiting--;
+                    waiting.arrived = now;
+                    collector.add(waiting);
+                }
+            }
+        }
+    }
+    
+    private void startGame(List<WaitingPlayer> waitingPlayers) {
+        //remove players from waiting list if they have disconnected
+        boolean needMore = false;
+        final List<SnowmanPlayer> players = 
+                new ArrayList<SnowmanPlayer>(waitingPlayers.size());
+        final List<Integer> ratings = 
+                new ArrayList<Integer>(waitingPlayers.size());
+        for (WaitingPlayer waiting : waitingPlayers) {
+            try {
+                SnowmanPlayer player = waiting.player.get();
+                players.add(player);
+                ratings.add(player.getRating());
+            } catch (ObjectNotFoundException e) {
+                remove(waiting);
+                needMore = true;
+            }
+        }
+        if (needMore) {
+            return;
+        }
+        for (WaitingPlayer waiting : waitingPlayers) {
+            remove(waiting);
+        }
+        
+        //start the game if all waiting players are still connected
+        String gameName = NAME_PREFIX + shard + "-" + (gameCount++);
+        SnowmanGame game = 
+                gameFactory.createSnowmanGame(gameName,
+                                              numPlayersPerGame + 
+                                              numRobotsPerGame,
+                                              entityFactory);
+        
+        //deal the players to the teams from the highest rated down,
+        //alternating pairs so that the team ratings are balanced
+        List<Integer> order = new ArrayList<Integer>(players.size());
+        for (int i = 0; i < players.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return ratings.get(b).compareTo(ratings.get(a));
+            }
+        });
+        int[] teamSizes = new int[ETeamColor.values().length];
+        for (int i = 0; i < order.size(); i++) {
+            ETeamColor color = ETeamColor.values()[
+                    ((i + 1) / 2) % ETeamColor.values().length];
+            game.addPlayer(players.get(order.get(i)), color);
+            teamSizes[color.ordinal()]++;
+        }
+        for (int i = 0; i < numRobotsPerGame; i++) {
+            ETeamColor color = ETeamColor.values()[0];
+            for (ETeamColor c : ETeamColor.values()) {
+                if (teamSizes[c.ordinal()] < teamSizes[color.ordinal()]) {
+                    color = c;
+                }
+            }
+            game.addPlayer(entityFactory.createRobotPlayer(gameName + 
+                                                           "_robot" + i,
+                                                           robotDelay),
+                           color);
+            teamSizes[color.ordinal()]++;
+        }
+        game.sendMapInfo();
+    }
+}
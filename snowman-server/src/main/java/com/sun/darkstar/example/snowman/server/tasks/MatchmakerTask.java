@@ -35,154 +35,194 @@
 package com.sun.darkstar.example.snowman.server.tasks;
 
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanPlayer;
-import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
 import com.sun.darkstar.example.snowman.server.interfaces.GameFactory;
 import com.sun.darkstar.example.snowman.server.interfaces.EntityFactory;
-import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.darkstar.example.snowman.server.interfaces.Matchmaker;
 import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.DataManager;
 import com.sun.sgs.app.Task;
 import com.sun.sgs.app.ManagedReference;
 import com.sun.sgs.app.ObjectNotFoundException;
+import com.sun.sgs.app.util.ScalableDeque;
 import java.io.Serializable;
 import java.util.Deque;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.logging.Logger;
 
 /**
- * This task is a self re-scheduling task that polls the front of the
- * login deques and uses the players to start a new game.
+ * This task matches the players waiting in one login deque into new games.
+ * The server runs one of them per deque, so that matchmaking proceeds in
+ * parallel, each handing the players it leaves over to an overflow
+ * matchmaker among the others, so that players waiting in different
+ * deques are still matched together.  Players are matched by version
+ * latency and rating as described in {@link MatchmakerShard}.
  * 
- * During each execution of the task, each individual deque will be
- * polled at most once.  The polled players will be added to a local
- * list of waiting players.  If the local list fills up, a game
- * will be started, the local list will be emptied,
- * and the matchmaker will be rescheduled.
- * If local list does not fill up,
- * the task is rescheduled to fill it.
+ * The task is scheduled when a player is {@link #add added} to its deque
+ * while it is idle.  Each run takes a bounded batch of players off of
+ * the deque and starts as many games as it can, and the task reschedules
+ * itself immediately for as long as the deque may hold more.  Once it is
+ * drained, the task goes idle, with a timer to match the players still
+ * waiting again once they may be matched more widely.  Adding a player
+ * only reads the task, except to wake it up, so logins do not conflict
+ * with the matching, which updates a separate {@code MatchmakerShard}.
+ * When the deque has a backlog of more than a run and the peer matchmaker
+ * next to this one is idle, a batch of the backlog is handed to the peer,
+ * so that the matchmakers stay balanced even if logins favour one shard.
  * 
  * @author Owen Kellett
  */
-public class MatchmakerTask implements Task, Serializable {
+public class MatchmakerTask implements Task, Matchmaker, Serializable {
     
     /** The version of the serialized form. */
     public static final long serialVersionUID = 1L;
-    private static final Logger logger = 
-            Logger.getLogger(MatchmakerTask.class.getName());
     
-    private static final int POLLINGINTERVAL = 2 * 1000;
-    private static final String NAME_PREFIX = "Game";
-    
-    private int gameCount = 0;
-    private final int numPlayersPerGame;
-    private final int numRobotsPerGame;
-    private final int robotDelay;
-    
-    private GameFactory gameFactory;
-    private EntityFactory entityFactory;
-    
-    private List<ManagedReference<SnowmanPlayer>> waitingPlayers;
-    private ManagedReference<Deque<ManagedReference<SnowmanPlayer>>>[] 
-            waitingDeques;
+    private final ManagedReference<Deque<WaitingPlayer>> waitingDeque;
+    private final ManagedReference<MatchmakerShard> shard;
+    /** Whether the task is scheduled to run now */
+    private boolean scheduled = false;
+    /** Whether a widening timer is pending */
+    private boolean timerPending = false;
     
     /**
      * Constructs a {@code MatchmakerTask} with the given attributes
      * and components.
      * 
+     * @param index the index of the deque matched by this task, used to
+     *        name its games
      * @param numPlayersPerGame number of human players to include in a game
      * @param numRobotsPerGame number of server controlled robots per game
      * @param robotDelay configured delay between robot actions
      * @param gameFactory factory to create game objects
      * @param entityFactory factory to create in-game artifacts
-     * @param waitingDeques array of queues which contain connecting clients
+     * @param overflow the task that players left over by this one are
+     *        added to, or {@code null} if they wait for more players here
      */
-    public MatchmakerTask(int numPlayersPerGame,
+    public MatchmakerTask(int index,
+                          int numPlayersPerGame,
                           int numRobotsPerGame,
                           int robotDelay,
                           GameFactory gameFactory,
                           EntityFactory entityFactory,
-                          ManagedReference<Deque<ManagedReference<SnowmanPlayer>>>[] waitingDeques) {
-        this.numPlayersPerGame = numPlayersPerGame;
-        this.numRobotsPerGame = numRobotsPerGame;
-        this.robotDelay = robotDelay;
-        
-        this.gameFactory = gameFactory;
-        this.entityFactory = entityFactory;
-        
-        this.waitingPlayers = new ArrayList<ManagedReference<SnowmanPlayer>>();
-        this.waitingDeques = waitingDeques;
+                          MatchmakerTask overflow) {
+        DataManager dataManager = AppContext.getDataManager();
+        Deque<WaitingPlayer> deque = new ScalableDeque<WaitingPlayer>();
+        this.waitingDeque = dataManager.createReference(deque);
+        this.shard = dataManager.createReference(
+                new MatchmakerShard(index,
+                                    numPlayersPerGame,
+                                    numRobotsPerGame,
+                                    robotDelay,
+                                    gameFactory,
+                                    entityFactory,
+                                    overflow == null ? null :
+                                    dataManager.createReference(overflow)));
+    }
+    
+    /**
+     * Sets the peer matchmaker which is handed part of the backlog of this
+     * one when it is idle.
+     * 
+     * @param peer the peer matchmaker
+     */
+    public void setPeer(MatchmakerTask peer) {
+        shard.getForUpdate().setPeer(
+                AppContext.getDataManager().createReference(peer));
+    }
+    
+    /**
+     * Returns whether this task is neither scheduled nor running.
+     * 
+     * @return whether this task is idle
+     */
+    boolean isIdle() {
+        return !scheduled;
+    }
+    
+    /**
+     * Adds a player to the deque of this task, scheduling the task if it
+     * is idle.
+     * 
+     * @param player the player waiting for a game
+     */
+    public void add(ManagedReference<SnowmanPlayer> player) {
+        add(new WaitingPlayer(player, System.currentTimeMillis()));
+    }
+    
+    /**
+     * Adds a player that may have been waiting in another matchmaker.
+     * 
+     * @param waiting the waiting player
+     */
+    void add(WaitingPlayer waiting) {
+        waitingDeque.get().add(waiting);
+        if (!scheduled) {
+            AppContext.getDataManager().markForUpdate(this);
+            scheduled = true;
+            AppContext.getTaskManager().scheduleTask(this);
+        }
     }
 
     /** {@inheritDoc} */
     public void run() throws Exception {
-        boolean playersFound = false;
-        //cycle through the front of each queue, adding players to the waiting
-        //list as they are found
-        for (int i = 0; i < waitingDeques.length; i++) {
-            ManagedReference<SnowmanPlayer> nextPlayer = 
-                    waitingDeques[i].get().poll();
-            if (nextPlayer != null) {
-                playersFound = true;
-                waitingPlayers.add(nextPlayer);
-            }
-            if (waitingPlayers.size() == numPlayersPerGame) {
-                startGame();
-                break;
-            }
-        }
-        
-        // if no players are found in the queue during this iteration
-        // schedule a delay for the next polling cycle
-        // otherwise, schedule the next cycle to occur immediately
-        if (playersFound) {
+        long delay = shard.getForUpdate().match(waitingDeque.get());
+        if (delay == 0) {
             AppContext.getTaskManager().scheduleTask(this);
         } else {
-            AppContext.getTaskManager().scheduleTask(this, POLLINGINTERVAL);
+            AppContext.getDataManager().markForUpdate(this);
+            scheduled = false;
+            if (delay > 0) {
+                startTimer(delay);
+            }
         }
     }
     
-    private void startGame() {
-        //remove players from waiting list if they have disconnected
-        boolean needMore = false;
-        for (Iterator<ManagedReference<SnowmanPlayer>> ip =
-                waitingPlayers.iterator(); ip.hasNext(); ) {
-            try {
-                ip.next().get();
-            } catch (ObjectNotFoundException e) {
-                ip.remove();
-                needMore = true;
-            }
-        }
-        if (needMore) {
+    /**
+     * Matches the waiting players again after a widening delay, unless
+     * the task is already scheduled to run.
+     */
+    private void widen() {
+        AppContext.getDataManager().markForUpdate(this);
+        timerPending = false;
+        if (scheduled) {
             return;
         }
-        
-        //start the game if all waiting players are still connected
-        String gameName = NAME_PREFIX + (gameCount++);
-        SnowmanGame game = 
-                gameFactory.createSnowmanGame(gameName,
-                                              numPlayersPerGame + 
-                                              numRobotsPerGame,
-                                              entityFactory);
-        ETeamColor color = ETeamColor.values()[0];
-        for (Iterator<ManagedReference<SnowmanPlayer>> ip = 
-                waitingPlayers.iterator(); ip.hasNext(); ) {
-            game.addPlayer(ip.next().get(), color);
-            color = ETeamColor.values()[(color.ordinal() + 1) % 
-                    ETeamColor.values().length];
+        long delay = shard.getForUpdate().match(waitingDeque.get());
+        if (delay == 0) {
+            scheduled = true;
+            AppContext.getTaskManager().scheduleTask(this);
+        } else if (delay > 0) {
+            startTimer(delay);
         }
-        for (int i = 0; i < numRobotsPerGame; i++) {
-            game.addPlayer(entityFactory.createRobotPlayer(gameName + 
-                                                           "_robot" + i,
-                                                           robotDelay),
-                           color);
-            color = ETeamColor.values()[(color.ordinal() + 1) % 
-                    ETeamColor.values().length];
+    }
+    
+    private void startTimer(long delay) {
+        if (!timerPending) {
+            timerPending = true;
+            AppContext.getTaskManager().scheduleTask(
+                    new WidenTask(AppContext.getDataManager().
+                                  createReference(this)),
+                    delay);
+        }
+    }
+    
+    /**
+     * A private task which matches the players of a matchmaker again
+     * once they have waited long enough to be matched more widely.
+     */
+    private static class WidenTask implements Task, Serializable {
+        
+        /** The version of the serialized form. */
+        public static final long serialVersionUID = 1L;
+        final ManagedReference<MatchmakerTask> matchmakerRef;
+        
+        WidenTask(ManagedReference<MatchmakerTask> matchmakerRef) {
+            this.matchmakerRef = matchmakerRef;
         }
-        game.sendMapInfo();
         
-        //clear out the waiting list
-        waitingPlayers.clear();
+        /** {@inheritDoc} */
+        public void run() throws Exception {
+            try {
+                matchmakerRef.get().widen();
+            } catch (ObjectNotFoundException removed) {
+            }
+        }
     }
 }
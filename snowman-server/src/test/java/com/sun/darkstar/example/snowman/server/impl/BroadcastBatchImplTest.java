@@ -0,0 +1,214 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.Channel;
+import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.ManagedReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import net.java.dev.mocksgs.MockSGS;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import org.easymock.EasyMock;
+
+/**
+ * Test the BroadcastBatchImpl
+ */
+public class BroadcastBatchImplTest 
+{
+    private Channel gameChannel;
+    private BroadcastBatchImpl batch;
+
+    @Before
+    public void initializeContext()
+    {
+        //create the context
+        MockSGS.init();
+        
+        gameChannel = EasyMock.createMock(Channel.class);
+        ManagedReference<Channel> channelRef =
+                AppContext.getDataManager().createReference(gameChannel);
+        batch = new BroadcastBatchImpl(channelRef, 100);
+    }
+    
+    @After
+    public void takeDownContext()
+    {
+        MockSGS.reset();
+    }
+    
+    /**
+     * Verify that queued messages are sent together as one batch packet
+     * when the batch is flushed
+     */
+    @Test
+    public void flushBatchTest() {
+        ByteBuffer move = ServerMessages.createMoveMOBPkt(1, 1.0f, 2.0f, 3.0f, 4.0f);
+        ByteBuffer attacked = ServerMessages.createAttackedPkt(1, 2, 50);
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(move.array());
+        records.add(attacked.array());
+        
+        //record that a single batch packet is sent
+        EasyMock.expect(gameChannel.send(null, ServerMessages.createBatchPkt(records))).andReturn(gameChannel);
+        EasyMock.replay(gameChannel);
+        
+        batch.add(1, move);
+        batch.add(1, attacked);
+        batch.flush();
+        batch.flush();
+        
+        EasyMock.verify(gameChannel);
+    }
+    
+    /**
+     * Verify that a lone queued message is sent without a batch header
+     */
+    @Test
+    public void flushSingleTest() {
+        ByteBuffer move = ServerMessages.createMoveMOBPkt(1, 1.0f, 2.0f, 3.0f, 4.0f);
+        
+        //record that the message is sent as is
+        EasyMock.expect(gameChannel.send(null, move.duplicate())).andReturn(gameChannel);
+        EasyMock.replay(gameChannel);
+        
+        batch.add(1, move);
+        batch.flush();
+        
+        EasyMock.verify(gameChannel);
+    }
+    
+    /**
+     * Verify that queued messages are sent before a batch grows beyond
+     * its maximum size
+     */
+    @Test
+    public void overflowTest() {
+        ByteBuffer chat = ServerMessages.createChatPkt(1, new String(new char[1500]));
+        
+        //record that the first two messages are sent once the third arrives
+        EasyMock.expect(gameChannel.send((ClientSession) EasyMock.isNull(),
+                                         EasyMock.isA(ByteBuffer.class))).andReturn(gameChannel);
+        EasyMock.replay(gameChannel);
+        
+        for (int i = 0; i < 3; i++) {
+            batch.add(1, chat.duplicate());
+        }
+        
+        EasyMock.verify(gameChannel);
+    }
+    
+    /**
+     * Verify that the messages of different senders are sent together as
+     * one batch packet when the batch is flushed
+     */
+    @Test
+    public void flushSendersTest() {
+        ByteBuffer move = ServerMessages.createMoveMOBPkt(1, 1.0f, 2.0f, 3.0f, 4.0f);
+        ByteBuffer attacked = ServerMessages.createAttackedPkt(2, 1, 50);
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(move.array());
+        records.add(attacked.array());
+        
+        //record that a single batch packet is sent
+        EasyMock.expect(gameChannel.send(null, ServerMessages.createBatchPkt(records))).andReturn(gameChannel);
+        EasyMock.replay(gameChannel);
+        
+        batch.add(1, move);
+        batch.add(2, attacked);
+        batch.flush();
+        
+        EasyMock.verify(gameChannel);
+    }
+    
+    /**
+     * Verify that the messages of different senders are sent in the order
+     * they were queued rather than in the order of their outboxes
+     */
+    @Test
+    public void flushOrderTest() {
+        ByteBuffer attacked = ServerMessages.createAttackedPkt(2, 1, 50);
+        ByteBuffer move = ServerMessages.createMoveMOBPkt(1, 1.0f, 2.0f, 3.0f, 4.0f);
+        ByteBuffer stop = ServerMessages.createStopMOBPkt(2, 5.0f, 6.0f);
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(attacked.array());
+        records.add(move.array());
+        records.add(stop.array());
+        
+        //record that a single batch packet is sent in queued order
+        EasyMock.expect(gameChannel.send(null, ServerMessages.createBatchPkt(records))).andReturn(gameChannel);
+        EasyMock.replay(gameChannel);
+        
+        batch.add(2, attacked);
+        batch.add(1, move);
+        batch.add(2, stop);
+        batch.flush();
+        
+        EasyMock.verify(gameChannel);
+    }
+    
+    /**
+     * Verify that a batch switched to sessions sends its messages to each
+     * session of the channel rather than on the channel
+     */
+    @Test
+    public void sendToSessionsTest() {
+        ByteBuffer move = ServerMessages.createMoveMOBPkt(1, 1.0f, 2.0f, 3.0f, 4.0f);
+        List<ClientSession> sessions = new ArrayList<ClientSession>();
+        for (int i = 0; i < 2; i++) {
+            ClientSession session = EasyMock.createMock(ClientSession.class);
+            EasyMock.expect(session.send(move.duplicate())).andReturn(session);
+            EasyMock.replay(session);
+            sessions.add(session);
+        }
+        
+        //record that the channel is only asked for its sessions
+        EasyMock.expect(gameChannel.getSessions()).andReturn(sessions.iterator());
+        EasyMock.replay(gameChannel);
+        
+        batch.sendToSessions();
+        batch.add(1, move);
+        batch.flush();
+        
+        EasyMock.verify(gameChannel);
+        for (ClientSession session : sessions) {
+            EasyMock.verify(session);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+/**
+ * Test the GameOptions
+ */
+public class GameOptionsTest 
+{
+    /**
+     * Verify that each option is changed on a copy, leaving the options
+     * it was copied from as they were
+     */
+    @Test
+    public void withOptionsTest() {
+        GameOptions options = GameOptions.DEFAULT.
+                withBatchInterval(50).
+                withTickInterval(100).
+                withInterestRadius(20).
+                withCompact(true);
+        
+        Assert.assertEquals(50, options.getBatchInterval());
+        Assert.assertEquals(100, options.getTickInterval());
+        Assert.assertEquals(20, options.getInterestRadius());
+        Assert.assertTrue(options.isCompact());
+        
+        Assert.assertEquals(0, GameOptions.DEFAULT.getBatchInterval());
+        Assert.assertEquals(0, GameOptions.DEFAULT.getTickInterval());
+        Assert.assertEquals(0, GameOptions.DEFAULT.getInterestRadius());
+        Assert.assertFalse(GameOptions.DEFAULT.isCompact());
+    }
+    
+    /**
+     * Verify that a negative interval is rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void negativeTickIntervalTest() {
+        GameOptions.DEFAULT.withTickInterval(-1);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import com.sun.darkstar.example.snowman.server.interfaces.BroadcastBatch;
+import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TaskManager;
+import com.sun.sgs.internal.InternalContext;
+import net.java.dev.mocksgs.MockSGS;
+import net.java.dev.mocksgs.MockManagerLocator;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+
+/**
+ * Test the GameTickImpl
+ */
+public class GameTickImplTest 
+{
+    private TaskManager taskManager;
+    private SnowmanGame game;
+    private BroadcastBatch batch;
+    private GameTickImpl tick;
+
+    @Before
+    public void initializeContext()
+    {
+        //create the context
+        MockSGS.init();
+        taskManager = EasyMock.createMock(TaskManager.class);
+        ((MockManagerLocator)InternalContext.getManagerLocator()).setTaskManager(taskManager);
+        
+        game = EasyMock.createNiceMock(SnowmanGame.class);
+        EasyMock.replay(game);
+        ManagedReference<SnowmanGame> gameRef =
+                AppContext.getDataManager().createReference(game);
+        batch = EasyMock.createMock(BroadcastBatch.class);
+        ManagedReference<BroadcastBatch> batchRef =
+                AppContext.getDataManager().createReference(batch);
+        tick = new GameTickImpl(gameRef, batchRef, 100);
+    }
+    
+    @After
+    public void takeDownContext()
+    {
+        MockSGS.reset();
+    }
+    
+    /**
+     * Verify that a tick runs the tasks that are due, flushes the batch
+     * and reschedules itself
+     */
+    @Test
+    public void runDueTasksTest() throws Exception {
+        Task due = EasyMock.createMock(Task.class);
+        due.run();
+        EasyMock.replay(due);
+        Task later = EasyMock.createMock(Task.class);
+        EasyMock.replay(later);
+        batch.flush();
+        EasyMock.replay(batch);
+        taskManager.scheduleTask(tick, 100);
+        EasyMock.replay(taskManager);
+        
+        tick.schedule(due, 0);
+        tick.schedule(later, 60 * 1000);
+        tick.run();
+        
+        EasyMock.verify(due);
+        EasyMock.verify(later);
+        EasyMock.verify(batch);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that a task is run only once
+     */
+    @Test
+    public void runTaskOnceTest() throws Exception {
+        Task due = EasyMock.createMock(Task.class);
+        due.run();
+        EasyMock.replay(due);
+        batch.flush();
+        EasyMock.expectLastCall().times(2);
+        EasyMock.replay(batch);
+        taskManager.scheduleTask(tick, 100);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.replay(taskManager);
+        
+        tick.schedule(due, 0);
+        tick.run();
+        tick.run();
+        
+        EasyMock.verify(due);
+        EasyMock.verify(batch);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that a failing task is dropped without stopping the other
+     * tasks or the rescheduling of the tick
+     */
+    @Test
+    public void failingTaskTest() throws Exception {
+        Task failing = EasyMock.createMock(Task.class);
+        failing.run();
+        EasyMock.expectLastCall().andThrow(new IllegalStateException());
+        EasyMock.replay(failing);
+        Task due = EasyMock.createMock(Task.class);
+        due.run();
+        EasyMock.replay(due);
+        batch.flush();
+        EasyMock.replay(batch);
+        taskManager.scheduleTask(tick, 100);
+        EasyMock.replay(taskManager);
+        
+        tick.schedule(failing, 0);
+        tick.schedule(due, 0);
+        tick.run();
+        
+        EasyMock.verify(failing);
+        EasyMock.verify(due);
+        EasyMock.verify(batch);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that a tick flushes the batch before the game sends its
+     * snapshot, so that the events of the tick arrive first
+     */
+    @Test
+    public void flushBeforeSnapshotTest() throws Exception {
+        IMocksControl control = EasyMock.createStrictControl();
+        SnowmanGame orderedGame = control.createMock(SnowmanGame.class);
+        BroadcastBatch orderedBatch = control.createMock(BroadcastBatch.class);
+        orderedBatch.flush();
+        orderedGame.sendSnapshot();
+        control.replay();
+        GameTickImpl orderedTick = new GameTickImpl(
+                AppContext.getDataManager().createReference(orderedGame),
+                AppContext.getDataManager().createReference(orderedBatch),
+                100);
+        taskManager.scheduleTask(orderedTick, 100);
+        EasyMock.replay(taskManager);
+        
+        orderedTick.run();
+        
+        control.verify();
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that a closed tick drops its pending tasks and stops
+     */
+    @Test
+    public void closeTest() throws Exception {
+        Task due = EasyMock.createMock(Task.class);
+        EasyMock.replay(due);
+        EasyMock.replay(batch);
+        EasyMock.replay(taskManager);
+        
+        tick.schedule(due, 0);
+        tick.close();
+        tick.run();
+        
+        EasyMock.verify(due);
+        EasyMock.verify(batch);
+        EasyMock.verify(taskManager);
+    }
+}
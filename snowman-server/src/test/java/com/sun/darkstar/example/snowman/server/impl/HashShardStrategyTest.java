@@ -0,0 +1,72 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+/**
+ * Test the HashShardStrategy
+ */
+public class HashShardStrategyTest 
+{
+    private final HashShardStrategy strategy = new HashShardStrategy();
+    
+    /**
+     * Verify that a player is always given the same shard, in range
+     */
+    @Test
+    public void shardInRange() {
+        for (int i = 0; i < 1000; i++) {
+            String name = "player" + i;
+            int shard = strategy.getShard(name, 7);
+            Assert.assertTrue(shard >= 0 && shard < 7);
+            Assert.assertEquals(shard, strategy.getShard(name, 7));
+        }
+    }
+    
+    /**
+     * Verify that players numbered in sequence are spread evenly
+     */
+    @Test
+    public void sequentialNamesSpread() {
+        int[] counts = new int[10];
+        for (int i = 0; i < 10000; i++) {
+            counts[strategy.getShard("host_0_Sim" + i, counts.length)]++;
+        }
+        for (int count : counts) {
+            Assert.assertTrue(count > 800 && count < 1200);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.Assert;
+
+/**
+ * Test the IdMap
+ */
+public class IdMapTest 
+{
+    /**
+     * Verify that values are found by id and removed
+     */
+    @Test
+    public void putGetRemoveTest() {
+        IdMap<String> map = new IdMap<String>();
+        Assert.assertNull(map.put(1, "one"));
+        Assert.assertNull(map.put(2, "two"));
+        Assert.assertEquals("one", map.put(1, "uno"));
+        
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("uno", map.get(1));
+        Assert.assertEquals("two", map.get(2));
+        Assert.assertNull(map.get(3));
+        Assert.assertNull(map.get("1"));
+        
+        Assert.assertEquals("uno", map.remove(1));
+        Assert.assertNull(map.remove(1));
+        Assert.assertEquals(1, map.size());
+        Assert.assertFalse(map.containsKey(1));
+        Assert.assertTrue(map.containsKey(2));
+    }
+    
+    /**
+     * Verify that ids far from the first one, both below and above it,
+     * are kept
+     */
+    @Test
+    public void growTest() {
+        IdMap<String> map = new IdMap<String>();
+        map.put(100, "hundred");
+        map.put(3, "three");
+        map.put(150, "hundred fifty");
+        
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals("three", map.get(3));
+        Assert.assertEquals("hundred", map.get(100));
+        Assert.assertEquals("hundred fifty", map.get(150));
+    }
+    
+    /**
+     * Verify that entries are iterated in order of id and can be removed
+     * while iterating
+     */
+    @Test
+    public void iterateTest() {
+        IdMap<String> map = new IdMap<String>();
+        map.put(3, "three");
+        map.put(1, "one");
+        map.put(2, "two");
+        
+        Iterator<Map.Entry<Integer, String>> entries =
+                map.entrySet().iterator();
+        Map.Entry<Integer, String> entry = entries.next();
+        Assert.assertEquals(Integer.valueOf(1), entry.getKey());
+        Assert.assertEquals("one", entry.getValue());
+        entries.remove();
+        Assert.assertEquals(Integer.valueOf(2), entries.next().getKey());
+        Assert.assertEquals(Integer.valueOf(3), entries.next().getKey());
+        Assert.assertFalse(entries.hasNext());
+        
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(2, map.keySet().size());
+        Assert.assertTrue(map.values().contains("three"));
+    }
+    
+    /**
+     * Verify that null values are rejected
+     */
+    @Test(expected=NullPointerException.class)
+    public void putNullTest() {
+        new IdMap<String>().put(1, null);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.server.impl;
+
+import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
+import com.sun.sgs.app.Channel;
+import com.sun.sgs.app.ChannelManager;
+import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.internal.InternalContext;
+import java.nio.ByteBuffer;
+import net.java.dev.mocksgs.MockSGS;
+import net.java.dev.mocksgs.MockManagerLocator;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Assert;
+import org.easymock.EasyMock;
+
+/**
+ * Test the InterestGridImpl
+ */
+public class InterestGridImplTest 
+{
+    private String gameName = "GAME";
+    private Channel[] cells = new Channel[9];
+    private InterestGridImpl grid;
+
+    @Before
+    public void initializeContext()
+    {
+        //create the context
+        MockSGS.init();
+
+        //a 96 by 96 map in cells of 32 is a grid of 3 by 3 channels
+        ChannelManager channelManager = EasyMock.createMock(ChannelManager.class);
+        ((MockManagerLocator)InternalContext.getManagerLocator()).setChannelManager(channelManager);
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = EasyMock.createMock(Channel.class);
+            EasyMock.expect(channelManager.createChannel(InterestGridImpl.CHANPREFIX+gameName+"_"+i, null, Delivery.RELIABLE)).andStubReturn(cells[i]);
+        }
+        EasyMock.replay(channelManager);
+        grid = new InterestGridImpl(gameName, 96.0f, 96.0f, 32.0f);
+    }
+    
+    @After
+    public void takeDownContext()
+    {
+        MockSGS.reset();
+    }
+    
+    /**
+     * Verify that positions map to the cells covering them, and positions
+     * outside of the map to the cells at its edge
+     */
+    @Test
+    public void getCellTest() {
+        Assert.assertEquals(0, grid.getCell(0.0f, 0.0f));
+        Assert.assertEquals(2, grid.getCell(95.0f, 0.0f));
+        Assert.assertEquals(4, grid.getCell(50.0f, 50.0f));
+        Assert.assertEquals(6, grid.getCell(0.0f, 95.0f));
+        Assert.assertEquals(6, grid.getCell(-5.0f, 200.0f));
+        Assert.assertEquals(32.0f, grid.getCellSize(), 0);
+    }
+    
+    /**
+     * Verify that a position is visible from the cells within the radius
+     * of it only
+     */
+    @Test
+    public void isVisibleTest() {
+        Assert.assertTrue(grid.isVisible(0, 10.0f, 10.0f));
+        Assert.assertTrue(grid.isVisible(4, 10.0f, 10.0f));
+        Assert.assertFalse(grid.isVisible(2, 10.0f, 10.0f));
+        Assert.assertFalse(grid.isVisible(8, 10.0f, 10.0f));
+    }
+    
+    /**
+     * Verify that a session leaves the channel of its previous cell and
+     * joins the channel of its new one
+     */
+    @Test
+    public void moveTest() {
+        ClientSession session = EasyMock.createNiceMock(ClientSession.class);
+        EasyMock.expect(cells[4].join(session)).andReturn(cells[4]);
+        EasyMock.expect(cells[4].leave(session)).andReturn(cells[4]);
+        EasyMock.expect(cells[5].join(session)).andReturn(cells[5]);
+        EasyMock.replay((Object[]) cells);
+        
+        grid.move(session, -1, 4);
+        grid.move(session, 4, 4);
+        grid.move(session, 4, 5);
+        
+        EasyMock.verify((Object[]) cells);
+    }
+    
+    /**
+     * Verify that a message is sent on the channels of the cells that can
+     * see the position only
+     */
+    @Test
+    public void sendTest() {
+        ByteBuffer stop = ServerMessages.createStopMOBPkt(1, 10.0f, 10.0f);
+        for (int i : new int[] {0, 1, 3, 4}) {
+            EasyMock.expect(cells[i].send(null, stop.duplicate())).andReturn(cells[i]);
+        }
+        EasyMock.replay((Object[]) cells);
+        
+        grid.send(10.0f, 10.0f, 10.0f, 10.0f, stop);
+        
+        EasyMock.verify((Object[]) cells);
+    }
+    
+    /**
+     * Verify that a message about a path is sent on the channels of the
+     * cells that can see some part of it
+     */
+    @Test
+    public void sendPathTest() {
+        ByteBuffer move = ServerMessages.createMoveMOBPkt(1, 10.0f, 10.0f, 80.0f, 10.0f);
+        for (int i : new int[] {0, 1, 2, 3, 4, 5}) {
+            EasyMock.expect(cells[i].send(null, move.duplicate())).andReturn(cells[i]);
+        }
+        EasyMock.replay((Object[]) cells);
+        
+        grid.send(10.0f, 10.0f, 80.0f, 10.0f, move);
+        
+        EasyMock.verify((Object[]) cells);
+    }
+}
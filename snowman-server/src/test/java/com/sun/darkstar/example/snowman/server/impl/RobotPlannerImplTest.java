@@ -0,0 +1,138 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.sun.darkstar.example.snowman.server.impl;
+
+import com.sun.darkstar.example.snowman.server.interfaces.Robot;
+import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TaskManager;
+import com.sun.sgs.internal.InternalContext;
+import java.util.HashSet;
+import java.util.Set;
+import net.java.dev.mocksgs.MockSGS;
+import net.java.dev.mocksgs.MockManagerLocator;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import org.easymock.EasyMock;
+
+/**
+ * Test the RobotPlannerImpl
+ */
+public class RobotPlannerImplTest 
+{
+    private TaskManager taskManager;
+    private SnowmanGame game;
+    private ManagedReference<SnowmanGame> gameRef;
+
+    @Before
+    public void initializeContext()
+    {
+        //create the context
+        MockSGS.init();
+        taskManager = EasyMock.createMock(TaskManager.class);
+        ((MockManagerLocator)InternalContext.getManagerLocator()).setTaskManager(taskManager);
+        
+        game = EasyMock.createMock(SnowmanGame.class);
+        gameRef = AppContext.getDataManager().createReference(game);
+    }
+    
+    @After
+    public void takeDownContext()
+    {
+        MockSGS.reset();
+    }
+    
+    /**
+     * Verify that a planner schedules its first pass only once started
+     */
+    @Test
+    public void startTest() throws Exception {
+        EasyMock.replay(taskManager);
+        RobotPlannerImpl planner = new RobotPlannerImpl(gameRef, null, 100);
+        EasyMock.verify(taskManager);
+        
+        EasyMock.reset(taskManager);
+        taskManager.scheduleTask(EasyMock.isA(Task.class),
+                                 EasyMock.eq(100L));
+        EasyMock.replay(taskManager);
+        planner.start();
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that a pass takes one snapshot of the positions, lets every
+     * robot act on it and schedules the next pass
+     */
+    @Test
+    public void planTest() throws Exception {
+        Set<Integer> ids = new HashSet<Integer>();
+        ids.add(1);
+        ids.add(2);
+        EasyMock.expect(game.getPlayerIds()).andReturn(ids);
+        EasyMock.expect(game.getExpectedPositions(EasyMock.anyLong(),
+                                                  EasyMock.isA(int[].class),
+                                                  EasyMock.isA(float[].class))).andReturn(2);
+        EasyMock.replay(game);
+        
+        Robot first = EasyMock.createMock(Robot.class);
+        first.plan(EasyMock.anyLong(),
+                   EasyMock.isA(int[].class),
+                   EasyMock.isA(float[].class),
+                   EasyMock.eq(2));
+        EasyMock.replay(first);
+        Robot second = EasyMock.createMock(Robot.class);
+        second.plan(EasyMock.anyLong(),
+                    EasyMock.isA(int[].class),
+                    EasyMock.isA(float[].class),
+                    EasyMock.eq(2));
+        EasyMock.replay(second);
+        
+        taskManager.scheduleTask(EasyMock.isA(Task.class),
+                                 EasyMock.eq(100L));
+        EasyMock.replay(taskManager);
+        
+        RobotPlannerImpl planner = new RobotPlannerImpl(gameRef, null, 100);
+        planner.addRobot(first);
+        planner.addRobot(second);
+        planner.plan();
+        
+        EasyMock.verify(game);
+        EasyMock.verify(first);
+        EasyMock.verify(second);
+        EasyMock.verify(taskManager);
+    }
+}
@@ -39,19 +39,26 @@ import com.sun.darkstar.example.snowman.server.interfaces.SnowmanFlag;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanPlayer;
 import com.sun.darkstar.example.snowman.server.interfaces.EntityFactory;
 import com.sun.darkstar.example.snowman.server.exceptions.SnowmanFullException;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.EMOBType;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import com.sun.darkstar.example.snowman.common.util.Coordinate;
 import com.sun.sgs.app.Channel;
 import com.sun.sgs.app.ChannelManager;
 import com.sun.sgs.app.Delivery;
 import com.sun.sgs.app.ClientSession;
+import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TaskManager;
 import com.sun.sgs.internal.InternalContext;
 import net.java.dev.mocksgs.MockSGS;
 import net.java.dev.mocksgs.MockManagerLocator;
 import org.junit.Test;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.After;
 import org.easymock.EasyMock;
+import java.nio.ByteBuffer;
 
 /**
  *
@@ -225,5 +232,166 @@ public class SnowmanGameImplTest
         game.addPlayer(dummyPlayer3, color);
     }
     
+    /**
+     * Verify that a game holding its players compactly finds the players
+     * added to it by id
+     */
+    @Test
+    public void compactGetPlayerTest() {
+        //setup dummy entityfactory
+        EntityFactory dummyEntityFactory = EasyMock.createMock(EntityFactory.class);
+        SnowmanFlag dummyFlag = EasyMock.createNiceMock(SnowmanFlag.class);
+        EasyMock.expect(dummyFlag.getID()).andStubReturn(new Integer(0));
+        EasyMock.replay(dummyFlag);
+        EasyMock.expect(dummyEntityFactory.createSnowmanFlag(EasyMock.isA(SnowmanGame.class),
+                                                             EasyMock.isA(ETeamColor.class),
+                                                             EasyMock.isA(Coordinate.class),
+                                                             EasyMock.isA(Coordinate.class))).andStubReturn(dummyFlag);
+        EasyMock.replay(dummyEntityFactory);
+        
+        //create the players
+        SnowmanPlayer dummyPlayer = EasyMock.createNiceMock(SnowmanPlayer.class);
+        EasyMock.replay(dummyPlayer);
+        SnowmanPlayer dummyPlayer2 = EasyMock.createNiceMock(SnowmanPlayer.class);
+        EasyMock.replay(dummyPlayer2);
+        
+        //create the game
+        SnowmanGame game = new SnowmanGameImpl(
+                gameName, 4, dummyEntityFactory,
+                GameOptions.DEFAULT.withCompact(true));
+        
+        //add the players
+        game.addPlayer(dummyPlayer, ETeamColor.Red);
+        game.addPlayer(dummyPlayer2, ETeamColor.Blue);
+        
+        Assert.assertSame(dummyPlayer, game.getPlayer(1));
+        Assert.assertSame(dummyPlayer2, game.getPlayer(2));
+        Assert.assertNull(game.getPlayer(3));
+        Assert.assertEquals(2, game.getPlayerIds().size());
+        Assert.assertSame(dummyFlag, game.getFlag(0));
+    }
+    
+    /**
+     * Verify that a game whose players only announced the standard format
+     * sends them each AddMOB packet on its own rather than in a batch
+     * packet, which they cannot decode
+     */
+    @Test
+    public void sendMapInfoStandardTest() {
+        //setup dummy entityfactory
+        EntityFactory dummyEntityFactory = EasyMock.createMock(EntityFactory.class);
+        SnowmanFlag dummyFlag = EasyMock.createNiceMock(SnowmanFlag.class);
+        EasyMock.expect(dummyFlag.getID()).andStubReturn(new Integer(0));
+        EasyMock.expect(dummyFlag.getTeamColor()).andStubReturn(ETeamColor.Red);
+        EasyMock.replay(dummyFlag);
+        EasyMock.expect(dummyEntityFactory.createSnowmanFlag(EasyMock.isA(SnowmanGame.class),
+                                                             EasyMock.isA(ETeamColor.class),
+                                                             EasyMock.isA(Coordinate.class),
+                                                             EasyMock.isA(Coordinate.class))).andStubReturn(dummyFlag);
+        EasyMock.replay(dummyEntityFactory);
+        TaskManager taskManager = EasyMock.createNiceMock(TaskManager.class);
+        ((MockManagerLocator)InternalContext.getManagerLocator()).setTaskManager(taskManager);
+        EasyMock.replay(taskManager);
+        
+        //create the player
+        ClientSession session = EasyMock.createNiceMock(ClientSession.class);
+        EasyMock.replay(session);
+        SnowmanPlayer dummyPlayer = EasyMock.createMock(SnowmanPlayer.class);
+        dummyPlayer.setID(1);
+        dummyPlayer.setLocation(EasyMock.anyFloat(), EasyMock.anyFloat());
+        dummyPlayer.setTeamColor(ETeamColor.Red);
+        dummyPlayer.setGame(EasyMock.isA(SnowmanGame.class));
+        EasyMock.expect(dummyPlayer.getSession()).andStubReturn(session);
+        EasyMock.expect(dummyPlayer.getProtocolVersion()).andStubReturn(WireFormat.STANDARD_VERSION);
+        EasyMock.expect(dummyPlayer.getID()).andStubReturn(1);
+        EasyMock.expect(dummyPlayer.getX()).andStubReturn(0.0f);
+        EasyMock.expect(dummyPlayer.getY()).andStubReturn(0.0f);
+        EasyMock.expect(dummyPlayer.getTeamColor()).andStubReturn(ETeamColor.Red);
+        EasyMock.expect(dummyPlayer.getName()).andStubReturn("name");
+        EasyMock.expect(dummyPlayer.isServerSide()).andStubReturn(false);
+        
+        //record the packets the player should be sent, one by one
+        dummyPlayer.send(ServerMessages.createNewGamePkt(1, "default_map"));
+        dummyPlayer.send(ServerMessages.createAddMOBPkt(1, 0.0f, 0.0f, EMOBType.SNOWMAN, ETeamColor.Red, "name"));
+        dummyPlayer.send(ServerMessages.createAddMOBPkt(0, 0.0f, 0.0f, EMOBType.FLAG, ETeamColor.Red, "RedFlag"));
+        dummyPlayer.send(ServerMessages.createAddMOBPkt(1, 0.0f, 0.0f, EMOBType.FLAGGOAL, ETeamColor.Blue, "Goal"));
+        dummyPlayer.send(ServerMessages.createReadyPkt());
+        EasyMock.replay(dummyPlayer);
+        
+        SnowmanGame game = new SnowmanGameImpl(gameName, 4, dummyEntityFactory);
+        game.addPlayer(dummyPlayer, ETeamColor.Red);
+        game.sendMapInfo();
+        
+        EasyMock.verify(dummyPlayer);
+    }
+    
+    /**
+     * Create a game holding a single client connected player that is
+     * ready to play or not
+     */
+    private SnowmanGame createGameWithPlayer(boolean ready) {
+        EntityFactory dummyEntityFactory = EasyMock.createMock(EntityFactory.class);
+        SnowmanFlag dummyFlag = EasyMock.createNiceMock(SnowmanFlag.class);
+        EasyMock.expect(dummyFlag.getID()).andStubReturn(new Integer(0));
+        EasyMock.replay(dummyFlag);
+        EasyMock.expect(dummyEntityFactory.createSnowmanFlag(EasyMock.isA(SnowmanGame.class),
+                                                             EasyMock.isA(ETeamColor.class),
+                                                             EasyMock.isA(Coordinate.class),
+                                                             EasyMock.isA(Coordinate.class))).andStubReturn(dummyFlag);
+        EasyMock.replay(dummyEntityFactory);
+        
+        SnowmanPlayer dummyPlayer = EasyMock.createNiceMock(SnowmanPlayer.class);
+        EasyMock.expect(dummyPlayer.isServerSide()).andStubReturn(false);
+        EasyMock.expect(dummyPlayer.getReadyToPlay()).andStubReturn(ready);
+        EasyMock.replay(dummyPlayer);
+        
+        SnowmanGame game = new SnowmanGameImpl(gameName, 4, dummyEntityFactory);
+        game.addPlayer(dummyPlayer, ETeamColor.Red);
+        return game;
+    }
+    
+    /**
+     * Verify that the game does not start while a player is not ready,
+     * and checks again later
+     */
+    @Test
+    public void startGameNotReadyTest() {
+        SnowmanGame game = createGameWithPlayer(false);
+        
+        TaskManager taskManager = EasyMock.createMock(TaskManager.class);
+        ((MockManagerLocator)InternalContext.getManagerLocator()).setTaskManager(taskManager);
+        taskManager.scheduleTask(EasyMock.isA(Task.class), EasyMock.anyLong());
+        EasyMock.replay(taskManager);
+        EasyMock.resetToDefault(gameChannel);
+        EasyMock.replay(gameChannel);
+        
+        game.startGameIfReady();
+        
+        EasyMock.verify(taskManager);
+        EasyMock.verify(gameChannel);
+    }
+    
+    /**
+     * Verify that the game starts once every player is ready, and only
+     * once
+     */
+    @Test
+    public void startGameReadyTest() {
+        SnowmanGame game = createGameWithPlayer(true);
+        
+        TaskManager taskManager = EasyMock.createMock(TaskManager.class);
+        ((MockManagerLocator)InternalContext.getManagerLocator()).setTaskManager(taskManager);
+        EasyMock.replay(taskManager);
+        EasyMock.resetToDefault(gameChannel);
+        EasyMock.expect(gameChannel.send((ClientSession) EasyMock.isNull(),
+                                         EasyMock.isA(ByteBuffer.class))).andReturn(gameChannel);
+        EasyMock.replay(gameChannel);
+        
+        game.startGameIfReady();
+        game.startGameIfReady();
+        
+        EasyMock.verify(taskManager);
+        EasyMock.verify(gameChannel);
+    }
     
 }
@@ -34,10 +34,12 @@
 
 package com.sun.darkstar.example.snowman.server.impl;
 
+import com.sun.darkstar.example.snowman.server.interfaces.BroadcastBatch;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
 import com.sun.darkstar.example.snowman.server.interfaces.SnowmanFlag;
 import com.sun.darkstar.example.snowman.server.service.GameWorldManager;
 import com.sun.darkstar.example.snowman.common.protocol.messages.ServerMessages;
+import com.sun.darkstar.example.snowman.common.protocol.messages.WireFormat;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
 import com.sun.darkstar.example.snowman.common.protocol.enumn.EEndState;
 import com.sun.darkstar.example.snowman.common.physics.enumn.EForce;
@@ -48,6 +50,8 @@ import com.sun.sgs.app.AppContext;
 import com.sun.sgs.app.Channel;
 import com.sun.sgs.app.ClientSession;
 import com.sun.sgs.internal.InternalContext;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import net.java.dev.mocksgs.MockSGS;
 import net.java.dev.mocksgs.MockManagerLocator;
 import org.junit.Test;
@@ -55,6 +59,7 @@ import org.junit.Before;
 import org.junit.After;
 import org.junit.Assert;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import java.lang.reflect.Field;
 
 /**
@@ -135,8 +140,7 @@ public class SnowmanPlayerImplTest
         Coordinate newStart = new Coordinate(newX, newY);
         Coordinate destination = new Coordinate(destX, destY);
         EasyMock.resetToDefault(gameWorldManager);
-        EasyMock.expect(gameWorldManager.trimPath(newStart,
-                                                  destination)).andStubReturn(destination);
+        this.expectTrimPath(newStart, destination, destination);
         EasyMock.replay(gameWorldManager);
         
         //record timestamp for later verification
@@ -249,8 +253,7 @@ public class SnowmanPlayerImplTest
         Coordinate newStart = new Coordinate(newX, newY);
         Coordinate destination = new Coordinate(destX, destY);
         EasyMock.resetToDefault(gameWorldManager);
-        EasyMock.expect(gameWorldManager.trimPath(newStart,
-                                                  destination)).andStubReturn(destination);
+        this.expectTrimPath(newStart, destination, destination);
         EasyMock.replay(gameWorldManager);
         
         //setup expected broadcast messages to the game
@@ -449,8 +452,7 @@ public class SnowmanPlayerImplTest
         Coordinate newStart = new Coordinate(newX, newY);
         Coordinate destination = new Coordinate(destX, destY);
         EasyMock.resetToDefault(gameWorldManager);
-        EasyMock.expect(gameWorldManager.trimPath(newStart,
-                                                  destination)).andStubReturn(destination);
+        this.expectTrimPath(newStart, destination, destination);
         EasyMock.replay(gameWorldManager);
         
         //setup expected broadcast messages to the game
@@ -501,8 +503,7 @@ public class SnowmanPlayerImplTest
         Coordinate newStart = new Coordinate(expX, expY);
         Coordinate destination = new Coordinate(destX, destY);
         EasyMock.resetToDefault(gameWorldManager);
-        EasyMock.expect(gameWorldManager.trimPath(newStart,
-                                                  destination)).andStubReturn(destination);
+        this.expectTrimPath(newStart, destination, destination);
         EasyMock.replay(gameWorldManager);
         
         //setup expected broadcast messages to the game
@@ -552,8 +553,7 @@ public class SnowmanPlayerImplTest
         Coordinate destination = new Coordinate(destX, destY);
         Coordinate collision = new Coordinate(collX, collY);
         EasyMock.resetToDefault(gameWorldManager);
-        EasyMock.expect(gameWorldManager.trimPath(newStart,
-                                                  destination)).andStubReturn(collision);
+        this.expectTrimPath(newStart, destination, collision);
         EasyMock.replay(gameWorldManager);
         
         //record timestamp for later verification
@@ -618,8 +618,7 @@ public class SnowmanPlayerImplTest
         Coordinate attackerPosition = new Coordinate(newX, newY);
         Coordinate attackeePosition = new Coordinate(attackeeX, attackeeY);
         EasyMock.resetToDefault(gameWorldManager);
-        EasyMock.expect(gameWorldManager.validThrow(attackerPosition,
-                                                    attackeePosition)).andStubReturn(true);
+        this.expectValidThrow(attackerPosition, attackeePosition, true);
         EasyMock.replay(gameWorldManager);
         
         //setup expected broadcast messages to the game and behavior of game
@@ -692,8 +691,7 @@ public class SnowmanPlayerImplTest
         Coordinate attackerPosition = new Coordinate(newX, newY);
         Coordinate attackeePosition = new Coordinate(attackeeX, attackeeY);
         EasyMock.resetToDefault(gameWorldManager);
-        EasyMock.expect(gameWorldManager.validThrow(attackerPosition,
-                                                    attackeePosition)).andStubReturn(true);
+        this.expectValidThrow(attackerPosition, attackeePosition, true);
         EasyMock.replay(gameWorldManager);
         
         //setup expected broadcast messages to the game and behavior of game
@@ -755,8 +753,7 @@ public class SnowmanPlayerImplTest
         Coordinate attackerPosition = new Coordinate(newX, newY);
         Coordinate attackeePosition = new Coordinate(attackeeX, attackeeY);
         EasyMock.resetToDefault(gameWorldManager);
-        EasyMock.expect(gameWorldManager.validThrow(attackerPosition,
-                                                    attackeePosition)).andStubReturn(false);
+        this.expectValidThrow(attackerPosition, attackeePosition, false);
         EasyMock.replay(gameWorldManager);
         
         //setup expected broadcast messages to the game and behavior of game
@@ -899,6 +896,169 @@ public class SnowmanPlayerImplTest
     }
     
     
+    /**
+     * Verify that the expected position of a moving player is along the
+     * path to its destination, at the distance its speed covers
+     */
+    @Test
+    public void testExpectedPositionMoving()
+            throws Exception
+    {
+        int hp = 100;
+        testPlayer.setReadyToPlay(true);
+        testPlayer.setLocation(0.0f, 0.0f);
+        this.setup(testPlayer, SnowmanPlayerImpl.PlayerState.MOVING, 1000, 300.0f, 400.0f, hp);
+        
+        float ratePerMs = (EForce.Movement.getMagnitude() / HPConverter.getInstance().convertMass(hp)) * 0.00001f;
+        float distanceTraveled = ratePerMs * 1000;
+        float[] position = new float[2];
+        testPlayer.getExpectedPositionAtTime(2000, position);
+        Assert.assertEquals(distanceTraveled * 0.6f, position[0], 0.0001f);
+        Assert.assertEquals(distanceTraveled * 0.8f, position[1], 0.0001f);
+        
+        Coordinate coordinate = testPlayer.getExpectedPositionAtTime(2000);
+        Assert.assertEquals(position[0], coordinate.getX(), 0);
+        Assert.assertEquals(position[1], coordinate.getY(), 0);
+    }
+    
+    /**
+     * Verify that the expected position of a moving player does not go
+     * beyond its destination
+     */
+    @Test
+    public void testExpectedPositionArrived()
+            throws Exception
+    {
+        testPlayer.setReadyToPlay(true);
+        testPlayer.setLocation(0.0f, 0.0f);
+        this.setup(testPlayer, SnowmanPlayerImpl.PlayerState.MOVING, 1000, 3.0f, -4.0f, 100);
+        
+        float[] position = new float[2];
+        testPlayer.getExpectedPositionAtTime(1000 * 1000, position);
+        Assert.assertEquals(3.0f, position[0], 0);
+        Assert.assertEquals(-4.0f, position[1], 0);
+    }
+    
+    /**
+     * Verify that the first acknowledged snapshot is recorded, and later
+     * ones only once they are far enough ahead of it
+     */
+    @Test
+    public void testSnapshotAck()
+            throws Exception
+    {
+        testPlayer.snapshotAck(3);
+        Assert.assertEquals(3, testPlayer.getSnapshotAck());
+        
+        testPlayer.snapshotAck(3 + SnowmanPlayerImpl.SNAPSHOTACKSTEP - 1);
+        Assert.assertEquals(3, testPlayer.getSnapshotAck());
+        
+        testPlayer.snapshotAck(3 + SnowmanPlayerImpl.SNAPSHOTACKSTEP);
+        Assert.assertEquals(3 + SnowmanPlayerImpl.SNAPSHOTACKSTEP,
+                            testPlayer.getSnapshotAck());
+    }
+    
+    /**
+     * Verify that computing the expected position of a moving player
+     * does not modify it, so that other players only read it
+     */
+    @Test
+    public void testExpectedPositionDoesNotModify()
+            throws Exception
+    {
+        testPlayer.setReadyToPlay(true);
+        testPlayer.setLocation(0.0f, 0.0f);
+        this.setup(testPlayer, SnowmanPlayerImpl.PlayerState.MOVING, 1000, 3.0f, -4.0f, 100);
+        
+        float[] position = new float[2];
+        testPlayer.getExpectedPositionAtTime(2000, position);
+        
+        Field field = SnowmanPlayerImpl.class.getDeclaredField("pathCached");
+        field.setAccessible(true);
+        Assert.assertFalse(field.getBoolean(testPlayer));
+    }
+    
+    /**
+     * Verify that a player of a batching game sends on the channel while
+     * the game still speaks the standard protocol
+     */
+    @Test
+    public void testChatStandardNotBatched()
+            throws Exception
+    {
+        Channel channel = EasyMock.createMock(Channel.class);
+        EasyMock.expect(channel.send((ClientSession) EasyMock.isNull(),
+                                     EasyMock.isA(ByteBuffer.class))).andReturn(channel);
+        EasyMock.replay(channel);
+        BroadcastBatch batch = EasyMock.createMock(BroadcastBatch.class);
+        EasyMock.replay(batch);
+        this.setBatchingGame(channel, batch);
+        
+        testPlayer.chatMessage("hello");
+        
+        EasyMock.verify(channel);
+        EasyMock.verify(batch);
+    }
+    
+    /**
+     * Verify that a player of a batching game queues its messages on the
+     * batch once the game speaks the compact protocol
+     */
+    @Test
+    public void testChatCompactBatched()
+            throws Exception
+    {
+        Channel channel = EasyMock.createMock(Channel.class);
+        EasyMock.replay(channel);
+        BroadcastBatch batch = EasyMock.createMock(BroadcastBatch.class);
+        batch.add(EasyMock.eq(testPlayerId), EasyMock.isA(ByteBuffer.class));
+        EasyMock.replay(batch);
+        this.setBatchingGame(channel, batch);
+        testPlayer.setWireFormat(WireFormat.compact(100.0f, 100.0f));
+        
+        testPlayer.chatMessage("hello");
+        
+        EasyMock.verify(channel);
+        EasyMock.verify(batch);
+    }
+    
+    /**
+     * Verify that a player of a game that sends snapshots and does not
+     * batch sends its messages to each session of the channel, so that
+     * they keep their order with the snapshots
+     */
+    @Test
+    public void testChatSnapshotsToSessions()
+            throws Exception
+    {
+        ClientSession other = EasyMock.createMock(ClientSession.class);
+        EasyMock.expect(other.send(EasyMock.isA(ByteBuffer.class))).andReturn(other);
+        EasyMock.replay(other);
+        Channel channel = EasyMock.createMock(Channel.class);
+        EasyMock.expect(channel.getSessions()).andReturn(
+                Collections.singleton(other).iterator());
+        EasyMock.replay(channel);
+        this.setBatchingGame(channel, null);
+        testPlayer.setWireFormat(WireFormat.compact(100.0f, 100.0f));
+        testPlayer.setSnapshots(true);
+        
+        testPlayer.chatMessage("hello");
+        
+        EasyMock.verify(channel);
+        EasyMock.verify(other);
+    }
+    
+    /**
+     * Move the test player to a game with the given channel and batch
+     */
+    private void setBatchingGame(Channel channel, BroadcastBatch batch) {
+        SnowmanGame game = EasyMock.createNiceMock(SnowmanGame.class);
+        EasyMock.expect(game.getGameChannel()).andStubReturn(channel);
+        EasyMock.expect(game.getBroadcastBatch()).andStubReturn(batch);
+        EasyMock.replay(game);
+        testPlayer.setGame(game);
+    }
+    
     /**
      * Setup the dummy currentGame to return a SnowmanPlayer with the given
      * id intended to be used as the attackee in the attack tests
@@ -913,6 +1073,41 @@ public class SnowmanPlayerImplTest
         attackee.setTeamColor(attackeeColor);
     }
     
+    /**
+     * Configure the game world manager to write the given result
+     * when asked to trim the path between the given coordinates
+     */
+    private void expectTrimPath(Coordinate start, Coordinate end,
+                                final Coordinate result)
+    {
+        gameWorldManager.trimPath(EasyMock.eq(start.getX()),
+                                  EasyMock.eq(start.getY()),
+                                  EasyMock.eq(end.getX()),
+                                  EasyMock.eq(end.getY()),
+                                  EasyMock.isA(float[].class));
+        EasyMock.expectLastCall().andStubAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                float[] store = (float[]) EasyMock.getCurrentArguments()[4];
+                store[0] = result.getX();
+                store[1] = result.getY();
+                return null;
+            }
+        });
+    }
+    
+    /**
+     * Configure the game world manager to return the given result
+     * when asked to validate a throw between the given coordinates
+     */
+    private void expectValidThrow(Coordinate start, Coordinate end,
+                                  boolean result)
+    {
+        EasyMock.expect(gameWorldManager.validThrow(start.getX(),
+                                                    start.getY(),
+                                                    end.getX(),
+                                                    end.getY())).andStubReturn(result);
+    }
+    
     /**
      * Setup the player to be in the stopped position at the given timestamp
      */
@@ -36,6 +36,9 @@ package com.sun.darkstar.example.snowman.server.service;
 
 import com.sun.darkstar.example.snowman.common.util.SingletonRegistry;
 import com.sun.darkstar.example.snowman.common.util.CollisionManager;
+import com.sun.darkstar.example.snowman.common.util.CollisionGeometry;
+import com.sun.darkstar.example.snowman.common.util.CollisionMesh;
+import com.sun.darkstar.example.snowman.common.util.OccupancyGrid;
 import com.sun.darkstar.example.snowman.common.util.DataImporter;
 import com.sun.darkstar.example.snowman.common.util.enumn.EWorld;
 import com.sun.darkstar.example.snowman.common.util.Coordinate;
@@ -45,12 +48,14 @@ import com.jme.scene.Spatial;
 import com.jme.scene.shape.Box;
 import com.jme.bounding.BoundingBox;
 import com.jme.system.DisplaySystem;
-import com.jme.math.Vector3f;
 import org.junit.Test;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.After;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.Properties;
 
 /**
@@ -95,10 +100,34 @@ public class GameWorldServiceImplTest
         SingletonRegistry.setCollisionManager(mockCollisionManager);
     }
     
+    /**
+     * Configure the mock CollisionManager to write the given destination
+     * into the store passed to it when queried with the given coordinates
+     */
+    private void expectDestination(float startx, float starty,
+                                   float endx, float endy,
+                                   final float realEndx, final float realEndy) {
+        mockCollisionManager.getDestination(EasyMock.eq(startx),
+                                            EasyMock.eq(starty),
+                                            EasyMock.eq(endx),
+                                            EasyMock.eq(endy),
+                                            EasyMock.isA(CollisionGeometry.class),
+                                            EasyMock.isA(float[].class));
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                float[] store = (float[]) EasyMock.getCurrentArguments()[5];
+                store[0] = realEndx;
+                store[1] = realEndy;
+                return null;
+            }
+        });
+        EasyMock.replay(mockCollisionManager);
+    }
+    
     /**
      * Verify that the trimPath method returns a Coordinate with the
-     * the X and Z coordinates of the resulting Vector3f from the
-     * CollisionManager
+     * the X and Z coordinates of the destination calculated by the
+     * CollisionManager when queried against the collision mesh
      */
     @Test
     public void testTrimPath() throws Exception {
@@ -109,11 +138,9 @@ public class GameWorldServiceImplTest
         float endy = 11.0f;
         float realEndx = 5.0f;
         float realEndy = 6.0f;
-        Vector3f dummyDestination = new Vector3f(realEndx, 100.0f, realEndy);
         
         //prepare the mock CollisionManager
-        EasyMock.expect(mockCollisionManager.getDestination(startx, starty, endx, endy, dummyWorld)).andReturn(dummyDestination);
-        EasyMock.replay(mockCollisionManager);
+        this.expectDestination(startx, starty, endx, endy, realEndx, realEndy);
         
         //create the GameWorldService with the mock environment
         GameWorldServiceImpl service = new GameWorldServiceImpl(new Properties(),
@@ -128,6 +155,36 @@ public class GameWorldServiceImplTest
         Assert.assertEquals(realDestination.getY(), realEndy, 0);
     }
     
+    /**
+     * Verify that the primitive trimPath method writes the destination
+     * calculated by the CollisionManager into the given store
+     */
+    @Test
+    public void testTrimPathStore() throws Exception {
+        //prepare test data
+        float startx = 1.0f;
+        float starty = 2.0f;
+        float endx = 10.0f;
+        float endy = 11.0f;
+        float realEndx = 5.0f;
+        float realEndy = 6.0f;
+        
+        //prepare the mock CollisionManager
+        this.expectDestination(startx, starty, endx, endy, realEndx, realEndy);
+        
+        //create the GameWorldService with the mock environment
+        GameWorldServiceImpl service = new GameWorldServiceImpl(new Properties(),
+                                                                mockRegistry,
+                                                                mockTxnProxy);
+        
+        //call the service
+        float[] store = new float[2];
+        service.trimPath(startx, starty, endx, endy, store);
+        
+        Assert.assertEquals(store[0], realEndx, 0);
+        Assert.assertEquals(store[1], realEndy, 0);
+    }
+    
     /**
      * Verify that the validThrow method returns true
      * when there is no collision returned by the
@@ -143,7 +200,11 @@ public class GameWorldServiceImplTest
         float endy = 11.0f;
 
         //prepare the mock CollisionManager
-        EasyMock.expect(mockCollisionManager.validate(startx, starty, endx, endy, dummyWorld)).andReturn(true);
+        EasyMock.expect(mockCollisionManager.validate(EasyMock.eq(startx),
+                                                         EasyMock.eq(starty),
+                                                         EasyMock.eq(endx),
+                                                         EasyMock.eq(endy),
+                                                         EasyMock.isA(CollisionGeometry.class))).andReturn(true);
         EasyMock.replay(mockCollisionManager);
         
         //create the GameWorldService with the mock environment
@@ -173,7 +234,11 @@ public class GameWorldServiceImplTest
         float endy = 11.0f;
 
         //prepare the mock CollisionManager
-        EasyMock.expect(mockCollisionManager.validate(startx, starty, endx, endy, dummyWorld)).andReturn(false);
+        EasyMock.expect(mockCollisionManager.validate(EasyMock.eq(startx),
+                                                         EasyMock.eq(starty),
+                                                         EasyMock.eq(endx),
+                                                         EasyMock.eq(endy),
+                                                         EasyMock.isA(CollisionGeometry.class))).andReturn(false);
         EasyMock.replay(mockCollisionManager);
         
         //create the GameWorldService with the mock environment
@@ -188,6 +253,168 @@ public class GameWorldServiceImplTest
         Assert.assertFalse(valid);
     }
     
+    /**
+     * Verify that queries are run against the occupancy grid by default
+     */
+    @Test
+    public void testGridEnabled()
+    {
+        //prepare the mock CollisionManager
+        EasyMock.expect(mockCollisionManager.validate(EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.isA(OccupancyGrid.class))).andReturn(true);
+        EasyMock.replay(mockCollisionManager);
+        
+        //create the GameWorldService with the mock environment
+        GameWorldServiceImpl service = new GameWorldServiceImpl(new Properties(),
+                                                                mockRegistry,
+                                                                mockTxnProxy);
+        
+        Assert.assertTrue(service.validThrow(1.0f, 2.0f, 10.0f, 11.0f));
+        EasyMock.verify(mockCollisionManager);
+    }
+    
+    /**
+     * Verify that queries are run against the collision mesh when
+     * the grid resolution is set to zero
+     */
+    @Test
+    public void testGridDisabled()
+    {
+        //prepare the mock CollisionManager
+        EasyMock.expect(mockCollisionManager.validate(EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.isA(CollisionMesh.class))).andReturn(true);
+        EasyMock.replay(mockCollisionManager);
+        
+        //create the GameWorldService with the grid disabled
+        Properties properties = new Properties();
+        properties.setProperty(GameWorldServiceImpl.GRID_RESOLUTION_PROP, "0");
+        GameWorldServiceImpl service = new GameWorldServiceImpl(properties,
+                                                                mockRegistry,
+                                                                mockTxnProxy);
+        
+        Assert.assertTrue(service.validThrow(1.0f, 2.0f, 10.0f, 11.0f));
+        EasyMock.verify(mockCollisionManager);
+    }
+    
+    /**
+     * Verify that a negative grid resolution is rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testGridNegativeResolution()
+    {
+        Properties properties = new Properties();
+        properties.setProperty(GameWorldServiceImpl.GRID_RESOLUTION_PROP, "-1");
+        new GameWorldServiceImpl(properties, mockRegistry, mockTxnProxy);
+    }
+    
+    /**
+     * Verify that no waypoint is found when navigation is disabled
+     */
+    @Test
+    public void testNavigationDisabled()
+    {
+        EasyMock.replay(mockCollisionManager);
+        
+        Properties properties = new Properties();
+        properties.setProperty(GameWorldServiceImpl.NAV_SPACING_PROP, "0");
+        GameWorldServiceImpl service = new GameWorldServiceImpl(properties,
+                                                                mockRegistry,
+                                                                mockTxnProxy);
+        
+        Assert.assertFalse(service.getWaypoint(1.0f, 2.0f, 10.0f, 11.0f,
+                                               new float[2]));
+        EasyMock.verify(mockCollisionManager);
+    }
+    
+    /**
+     * Verify that a negative navigation spacing is rejected
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testNavigationNegativeSpacing()
+    {
+        Properties properties = new Properties();
+        properties.setProperty(GameWorldServiceImpl.NAV_SPACING_PROP, "-1");
+        new GameWorldServiceImpl(properties, mockRegistry, mockTxnProxy);
+    }
+    
+    /**
+     * Verify that in parity mode queries are run against both the grid
+     * and the collision mesh, and the grid result is returned
+     */
+    @Test
+    public void testGridParity()
+    {
+        //prepare the mock CollisionManager to disagree
+        EasyMock.expect(mockCollisionManager.validate(EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.isA(OccupancyGrid.class))).andReturn(true);
+        EasyMock.expect(mockCollisionManager.validate(EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.anyFloat(),
+                                                      EasyMock.isA(CollisionMesh.class))).andReturn(false);
+        EasyMock.replay(mockCollisionManager);
+        
+        //create the GameWorldService with parity checking enabled
+        Properties properties = new Properties();
+        properties.setProperty(GameWorldServiceImpl.GRID_PARITY_PROP, "true");
+        GameWorldServiceImpl service = new GameWorldServiceImpl(properties,
+                                                                mockRegistry,
+                                                                mockTxnProxy);
+        
+        Assert.assertTrue(service.validThrow(1.0f, 2.0f, 10.0f, 11.0f));
+        EasyMock.verify(mockCollisionManager);
+    }
+    
+    /**
+     * Verify that the collision data is written to the cache directory
+     * when it is first loaded, and read back from there without loading
+     * the world through JME when the world file has not changed
+     */
+    @Test
+    public void testCollisionCache() throws Exception
+    {
+        //prepare a world file and an empty cache directory
+        File worldFile = File.createTempFile("world", ".wld");
+        worldFile.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(worldFile);
+        out.write(new byte[]{1, 2, 3, 4});
+        out.close();
+        File cacheDir = File.createTempFile("collision", "");
+        cacheDir.delete();
+        Properties properties = new Properties();
+        properties.setProperty(GameWorldServiceImpl.CACHE_DIR_PROP,
+                               cacheDir.getPath());
+        
+        //the first load goes through JME and writes the cache
+        EasyMock.resetToDefault(mockDataImporter);
+        EasyMock.expect(mockDataImporter.getWorldLocation(EWorld.Battle)).andReturn(worldFile.toURI().toURL());
+        EasyMock.expect(mockDataImporter.getWorld(EWorld.Battle)).andReturn(dummyWorld);
+        EasyMock.replay(mockDataImporter);
+        new GameWorldServiceImpl(properties, mockRegistry, mockTxnProxy);
+        EasyMock.verify(mockDataImporter);
+        File[] cached = cacheDir.listFiles();
+        Assert.assertEquals(1, cached.length);
+        
+        //the second load only reads the cache
+        EasyMock.resetToDefault(mockDataImporter);
+        EasyMock.expect(mockDataImporter.getWorldLocation(EWorld.Battle)).andReturn(worldFile.toURI().toURL());
+        EasyMock.replay(mockDataImporter);
+        new GameWorldServiceImpl(properties, mockRegistry, mockTxnProxy);
+        EasyMock.verify(mockDataImporter);
+        
+        cached[0].delete();
+        cacheDir.delete();
+    }
+    
     
     @After 
     public void cleanupMocks() {
@@ -0,0 +1,363 @@
+/*
+ *
+ * Copyright (c) 2007-2010, Oracle and/or its affiliates.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Sun Microsystems, Inc. nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package com.sun.darkstar.example.snowman.server.tasks;
+
+import com.sun.darkstar.example.snowman.server.interfaces.SnowmanGame;
+import com.sun.darkstar.example.snowman.server.interfaces.SnowmanPlayer;
+import com.sun.darkstar.example.snowman.server.interfaces.EntityFactory;
+import com.sun.darkstar.example.snowman.server.interfaces.GameFactory;
+import com.sun.darkstar.example.snowman.common.protocol.enumn.ETeamColor;
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TaskManager;
+import com.sun.sgs.internal.InternalContext;
+import net.java.dev.mocksgs.MockSGS;
+import net.java.dev.mocksgs.MockManagerLocator;
+import org.junit.Test;
+import org.junit.Before;
+import org.junit.After;
+import org.easymock.EasyMock;
+
+/**
+ * Test the MatchmakerTask
+ */
+public class MatchmakerTaskTest 
+{
+    private TaskManager taskManager;
+    private GameFactory gameFactory;
+    private EntityFactory entityFactory;
+
+    @Before
+    public void initializeContext()
+    {
+        MockSGS.init();
+        taskManager = EasyMock.createMock(TaskManager.class);
+        ((MockManagerLocator)InternalContext.getManagerLocator()).setTaskManager(taskManager);
+        gameFactory = EasyMock.createMock(GameFactory.class);
+        entityFactory = EasyMock.createNiceMock(EntityFactory.class);
+        EasyMock.replay(entityFactory);
+    }
+    
+    @After
+    public void takeDownContext()
+    {
+        MockSGS.reset();
+    }
+    
+    private ManagedReference<SnowmanPlayer> createPlayer() {
+        SnowmanPlayer player = EasyMock.createNiceMock(SnowmanPlayer.class);
+        EasyMock.replay(player);
+        return AppContext.getDataManager().createReference(player);
+    }
+    
+    private ManagedReference<SnowmanPlayer> createPlayer(int rating) {
+        SnowmanPlayer player = EasyMock.createNiceMock(SnowmanPlayer.class);
+        EasyMock.expect(player.getRating()).andStubReturn(rating);
+        EasyMock.expect(player.getVersionLatency()).andStubReturn(20);
+        EasyMock.replay(player);
+        return AppContext.getDataManager().createReference(player);
+    }
+    
+    private WaitingPlayer waiting(ManagedReference<SnowmanPlayer> player,
+                                  long waited) {
+        return new WaitingPlayer(player, System.currentTimeMillis() - waited);
+    }
+    
+    /**
+     * Verify that an idle matchmaker is scheduled once when players
+     * are added to it
+     */
+    @Test
+    public void addSchedulesOnce() {
+        MatchmakerTask task = new MatchmakerTask(0, 2, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 null);
+        taskManager.scheduleTask(task);
+        EasyMock.replay(taskManager);
+        
+        task.add(createPlayer());
+        task.add(createPlayer());
+        task.add(createPlayer());
+        
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that a run starts a game with the waiting players, and
+     * that the drained matchmaker is woken up again by the next player
+     */
+    @Test
+    public void runStartsGame() throws Exception {
+        MatchmakerTask task = new MatchmakerTask(0, 2, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 null);
+        ManagedReference<SnowmanPlayer> player1 = createPlayer();
+        ManagedReference<SnowmanPlayer> player2 = createPlayer();
+        
+        SnowmanGame game = EasyMock.createMock(SnowmanGame.class);
+        game.addPlayer(player1.get(), ETeamColor.Red);
+        game.addPlayer(player2.get(), ETeamColor.Blue);
+        game.sendMapInfo();
+        EasyMock.replay(game);
+        EasyMock.expect(gameFactory.createSnowmanGame("Game0-0", 2,
+                                                      entityFactory)).andReturn(game);
+        EasyMock.replay(gameFactory);
+        taskManager.scheduleTask(task);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.replay(taskManager);
+        
+        task.add(player1);
+        task.add(player2);
+        task.run();
+        task.add(createPlayer());
+        
+        EasyMock.verify(game);
+        EasyMock.verify(gameFactory);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that a full batch of players reschedules the matchmaker
+     * immediately since more players may be waiting
+     */
+    @Test
+    public void runReschedulesFullBatch() throws Exception {
+        MatchmakerTask task = new MatchmakerTask(0, 1, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 null);
+        SnowmanGame game = EasyMock.createNiceMock(SnowmanGame.class);
+        EasyMock.replay(game);
+        EasyMock.expect(gameFactory.createSnowmanGame(EasyMock.isA(String.class),
+                                                      EasyMock.eq(1),
+                                                      EasyMock.same(entityFactory))).andReturn(game).times(MatchmakerShard.GAMES_PER_RUN);
+        EasyMock.replay(gameFactory);
+        taskManager.scheduleTask(task);
+        EasyMock.expectLastCall().times(2);
+        EasyMock.replay(taskManager);
+        
+        for (int i = 0; i <= MatchmakerShard.GAMES_PER_RUN; i++) {
+            task.add(createPlayer());
+        }
+        task.run();
+        
+        EasyMock.verify(gameFactory);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that a backlog beyond a full batch is handed to an idle peer
+     */
+    @Test
+    public void runRebalancesToIdlePeer() throws Exception {
+        MatchmakerTask peer = new MatchmakerTask(1, 1, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 null);
+        MatchmakerTask task = new MatchmakerTask(0, 1, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 null);
+        task.setPeer(peer);
+        SnowmanGame game = EasyMock.createNiceMock(SnowmanGame.class);
+        EasyMock.replay(game);
+        EasyMock.expect(gameFactory.createSnowmanGame(EasyMock.isA(String.class),
+                                                      EasyMock.eq(1),
+                                                      EasyMock.same(entityFactory))).andReturn(game).times(MatchmakerShard.GAMES_PER_RUN);
+        EasyMock.replay(gameFactory);
+        taskManager.scheduleTask(task);
+        EasyMock.expectLastCall().times(2);
+        taskManager.scheduleTask(peer);
+        EasyMock.replay(taskManager);
+        
+        for (int i = 0; i < MatchmakerShard.GAMES_PER_RUN + 2; i++) {
+            task.add(createPlayer());
+        }
+        task.run();
+        
+        EasyMock.verify(gameFactory);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that a player left waiting starts a timer to match it again
+     * more widely
+     */
+    @Test
+    public void runWaitsToWiden() throws Exception {
+        MatchmakerTask task = new MatchmakerTask(0, 2, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 null);
+        EasyMock.replay(gameFactory);
+        taskManager.scheduleTask(task);
+        taskManager.scheduleTask(EasyMock.isA(Task.class), 
+                                 EasyMock.eq(MatchmakerShard.WIDENINTERVALMS));
+        EasyMock.replay(taskManager);
+        
+        task.add(createPlayer());
+        task.run();
+        
+        EasyMock.verify(gameFactory);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that players of distant ratings are not matched until they
+     * have waited long enough
+     */
+    @Test
+    public void runSeparatesDistantRatings() throws Exception {
+        MatchmakerTask task = new MatchmakerTask(0, 2, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 null);
+        EasyMock.replay(gameFactory);
+        taskManager.scheduleTask(task);
+        taskManager.scheduleTask(EasyMock.isA(Task.class), 
+                                 EasyMock.eq(MatchmakerShard.WIDENINTERVALMS));
+        EasyMock.replay(taskManager);
+        
+        task.add(createPlayer(1000));
+        task.add(createPlayer(1800));
+        task.run();
+        
+        EasyMock.verify(gameFactory);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that players of distant ratings are matched once they have
+     * waited long enough, with the teams dealt by rating
+     */
+    @Test
+    public void runWidensDistantRatings() throws Exception {
+        MatchmakerTask task = new MatchmakerTask(0, 2, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 null);
+        ManagedReference<SnowmanPlayer> low = createPlayer(1000);
+        ManagedReference<SnowmanPlayer> high = createPlayer(1800);
+        
+        SnowmanGame game = EasyMock.createMock(SnowmanGame.class);
+        game.addPlayer(high.get(), ETeamColor.Red);
+        game.addPlayer(low.get(), ETeamColor.Blue);
+        game.sendMapInfo();
+        EasyMock.replay(game);
+        EasyMock.expect(gameFactory.createSnowmanGame("Game0-0", 2,
+                                                      entityFactory)).andReturn(game);
+        EasyMock.replay(gameFactory);
+        taskManager.scheduleTask(task);
+        EasyMock.replay(taskManager);
+        
+        long waited = 10 * MatchmakerShard.WIDENINTERVALMS;
+        task.add(waiting(low, waited));
+        task.add(waiting(high, waited));
+        task.run();
+        
+        EasyMock.verify(game);
+        EasyMock.verify(gameFactory);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that players of near ratings are matched right away
+     */
+    @Test
+    public void runMatchesNearRatings() throws Exception {
+        MatchmakerTask task = new MatchmakerTask(0, 2, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 null);
+        SnowmanGame game = EasyMock.createNiceMock(SnowmanGame.class);
+        EasyMock.replay(game);
+        EasyMock.expect(gameFactory.createSnowmanGame("Game0-0", 2,
+                                                      entityFactory)).andReturn(game);
+        EasyMock.replay(gameFactory);
+        taskManager.scheduleTask(task);
+        EasyMock.replay(taskManager);
+        
+        task.add(createPlayer(1510));
+        task.add(createPlayer(1540));
+        task.run();
+        
+        EasyMock.verify(gameFactory);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that players left over after two widenings in a matchmaker
+     * are handed to the overflow matchmaker
+     */
+    @Test
+    public void runHandsLeftoversToOverflow() throws Exception {
+        MatchmakerTask overflow = new MatchmakerTask(1, 2, 0, 0, 
+                                                     gameFactory, entityFactory,
+                                                     null);
+        MatchmakerTask task = new MatchmakerTask(0, 2, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 overflow);
+        EasyMock.replay(gameFactory);
+        taskManager.scheduleTask(task);
+        taskManager.scheduleTask(overflow);
+        EasyMock.replay(taskManager);
+        
+        task.add(waiting(createPlayer(), MatchmakerShard.HANDOFFMS));
+        task.run();
+        
+        EasyMock.verify(gameFactory);
+        EasyMock.verify(taskManager);
+    }
+    
+    /**
+     * Verify that players are kept and matched more widely by their own
+     * matchmaker until they have waited there long enough to be handed
+     * to the overflow matchmaker
+     */
+    @Test
+    public void runWidensBeforeOverflow() throws Exception {
+        MatchmakerTask overflow = new MatchmakerTask(1, 2, 0, 0, 
+                                                     gameFactory, entityFactory,
+                                                     null);
+        MatchmakerTask task = new MatchmakerTask(0, 2, 0, 0, 
+                                                 gameFactory, entityFactory,
+                                                 overflow);
+        EasyMock.replay(gameFactory);
+        taskManager.scheduleTask(task);
+        taskManager.scheduleTask(EasyMock.isA(Task.class), 
+                                 EasyMock.eq(MatchmakerShard.WIDENINTERVALMS));
+        EasyMock.replay(taskManager);
+        
+        task.add(waiting(createPlayer(), MatchmakerShard.WIDENINTERVALMS));
+        task.run();
+        
+        EasyMock.verify(gameFactory);
+        EasyMock.verify(taskManager);
+    }
+}